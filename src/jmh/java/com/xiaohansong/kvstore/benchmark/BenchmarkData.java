@@ -0,0 +1,87 @@
+package com.xiaohansong.kvstore.benchmark;
+
+import com.xiaohansong.kvstore.model.memtable.ArenaMemTable;
+import com.xiaohansong.kvstore.model.memtable.ChunkPool;
+import com.xiaohansong.kvstore.model.memtable.MemTable;
+import com.xiaohansong.kvstore.model.memtable.SkipListMemTable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * 基准测试的数据生成和临时目录
+ */
+public class BenchmarkData {
+
+    private static final ChunkPool CHUNK_POOL = new ChunkPool();
+
+    /**
+     * 内存表实现
+     *
+     * @param type skipList 或 arena
+     * @return
+     */
+    public static Supplier<MemTable> memTableFactory(String type) {
+        return "arena".equals(type) ? () -> new ArenaMemTable(CHUNK_POOL) : SkipListMemTable::new;
+    }
+
+    /**
+     * 生成固定长度的key，编号相邻的key字典序也相邻
+     *
+     * @param id
+     * @param keySize
+     * @return
+     */
+    public static String key(long id, int keySize) {
+        String digits = Long.toString(id);
+        char[] chars = new char[Math.max(keySize, digits.length() + 1)];
+        Arrays.fill(chars, '0');
+        chars[0] = 'k';
+        digits.getChars(0, digits.length(), chars, chars.length - digits.length());
+        return new String(chars);
+    }
+
+    /**
+     * 生成固定长度的随机值
+     *
+     * @param random
+     * @param valueSize
+     * @return
+     */
+    public static String value(Random random, int valueSize) {
+        char[] chars = new char[valueSize];
+        for (int i = 0; i < valueSize; i++) {
+            chars[i] = (char) ('a' + random.nextInt(26));
+        }
+        return new String(chars);
+    }
+
+    /**
+     * 新建临时数据目录
+     *
+     * @return 以分隔符结尾的目录路径
+     * @throws IOException
+     */
+    public static String newDataDir() throws IOException {
+        return Files.createTempDirectory("kvstore-jmh").toFile().getAbsolutePath() + File.separator;
+    }
+
+    /**
+     * 删除目录及其中的文件
+     *
+     * @param dir
+     */
+    public static void deleteDir(String dir) {
+        File[] files = new File(dir).listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        new File(dir).delete();
+    }
+}
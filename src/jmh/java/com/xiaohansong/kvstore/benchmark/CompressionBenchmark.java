@@ -0,0 +1,107 @@
+package com.xiaohansong.kvstore.benchmark;
+
+import com.xiaohansong.kvstore.model.command.Command;
+import com.xiaohansong.kvstore.model.command.SetCommand;
+import com.xiaohansong.kvstore.model.sstable.CompressionType;
+import com.xiaohansong.kvstore.model.sstable.SsTable;
+import com.xiaohansong.kvstore.utils.ConvertUtil;
+import com.xiaohansong.kvstore.utils.KeyUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 数据段压缩：对比不压缩和 LZ4 压缩的表的点查询(不使用数据块缓存)和全表遍历耗时，
+ * 准备数据时在输出中打印一行表文件大小和相对不压缩的压缩比
+ */
+@BenchmarkMode(Mode.AverageTime)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CompressionBenchmark {
+
+    @Param({"200000"})
+    public int keyCount;
+
+    @Param({"64"})
+    public int partSize;
+
+    @Param({"NONE", "LZ4"})
+    public CompressionType compression;
+
+    private String dataDir;
+
+    private SsTable ssTable;
+
+    private byte[][] targets;
+
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dataDir = BenchmarkData.newDataDir();
+        TreeMap<byte[], Command> memoryTable = new TreeMap<>(KeyUtil.COMPARATOR);
+        Random random = new Random(42);
+        for (int i = 0; i < keyCount; i++) {
+            String key = String.format("user:%010d", i * 7L);
+            // 类似业务数据的半结构化值
+            String value = "{\"id\":" + i + ",\"name\":\"name" + random.nextInt(1000) + "\",\"city\":\"city"
+                    + random.nextInt(50) + "\",\"score\":" + random.nextInt(100000) + "}";
+            SetCommand command = new SetCommand(key, value);
+            memoryTable.put(command.getKey(), command);
+        }
+        targets = new byte[1024][];
+        for (int i = 0; i < targets.length; i++) {
+            targets[i] = ConvertUtil.toBytes(String.format("user:%010d", random.nextInt(keyCount * 7)));
+        }
+        String rawPath = dataDir + CompressionType.NONE + ".raw";
+        SsTable.createFromMemoryTable(rawPath, partSize, 0, CompressionType.NONE, memoryTable).close();
+        String path = dataDir + compression + ".table";
+        SsTable.createFromMemoryTable(path, partSize, 0, compression, memoryTable).close();
+        ssTable = SsTable.createFromFile(path);
+        long rawSize = new File(rawPath).length();
+        System.out.printf("%n%s: fileSize=%d, rawSize=%d, ratio=%.2f%n", compression, ssTable.getFileSize(), rawSize,
+                rawSize / (double) ssTable.getFileSize());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        ssTable.close();
+        BenchmarkData.deleteDir(dataDir);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public Command query() {
+        return ssTable.query(targets[next++ & (targets.length - 1)]);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public long scan() {
+        long keyBytes = 0;
+        Iterator<Command> iterator = ssTable.iterator();
+        while (iterator.hasNext()) {
+            keyBytes += iterator.next().getKey().length;
+        }
+        return keyBytes;
+    }
+}
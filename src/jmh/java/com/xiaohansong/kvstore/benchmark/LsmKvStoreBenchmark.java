@@ -0,0 +1,160 @@
+package com.xiaohansong.kvstore.benchmark;
+
+import com.xiaohansong.kvstore.service.KvStore;
+import com.xiaohansong.kvstore.service.LsmKvStore;
+import com.xiaohansong.kvstore.service.StoreOptions;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 单线程读写：顺序和随机写入，以及分布在多个ssTable上的命中和未命中查询
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LsmKvStoreBenchmark {
+
+    /**
+     * 写入测试的状态，每轮使用一个新的空数据库
+     */
+    @State(Scope.Benchmark)
+    public static class WriteState {
+
+        @Param({"16"})
+        public int keySize;
+
+        @Param({"100", "1024"})
+        public int valueSize;
+
+        @Param({"10000"})
+        public int storeThreshold;
+
+        @Param({"16"})
+        public int partSize;
+
+        @Param({"skipList", "arena"})
+        public String memTable;
+
+        String dataDir;
+
+        KvStore kvStore;
+
+        String value;
+
+        long nextId;
+
+        @Setup(Level.Iteration)
+        public void setUp() throws IOException {
+            dataDir = BenchmarkData.newDataDir();
+            kvStore = new LsmKvStore(StoreOptions.builder()
+                    .dataDir(dataDir)
+                    .storeThreshold(storeThreshold)
+                    .memTableBytes(Long.MAX_VALUE)
+                    .memTableFactory(BenchmarkData.memTableFactory(memTable))
+                    .partSize(partSize)
+                    .build());
+            value = BenchmarkData.value(new Random(42), valueSize);
+            nextId = 0;
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown() throws IOException {
+            kvStore.close();
+            BenchmarkData.deleteDir(dataDir);
+        }
+    }
+
+    /**
+     * 查询测试的状态，预先写入 tables 个ssTable的数据，不合并
+     */
+    @State(Scope.Benchmark)
+    public static class ReadState {
+
+        @Param({"16"})
+        public int keySize;
+
+        @Param({"100"})
+        public int valueSize;
+
+        @Param({"10000"})
+        public int storeThreshold;
+
+        @Param({"16"})
+        public int partSize;
+
+        @Param({"1", "8"})
+        public int tables;
+
+        String dataDir;
+
+        KvStore kvStore;
+
+        int keyCount;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            dataDir = BenchmarkData.newDataDir();
+            kvStore = new LsmKvStore(StoreOptions.builder()
+                    .dataDir(dataDir)
+                    .storeThreshold(storeThreshold)
+                    .memTableBytes(Long.MAX_VALUE)
+                    .partSize(partSize)
+                    .level0CompactionTrigger(Integer.MAX_VALUE)
+                    .build());
+            Random random = new Random(42);
+            // 多写一个key，最后一个内存表也会持久化
+            keyCount = storeThreshold * tables + 1;
+            for (int i = 0; i < keyCount; i++) {
+                kvStore.set(BenchmarkData.key(i, keySize), BenchmarkData.value(random, valueSize));
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            kvStore.close();
+            BenchmarkData.deleteDir(dataDir);
+        }
+    }
+
+    @Benchmark
+    public void sequentialSet(WriteState state) {
+        state.kvStore.set(BenchmarkData.key(state.nextId++, state.keySize), state.value);
+    }
+
+    @Benchmark
+    public void randomSet(WriteState state) {
+        long id = ThreadLocalRandom.current().nextInt(Integer.MAX_VALUE);
+        state.kvStore.set(BenchmarkData.key(id, state.keySize), state.value);
+    }
+
+    @Benchmark
+    public String getHit(ReadState state) {
+        int id = ThreadLocalRandom.current().nextInt(state.keyCount);
+        return state.kvStore.get(BenchmarkData.key(id, state.keySize));
+    }
+
+    @Benchmark
+    public String getMiss(ReadState state) {
+        // 在所有ssTable的key范围内但不存在的key，需要布隆过滤器排除
+        int id = ThreadLocalRandom.current().nextInt(state.keyCount);
+        return state.kvStore.get(BenchmarkData.key(id, state.keySize) + "#");
+    }
+}
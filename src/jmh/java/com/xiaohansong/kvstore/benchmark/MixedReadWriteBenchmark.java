@@ -0,0 +1,94 @@
+package com.xiaohansong.kvstore.benchmark;
+
+import com.xiaohansong.kvstore.service.KvStore;
+import com.xiaohansong.kvstore.service.LsmKvStore;
+import com.xiaohansong.kvstore.service.StoreOptions;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 多线程混合读写：3个线程随机查询，1个线程随机写入，同时有后台持久化和合并
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Group)
+public class MixedReadWriteBenchmark {
+
+    @Param({"16"})
+    public int keySize;
+
+    @Param({"100"})
+    public int valueSize;
+
+    @Param({"10000"})
+    public int storeThreshold;
+
+    @Param({"16"})
+    public int partSize;
+
+    @Param({"100000"})
+    public int keyCount;
+
+    private String dataDir;
+
+    private KvStore kvStore;
+
+    private String value;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dataDir = BenchmarkData.newDataDir();
+        kvStore = new LsmKvStore(StoreOptions.builder()
+                .dataDir(dataDir)
+                .storeThreshold(storeThreshold)
+                .memTableBytes(Long.MAX_VALUE)
+                .partSize(partSize)
+                .build());
+        Random random = new Random(42);
+        value = BenchmarkData.value(random, valueSize);
+        for (int i = 0; i < keyCount; i++) {
+            kvStore.set(BenchmarkData.key(i, keySize), value);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        kvStore.close();
+        BenchmarkData.deleteDir(dataDir);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(3)
+    public String get() {
+        return kvStore.get(BenchmarkData.key(ThreadLocalRandom.current().nextInt(keyCount), keySize));
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public void set() {
+        kvStore.set(BenchmarkData.key(ThreadLocalRandom.current().nextInt(keyCount), keySize), value);
+    }
+}
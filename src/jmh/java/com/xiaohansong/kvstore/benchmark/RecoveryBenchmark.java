@@ -0,0 +1,75 @@
+package com.xiaohansong.kvstore.benchmark;
+
+import com.xiaohansong.kvstore.service.KvStore;
+import com.xiaohansong.kvstore.service.LsmKvStore;
+import com.xiaohansong.kvstore.service.StoreOptions;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 打开数据库时回放WAL的耗时，数据全部在WAL中
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RecoveryBenchmark {
+
+    @Param({"16"})
+    public int keySize;
+
+    @Param({"100"})
+    public int valueSize;
+
+    @Param({"100000"})
+    public int records;
+
+    private StoreOptions options;
+
+    private String dataDir;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dataDir = BenchmarkData.newDataDir();
+        // 持久化阈值大于写入的数量，数据不会持久化到ssTable
+        options = StoreOptions.builder()
+                .dataDir(dataDir)
+                .storeThreshold(records + 1)
+                .memTableBytes(Long.MAX_VALUE)
+                .partSize(16)
+                .build();
+        KvStore kvStore = new LsmKvStore(options);
+        Random random = new Random(42);
+        for (int i = 0; i < records; i++) {
+            kvStore.set(BenchmarkData.key(random.nextInt(records), keySize), BenchmarkData.value(random, valueSize));
+        }
+        kvStore.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkData.deleteDir(dataDir);
+    }
+
+    @Benchmark
+    public void restoreFromWal() throws IOException {
+        new LsmKvStore(options).close();
+    }
+}
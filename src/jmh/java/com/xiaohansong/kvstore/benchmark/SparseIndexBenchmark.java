@@ -0,0 +1,88 @@
+package com.xiaohansong.kvstore.benchmark;
+
+import com.xiaohansong.kvstore.model.sstable.SparseIndex;
+import com.xiaohansong.kvstore.utils.ConvertUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 稀疏索引查找：数据段数量从 1千 增长到 100万 时，二分查找的耗时基本不变，
+ * 而原来遍历 keySet 的方式耗时随数据段数量线性增长
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SparseIndexBenchmark {
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int segmentCount;
+
+    private SparseIndex index;
+
+    private TreeMap<String, Integer> treeIndex;
+
+    private String[] targets;
+
+    private byte[][] binaryTargets;
+
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SparseIndex.Builder builder = new SparseIndex.Builder(segmentCount);
+        treeIndex = new TreeMap<>();
+        for (int i = 0; i < segmentCount; i++) {
+            String key = String.format("key%010d", i * 16L);
+            builder.add(ConvertUtil.toBytes(key), i * 4096L, 4096);
+            treeIndex.put(key, i);
+        }
+        index = builder.build();
+
+        targets = new String[1024];
+        binaryTargets = new byte[targets.length][];
+        Random random = new Random(42);
+        for (int i = 0; i < targets.length; i++) {
+            targets[i] = String.format("key%010d", (long) random.nextInt(segmentCount * 16));
+            binaryTargets[i] = ConvertUtil.toBytes(targets[i]);
+        }
+    }
+
+    @Benchmark
+    public int binary() {
+        return index.floor(binaryTargets[next++ & (binaryTargets.length - 1)]);
+    }
+
+    /**
+     * 原来 SsTable.query 中的查找方式
+     */
+    @Benchmark
+    public int linear() {
+        String key = targets[next++ & (targets.length - 1)];
+        Integer last = null;
+        for (String k : treeIndex.keySet()) {
+            if (k.compareTo(key) <= 0) {
+                last = treeIndex.get(k);
+            } else {
+                break;
+            }
+        }
+        return last == null ? 0 : last;
+    }
+}
@@ -0,0 +1,104 @@
+package com.xiaohansong.kvstore.benchmark;
+
+import com.xiaohansong.kvstore.model.command.Command;
+import com.xiaohansong.kvstore.model.command.SetCommand;
+import com.xiaohansong.kvstore.model.iterator.PeekingIterator;
+import com.xiaohansong.kvstore.model.sstable.BloomFilter;
+import com.xiaohansong.kvstore.model.sstable.CompressionType;
+import com.xiaohansong.kvstore.model.sstable.SsTable;
+import com.xiaohansong.kvstore.utils.KeyUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 内存表持久化成ssTable的耗时
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SsTableFlushBenchmark {
+
+    @Param({"16"})
+    public int keySize;
+
+    @Param({"100", "1024"})
+    public int valueSize;
+
+    @Param({"10000"})
+    public int storeThreshold;
+
+    @Param({"16", "64"})
+    public int partSize;
+
+    @Param({"NONE", "LZ4"})
+    public CompressionType compression;
+
+    private String dataDir;
+
+    private TreeMap<byte[], Command> memoryTable;
+
+    private int tableId;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dataDir = BenchmarkData.newDataDir();
+        memoryTable = new TreeMap<>(KeyUtil.COMPARATOR);
+        Random random = new Random(42);
+        for (int i = 0; i < storeThreshold; i++) {
+            String key = BenchmarkData.key(i, keySize);
+            SetCommand command = new SetCommand(key, BenchmarkData.value(random, valueSize));
+            memoryTable.put(command.getKey(), command);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkData.deleteDir(dataDir);
+    }
+
+    @Benchmark
+    public long createFromMemoryTable() throws IOException {
+        String path = dataDir + (tableId++) + ".table";
+        SsTable ssTable = SsTable.createFromMemoryTable(path, partSize, BloomFilter.DEFAULT_BITS_PER_KEY,
+                compression, memoryTable);
+        long fileSize = ssTable.getFileSize();
+        ssTable.close();
+        new File(path).delete();
+        return fileSize;
+    }
+
+    /**
+     * 数据段在 ForkJoinPool.commonPool() 中并行编码和压缩
+     */
+    @Benchmark
+    public long createParallel() throws IOException {
+        String path = dataDir + (tableId++) + ".table";
+        SsTable ssTable = SsTable.createFromIterator(path, partSize, BloomFilter.DEFAULT_BITS_PER_KEY, 0, compression,
+                new PeekingIterator<>(memoryTable.values().iterator()), Long.MAX_VALUE, ForkJoinPool.commonPool());
+        long fileSize = ssTable.getFileSize();
+        ssTable.close();
+        new File(path).delete();
+        return fileSize;
+    }
+}
@@ -0,0 +1,121 @@
+package com.xiaohansong.kvstore.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 对数线性分桶的直方图，与 HdrHistogram 的分桶方式相同
+ * <p>
+ * 小于 {@link #SUB_BUCKET_COUNT} 的值每个值一个桶；更大的值按2的幂分段，每段再等分为 {@link #SUB_BUCKET_COUNT} 个桶，
+ * 相对误差不超过 1/{@link #SUB_BUCKET_COUNT}。记录一个值只需要计算桶序号和几次原子累加，不加锁、不分配内存，
+ * 可以在生产环境中一直开启
+ */
+public class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+
+    /**
+     * 每个2的幂区间内的桶数
+     */
+    public static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+    private final LongAdder count = new LongAdder();
+
+    private final LongAdder sum = new LongAdder();
+
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * 记录一个值，负数按0记录
+     *
+     * @param value
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.incrementAndGet(bucketIndex(value));
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * 记录从 startNanos 到现在的耗时(纳秒)
+     *
+     * @param startNanos {@link System#nanoTime()} 的返回值
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * 当前数据的快照，并发记录时各个统计值之间可能有微小的不一致
+     *
+     * @return
+     */
+    public HistogramSnapshot snapshot() {
+        long[] bucketCounts = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            bucketCounts[i] = counts.get(i);
+            total += bucketCounts[i];
+        }
+        long maxValue = max.get();
+        return new HistogramSnapshot(total, sum.sum(), maxValue,
+                percentile(bucketCounts, total, maxValue, 0.5),
+                percentile(bucketCounts, total, maxValue, 0.9),
+                percentile(bucketCounts, total, maxValue, 0.99),
+                percentile(bucketCounts, total, maxValue, 0.999));
+    }
+
+    /**
+     * 第 ratio 分位的值，取所在桶的上界
+     */
+    private static long percentile(long[] bucketCounts, long total, long maxValue, double ratio) {
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * ratio);
+        long seen = 0;
+        for (int i = 0; i < bucketCounts.length; i++) {
+            seen += bucketCounts[i];
+            if (seen >= rank) {
+                return Math.min(maxValue, bucketUpperBound(i));
+            }
+        }
+        return maxValue;
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int bucket = exponent - SUB_BUCKET_BITS + 1;
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+        return bucket * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    static long bucketLowerBound(int index) {
+        int bucket = index / SUB_BUCKET_COUNT;
+        int subBucket = index % SUB_BUCKET_COUNT;
+        if (bucket == 0) {
+            return subBucket;
+        }
+        return (long) (SUB_BUCKET_COUNT + subBucket) << (bucket - 1);
+    }
+
+    static long bucketUpperBound(int index) {
+        return index + 1 < BUCKET_COUNT ? bucketLowerBound(index + 1) - 1 : Long.MAX_VALUE;
+    }
+}
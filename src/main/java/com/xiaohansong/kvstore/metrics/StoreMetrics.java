@@ -0,0 +1,106 @@
+package com.xiaohansong.kvstore.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 数据库的指标，由读写路径、WAL、ssTable和后台任务直接累加
+ * 各项指标都是无锁的计数器或直方图，当前状态类的指标(内存表大小、表数量等)在 {@link StoreStats} 生成时读取
+ */
+public class StoreMetrics {
+
+    private final Histogram getLatency = new Histogram();
+
+    private final Histogram setLatency = new Histogram();
+
+    private final Histogram rmLatency = new Histogram();
+
+    private final Histogram writeBatchLatency = new Histogram();
+
+    /**
+     * 批量查询的耗时，每次批量查询记录一次
+     */
+    private final Histogram multiGetLatency = new Histogram();
+
+    /**
+     * 每次查询读取的ssTable数量，在内存表中找到时为0
+     */
+    private final Histogram tablesPerGet = new Histogram();
+
+    private final Histogram walSyncLatency = new Histogram();
+
+    private final Histogram flushLatency = new Histogram();
+
+    /**
+     * 每次持久化生成的ssTable大小(字节)
+     */
+    private final Histogram flushBytes = new Histogram();
+
+    private final Histogram compactionLatency = new Histogram();
+
+    /**
+     * 从ssTable文件中读取的字节数，不包括命中数据块缓存的读取
+     */
+    private final LongAdder bytesRead = new LongAdder();
+
+    /**
+     * 写入WAL的字节数
+     */
+    private final LongAdder walBytesWritten = new LongAdder();
+
+    /**
+     * 合并生成的ssTable字节数
+     */
+    private final LongAdder compactionBytesWritten = new LongAdder();
+
+    public Histogram getGetLatency() {
+        return getLatency;
+    }
+
+    public Histogram getSetLatency() {
+        return setLatency;
+    }
+
+    public Histogram getRmLatency() {
+        return rmLatency;
+    }
+
+    public Histogram getWriteBatchLatency() {
+        return writeBatchLatency;
+    }
+
+    public Histogram getMultiGetLatency() {
+        return multiGetLatency;
+    }
+
+    public Histogram getTablesPerGet() {
+        return tablesPerGet;
+    }
+
+    public Histogram getWalSyncLatency() {
+        return walSyncLatency;
+    }
+
+    public Histogram getFlushLatency() {
+        return flushLatency;
+    }
+
+    public Histogram getFlushBytes() {
+        return flushBytes;
+    }
+
+    public Histogram getCompactionLatency() {
+        return compactionLatency;
+    }
+
+    public LongAdder getBytesRead() {
+        return bytesRead;
+    }
+
+    public LongAdder getWalBytesWritten() {
+        return walBytesWritten;
+    }
+
+    public LongAdder getCompactionBytesWritten() {
+        return compactionBytesWritten;
+    }
+}
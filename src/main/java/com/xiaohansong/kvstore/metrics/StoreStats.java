@@ -0,0 +1,88 @@
+package com.xiaohansong.kvstore.metrics;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * 数据库指标的快照，耗时单位为纳秒，数据量单位为字节
+ */
+@Getter
+@Builder
+@ToString
+public class StoreStats {
+
+    private final HistogramSnapshot getLatency;
+
+    private final HistogramSnapshot setLatency;
+
+    private final HistogramSnapshot rmLatency;
+
+    private final HistogramSnapshot writeBatchLatency;
+
+    private final HistogramSnapshot multiGetLatency;
+
+    /**
+     * 每次查询读取的ssTable数量
+     */
+    private final HistogramSnapshot tablesPerGet;
+
+    private final HistogramSnapshot walSyncLatency;
+
+    private final HistogramSnapshot flushLatency;
+
+    /**
+     * 每次持久化生成的ssTable大小，总和为持久化写入的字节数
+     */
+    private final HistogramSnapshot flushBytes;
+
+    private final HistogramSnapshot compactionLatency;
+
+    /**
+     * 从ssTable文件中读取的字节数，不包括命中数据块缓存的读取
+     */
+    private final long bytesRead;
+
+    private final long walBytesWritten;
+
+    private final long compactionBytesWritten;
+
+    /**
+     * 内存表和不可变内存表的数据量
+     */
+    private final long memTableBytes;
+
+    private final int immutableMemTableCount;
+
+    private final int level0TableCount;
+
+    private final int tableCount;
+
+    /**
+     * 值日志文件的总大小
+     */
+    private final long valueLogBytes;
+
+    private final long blockCacheHitCount;
+
+    private final long blockCacheMissCount;
+
+    /**
+     * 数据块缓存命中率，未启用缓存或没有查询时为0
+     */
+    private final double blockCacheHitRate;
+
+    private final long blockCacheUsage;
+
+    private final long bloomUsefulCount;
+
+    private final long bloomFalsePositiveCount;
+
+    private final long delayedWriteCount;
+
+    private final long delayedWriteNanos;
+
+    private final long stoppedWriteCount;
+
+    private final long stoppedWriteNanos;
+}
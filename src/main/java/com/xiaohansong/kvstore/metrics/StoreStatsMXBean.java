@@ -0,0 +1,9 @@
+package com.xiaohansong.kvstore.metrics;
+
+/**
+ * 通过 JMX 暴露的数据库指标，{@link StoreStats} 和其中的直方图映射为 CompositeData
+ */
+public interface StoreStatsMXBean {
+
+    StoreStats getStats();
+}
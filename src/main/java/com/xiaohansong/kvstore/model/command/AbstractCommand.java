@@ -1,6 +1,6 @@
 package com.xiaohansong.kvstore.model.command;
 
-import com.alibaba.fastjson.JSON;
+import com.xiaohansong.kvstore.utils.ConvertUtil;
 import lombok.Getter;
 import lombok.Setter;
 
@@ -16,12 +16,17 @@ public abstract class AbstractCommand implements Command {
      */
     private CommandTypeEnum type;
 
+    /**
+     * 序列号
+     */
+    private long sequence;
+
     public AbstractCommand(CommandTypeEnum type) {
         this.type = type;
     }
 
     @Override
     public String toString() {
-        return JSON.toJSONString(this);
+        return type + "{key=" + ConvertUtil.toString(getKey()) + ", sequence=" + sequence + "}";
     }
 }
@@ -9,5 +9,17 @@ public interface Command {
      * 获取数据key
      * @return
      */
-    String getKey();
+    byte[] getKey();
+
+    /**
+     * 获取序列号，写入时按顺序分配，越大越新；旧格式的数据没有序列号，为0
+     * @return
+     */
+    long getSequence();
+
+    /**
+     * 设置序列号
+     * @param sequence
+     */
+    void setSequence(long sequence);
 }
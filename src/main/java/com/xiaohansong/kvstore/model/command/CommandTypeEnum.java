@@ -8,9 +8,41 @@ public enum CommandTypeEnum {
     /**
      * 保存命令
      */
-    SET,
+    SET((byte) 1),
     /**
      * 删除命令
      */
-    RM
+    RM((byte) 2),
+    /**
+     * 值保存在值日志中的保存命令，只出现在ssTable中
+     */
+    VALUE_POINTER((byte) 3);
+
+    /**
+     * 二进制编码中使用的类型字节
+     */
+    private final byte code;
+
+    CommandTypeEnum(byte code) {
+        this.code = code;
+    }
+
+    public byte getCode() {
+        return code;
+    }
+
+    /**
+     * 根据类型字节获取命令类型
+     *
+     * @param code
+     * @return
+     */
+    public static CommandTypeEnum fromCode(byte code) {
+        for (CommandTypeEnum type : values()) {
+            if (type.code == code) {
+                return type;
+            }
+        }
+        throw new IllegalArgumentException("未知的命令类型: " + code);
+    }
 }
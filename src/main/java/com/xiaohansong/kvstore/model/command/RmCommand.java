@@ -1,5 +1,6 @@
 package com.xiaohansong.kvstore.model.command;
 
+import com.xiaohansong.kvstore.utils.ConvertUtil;
 import lombok.Getter;
 import lombok.Setter;
 
@@ -13,10 +14,14 @@ public class RmCommand extends AbstractCommand {
     /**
      * 数据key
      */
-    private String key;
+    private byte[] key;
 
-    public RmCommand(String key) {
+    public RmCommand(byte[] key) {
         super(CommandTypeEnum.RM);
         this.key = key;
     }
+
+    public RmCommand(String key) {
+        this(ConvertUtil.toBytes(key));
+    }
 }
@@ -1,5 +1,6 @@
 package com.xiaohansong.kvstore.model.command;
 
+import com.xiaohansong.kvstore.utils.ConvertUtil;
 import lombok.Getter;
 import lombok.Setter;
 
@@ -13,16 +14,26 @@ public class SetCommand extends AbstractCommand {
     /**
      * 数据key
      */
-    private String key;
+    private byte[] key;
 
     /**
      * 数据值
      */
-    private String value;
+    private byte[] value;
 
-    public SetCommand(String key, String value) {
+    public SetCommand(byte[] key, byte[] value) {
         super(CommandTypeEnum.SET);
         this.key = key;
         this.value = value;
     }
+
+    public SetCommand(String key, String value) {
+        this(ConvertUtil.toBytes(key), ConvertUtil.toBytes(value));
+    }
+
+    @Override
+    public String toString() {
+        return getType() + "{key=" + ConvertUtil.toString(key) + ", value=" + ConvertUtil.toString(value)
+                + ", sequence=" + getSequence() + "}";
+    }
 }
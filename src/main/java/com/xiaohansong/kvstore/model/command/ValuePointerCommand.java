@@ -0,0 +1,37 @@
+package com.xiaohansong.kvstore.model.command;
+
+import com.xiaohansong.kvstore.model.vlog.ValuePointer;
+import com.xiaohansong.kvstore.utils.ConvertUtil;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * 值分离后的保存命令，值保存在值日志中，ssTable中只保存值的位置
+ * 持久化时由 {@link com.xiaohansong.kvstore.model.vlog.ValueSeparator} 生成，不会出现在WAL和内存表中
+ */
+@Getter
+@Setter
+public class ValuePointerCommand extends AbstractCommand {
+
+    /**
+     * 数据key
+     */
+    private byte[] key;
+
+    /**
+     * 值在值日志中的位置
+     */
+    private ValuePointer pointer;
+
+    public ValuePointerCommand(byte[] key, ValuePointer pointer) {
+        super(CommandTypeEnum.VALUE_POINTER);
+        this.key = key;
+        this.pointer = pointer;
+    }
+
+    @Override
+    public String toString() {
+        return getType() + "{key=" + ConvertUtil.toString(key) + ", pointer=" + pointer
+                + ", sequence=" + getSequence() + "}";
+    }
+}
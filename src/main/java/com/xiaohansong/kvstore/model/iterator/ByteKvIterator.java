@@ -0,0 +1,15 @@
+package com.xiaohansong.kvstore.model.iterator;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * 范围查询结果的迭代器，按key的无符号字节序递增返回键值对
+ * 迭代器持有ssTable的引用，使用完后必须关闭
+ */
+public interface ByteKvIterator extends Iterator<Map.Entry<byte[], byte[]>>, Closeable {
+
+    @Override
+    void close();
+}
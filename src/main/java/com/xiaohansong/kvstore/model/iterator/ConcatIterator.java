@@ -0,0 +1,40 @@
+package com.xiaohansong.kvstore.model.iterator;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Supplier;
+
+/**
+ * 依次遍历多个迭代器，前一个遍历完后才创建下一个
+ * 用于遍历同一层级中key范围互不重叠的多个ssTable
+ *
+ * @param <T>
+ */
+public class ConcatIterator<T> implements Iterator<T> {
+
+    private final Iterator<Supplier<Iterator<T>>> suppliers;
+
+    private Iterator<T> current = Collections.emptyIterator();
+
+    public ConcatIterator(List<Supplier<Iterator<T>>> suppliers) {
+        this.suppliers = suppliers.iterator();
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!current.hasNext() && suppliers.hasNext()) {
+            current = suppliers.next().get();
+        }
+        return current.hasNext();
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return current.next();
+    }
+}
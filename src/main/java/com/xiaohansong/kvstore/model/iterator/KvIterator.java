@@ -0,0 +1,15 @@
+package com.xiaohansong.kvstore.model.iterator;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * 范围查询结果的迭代器，按key递增的顺序返回键值对
+ * 迭代器持有ssTable的引用，使用完后必须关闭
+ */
+public interface KvIterator extends Iterator<Map.Entry<String, String>>, Closeable {
+
+    @Override
+    void close();
+}
@@ -0,0 +1,98 @@
+package com.xiaohansong.kvstore.model.iterator;
+
+import com.xiaohansong.kvstore.utils.KeyUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * 多个范围查询结果的归并迭代器，用于合并多个分片的范围查询
+ * 输入的每个迭代器都按key递增排列；多个迭代器中有相同的key时只返回列表中最靠前的迭代器的数据
+ * 关闭时关闭全部输入的迭代器
+ */
+public class KvMergeIterator implements ByteKvIterator {
+
+    private final List<ByteKvIterator> iterators;
+
+    private final PriorityQueue<Source> heap;
+
+    public KvMergeIterator(List<ByteKvIterator> iterators) {
+        this.iterators = new ArrayList<>(iterators);
+        this.heap = new PriorityQueue<>(Math.max(1, iterators.size()));
+        for (int i = 0; i < iterators.size(); i++) {
+            offer(new Source(new PeekingIterator<>(iterators.get(i)), i));
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !heap.isEmpty();
+    }
+
+    @Override
+    public Map.Entry<byte[], byte[]> next() {
+        if (heap.isEmpty()) {
+            throw new NoSuchElementException();
+        }
+        Source first = heap.poll();
+        Map.Entry<byte[], byte[]> entry = first.iterator.next();
+        offer(first);
+        // 跳过其他迭代器中相同的key
+        while (!heap.isEmpty() && KeyUtil.compare(heap.peek().iterator.peek().getKey(), entry.getKey()) == 0) {
+            Source duplicate = heap.poll();
+            duplicate.iterator.next();
+            offer(duplicate);
+        }
+        return entry;
+    }
+
+    private void offer(Source source) {
+        if (source.iterator.hasNext()) {
+            heap.add(source);
+        }
+    }
+
+    @Override
+    public void close() {
+        RuntimeException failure = null;
+        for (ByteKvIterator iterator : iterators) {
+            try {
+                iterator.close();
+            } catch (RuntimeException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * 归并的数据来源
+     */
+    private static class Source implements Comparable<Source> {
+
+        private final PeekingIterator<Map.Entry<byte[], byte[]>> iterator;
+
+        /**
+         * 来源序号，越小越优先
+         */
+        private final int order;
+
+        private Source(PeekingIterator<Map.Entry<byte[], byte[]>> iterator, int order) {
+            this.iterator = iterator;
+            this.order = order;
+        }
+
+        @Override
+        public int compareTo(Source other) {
+            int cmp = KeyUtil.compare(iterator.peek().getKey(), other.iterator.peek().getKey());
+            return cmp != 0 ? cmp : Integer.compare(order, other.order);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.xiaohansong.kvstore.model.iterator;
+
+import com.xiaohansong.kvstore.model.command.Command;
+import com.xiaohansong.kvstore.utils.KeyUtil;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * 多路归并迭代器
+ * 输入的每个迭代器都按key递增、同一个key按序列号递减排列，列表中越靠前的迭代器数据越新；
+ * 输出全部版本，按key递增、序列号递减排列，序列号相同(旧格式的数据没有序列号)时来源越新越靠前，
+ * 由调用方按快照决定保留哪些版本，见 {@link VersionFilterIterator} 和 {@link ScanIterator}
+ */
+public class MergeIterator implements Iterator<Command> {
+
+    private final PriorityQueue<Source> heap;
+
+    public MergeIterator(List<? extends Iterator<Command>> iterators) {
+        this.heap = new PriorityQueue<>(Math.max(1, iterators.size()));
+        for (int i = 0; i < iterators.size(); i++) {
+            PeekingIterator<Command> iterator = new PeekingIterator<>(iterators.get(i));
+            if (iterator.hasNext()) {
+                heap.add(new Source(iterator, i));
+            }
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !heap.isEmpty();
+    }
+
+    @Override
+    public Command next() {
+        if (heap.isEmpty()) {
+            throw new NoSuchElementException();
+        }
+        Source newest = heap.poll();
+        Command command = newest.iterator.next();
+        offer(newest);
+        return command;
+    }
+
+    private void offer(Source source) {
+        if (source.iterator.hasNext()) {
+            heap.add(source);
+        }
+    }
+
+    /**
+     * 归并的数据来源
+     */
+    private static class Source implements Comparable<Source> {
+
+        private final PeekingIterator<Command> iterator;
+
+        /**
+         * 数据来源的新旧顺序，越小越新
+         */
+        private final int order;
+
+        private Source(PeekingIterator<Command> iterator, int order) {
+            this.iterator = iterator;
+            this.order = order;
+        }
+
+        @Override
+        public int compareTo(Source other) {
+            Command command = iterator.peek();
+            Command otherCommand = other.iterator.peek();
+            int cmp = KeyUtil.compare(command.getKey(), otherCommand.getKey());
+            if (cmp != 0) {
+                return cmp;
+            }
+            cmp = Long.compare(otherCommand.getSequence(), command.getSequence());
+            return cmp != 0 ? cmp : Integer.compare(order, other.order);
+        }
+    }
+}
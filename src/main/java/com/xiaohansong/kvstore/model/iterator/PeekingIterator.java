@@ -0,0 +1,54 @@
+package com.xiaohansong.kvstore.model.iterator;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * 可以预读下一个元素的迭代器
+ *
+ * @param <T>
+ */
+public class PeekingIterator<T> implements Iterator<T> {
+
+    private final Iterator<? extends T> delegate;
+
+    private T next;
+
+    private boolean peeked;
+
+    public PeekingIterator(Iterator<? extends T> delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * 返回下一个元素，但不移动迭代器
+     *
+     * @return
+     */
+    public T peek() {
+        if (!peeked) {
+            if (!delegate.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            next = delegate.next();
+            peeked = true;
+        }
+        return next;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return peeked || delegate.hasNext();
+    }
+
+    @Override
+    public T next() {
+        if (!peeked) {
+            return delegate.next();
+        }
+        T result = next;
+        peeked = false;
+        next = null;
+        return result;
+    }
+}
@@ -0,0 +1,115 @@
+package com.xiaohansong.kvstore.model.iterator;
+
+import com.xiaohansong.kvstore.model.command.Command;
+import com.xiaohansong.kvstore.model.command.SetCommand;
+import com.xiaohansong.kvstore.model.command.ValuePointerCommand;
+import com.xiaohansong.kvstore.utils.KeyUtil;
+
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+
+/**
+ * 范围查询迭代器，每个key只返回快照可见的最新版本，跳过已删除的key，遇到 endKey 时结束
+ */
+public class ScanIterator implements ByteKvIterator {
+
+    private final Iterator<Command> merged;
+
+    private final byte[] endKey;
+
+    private final long sequence;
+
+    private final Runnable onClose;
+
+    /**
+     * 读取值日志中的值
+     */
+    private final Function<ValuePointerCommand, byte[]> valueReader;
+
+    private SetCommand next;
+
+    /**
+     * 上一个已经确定可见版本的key，同一个key更旧的版本需要跳过
+     */
+    private byte[] lastKey;
+
+    private boolean closed;
+
+    /**
+     * @param merged   归并后按key递增、同一个key按序列号递减的迭代器
+     * @param endKey   结束key(不包含)，为null时遍历到最后
+     * @param sequence 快照的序列号，只返回序列号小于等于该值的版本
+     * @param onClose  关闭时执行，用于释放资源，只执行一次
+     */
+    public ScanIterator(Iterator<Command> merged, byte[] endKey, long sequence, Runnable onClose) {
+        this(merged, endKey, sequence, onClose, command -> {
+            throw new IllegalStateException("没有值日志: " + command);
+        });
+    }
+
+    /**
+     * @param merged      归并后按key递增、同一个key按序列号递减的迭代器
+     * @param endKey      结束key(不包含)，为null时遍历到最后
+     * @param sequence    快照的序列号，只返回序列号小于等于该值的版本
+     * @param onClose     关闭时执行，用于释放资源，只执行一次
+     * @param valueReader 读取值日志中的值，只对最终返回的版本调用
+     */
+    public ScanIterator(Iterator<Command> merged, byte[] endKey, long sequence, Runnable onClose,
+                        Function<ValuePointerCommand, byte[]> valueReader) {
+        this.merged = merged;
+        this.endKey = endKey;
+        this.sequence = sequence;
+        this.onClose = onClose;
+        this.valueReader = valueReader;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (next == null && !closed) {
+            if (!merged.hasNext()) {
+                close();
+                break;
+            }
+            Command command = merged.next();
+            if (endKey != null && KeyUtil.compare(command.getKey(), endKey) >= 0) {
+                // 超出范围，提前释放资源
+                close();
+                break;
+            }
+            // 快照之后写入的版本，以及已经返回过可见版本的key的旧版本都不可见
+            if (command.getSequence() > sequence || Arrays.equals(command.getKey(), lastKey)) {
+                continue;
+            }
+            lastKey = command.getKey();
+            if (command instanceof SetCommand) {
+                next = (SetCommand) command;
+            } else if (command instanceof ValuePointerCommand) {
+                next = new SetCommand(command.getKey(), valueReader.apply((ValuePointerCommand) command));
+                next.setSequence(command.getSequence());
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public Map.Entry<byte[], byte[]> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Map.Entry<byte[], byte[]> entry = new AbstractMap.SimpleImmutableEntry<>(next.getKey(), next.getValue());
+        next = null;
+        return entry;
+    }
+
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            onClose.run();
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.xiaohansong.kvstore.model.iterator;
+
+import com.xiaohansong.kvstore.utils.ConvertUtil;
+
+import java.util.AbstractMap;
+import java.util.Map;
+
+/**
+ * 把 {@link ByteKvIterator} 返回的字节转换为 UTF-8 字符串
+ */
+public class StringKvIterator implements KvIterator {
+
+    private final ByteKvIterator delegate;
+
+    public StringKvIterator(ByteKvIterator delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return delegate.hasNext();
+    }
+
+    @Override
+    public Map.Entry<String, String> next() {
+        Map.Entry<byte[], byte[]> entry = delegate.next();
+        return new AbstractMap.SimpleImmutableEntry<>(ConvertUtil.toString(entry.getKey()),
+                ConvertUtil.toString(entry.getValue()));
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+}
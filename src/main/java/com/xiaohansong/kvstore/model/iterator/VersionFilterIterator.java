@@ -0,0 +1,90 @@
+package com.xiaohansong.kvstore.model.iterator;
+
+import com.xiaohansong.kvstore.model.command.Command;
+import com.xiaohansong.kvstore.model.command.RmCommand;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Consumer;
+
+/**
+ * 持久化和合并时丢弃不再需要的旧版本
+ * 同一个key如果存在序列号小于等于最早快照的较新版本，那么所有快照都看不到更旧的版本，可以丢弃；
+ * 输出到最底层时，所有快照都能看到的删除标记下面已经没有数据，删除标记本身也可以丢弃
+ */
+public class VersionFilterIterator implements Iterator<Command> {
+
+    private final Iterator<Command> delegate;
+
+    private final long smallestSnapshot;
+
+    private final boolean dropTombstones;
+
+    private byte[] currentKey;
+
+    /**
+     * 当前key上一个版本的序列号
+     */
+    private long lastSequenceForKey;
+
+    /**
+     * 丢弃命令时执行，可以为null
+     */
+    private final Consumer<Command> dropListener;
+
+    private Command next;
+
+    /**
+     * @param delegate         按key递增、同一个key按序列号递减的命令
+     * @param smallestSnapshot 最早的快照序列号，没有快照时为最新的序列号
+     * @param dropTombstones   是否可以丢弃删除标记，输出到最底层时为true
+     */
+    public VersionFilterIterator(Iterator<Command> delegate, long smallestSnapshot, boolean dropTombstones) {
+        this(delegate, smallestSnapshot, dropTombstones, null);
+    }
+
+    /**
+     * @param delegate         按key递增、同一个key按序列号递减的命令
+     * @param smallestSnapshot 最早的快照序列号，没有快照时为最新的序列号
+     * @param dropTombstones   是否可以丢弃删除标记，输出到最底层时为true
+     * @param dropListener     丢弃命令时执行，用于统计值日志中的垃圾，可以为null
+     */
+    public VersionFilterIterator(Iterator<Command> delegate, long smallestSnapshot, boolean dropTombstones,
+                                 Consumer<Command> dropListener) {
+        this.delegate = delegate;
+        this.smallestSnapshot = smallestSnapshot;
+        this.dropTombstones = dropTombstones;
+        this.dropListener = dropListener;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (next == null && delegate.hasNext()) {
+            Command command = delegate.next();
+            if (!Arrays.equals(command.getKey(), currentKey)) {
+                currentKey = command.getKey();
+                lastSequenceForKey = Long.MAX_VALUE;
+            }
+            boolean drop = lastSequenceForKey <= smallestSnapshot
+                    || (dropTombstones && command instanceof RmCommand && command.getSequence() <= smallestSnapshot);
+            lastSequenceForKey = command.getSequence();
+            if (!drop) {
+                next = command;
+            } else if (dropListener != null) {
+                dropListener.accept(command);
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public Command next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Command command = next;
+        next = null;
+        return command;
+    }
+}
@@ -0,0 +1,374 @@
+package com.xiaohansong.kvstore.model.memtable;
+
+import com.xiaohansong.kvstore.model.command.Command;
+import com.xiaohansong.kvstore.model.command.RmCommand;
+import com.xiaohansong.kvstore.model.command.SetCommand;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 堆外内存表，记录保存在从 {@link ChunkPool} 申请的直接内存块中，堆上只有内存块数组和保存跳表指针的几个大的 long 数组，
+ * 内存表的大小不影响GC；持久化完成后释放最后一个引用，全部内存块一次性归还到池中
+ * <p>
+ * 节点格式：sequence(long) | keyLen(int) | valueLen(int，删除命令为-1) | tower(int) | key | value，节点按8字节对齐；
+ * 节点指针为 内存块序号(高32位) | 块内偏移(低32位)，第0个内存块开头是头节点，指针为0，因此0同时表示空指针；
+ * tower 是节点每一层的 next 指针在指针数组中的起始位置，指针数组按段分配，位置为 段序号 | 段内偏移
+ * <p>
+ * 写入在内存表内串行执行，读取不加锁：指针通过 {@link AtomicLongArray} 读写，节点内容写完后才以 volatile 写链接到跳表中，
+ * 读线程以 volatile 读取到指针之后再读取节点内容，因此读到的节点总是完整的
+ */
+public class ArenaMemTable implements MemTable {
+
+    private static final int MAX_HEIGHT = 16;
+
+    private static final long HEAD = 0;
+
+    private static final long NIL = 0;
+
+    private static final int KEY_LEN_OFFSET = 8;
+
+    private static final int VALUE_LEN_OFFSET = 12;
+
+    private static final int TOWER_OFFSET = 16;
+
+    private static final int KEY_OFFSET = 20;
+
+    private static final int RM_VALUE_LEN = -1;
+
+    /**
+     * 每段指针数组的长度
+     */
+    private static final int TOWER_SEGMENT_SHIFT = 12;
+
+    private static final int TOWER_SEGMENT_SIZE = 1 << TOWER_SEGMENT_SHIFT;
+
+    private final ChunkPool pool;
+
+    /**
+     * 全部内存块，只在写入时追加，整体替换后发布给读线程
+     */
+    private volatile ByteBuffer[] chunks = new ByteBuffer[0];
+
+    /**
+     * 当前分配的内存块及其序号、已使用的偏移，只在写入时访问
+     */
+    private ByteBuffer current;
+
+    private int currentIndex;
+
+    private int currentOffset;
+
+    /**
+     * 跳表指针数组，只在写入时追加，整体替换后发布给读线程
+     */
+    private volatile AtomicLongArray[] towers = new AtomicLongArray[0];
+
+    /**
+     * 下一个可以分配的指针位置，只在写入时访问
+     */
+    private int towerIndex;
+
+    /**
+     * 跳表当前的最大高度
+     */
+    private volatile int height = 1;
+
+    /**
+     * 已经占用的内存块字节数，包括内存块尾部放不下节点而浪费的空间
+     */
+    private volatile long usedBytes;
+
+    private volatile int size;
+
+    /**
+     * 引用计数，创建时的引用属于数据库
+     */
+    private final AtomicInteger refs = new AtomicInteger(1);
+
+    public ArenaMemTable(ChunkPool pool) {
+        this.pool = pool;
+        long head = allocate(nodeSize(0, 0));
+        ByteBuffer chunk = chunk(head);
+        chunk.putLong(0, 0);
+        chunk.putInt(KEY_LEN_OFFSET, 0);
+        chunk.putInt(VALUE_LEN_OFFSET, 0);
+        // 新分配的指针都是 NIL
+        chunk.putInt(TOWER_OFFSET, allocateTower(MAX_HEIGHT));
+    }
+
+    @Override
+    public synchronized void put(Command command) {
+        byte[] key = command.getKey();
+        byte[] value = command instanceof SetCommand ? ((SetCommand) command).getValue() : null;
+        long sequence = command.getSequence();
+
+        long[] preds = new long[MAX_HEIGHT];
+        int currentHeight = height;
+        findGreaterOrEqual(key, sequence, preds);
+        int nodeHeight = randomHeight();
+        for (int level = currentHeight; level < nodeHeight; level++) {
+            preds[level] = HEAD;
+        }
+
+        int valueLen = value == null ? 0 : value.length;
+        long node = allocate(nodeSize(key.length, valueLen));
+        int tower = allocateTower(nodeHeight);
+        ByteBuffer chunk = chunk(node);
+        int offset = offset(node);
+        chunk.putLong(offset, sequence);
+        chunk.putInt(offset + KEY_LEN_OFFSET, key.length);
+        chunk.putInt(offset + VALUE_LEN_OFFSET, value == null ? RM_VALUE_LEN : value.length);
+        chunk.putInt(offset + TOWER_OFFSET, tower);
+        ByteBuffer writer = chunk.duplicate();
+        writer.position(offset + KEY_OFFSET);
+        writer.put(key);
+        if (value != null) {
+            writer.put(value);
+        }
+        for (int level = 0; level < nodeHeight; level++) {
+            setNext(node, level, next(preds[level], level));
+        }
+        // 节点内容写完后才以 volatile 写链接到跳表中，读线程读到指针时节点内容已经可见
+        for (int level = 0; level < nodeHeight; level++) {
+            setNext(preds[level], level, node);
+        }
+        if (nodeHeight > currentHeight) {
+            height = nodeHeight;
+        }
+        size++;
+    }
+
+    @Override
+    public Command get(byte[] key, long sequence) {
+        // 第一个不小于 (key, sequence) 的记录就是序列号小于等于 sequence 的最新版本
+        long node = findGreaterOrEqual(key, sequence, null);
+        if (node == NIL || compareKey(node, key) != 0) {
+            return null;
+        }
+        return toCommand(node);
+    }
+
+    @Override
+    public Iterator<Command> iterator(byte[] startKey) {
+        long first = startKey == null ? next(HEAD, 0) : findGreaterOrEqual(startKey, Long.MAX_VALUE, null);
+        return new NodeIterator(first);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public long getApproximateBytes() {
+        return usedBytes;
+    }
+
+    @Override
+    public boolean tryRetain() {
+        while (true) {
+            int current = refs.get();
+            if (current == 0) {
+                return false;
+            }
+            if (refs.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public void release() {
+        if (refs.decrementAndGet() == 0) {
+            ByteBuffer[] released = chunks;
+            chunks = new ByteBuffer[0];
+            towers = new AtomicLongArray[0];
+            current = null;
+            for (ByteBuffer chunk : released) {
+                pool.recycle(chunk);
+            }
+        }
+    }
+
+    /**
+     * 查找第一个不小于 (key, sequence) 的节点
+     *
+     * @param preds 不为null时记录每一层中最后一个小于目标的节点
+     * @return 不存在时返回 NIL
+     */
+    private long findGreaterOrEqual(byte[] key, long sequence, long[] preds) {
+        long node = HEAD;
+        for (int level = height - 1; level >= 0; level--) {
+            while (true) {
+                long next = next(node, level);
+                if (next != NIL && compare(next, key, sequence) < 0) {
+                    node = next;
+                } else {
+                    break;
+                }
+            }
+            if (preds != null) {
+                preds[level] = node;
+            }
+        }
+        return next(node, 0);
+    }
+
+    /**
+     * 按key递增、序列号递减的顺序比较节点和目标
+     */
+    private int compare(long node, byte[] key, long sequence) {
+        int cmp = compareKey(node, key);
+        return cmp != 0 ? cmp : Long.compare(sequence, chunk(node).getLong(offset(node)));
+    }
+
+    private int compareKey(long node, byte[] key) {
+        ByteBuffer chunk = chunk(node);
+        int offset = offset(node);
+        int keyLen = chunk.getInt(offset + KEY_LEN_OFFSET);
+        int keyStart = offset + KEY_OFFSET;
+        int len = Math.min(keyLen, key.length);
+        for (int i = 0; i < len; i++) {
+            int diff = (chunk.get(keyStart + i) & 0xFF) - (key[i] & 0xFF);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return keyLen - key.length;
+    }
+
+    private Command toCommand(long node) {
+        ByteBuffer chunk = chunk(node);
+        int offset = offset(node);
+        int keyLen = chunk.getInt(offset + KEY_LEN_OFFSET);
+        int valueLen = chunk.getInt(offset + VALUE_LEN_OFFSET);
+        ByteBuffer reader = chunk.duplicate();
+        reader.position(offset + KEY_OFFSET);
+        byte[] key = new byte[keyLen];
+        reader.get(key);
+        Command command;
+        if (valueLen == RM_VALUE_LEN) {
+            command = new RmCommand(key);
+        } else {
+            byte[] value = new byte[valueLen];
+            reader.get(value);
+            command = new SetCommand(key, value);
+        }
+        command.setSequence(chunk.getLong(offset));
+        return command;
+    }
+
+    private long next(long node, int level) {
+        int tower = chunk(node).getInt(offset(node) + TOWER_OFFSET) + level;
+        return towers[tower >>> TOWER_SEGMENT_SHIFT].get(tower & (TOWER_SEGMENT_SIZE - 1));
+    }
+
+    private void setNext(long node, int level, long next) {
+        int tower = chunk(node).getInt(offset(node) + TOWER_OFFSET) + level;
+        towers[tower >>> TOWER_SEGMENT_SHIFT].set(tower & (TOWER_SEGMENT_SIZE - 1), next);
+    }
+
+    /**
+     * 分配节点每一层的指针，同一个节点的指针在同一段中，当前段放不下时从新的一段开始
+     *
+     * @param height
+     * @return 起始位置
+     */
+    private int allocateTower(int height) {
+        int segmentOffset = towerIndex & (TOWER_SEGMENT_SIZE - 1);
+        if (towerIndex == towers.length << TOWER_SEGMENT_SHIFT || segmentOffset + height > TOWER_SEGMENT_SIZE) {
+            AtomicLongArray[] grown = Arrays.copyOf(towers, towers.length + 1);
+            grown[grown.length - 1] = new AtomicLongArray(TOWER_SEGMENT_SIZE);
+            towerIndex = towers.length << TOWER_SEGMENT_SHIFT;
+            towers = grown;
+        }
+        int tower = towerIndex;
+        towerIndex += height;
+        usedBytes += height * 8L;
+        return tower;
+    }
+
+    /**
+     * 在内存块中分配空间，当前内存块放不下时申请新的内存块，超过内存块大小的节点单独占用一个内存块
+     *
+     * @param nodeSize
+     * @return 节点指针
+     */
+    private long allocate(int nodeSize) {
+        if (nodeSize > pool.getChunkSize()) {
+            usedBytes += nodeSize;
+            return (long) addChunk(pool.allocateLarge(nodeSize)) << 32;
+        }
+        if (current == null || currentOffset + nodeSize > current.capacity()) {
+            if (current != null) {
+                usedBytes += current.capacity() - currentOffset;
+            }
+            current = pool.allocate();
+            currentIndex = addChunk(current);
+            currentOffset = 0;
+        }
+        long node = ((long) currentIndex << 32) | currentOffset;
+        currentOffset += nodeSize;
+        usedBytes += nodeSize;
+        return node;
+    }
+
+    private int addChunk(ByteBuffer chunk) {
+        ByteBuffer[] grown = Arrays.copyOf(chunks, chunks.length + 1);
+        grown[grown.length - 1] = chunk;
+        chunks = grown;
+        return grown.length - 1;
+    }
+
+    private ByteBuffer chunk(long node) {
+        return chunks[(int) (node >>> 32)];
+    }
+
+    private static int offset(long node) {
+        return (int) node;
+    }
+
+    private static int nodeSize(int keyLen, int valueLen) {
+        return (KEY_OFFSET + keyLen + valueLen + 7) & ~7;
+    }
+
+    private static int randomHeight() {
+        int height = 1;
+        while (height < MAX_HEIGHT && ThreadLocalRandom.current().nextInt(4) == 0) {
+            height++;
+        }
+        return height;
+    }
+
+    /**
+     * 沿第0层顺序遍历，遍历期间的并发写入可能可见也可能不可见
+     */
+    private class NodeIterator implements Iterator<Command> {
+
+        private long node;
+
+        private NodeIterator(long first) {
+            this.node = first;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return node != NIL;
+        }
+
+        @Override
+        public Command next() {
+            if (node == NIL) {
+                throw new NoSuchElementException();
+            }
+            Command command = toCommand(node);
+            node = ArenaMemTable.this.next(node, 0);
+            return command;
+        }
+    }
+}
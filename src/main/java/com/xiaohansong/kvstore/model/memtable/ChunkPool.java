@@ -0,0 +1,107 @@
+package com.xiaohansong.kvstore.model.memtable;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 堆外内存块池，{@link ArenaMemTable} 从池中申请固定大小的直接内存块，内存表释放时整体归还
+ * 申请和回收直接内存的代价较高，池中最多保留 maxPooledChunks 个空闲块，超出的块交给GC回收；
+ * 可以在多个内存表、多个数据库之间共用
+ */
+public class ChunkPool {
+
+    /**
+     * 默认的内存块大小
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 2 * 1024 * 1024;
+
+    private final int chunkSize;
+
+    private final BlockingQueue<ByteBuffer> freeChunks;
+
+    /**
+     * 新申请的内存块数量
+     */
+    private final AtomicLong allocateCount = new AtomicLong();
+
+    /**
+     * 从池中复用的内存块数量
+     */
+    private final AtomicLong reuseCount = new AtomicLong();
+
+    public ChunkPool() {
+        this(DEFAULT_CHUNK_SIZE, 64);
+    }
+
+    /**
+     * @param chunkSize       内存块大小(字节)
+     * @param maxPooledChunks 池中最多保留的空闲块数量
+     */
+    public ChunkPool(int chunkSize, int maxPooledChunks) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize 必须大于0: " + chunkSize);
+        }
+        this.chunkSize = chunkSize;
+        this.freeChunks = new ArrayBlockingQueue<>(Math.max(1, maxPooledChunks));
+    }
+
+    /**
+     * 申请一个内存块，优先复用池中的空闲块，块中的旧数据不会清零
+     *
+     * @return
+     */
+    public ByteBuffer allocate() {
+        ByteBuffer chunk = freeChunks.poll();
+        if (chunk != null) {
+            reuseCount.incrementAndGet();
+            return chunk;
+        }
+        allocateCount.incrementAndGet();
+        return ByteBuffer.allocateDirect(chunkSize);
+    }
+
+    /**
+     * 申请一个大于标准大小的内存块，用于单条记录超过 chunkSize 的情况，不会放回池中
+     *
+     * @param size
+     * @return
+     */
+    public ByteBuffer allocateLarge(int size) {
+        allocateCount.incrementAndGet();
+        return ByteBuffer.allocateDirect(size);
+    }
+
+    /**
+     * 归还内存块，调用方之后不能再访问该内存块
+     *
+     * @param chunk
+     */
+    public void recycle(ByteBuffer chunk) {
+        if (chunk.capacity() == chunkSize) {
+            freeChunks.offer(chunk);
+        }
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * 池中的空闲块数量
+     *
+     * @return
+     */
+    public int getFreeChunks() {
+        return freeChunks.size();
+    }
+
+    public long getAllocateCount() {
+        return allocateCount.get();
+    }
+
+    public long getReuseCount() {
+        return reuseCount.get();
+    }
+}
@@ -0,0 +1,76 @@
+package com.xiaohansong.kvstore.model.memtable;
+
+import com.xiaohansong.kvstore.model.command.Command;
+
+import java.util.Iterator;
+
+/**
+ * 内存表
+ * 同一个key的每次写入都作为一个版本保存，按序列号区分；
+ * 实现需要支持多个线程并发写入，以及不加锁的并发读取；
+ * 数据库持有内存表的一个引用，持久化完成后释放
+ */
+public interface MemTable {
+
+    /**
+     * 写入命令，命令需要已经分配序列号
+     *
+     * @param command
+     */
+    void put(Command command);
+
+    /**
+     * 查询key在序列号 sequence 时可见的版本，即序列号小于等于 sequence 的最新版本
+     *
+     * @param key
+     * @param sequence
+     * @return 不存在返回null
+     */
+    Command get(byte[] key, long sequence);
+
+    /**
+     * 按key递增、同一个key按序列号递减的顺序遍历全部命令
+     *
+     * @return
+     */
+    default Iterator<Command> iterator() {
+        return iterator(null);
+    }
+
+    /**
+     * 从 startKey 开始按key递增、同一个key按序列号递减的顺序遍历命令，遍历期间的并发写入可能可见也可能不可见
+     *
+     * @param startKey 起始key(包含)，为null时从头开始
+     * @return
+     */
+    Iterator<Command> iterator(byte[] startKey);
+
+    /**
+     * 记录数量，同一个key的每个版本各算一条
+     *
+     * @return
+     */
+    int size();
+
+    /**
+     * 写入内存表的数据量估算值(字节)
+     *
+     * @return
+     */
+    long getApproximateBytes();
+
+    /**
+     * 尝试增加引用，读请求访问内存表期间持有引用
+     *
+     * @return 内存表已经释放时返回false，调用方需要重新读取当前的内存表
+     */
+    default boolean tryRetain() {
+        return true;
+    }
+
+    /**
+     * 释放引用，最后一个引用释放时回收内存表占用的内存
+     */
+    default void release() {
+    }
+}
@@ -0,0 +1,90 @@
+package com.xiaohansong.kvstore.model.memtable;
+
+import com.xiaohansong.kvstore.model.command.Command;
+import com.xiaohansong.kvstore.model.command.SetCommand;
+import com.xiaohansong.kvstore.utils.KeyUtil;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 基于 ConcurrentSkipListMap 的内存表，写入和读取都不需要加锁
+ * 跳表的key为 (key, 序列号)，按key的无符号字节序递增、序列号递减排列，同一个key的较新版本排在前面
+ */
+public class SkipListMemTable implements MemTable {
+
+    /**
+     * 每条记录除 key/value 外的估算开销：跳表节点、索引节点、命令对象、字节数组头
+     */
+    private static final int ENTRY_OVERHEAD = 96;
+
+    private final ConcurrentSkipListMap<InternalKey, Command> table = new ConcurrentSkipListMap<>();
+
+    private final LongAdder approximateBytes = new LongAdder();
+
+    private final AtomicInteger size = new AtomicInteger();
+
+    @Override
+    public void put(Command command) {
+        table.put(new InternalKey(command.getKey(), command.getSequence()), command);
+        size.incrementAndGet();
+        approximateBytes.add(estimateSize(command));
+    }
+
+    @Override
+    public Command get(byte[] key, long sequence) {
+        // 第一个不小于 (key, sequence) 的记录就是序列号小于等于 sequence 的最新版本
+        Map.Entry<InternalKey, Command> entry = table.ceilingEntry(new InternalKey(key, sequence));
+        if (entry == null || KeyUtil.compare(entry.getKey().key, key) != 0) {
+            return null;
+        }
+        return entry.getValue();
+    }
+
+    @Override
+    public Iterator<Command> iterator(byte[] startKey) {
+        if (startKey == null) {
+            return table.values().iterator();
+        }
+        return table.tailMap(new InternalKey(startKey, Long.MAX_VALUE)).values().iterator();
+    }
+
+    @Override
+    public int size() {
+        return size.get();
+    }
+
+    @Override
+    public long getApproximateBytes() {
+        return approximateBytes.sum();
+    }
+
+    private static long estimateSize(Command command) {
+        long size = ENTRY_OVERHEAD + command.getKey().length;
+        if (command instanceof SetCommand) {
+            size += ((SetCommand) command).getValue().length;
+        }
+        return size;
+    }
+
+    private static class InternalKey implements Comparable<InternalKey> {
+
+        private final byte[] key;
+
+        private final long sequence;
+
+        private InternalKey(byte[] key, long sequence) {
+            this.key = key;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(InternalKey other) {
+            int cmp = KeyUtil.compare(key, other.key);
+            return cmp != 0 ? cmp : Long.compare(other.sequence, sequence);
+        }
+    }
+}
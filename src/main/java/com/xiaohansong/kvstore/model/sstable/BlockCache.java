@@ -0,0 +1,226 @@
+package com.xiaohansong.kvstore.model.sstable;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 数据块缓存，按字节数限制容量，淘汰最近最少使用的数据块
+ * 以 (ssTable编号, 数据块在文件中的位置) 为key缓存解析好的数据块，同一个数据库中的全部ssTable共用一个缓存；
+ * 按key的哈希值分成多个分片，每个分片各自加锁，减少并发查询时的锁竞争；
+ * 每个分片按ssTable记录缓存的数据块位置，淘汰一个表的数据块时不需要遍历整个分片
+ */
+public class BlockCache {
+
+    private static final int SHARD_COUNT = 16;
+
+    /**
+     * 每个数据块除数据外的估算开销
+     */
+    private static final int ENTRY_OVERHEAD = 64;
+
+    /**
+     * 分配给ssTable的编号，同一个进程内唯一
+     */
+    private static final AtomicLong NEXT_TABLE_ID = new AtomicLong();
+
+    private final Shard[] shards = new Shard[SHARD_COUNT];
+
+    private final LongAdder hitCount = new LongAdder();
+
+    private final LongAdder missCount = new LongAdder();
+
+    private final LongAdder evictionCount = new LongAdder();
+
+    /**
+     * @param capacityBytes 缓存容量(字节)
+     */
+    public BlockCache(long capacityBytes) {
+        for (int i = 0; i < SHARD_COUNT; i++) {
+            shards[i] = new Shard(Math.max(1, capacityBytes / SHARD_COUNT));
+        }
+    }
+
+    /**
+     * 为ssTable分配缓存编号，文件路径可能被重用，不能直接作为key
+     *
+     * @return
+     */
+    public static long newTableId() {
+        return NEXT_TABLE_ID.incrementAndGet();
+    }
+
+    /**
+     * 查询缓存
+     *
+     * @param tableId ssTable编号
+     * @param offset  数据块在文件中的位置
+     * @return 未命中返回null
+     */
+    public DataBlock get(long tableId, long offset) {
+        BlockKey key = new BlockKey(tableId, offset);
+        DataBlock block = shard(key).get(key);
+        if (block == null) {
+            missCount.increment();
+        } else {
+            hitCount.increment();
+        }
+        return block;
+    }
+
+    /**
+     * 放入缓存
+     *
+     * @param tableId ssTable编号
+     * @param offset  数据块在文件中的位置
+     * @param block
+     */
+    public void put(long tableId, long offset, DataBlock block) {
+        BlockKey key = new BlockKey(tableId, offset);
+        shard(key).put(key, block);
+    }
+
+    /**
+     * 淘汰一个ssTable的全部数据块，ssTable关闭或删除后调用
+     *
+     * @param tableId
+     */
+    public void evictTable(long tableId) {
+        for (Shard shard : shards) {
+            shard.removeTable(tableId);
+        }
+    }
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.sum();
+    }
+
+    /**
+     * 当前缓存占用的字节数
+     *
+     * @return
+     */
+    public long getUsage() {
+        long usage = 0;
+        for (Shard shard : shards) {
+            usage += shard.getUsage();
+        }
+        return usage;
+    }
+
+    private Shard shard(BlockKey key) {
+        return shards[(key.hashCode() & Integer.MAX_VALUE) % SHARD_COUNT];
+    }
+
+    private static long charge(DataBlock block) {
+        return block.getLength() + ENTRY_OVERHEAD;
+    }
+
+    /**
+     * 缓存分片，LinkedHashMap 按访问顺序排列，最久未访问的在最前面
+     */
+    private class Shard {
+
+        private final long capacity;
+
+        private final LinkedHashMap<BlockKey, DataBlock> blocks = new LinkedHashMap<>(16, 0.75f, true);
+
+        /**
+         * ssTable编号 -> 本分片中缓存的该表的数据块位置
+         */
+        private final Map<Long, Set<Long>> tableOffsets = new HashMap<>();
+
+        private long usage;
+
+        private Shard(long capacity) {
+            this.capacity = capacity;
+        }
+
+        private synchronized DataBlock get(BlockKey key) {
+            return blocks.get(key);
+        }
+
+        private synchronized void put(BlockKey key, DataBlock block) {
+            DataBlock previous = blocks.put(key, block);
+            if (previous != null) {
+                usage -= charge(previous);
+            } else {
+                tableOffsets.computeIfAbsent(key.tableId, id -> new HashSet<>()).add(key.offset);
+            }
+            usage += charge(block);
+            Iterator<Map.Entry<BlockKey, DataBlock>> eldest = blocks.entrySet().iterator();
+            while (usage > capacity && eldest.hasNext()) {
+                Map.Entry<BlockKey, DataBlock> entry = eldest.next();
+                usage -= charge(entry.getValue());
+                eldest.remove();
+                removeOffset(entry.getKey());
+                evictionCount.increment();
+            }
+        }
+
+        private synchronized void removeTable(long tableId) {
+            Set<Long> offsets = tableOffsets.remove(tableId);
+            if (offsets == null) {
+                return;
+            }
+            for (long offset : offsets) {
+                DataBlock block = blocks.remove(new BlockKey(tableId, offset));
+                if (block != null) {
+                    usage -= charge(block);
+                }
+            }
+        }
+
+        private void removeOffset(BlockKey key) {
+            Set<Long> offsets = tableOffsets.get(key.tableId);
+            if (offsets != null && offsets.remove(key.offset) && offsets.isEmpty()) {
+                tableOffsets.remove(key.tableId);
+            }
+        }
+
+        private synchronized long getUsage() {
+            return usage;
+        }
+    }
+
+    private static class BlockKey {
+
+        private final long tableId;
+
+        private final long offset;
+
+        private BlockKey(long tableId, long offset) {
+            this.tableId = tableId;
+            this.offset = offset;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof BlockKey)) {
+                return false;
+            }
+            BlockKey other = (BlockKey) o;
+            return tableId == other.tableId && offset == other.offset;
+        }
+
+        @Override
+        public int hashCode() {
+            // 数据块位置的低位分布不均匀，混合后再取分片
+            long h = (tableId * 0x9E3779B97F4A7C15L + offset) * 0xC2B2AE3D27D4EB4FL;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+}
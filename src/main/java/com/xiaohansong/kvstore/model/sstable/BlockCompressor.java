@@ -0,0 +1,131 @@
+package com.xiaohansong.kvstore.model.sstable;
+
+import com.xiaohansong.kvstore.utils.CodingUtil;
+import com.xiaohansong.kvstore.utils.Lz4;
+
+/**
+ * 数据段的压缩和解压
+ * <p>
+ * 启用压缩的ssTable中，每个数据段的格式为：压缩算法(1 byte) | 原始长度(varint) | 数据，
+ * 压缩后节省不到 1/8 的数据段不压缩，算法记为 {@link CompressionType#NONE}
+ * <p>
+ * 实例持有可重用的缓冲区，不是线程安全的
+ */
+public class BlockCompressor {
+
+    private final CompressionType type;
+
+    /**
+     * 压缩结果或解压结果的缓冲区
+     */
+    private byte[] buffer = new byte[0];
+
+    private int[] hashTable;
+
+    /**
+     * @param type 压缩时使用的算法，只解压时可以为 NONE
+     */
+    public BlockCompressor(CompressionType type) {
+        this.type = type;
+    }
+
+    /**
+     * 压缩数据段，结果保存在 {@link #getBuffer()} 中，下一次调用后失效
+     *
+     * @param block 数据块的原始字节
+     * @return 压缩后的长度
+     */
+    public int compress(byte[] block) {
+        int headerLen = 1 + 5;
+        ensureCapacity(headerLen + Lz4.maxCompressedLength(block.length));
+        int compressedLen = -1;
+        if (type == CompressionType.LZ4) {
+            if (hashTable == null) {
+                hashTable = new int[Lz4.HASH_TABLE_SIZE];
+            }
+            compressedLen = Lz4.compress(block, 0, block.length, buffer, headerLen, hashTable);
+        }
+        CompressionType blockType = type;
+        byte[] payload = buffer;
+        int payloadOffset = headerLen;
+        if (compressedLen < 0 || compressedLen > block.length - block.length / 8) {
+            blockType = CompressionType.NONE;
+            payload = block;
+            payloadOffset = 0;
+            compressedLen = block.length;
+        }
+        // 头部长度取决于原始长度，写好头部后把数据移动到头部之后
+        int pos = writeHeader(blockType, block.length);
+        System.arraycopy(payload, payloadOffset, buffer, pos, compressedLen);
+        return pos + compressedLen;
+    }
+
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * 解压数据段，解压的数据保存在内部缓冲区中，返回的数据块在下一次调用后失效
+     *
+     * @param data
+     * @param offset      数据段在 data 中的起始位置
+     * @param len         数据段长度
+     * @param hasSequence 数据块中的记录是否带有序列号
+     * @return
+     */
+    public DataBlock decompress(byte[] data, int offset, int len, boolean hasSequence) {
+        return decompress(data, offset, len, hasSequence, false);
+    }
+
+    /**
+     * 解压数据段到新分配的数组中，用于需要长期持有的数据块，例如放入缓存
+     *
+     * @param data
+     * @param offset
+     * @param len
+     * @param hasSequence
+     * @return
+     */
+    public static DataBlock decompressCopy(byte[] data, int offset, int len, boolean hasSequence) {
+        return new BlockCompressor(CompressionType.NONE).decompress(data, offset, len, hasSequence, true);
+    }
+
+    private DataBlock decompress(byte[] data, int offset, int len, boolean hasSequence, boolean copy) {
+        CompressionType blockType = CompressionType.fromCode(data[offset]);
+        int[] pos = {offset + 1};
+        int rawLen = CodingUtil.readVarInt(data, pos);
+        int payloadLen = offset + len - pos[0];
+        if (blockType == CompressionType.NONE) {
+            // 数据本身就是原始数据块
+            return new DataBlock(data, pos[0], payloadLen, hasSequence);
+        }
+        byte[] dst;
+        if (copy) {
+            dst = new byte[rawLen];
+        } else {
+            ensureCapacity(rawLen);
+            dst = buffer;
+        }
+        if (Lz4.decompress(data, pos[0], payloadLen, dst, 0, rawLen) != rawLen) {
+            throw new IllegalArgumentException("数据段解压后的长度不正确");
+        }
+        return new DataBlock(dst, 0, rawLen, hasSequence);
+    }
+
+    private int writeHeader(CompressionType blockType, int rawLen) {
+        int pos = 0;
+        buffer[pos++] = blockType.getCode();
+        while ((rawLen & ~0x7F) != 0) {
+            buffer[pos++] = (byte) ((rawLen & 0x7F) | 0x80);
+            rawLen >>>= 7;
+        }
+        buffer[pos++] = (byte) rawLen;
+        return pos;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (buffer.length < capacity) {
+            buffer = new byte[Math.max(capacity, buffer.length * 2)];
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.xiaohansong.kvstore.model.sstable;
+
+import java.util.List;
+
+/**
+ * 布隆过滤器
+ * 使用 murmur3 哈希加双重哈希生成 k 个探测位置，序列化格式为：位数组 | k(1 byte)
+ */
+public class BloomFilter {
+
+    /**
+     * 默认每个key占用的位数，约 1% 的误判率
+     */
+    public static final int DEFAULT_BITS_PER_KEY = 10;
+
+    private final byte[] bits;
+
+    private final int hashCount;
+
+    private BloomFilter(byte[] bits, int hashCount) {
+        this.bits = bits;
+        this.hashCount = hashCount;
+    }
+
+    /**
+     * 根据key的哈希值构建过滤器
+     *
+     * @param keyHashes  key 的哈希值，见 {@link #hash(byte[])}
+     * @param bitsPerKey 每个key占用的位数
+     * @return
+     */
+    public static BloomFilter create(List<Integer> keyHashes, int bitsPerKey) {
+        // k = bitsPerKey * ln2 时误判率最低
+        int hashCount = Math.max(1, Math.min(30, (int) Math.round(bitsPerKey * 0.69)));
+        // 位数过少时误判率会很高，最少 64 位
+        int bitCount = Math.max(64, keyHashes.size() * bitsPerKey);
+        byte[] bits = new byte[(bitCount + 7) / 8];
+        bitCount = bits.length * 8;
+        for (int h : keyHashes) {
+            int delta = Integer.rotateRight(h, 17);
+            for (int i = 0; i < hashCount; i++) {
+                int bitPos = (h & Integer.MAX_VALUE) % bitCount;
+                bits[bitPos / 8] |= 1 << (bitPos % 8);
+                h += delta;
+            }
+        }
+        return new BloomFilter(bits, hashCount);
+    }
+
+    /**
+     * 从序列化数据中恢复过滤器
+     *
+     * @param data
+     * @return
+     */
+    public static BloomFilter fromBytes(byte[] data) {
+        byte[] bits = new byte[data.length - 1];
+        System.arraycopy(data, 0, bits, 0, bits.length);
+        return new BloomFilter(bits, data[data.length - 1]);
+    }
+
+    public byte[] toBytes() {
+        byte[] data = new byte[bits.length + 1];
+        System.arraycopy(bits, 0, data, 0, bits.length);
+        data[bits.length] = (byte) hashCount;
+        return data;
+    }
+
+    /**
+     * 判断key是否可能存在
+     *
+     * @param keyHash key 的哈希值
+     * @return false 表示一定不存在
+     */
+    public boolean mightContain(int keyHash) {
+        int bitCount = bits.length * 8;
+        int h = keyHash;
+        int delta = Integer.rotateRight(h, 17);
+        for (int i = 0; i < hashCount; i++) {
+            int bitPos = (h & Integer.MAX_VALUE) % bitCount;
+            if ((bits[bitPos / 8] & (1 << (bitPos % 8))) == 0) {
+                return false;
+            }
+            h += delta;
+        }
+        return true;
+    }
+
+    /**
+     * 计算key的哈希值(murmur3 32位)
+     *
+     * @param data key
+     * @return
+     */
+    public static int hash(byte[] data) {
+        int h = 0x9747b28c;
+        int len = data.length;
+        int i = 0;
+        while (len - i >= 4) {
+            int k = (data[i] & 0xFF) | ((data[i + 1] & 0xFF) << 8)
+                    | ((data[i + 2] & 0xFF) << 16) | ((data[i + 3] & 0xFF) << 24);
+            h ^= mixK(k);
+            h = Integer.rotateLeft(h, 13) * 5 + 0xe6546b64;
+            i += 4;
+        }
+        int k = 0;
+        switch (len - i) {
+            case 3:
+                k ^= (data[i + 2] & 0xFF) << 16;
+            case 2:
+                k ^= (data[i + 1] & 0xFF) << 8;
+            case 1:
+                k ^= data[i] & 0xFF;
+                h ^= mixK(k);
+            default:
+        }
+        h ^= len;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    private static int mixK(int k) {
+        k *= 0xcc9e2d51;
+        k = Integer.rotateLeft(k, 15);
+        return k * 0x1b873593;
+    }
+}
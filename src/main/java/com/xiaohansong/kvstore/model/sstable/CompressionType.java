@@ -0,0 +1,44 @@
+package com.xiaohansong.kvstore.model.sstable;
+
+/**
+ * 数据段压缩算法
+ */
+public enum CompressionType {
+
+    /**
+     * 不压缩
+     */
+    NONE((byte) 0),
+    /**
+     * LZ4 块格式，见 {@link com.xiaohansong.kvstore.utils.Lz4}
+     */
+    LZ4((byte) 1);
+
+    /**
+     * 元信息和数据段头部中使用的类型字节
+     */
+    private final byte code;
+
+    CompressionType(byte code) {
+        this.code = code;
+    }
+
+    public byte getCode() {
+        return code;
+    }
+
+    /**
+     * 根据类型字节获取压缩算法
+     *
+     * @param code
+     * @return
+     */
+    public static CompressionType fromCode(byte code) {
+        for (CompressionType type : values()) {
+            if (type.code == code) {
+                return type;
+            }
+        }
+        throw new IllegalArgumentException("未知的压缩算法: " + code);
+    }
+}
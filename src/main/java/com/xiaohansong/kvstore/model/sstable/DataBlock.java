@@ -0,0 +1,191 @@
+package com.xiaohansong.kvstore.model.sstable;
+
+import com.xiaohansong.kvstore.model.command.Command;
+import com.xiaohansong.kvstore.model.command.CommandTypeEnum;
+import com.xiaohansong.kvstore.model.command.RmCommand;
+import com.xiaohansong.kvstore.model.command.SetCommand;
+import com.xiaohansong.kvstore.model.command.ValuePointerCommand;
+import com.xiaohansong.kvstore.model.vlog.ValuePointer;
+import com.xiaohansong.kvstore.utils.CodingUtil;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 二进制数据块，格式见 {@link DataBlockBuilder}
+ * 查询时先在重启点上二分查找，再从重启点开始顺序比较，只有命中的记录才会被解码成命令
+ */
+public class DataBlock {
+
+    private final byte[] data;
+
+    private final int offset;
+
+    private final int length;
+
+    /**
+     * 记录中是否有序列号，{@link TableMetaInfo#VERSION_SEQUENCE} 之前的格式没有
+     */
+    private final boolean hasSequence;
+
+    /**
+     * 重启点数组的起始位置，也是记录区的结束位置
+     */
+    private final int restartsOffset;
+
+    private final int restartCount;
+
+    public DataBlock(byte[] data, int offset, int length) {
+        this(data, offset, length, true);
+    }
+
+    public DataBlock(byte[] data, int offset, int length, boolean hasSequence) {
+        this.data = data;
+        this.offset = offset;
+        this.length = length;
+        this.hasSequence = hasSequence;
+        this.restartCount = CodingUtil.readInt(data, offset + length - 4);
+        this.restartsOffset = offset + length - 4 - restartCount * 4;
+    }
+
+    /**
+     * 在数据块中查询key的最新版本
+     *
+     * @param key
+     * @return 找不到返回null
+     */
+    public Command get(byte[] key) {
+        return get(key, Long.MAX_VALUE);
+    }
+
+    /**
+     * 在数据块中查询key在序列号 sequence 时可见的版本，即序列号小于等于 sequence 的最新版本
+     *
+     * @param key
+     * @param sequence
+     * @return 找不到返回null
+     */
+    public Command get(byte[] key, long sequence) {
+        return get(key, sequence, null);
+    }
+
+    /**
+     * 在数据块中查询key在序列号 sequence 时可见的版本
+     *
+     * @param key
+     * @param sequence
+     * @param found    不为null时，数据块中存在该key的任意版本则将 found[0] 置为true，用于区分key不存在和版本不可见
+     * @return 找不到返回null
+     */
+    public Command get(byte[] key, long sequence, boolean[] found) {
+        if (restartCount == 0) {
+            return null;
+        }
+        // 找到最后一个 key 小于目标 key 的重启点，同一个key的较新版本可能位于前一个重启区间
+        int left = 0;
+        int right = restartCount - 1;
+        while (left < right) {
+            int mid = (left + right + 1) >>> 1;
+            int[] pos = {restartPoint(mid)};
+            CodingUtil.readVarInt(data, pos);
+            int keyLen = CodingUtil.readVarInt(data, pos);
+            CodingUtil.readVarInt(data, pos);
+            pos[0]++;
+            if (hasSequence) {
+                CodingUtil.readVarLong(data, pos);
+            }
+            if (CodingUtil.compare(data, pos[0], keyLen, key, 0, key.length) < 0) {
+                left = mid;
+            } else {
+                right = mid - 1;
+            }
+        }
+
+        // 从重启点开始顺序查找
+        byte[] currentKey = new byte[0];
+        int currentKeyLen = 0;
+        int[] pos = {restartPoint(left)};
+        while (pos[0] < restartsOffset) {
+            int shared = CodingUtil.readVarInt(data, pos);
+            int unshared = CodingUtil.readVarInt(data, pos);
+            int valueLen = CodingUtil.readVarInt(data, pos);
+            byte type = data[pos[0]++];
+            long entrySequence = hasSequence ? CodingUtil.readVarLong(data, pos) : 0;
+            int keyLen = shared + unshared;
+            if (currentKey.length < keyLen) {
+                byte[] grown = new byte[Math.max(keyLen, currentKey.length * 2)];
+                System.arraycopy(currentKey, 0, grown, 0, currentKeyLen);
+                currentKey = grown;
+            }
+            System.arraycopy(data, pos[0], currentKey, shared, unshared);
+            currentKeyLen = keyLen;
+            pos[0] += unshared;
+            int cmp = CodingUtil.compare(currentKey, 0, keyLen, key, 0, key.length);
+            if (cmp == 0 && found != null) {
+                found[0] = true;
+            }
+            if (cmp == 0 && entrySequence <= sequence) {
+                return decode(key, type, entrySequence, pos[0], valueLen);
+            }
+            if (cmp > 0) {
+                return null;
+            }
+            pos[0] += valueLen;
+        }
+        return null;
+    }
+
+    /**
+     * 按顺序解码数据块中的全部记录，用于顺序遍历
+     *
+     * @return
+     */
+    public List<Command> entries() {
+        List<Command> commands = new ArrayList<>();
+        byte[] currentKey = new byte[0];
+        int[] pos = {offset};
+        while (pos[0] < restartsOffset) {
+            int shared = CodingUtil.readVarInt(data, pos);
+            int unshared = CodingUtil.readVarInt(data, pos);
+            int valueLen = CodingUtil.readVarInt(data, pos);
+            byte type = data[pos[0]++];
+            long sequence = hasSequence ? CodingUtil.readVarLong(data, pos) : 0;
+            byte[] key = new byte[shared + unshared];
+            System.arraycopy(currentKey, 0, key, 0, shared);
+            System.arraycopy(data, pos[0], key, shared, unshared);
+            pos[0] += unshared;
+            commands.add(decode(key, type, sequence, pos[0], valueLen));
+            pos[0] += valueLen;
+            currentKey = key;
+        }
+        return commands;
+    }
+
+    /**
+     * 数据块的字节数
+     *
+     * @return
+     */
+    public int getLength() {
+        return length;
+    }
+
+    private int restartPoint(int index) {
+        return offset + CodingUtil.readInt(data, restartsOffset + index * 4);
+    }
+
+    private Command decode(byte[] key, byte type, long sequence, int valueStart, int valueLen) {
+        Command command;
+        CommandTypeEnum commandType = CommandTypeEnum.fromCode(type);
+        if (commandType == CommandTypeEnum.SET) {
+            command = new SetCommand(key, Arrays.copyOfRange(data, valueStart, valueStart + valueLen));
+        } else if (commandType == CommandTypeEnum.VALUE_POINTER) {
+            command = new ValuePointerCommand(key, ValuePointer.decode(data, valueStart));
+        } else {
+            command = new RmCommand(key);
+        }
+        command.setSequence(sequence);
+        return command;
+    }
+}
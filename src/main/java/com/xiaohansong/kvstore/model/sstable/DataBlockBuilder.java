@@ -0,0 +1,130 @@
+package com.xiaohansong.kvstore.model.sstable;
+
+import com.xiaohansong.kvstore.model.command.Command;
+import com.xiaohansong.kvstore.model.command.CommandTypeEnum;
+import com.xiaohansong.kvstore.model.command.SetCommand;
+import com.xiaohansong.kvstore.model.command.ValuePointerCommand;
+import com.xiaohansong.kvstore.utils.CodingUtil;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 二进制数据块构建器
+ * <p>
+ * 块内每条记录格式：
+ * shared(varint) | unshared(varint) | valueLen(varint) | type(1 byte) | sequence(varlong) | key 增量字节 | value 字节
+ * VALUE_POINTER 类型的 value 字节是编码后的 {@link com.xiaohansong.kvstore.model.vlog.ValuePointer}
+ * <p>
+ * 同一个key的多个版本按序列号从新到旧排列；key 相对上一条记录做前缀压缩，每隔 {@link #RESTART_INTERVAL} 条记录设置一个重启点，
+ * 重启点处的记录保存完整的 key，块尾部保存所有重启点偏移量(int)以及重启点数量(int)
+ */
+public class DataBlockBuilder {
+
+    /**
+     * 重启点间隔
+     */
+    public static final int RESTART_INTERVAL = 16;
+
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+    private final List<Integer> restarts = new ArrayList<>();
+
+    private byte[] lastKey = new byte[0];
+
+    /**
+     * 当前重启点之后写入的记录数
+     */
+    private int counter;
+
+    /**
+     * 块中的记录数
+     */
+    private int entryCount;
+
+    /**
+     * 块中的第一个key，用于构建稀疏索引
+     */
+    private byte[] firstKey;
+
+    /**
+     * 追加一条记录，调用方需保证按key递增、同一个key按序列号递减的顺序追加
+     *
+     * @param command
+     */
+    public void add(Command command) {
+        byte[] key = command.getKey();
+        byte[] value;
+        CommandTypeEnum type;
+        if (command instanceof SetCommand) {
+            value = ((SetCommand) command).getValue();
+            type = CommandTypeEnum.SET;
+        } else if (command instanceof ValuePointerCommand) {
+            // 值在值日志中，只保存值的位置
+            value = ((ValuePointerCommand) command).getPointer().encode();
+            type = CommandTypeEnum.VALUE_POINTER;
+        } else {
+            value = new byte[0];
+            type = CommandTypeEnum.RM;
+        }
+
+        int shared = 0;
+        if (counter < RESTART_INTERVAL && entryCount > 0) {
+            int minLen = Math.min(lastKey.length, key.length);
+            while (shared < minLen && lastKey[shared] == key[shared]) {
+                shared++;
+            }
+        } else {
+            restarts.add(buffer.size());
+            counter = 0;
+        }
+        CodingUtil.writeVarInt(buffer, shared);
+        CodingUtil.writeVarInt(buffer, key.length - shared);
+        CodingUtil.writeVarInt(buffer, value.length);
+        buffer.write(type.getCode());
+        CodingUtil.writeVarLong(buffer, command.getSequence());
+        buffer.write(key, shared, key.length - shared);
+        buffer.write(value, 0, value.length);
+
+        if (entryCount == 0) {
+            firstKey = key;
+        }
+        lastKey = key;
+        counter++;
+        entryCount++;
+    }
+
+    /**
+     * 写入重启点，生成完整的数据块
+     *
+     * @return
+     */
+    public byte[] finish() {
+        for (Integer restart : restarts) {
+            CodingUtil.writeInt(buffer, restart);
+        }
+        CodingUtil.writeInt(buffer, restarts.size());
+        return buffer.toByteArray();
+    }
+
+    /**
+     * 重置构建器，用于构建下一个数据块
+     */
+    public void reset() {
+        buffer.reset();
+        restarts.clear();
+        lastKey = new byte[0];
+        counter = 0;
+        entryCount = 0;
+        firstKey = null;
+    }
+
+    public int getEntryCount() {
+        return entryCount;
+    }
+
+    public byte[] getFirstKey() {
+        return firstKey;
+    }
+}
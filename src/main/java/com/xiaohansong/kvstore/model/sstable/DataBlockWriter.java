@@ -0,0 +1,197 @@
+package com.xiaohansong.kvstore.model.sstable;
+
+import com.xiaohansong.kvstore.model.command.Command;
+import com.xiaohansong.kvstore.model.command.SetCommand;
+import com.xiaohansong.kvstore.utils.ChannelOutputStream;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * 数据段写入流水线
+ * <p>
+ * 调用方按key递增的顺序提交每个数据段的命令，编码和压缩在线程池中并行执行，编码好的数据段按提交顺序写入文件，
+ * 同时记录稀疏索引和布隆过滤器需要的key哈希值。正在编码的数据段数量有上限，内存占用与表的大小无关
+ */
+class DataBlockWriter {
+
+    /**
+     * 每个线程一个编码器，构建器和压缩缓冲区可以重用
+     */
+    private static final ThreadLocal<DataBlockBuilder> BUILDERS = ThreadLocal.withInitial(DataBlockBuilder::new);
+
+    private static final ThreadLocal<BlockCompressor[]> COMPRESSORS =
+            ThreadLocal.withInitial(() -> new BlockCompressor[CompressionType.values().length]);
+
+    private final ChannelOutputStream out;
+
+    private final CompressionType compression;
+
+    private final boolean bloom;
+
+    private final SparseIndex.Builder sparseIndexBuilder;
+
+    private final List<Integer> keyHashes;
+
+    /**
+     * 编码线程池，为null时在调用线程中编码
+     */
+    private final ForkJoinPool pool;
+
+    /**
+     * 最多同时编码的数据段数量
+     */
+    private final int maxPending;
+
+    /**
+     * 按提交顺序排列的正在编码的数据段
+     */
+    private final Deque<ForkJoinTask<EncodedBlock>> pending = new ArrayDeque<>();
+
+    /**
+     * 正在编码的数据段的原始数据量
+     */
+    private long pendingBytes;
+
+    /**
+     * @param out                表文件
+     * @param compression        数据段的压缩算法，为 NONE 时不写入压缩头部
+     * @param bloom              是否记录key的哈希值
+     * @param sparseIndexBuilder
+     * @param keyHashes          按顺序收集不重复的key的哈希值
+     * @param pool               编码线程池，为null时在调用线程中编码
+     */
+    DataBlockWriter(ChannelOutputStream out, CompressionType compression, boolean bloom,
+                    SparseIndex.Builder sparseIndexBuilder, List<Integer> keyHashes, ForkJoinPool pool) {
+        this.out = out;
+        this.compression = compression;
+        this.bloom = bloom;
+        this.sparseIndexBuilder = sparseIndexBuilder;
+        this.keyHashes = keyHashes;
+        this.pool = pool;
+        this.maxPending = pool == null ? 0 : pool.getParallelism() * 2;
+    }
+
+    /**
+     * 提交一个数据段，同一个key的多个版本需在同一个数据段中
+     *
+     * @param commands 按key递增、同一个key按序列号递减的命令，提交后不能再修改
+     * @throws IOException
+     */
+    void add(List<Command> commands) throws IOException {
+        if (pool == null) {
+            write(encode(commands, compression, bloom));
+            return;
+        }
+        long bytes = rawSize(commands);
+        pending.addLast(pool.submit(() -> encode(commands, compression, bloom)));
+        pendingBytes += bytes;
+        while (pending.size() > maxPending) {
+            writeFirst();
+        }
+    }
+
+    /**
+     * 已经写入的数据量加上正在编码的数据段的原始数据量，用于判断表是否达到大小上限
+     *
+     * @return
+     */
+    long estimatedPosition() {
+        return out.position() + pendingBytes;
+    }
+
+    /**
+     * 等待全部数据段编码完成并写入
+     *
+     * @throws IOException
+     */
+    void finish() throws IOException {
+        while (!pending.isEmpty()) {
+            writeFirst();
+        }
+    }
+
+    private void writeFirst() throws IOException {
+        EncodedBlock block = pending.removeFirst().join();
+        pendingBytes -= block.rawSize;
+        write(block);
+    }
+
+    private void write(EncodedBlock block) throws IOException {
+        //记录数据段的第一个key到稀疏索引中
+        sparseIndexBuilder.add(block.firstKey, out.position(), block.data.length);
+        out.write(block.data);
+        for (int keyHash : block.keyHashes) {
+            keyHashes.add(keyHash);
+        }
+    }
+
+    /**
+     * 编码并压缩一个数据段
+     */
+    private static EncodedBlock encode(List<Command> commands, CompressionType compression, boolean bloom) {
+        DataBlockBuilder builder = BUILDERS.get();
+        builder.reset();
+        int[] hashes = new int[bloom ? commands.size() : 0];
+        int hashCount = 0;
+        byte[] lastKey = null;
+        for (Command command : commands) {
+            builder.add(command);
+            if (bloom && !Arrays.equals(command.getKey(), lastKey)) {
+                hashes[hashCount++] = BloomFilter.hash(command.getKey());
+            }
+            lastKey = command.getKey();
+        }
+        byte[] firstKey = builder.getFirstKey();
+        byte[] data = builder.finish();
+        if (compression != CompressionType.NONE) {
+            BlockCompressor[] compressors = COMPRESSORS.get();
+            BlockCompressor compressor = compressors[compression.ordinal()];
+            if (compressor == null) {
+                compressor = new BlockCompressor(compression);
+                compressors[compression.ordinal()] = compressor;
+            }
+            int len = compressor.compress(data);
+            data = Arrays.copyOf(compressor.getBuffer(), len);
+        }
+        builder.reset();
+        return new EncodedBlock(firstKey, data, Arrays.copyOf(hashes, hashCount), rawSize(commands));
+    }
+
+    private static long rawSize(List<Command> commands) {
+        long size = 0;
+        for (Command command : commands) {
+            size += command.getKey().length;
+            if (command instanceof SetCommand) {
+                size += ((SetCommand) command).getValue().length;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * 编码好的数据段
+     */
+    private static class EncodedBlock {
+
+        private final byte[] firstKey;
+
+        private final byte[] data;
+
+        private final int[] keyHashes;
+
+        private final long rawSize;
+
+        private EncodedBlock(byte[] firstKey, byte[] data, int[] keyHashes, long rawSize) {
+            this.firstKey = firstKey;
+            this.data = data;
+            this.keyHashes = keyHashes;
+            this.rawSize = rawSize;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.xiaohansong.kvstore.model.sstable;
+
+import com.xiaohansong.kvstore.model.Position;
+import com.xiaohansong.kvstore.utils.CodingUtil;
+import com.xiaohansong.kvstore.utils.ConvertUtil;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * 稀疏索引，记录每个数据段的第一个key以及数据段的位置
+ * <p>
+ * 所有key的字节连续保存在一个数组中，位置信息保存在基本类型数组中，
+ * 避免为每个数据段创建 key 和 Position 对象；查找时二分查找最后一个小于等于目标key的数据段
+ * <p>
+ * 序列化格式：count(int) | 每个数据段：keyLen(varint) | key | start(long) | len(int)
+ */
+public class SparseIndex {
+
+    /**
+     * 全部key的字节
+     */
+    private final byte[] keyBytes;
+
+    /**
+     * 第i个key在 keyBytes 中的起始位置，第 count 个元素为 keyBytes 的长度
+     */
+    private final int[] keyOffsets;
+
+    /**
+     * 数据段在文件中的起始位置
+     */
+    private final long[] starts;
+
+    /**
+     * 数据段长度
+     */
+    private final int[] lens;
+
+    private SparseIndex(byte[] keyBytes, int[] keyOffsets, long[] starts, int[] lens) {
+        this.keyBytes = keyBytes;
+        this.keyOffsets = keyOffsets;
+        this.starts = starts;
+        this.lens = lens;
+    }
+
+    /**
+     * 数据段数量
+     *
+     * @return
+     */
+    public int size() {
+        return starts.length;
+    }
+
+    /**
+     * 查找可能包含key的数据段，即最后一个第一个key小于等于目标key的数据段
+     *
+     * @param key
+     * @return 数据段序号，key小于所有数据段时返回-1
+     */
+    public int floor(byte[] key) {
+        int left = 0;
+        int right = size() - 1;
+        int result = -1;
+        while (left <= right) {
+            int mid = (left + right) >>> 1;
+            int cmp = CodingUtil.compare(keyBytes, keyOffsets[mid], keyOffsets[mid + 1] - keyOffsets[mid],
+                    key, 0, key.length);
+            if (cmp <= 0) {
+                result = mid;
+                left = mid + 1;
+            } else {
+                right = mid - 1;
+            }
+        }
+        return result;
+    }
+
+    public byte[] getKey(int index) {
+        return Arrays.copyOfRange(keyBytes, keyOffsets[index], keyOffsets[index + 1]);
+    }
+
+    public long getStart(int index) {
+        return starts[index];
+    }
+
+    public int getLen(int index) {
+        return lens[index];
+    }
+
+    public byte[] toBytes() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CodingUtil.writeInt(out, size());
+        for (int i = 0; i < size(); i++) {
+            int keyLen = keyOffsets[i + 1] - keyOffsets[i];
+            CodingUtil.writeVarInt(out, keyLen);
+            out.write(keyBytes, keyOffsets[i], keyLen);
+            CodingUtil.writeLong(out, starts[i]);
+            CodingUtil.writeInt(out, lens[i]);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * 从序列化数据中恢复稀疏索引
+     *
+     * @param data
+     * @return
+     */
+    public static SparseIndex fromBytes(byte[] data) {
+        int count = CodingUtil.readInt(data, 0);
+        Builder builder = new Builder(count);
+        int[] pos = {4};
+        for (int i = 0; i < count; i++) {
+            int keyLen = CodingUtil.readVarInt(data, pos);
+            int keyStart = pos[0];
+            pos[0] += keyLen;
+            long start = CodingUtil.readLong(data, pos[0]);
+            int len = CodingUtil.readInt(data, pos[0] + 8);
+            pos[0] += 12;
+            builder.add(data, keyStart, keyLen, start, len);
+        }
+        return builder.build();
+    }
+
+    /**
+     * 从旧格式(JSON)的稀疏索引转换
+     *
+     * @param index
+     * @return
+     */
+    public static SparseIndex fromPositions(Map<String, Position> index) {
+        Builder builder = new Builder(index.size());
+        for (Map.Entry<String, Position> entry : index.entrySet()) {
+            builder.add(ConvertUtil.toBytes(entry.getKey()), entry.getValue().getStart(), (int) entry.getValue().getLen());
+        }
+        return builder.build();
+    }
+
+    /**
+     * 稀疏索引构建器，需按key递增的顺序添加数据段
+     */
+    public static class Builder {
+
+        private final ByteArrayOutputStream keyBytes = new ByteArrayOutputStream();
+
+        private int[] keyOffsets;
+
+        private long[] starts;
+
+        private int[] lens;
+
+        private int count;
+
+        public Builder() {
+            this(16);
+        }
+
+        public Builder(int expectedSize) {
+            int capacity = Math.max(1, expectedSize);
+            keyOffsets = new int[capacity + 1];
+            starts = new long[capacity];
+            lens = new int[capacity];
+        }
+
+        public void add(byte[] key, long start, int len) {
+            add(key, 0, key.length, start, len);
+        }
+
+        private void add(byte[] key, int keyOffset, int keyLen, long start, int len) {
+            if (count == starts.length) {
+                starts = Arrays.copyOf(starts, count * 2);
+                lens = Arrays.copyOf(lens, count * 2);
+                keyOffsets = Arrays.copyOf(keyOffsets, count * 2 + 1);
+            }
+            keyOffsets[count] = keyBytes.size();
+            keyBytes.write(key, keyOffset, keyLen);
+            starts[count] = start;
+            lens[count] = len;
+            count++;
+        }
+
+        public SparseIndex build() {
+            int[] offsets = Arrays.copyOf(keyOffsets, count + 1);
+            offsets[count] = keyBytes.size();
+            return new SparseIndex(keyBytes.toByteArray(), offsets,
+                    Arrays.copyOf(starts, count), Arrays.copyOf(lens, count));
+        }
+    }
+}
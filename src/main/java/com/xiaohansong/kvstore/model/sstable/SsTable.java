@@ -1,23 +1,39 @@
 package com.xiaohansong.kvstore.model.sstable;
 
+import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.JSONObject;
 import com.alibaba.fastjson.TypeReference;
+import com.alibaba.fastjson.parser.Feature;
+import com.xiaohansong.kvstore.metrics.StoreMetrics;
 import com.xiaohansong.kvstore.model.Position;
 import com.xiaohansong.kvstore.model.command.Command;
-import com.xiaohansong.kvstore.model.command.RmCommand;
-import com.xiaohansong.kvstore.model.command.SetCommand;
+import com.xiaohansong.kvstore.model.iterator.PeekingIterator;
+import com.xiaohansong.kvstore.utils.ChannelOutputStream;
 import com.xiaohansong.kvstore.utils.ConvertUtil;
+import com.xiaohansong.kvstore.utils.IoUtil;
+import com.xiaohansong.kvstore.utils.KeyUtil;
 import com.xiaohansong.kvstore.utils.LoggerUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
-import java.util.LinkedList;
-import java.util.Optional;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 排序字符串表
@@ -26,6 +42,22 @@ public class SsTable implements Closeable {
 
     public static final String RW = "rw";
 
+    /**
+     * 构建ssTable时文件写入缓冲区的大小(字节)
+     */
+    private static final int WRITE_BUFFER_SIZE = 1024 * 1024;
+
+    /**
+     * 顺序遍历时每次预读的数据量(字节)
+     */
+    private static final int SCAN_READAHEAD_BYTES = 64 * 1024;
+
+    /**
+     * 点查询解压数据段使用的缓冲区，每个线程一个
+     */
+    private static final ThreadLocal<BlockCompressor> DECOMPRESSORS =
+            ThreadLocal.withInitial(() -> new BlockCompressor(CompressionType.NONE));
+
     private final Logger LOGGER = LoggerFactory.getLogger(SsTable.class);
 
     /**
@@ -36,12 +68,38 @@ public class SsTable implements Closeable {
     /**
      * 字段稀疏索引
      */
-    private TreeMap<String, Position> sparseIndex;
+    private SparseIndex sparseIndex;
+
+    /**
+     * 构建ssTable时使用的稀疏索引构建器
+     */
+    private SparseIndex.Builder sparseIndexBuilder;
+
+    /**
+     * 布隆过滤器，旧格式的表没有布隆过滤器
+     */
+    private BloomFilter bloomFilter;
+
+    /**
+     * 每个key占用的布隆过滤器位数，为0时不构建布隆过滤器
+     */
+    private final int bloomBitsPerKey;
 
     /**
-     * 文件句柄
+     * 布隆过滤器判定key不存在，从而跳过磁盘读取的次数
      */
-    private final RandomAccessFile tableFile;
+    private final AtomicLong bloomUsefulCount = new AtomicLong();
+
+    /**
+     * 布隆过滤器判定key可能存在，但实际不存在的次数
+     */
+    private final AtomicLong bloomFalsePositiveCount = new AtomicLong();
+
+    /**
+     * 只读的文件句柄，使用按位置读取，不共享文件指针，多个线程可以同时读取
+     * 构建完成或加载时打开
+     */
+    private FileChannel channel;
 
     /**
      * 文件路径
@@ -49,21 +107,72 @@ public class SsTable implements Closeable {
     private final String filePath;
 
     /**
-     * @param filePath 表文件路径
-     * @param partSize 数据分区大小
+     * 文件大小，构建完成、打开文件或根据 MANIFEST 创建时记录，表文件之后不再修改
+     */
+    private volatile long fileSize;
+
+    /**
+     * 引用计数，每个包含该表的 {@link com.xiaohansong.kvstore.service.TableVersion} 持有一个引用
+     */
+    private final AtomicInteger refs = new AtomicInteger();
+
+    /**
+     * 是否已被合并淘汰，淘汰的表在最后一个引用释放后删除文件
+     */
+    private volatile boolean obsolete;
+
+    /**
+     * 数据块缓存，为null时不缓存
+     */
+    private volatile BlockCache blockCache;
+
+    /**
+     * 读取字节数的统计，为null时不统计
      */
-    private SsTable(String filePath, int partSize) {
+    private volatile StoreMetrics metrics;
+
+    /**
+     * 在数据块缓存中的编号
+     */
+    private final long cacheId = BlockCache.newTableId();
+
+    /**
+     * 表中最小的key
+     */
+    private byte[] minKey;
+
+    /**
+     * 表中最大的key
+     */
+    private byte[] maxKey;
+
+    /**
+     * 是否已经打开文件并加载了稀疏索引和布隆过滤器
+     */
+    private volatile boolean opened;
+
+    /**
+     * @param filePath        表文件路径
+     * @param partSize        数据分区大小
+     * @param bloomBitsPerKey 布隆过滤器每个key占用的位数
+     */
+    private SsTable(String filePath, int partSize, int bloomBitsPerKey) {
         this.tableMetaInfo = new TableMetaInfo();
         this.tableMetaInfo.setPartSize(partSize);
         this.filePath = filePath;
+        this.bloomBitsPerKey = bloomBitsPerKey;
+    }
+
+    /**
+     * 以只读方式打开文件
+     */
+    private void openForRead() {
         try {
-            this.tableFile = new RandomAccessFile(filePath, RW);
-            // 设置 当前文件引用的 指针
-            tableFile.seek(0);
+            this.channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ);
+            this.fileSize = channel.size();
         } catch (Throwable t) {
             throw new RuntimeException(t);
         }
-        sparseIndex = new TreeMap<>();
     }
 
     /**
@@ -71,12 +180,86 @@ public class SsTable implements Closeable {
      *
      * @param filePath
      * @param partSize
+     * @param memoryTable 按 {@link KeyUtil#COMPARATOR} 排序
+     * @return
+     */
+    public static SsTable createFromMemoryTable(String filePath, int partSize, TreeMap<byte[], Command> memoryTable) {
+        return createFromMemoryTable(filePath, partSize, BloomFilter.DEFAULT_BITS_PER_KEY, memoryTable);
+    }
+
+    /**
+     * 从内存表中构建ssTable，数据段使用 LZ4 压缩
+     *
+     * @param filePath
+     * @param partSize
+     * @param bloomBitsPerKey 布隆过滤器每个key占用的位数，为0时不构建布隆过滤器
      * @param memoryTable
      * @return
      */
-    public static SsTable createFromMemoryTable(String filePath, int partSize, TreeMap<String, Command> memoryTable) {
-        SsTable ssTable = new SsTable(filePath, partSize);
-        ssTable.initFromIndex(memoryTable);
+    public static SsTable createFromMemoryTable(String filePath, int partSize, int bloomBitsPerKey,
+                                                TreeMap<byte[], Command> memoryTable) {
+        return createFromMemoryTable(filePath, partSize, bloomBitsPerKey, CompressionType.LZ4, memoryTable);
+    }
+
+    /**
+     * 从内存表中构建ssTable
+     *
+     * @param filePath
+     * @param partSize
+     * @param bloomBitsPerKey 布隆过滤器每个key占用的位数，为0时不构建布隆过滤器
+     * @param compression     数据段的压缩算法
+     * @param memoryTable
+     * @return
+     */
+    public static SsTable createFromMemoryTable(String filePath, int partSize, int bloomBitsPerKey,
+                                                CompressionType compression, TreeMap<byte[], Command> memoryTable) {
+        return createFromIterator(filePath, partSize, bloomBitsPerKey, 0, compression,
+                new PeekingIterator<>(memoryTable.values().iterator()), Long.MAX_VALUE);
+    }
+
+    /**
+     * 从按key递增的命令迭代器中构建ssTable
+     * 数据区长度达到 maxDataLen 后停止消费迭代器，剩余的数据由调用方写入下一个ssTable；
+     * 同一个key的多个版本总是写入同一个数据段和同一个ssTable
+     *
+     * @param filePath
+     * @param partSize
+     * @param bloomBitsPerKey 布隆过滤器每个key占用的位数，为0时不构建布隆过滤器
+     * @param level           ssTable 所在的层级
+     * @param compression     数据段的压缩算法
+     * @param iterator        按key递增、同一个key按序列号递减的命令，不能为空
+     * @param maxDataLen      数据区最大长度
+     * @return
+     */
+    public static SsTable createFromIterator(String filePath, int partSize, int bloomBitsPerKey, int level,
+                                             CompressionType compression, PeekingIterator<Command> iterator,
+                                             long maxDataLen) {
+        return createFromIterator(filePath, partSize, bloomBitsPerKey, level, compression, iterator, maxDataLen, null);
+    }
+
+    /**
+     * 从按key递增的命令迭代器中构建ssTable，数据段在线程池中并行编码和压缩
+     *
+     * @param filePath
+     * @param partSize
+     * @param bloomBitsPerKey 布隆过滤器每个key占用的位数，为0时不构建布隆过滤器
+     * @param level           ssTable 所在的层级
+     * @param compression     数据段的压缩算法
+     * @param iterator        按key递增、同一个key按序列号递减的命令，不能为空
+     * @param maxDataLen      数据区最大长度
+     * @param pool            编码数据段的线程池，为null时在调用线程中编码
+     * @return
+     */
+    public static SsTable createFromIterator(String filePath, int partSize, int bloomBitsPerKey, int level,
+                                             CompressionType compression, PeekingIterator<Command> iterator,
+                                             long maxDataLen, ForkJoinPool pool) {
+        SsTable ssTable = new SsTable(filePath, partSize, bloomBitsPerKey);
+        ssTable.tableMetaInfo.setVersion(TableMetaInfo.CURRENT_VERSION);
+        ssTable.tableMetaInfo.setLevel(level);
+        ssTable.tableMetaInfo.setCompression(compression.getCode());
+        ssTable.initFromIndex(iterator, maxDataLen, pool);
+        ssTable.openForRead();
+        ssTable.opened = true;
         return ssTable;
     }
 
@@ -87,83 +270,186 @@ public class SsTable implements Closeable {
      * @return
      */
     public static SsTable createFromFile(String filePath) {
-        SsTable ssTable = new SsTable(filePath, 0);
+        SsTable ssTable = new SsTable(filePath, 0, 0);
+        ssTable.openForRead();
         // 构建内存中的稀疏索引表
         ssTable.restoreFromFile();
+        ssTable.opened = true;
         return ssTable;
     }
 
     /**
-     * 从ssTable中查询数据
+     * 根据 MANIFEST 中记录的信息构建ssTable，第一次查询或遍历时才打开文件，加快数据库的启动
+     *
+     * @param filePath
+     * @param level
+     * @param minKey
+     * @param maxKey
+     * @param maxSequence
+     * @return
+     */
+    public static SsTable createLazily(String filePath, int level, byte[] minKey, byte[] maxKey, long maxSequence) {
+        SsTable ssTable = new SsTable(filePath, 0, 0);
+        ssTable.tableMetaInfo.setLevel(level);
+        ssTable.tableMetaInfo.setMaxSequence(maxSequence);
+        ssTable.minKey = minKey;
+        ssTable.maxKey = maxKey;
+        ssTable.fileSize = new File(filePath).length();
+        return ssTable;
+    }
+
+    /**
+     * 打开文件并加载稀疏索引，只执行一次
+     */
+    private void ensureOpened() {
+        if (opened) {
+            return;
+        }
+        synchronized (this) {
+            if (!opened) {
+                openForRead();
+                restoreFromFile();
+                opened = true;
+            }
+        }
+    }
+
+    /**
+     * 从ssTable中查询数据的最新版本
      *
      * @param key
      * @return
      */
-    public Command query(String key) {
-        try {
-            LinkedList<Position> sparseKeyPositionList = new LinkedList<>();
-
-            Position lastSmallPosition = null;
-            Position firstBigPosition = null;
-
-            //从稀疏索引中找到最后一个小于key的位置，以及第一个大于key的位置(这个没有必要吧)
-            for (String k : sparseIndex.keySet()) {
-                // 这个有可能把 等于的 也计算在内的了
-                if (k.compareTo(key) <= 0) {
-                    lastSmallPosition = sparseIndex.get(k);
-                } else {
-                    firstBigPosition = sparseIndex.get(k);
-                    break;
-                }
+    public Command query(byte[] key) {
+        return query(key, Long.MAX_VALUE);
+    }
+
+    /**
+     * 从ssTable中查询数据在序列号 sequence 时可见的版本
+     *
+     * @param key
+     * @param sequence
+     * @return
+     */
+    public Command query(byte[] key, long sequence) {
+        // 不在表的key范围内
+        if (minKey == null || KeyUtil.compare(key, minKey) < 0 || KeyUtil.compare(key, maxKey) > 0) {
+            return null;
+        }
+        ensureOpened();
+        // 布隆过滤器判定不存在时无需读取磁盘
+        if (bloomFilter != null && !bloomFilter.mightContain(BloomFilter.hash(key))) {
+            bloomUsefulCount.incrementAndGet();
+            return null;
+        }
+        // 只有数据块中没有这个key的任何版本才算误判，key存在但在 sequence 时不可见不算
+        boolean[] found = new boolean[1];
+        Command command = queryFromFile(key, sequence, found);
+        if (!found[0] && bloomFilter != null) {
+            bloomFalsePositiveCount.incrementAndGet();
+        }
+        return command;
+    }
+
+    /**
+     * 批量查询多个key在序列号 sequence 时可见的版本
+     * key 按递增顺序查询，落在同一个数据段的相邻key共用一次数据段读取
+     *
+     * @param keys     按key递增排列
+     * @param sequence
+     * @return 与 keys 一一对应，找不到的为null
+     */
+    public Command[] query(List<byte[]> keys, long sequence) {
+        Command[] commands = new Command[keys.size()];
+        if (minKey == null) {
+            return commands;
+        }
+        DataBlock block = null;
+        int blockIndex = -1;
+        boolean[] found = new boolean[1];
+        for (int i = 0; i < keys.size(); i++) {
+            byte[] key = keys.get(i);
+            if (KeyUtil.compare(key, minKey) < 0) {
+                continue;
             }
-            if (lastSmallPosition != null) {
-                sparseKeyPositionList.add(lastSmallPosition);
+            if (KeyUtil.compare(key, maxKey) > 0) {
+                break;
             }
-            if (firstBigPosition != null) {
-                sparseKeyPositionList.add(firstBigPosition);
+            ensureOpened();
+            if (bloomFilter != null && !bloomFilter.mightContain(BloomFilter.hash(key))) {
+                bloomUsefulCount.incrementAndGet();
+                continue;
             }
-            if (sparseKeyPositionList.size() == 0) {
-                return null;
+            found[0] = false;
+            int index = sparseIndex.floor(key);
+            if (index >= 0) {
+                if (index != blockIndex) {
+                    block = readBlock(index);
+                    blockIndex = index;
+                }
+                commands[i] = block.get(key, sequence, found);
             }
+            if (!found[0] && bloomFilter != null) {
+                bloomFalsePositiveCount.incrementAndGet();
+            }
+        }
+        return commands;
+    }
 
-            LoggerUtil.debug(LOGGER, "[SsTable][restoreFromFile][sparseKeyPositionList]: {}", sparseKeyPositionList);
-
-            Position firstKeyPosition = sparseKeyPositionList.getFirst();
-            Position lastKeyPosition = sparseKeyPositionList.getLast();
-            long start = 0;
-            long len = 0;
-            start = firstKeyPosition.getStart();
+    /**
+     * 从文件中查询数据
+     * key如果存在，必定位于稀疏索引中最后一个小于等于key的数据段内，只需要读取这一个数据段
+     *
+     * @param key
+     * @param sequence
+     * @param found    数据块中存在key的任意版本时 found[0] 置为true
+     * @return
+     */
+    private Command queryFromFile(byte[] key, long sequence, boolean[] found) {
+        int index = sparseIndex.floor(key);
+        if (index < 0) {
+            return null;
+        }
+        // 在块内二分查找，不需要解码整个块
+        return readBlock(index).get(key, sequence, found);
+    }
 
-            // 有可能 等于吗？
-            if (firstKeyPosition.equals(lastKeyPosition)) {
-                len = firstKeyPosition.getLen();
-            } else {
-                // 两个 段之间的 总长度
-                len = lastKeyPosition.getStart() + lastKeyPosition.getLen() - start;
+    /**
+     * 读取数据块，优先从数据块缓存中获取
+     *
+     * @param index 数据段序号
+     * @return
+     */
+    private DataBlock readBlock(int index) {
+        long start = sparseIndex.getStart(index);
+        BlockCache cache = blockCache;
+        if (cache != null) {
+            DataBlock block = cache.get(cacheId, start);
+            if (block != null) {
+                return block;
             }
-
-            //key如果存在，必定位于区间内，所以只需要读取区间内的数据，减少io
-            byte[] dataPart = new byte[(int) len];
-            tableFile.seek(start);
-            // 全都读取到 内存 数组中
-            tableFile.read(dataPart);
-            int pStart = 0;
-            //读取分区数据
-            for (Position position : sparseKeyPositionList) {
-                // 截取第一个 段
-                JSONObject dataPartJson = JSONObject.parseObject(new String(dataPart, pStart, (int) position.getLen()));
-                LoggerUtil.debug(LOGGER, "[SsTable][restoreFromFile][dataPartJson]: {}", dataPartJson);
-                if (dataPartJson.containsKey(key)) {
-                    JSONObject value = dataPartJson.getJSONObject(key);
-                    return ConvertUtil.jsonToCommand(value);
-                }
-                // 下一个 段
-                pStart = pStart + (int) position.getLen();
+        }
+        byte[] dataPart = readBytes(start, sparseIndex.getLen(index));
+        DataBlock block;
+        if (isCompressed()) {
+            // 放入缓存的数据块需要独占解压后的数据，不放入缓存时解压到线程的缓冲区中，查询完即不再使用
+            block = cache != null ? BlockCompressor.decompressCopy(dataPart, 0, dataPart.length, hasSequence())
+                    : DECOMPRESSORS.get().decompress(dataPart, 0, dataPart.length, hasSequence());
+        } else if (tableMetaInfo.getVersion() != TableMetaInfo.VERSION_JSON) {
+            block = new DataBlock(dataPart, 0, dataPart.length, hasSequence());
+        } else {
+            // 旧格式的数据段转换成二进制数据块，缓存和查询统一处理
+            DataBlockBuilder builder = new DataBlockBuilder();
+            for (Command command : decodeDataPart(dataPart, 0, dataPart.length, null)) {
+                builder.add(command);
             }
-            return null;
-        } catch (Throwable t) {
-            throw new RuntimeException(t);
+            byte[] blockBytes = builder.finish();
+            block = new DataBlock(blockBytes, 0, blockBytes.length);
         }
+        if (cache != null) {
+            cache.put(cacheId, start, block);
+        }
+        return block;
     }
 
     /**
@@ -173,21 +459,31 @@ public class SsTable implements Closeable {
     private void restoreFromFile() {
         try {
             // 从文件中 读取元数据
-            TableMetaInfo tableMetaInfo = TableMetaInfo.readFromFile(tableFile);
+            TableMetaInfo tableMetaInfo = TableMetaInfo.readFromFile(channel);
             LoggerUtil.debug(LOGGER, "[SsTable][restoreFromFile][tableMetaInfo]: {}", tableMetaInfo);
             // 读取稀疏索引
-            byte[] indexBytes = new byte[(int) tableMetaInfo.getIndexLen()];
-            // 稀疏索引区 首地址
-            tableFile.seek(tableMetaInfo.getIndexStart());
-            // 稀疏索引数据
-            tableFile.read(indexBytes);
-            String indexStr = new String(indexBytes, StandardCharsets.UTF_8);
-            LoggerUtil.debug(LOGGER, "[SsTable][restoreFromFile][indexStr]: {}", indexStr);
+            byte[] indexBytes = readBytes(tableMetaInfo.getIndexStart(), (int) tableMetaInfo.getIndexLen());
             // 构建内存中的稀疏索引表
-            sparseIndex = JSONObject.parseObject(indexStr, new TypeReference<TreeMap<String, Position>>() {
-            });
+            if (tableMetaInfo.getVersion() >= TableMetaInfo.VERSION_BINARY_INDEX) {
+                sparseIndex = SparseIndex.fromBytes(indexBytes);
+            } else {
+                sparseIndex = SparseIndex.fromPositions(JSONObject.parseObject(new String(indexBytes, StandardCharsets.UTF_8),
+                        new TypeReference<TreeMap<String, Position>>() {
+                        }));
+            }
+            // 读取布隆过滤器
+            if (tableMetaInfo.getBloomLen() > 0) {
+                byte[] bloomBytes = readBytes(tableMetaInfo.getBloomStart(), (int) tableMetaInfo.getBloomLen());
+                bloomFilter = BloomFilter.fromBytes(bloomBytes);
+            }
             this.tableMetaInfo = tableMetaInfo;
-            LoggerUtil.debug(LOGGER, "[SsTable][restoreFromFile][sparseIndex]: {}", sparseIndex);
+            // 最大的key位于最后一个数据段的末尾，延迟打开时已经从 MANIFEST 中得到
+            if (maxKey == null && sparseIndex.size() > 0) {
+                minKey = sparseIndex.getKey(0);
+                List<Command> lastPart = readDataPart(sparseIndex.size() - 1);
+                maxKey = lastPart.get(lastPart.size() - 1).getKey();
+            }
+            LoggerUtil.debug(LOGGER, "[SsTable][restoreFromFile]: {} parts", sparseIndex.size());
         } catch (Throwable t) {
             throw new RuntimeException(t);
         }
@@ -195,49 +491,75 @@ public class SsTable implements Closeable {
 
     /**
      * 从内存表转化为ssTable
+     * 在调用线程中按顺序切分数据段，数据段的编码和压缩交给 {@link DataBlockWriter} 在线程池中并行执行，
+     * 按切分顺序写入带缓冲区的文件
      *
-     * @param memory
+     * @param iterator   按key递增、同一个key按序列号递减的命令
+     * @param maxDataLen 数据区最大长度，并行编码时按已写入的长度加上编码中数据段的原始长度估算
+     * @param pool       编码数据段的线程池，为null时在调用线程中编码
      */
-    private void initFromIndex(TreeMap<String, Command> memory) {
-        try {
-            JSONObject partData = new JSONObject(true);
+    private void initFromIndex(PeekingIterator<Command> iterator, long maxDataLen, ForkJoinPool pool) {
+        try (ChannelOutputStream tableFile = new ChannelOutputStream(Paths.get(filePath), WRITE_BUFFER_SIZE)) {
+            sparseIndexBuilder = new SparseIndex.Builder();
+            List<Integer> keyHashes = new ArrayList<>();
+            DataBlockWriter blockWriter = new DataBlockWriter(tableFile, compressionType(), bloomBitsPerKey > 0,
+                    sparseIndexBuilder, keyHashes, pool);
+            int partSize = (int) tableMetaInfo.getPartSize();
+            List<Command> part = new ArrayList<>(partSize);
             // 获得当前文件写指针位置
-            tableMetaInfo.setDataStart(tableFile.getFilePointer());
-            for (Command command : memory.values()) {
-                //处理set命令
-                if (command instanceof SetCommand) {
-                    SetCommand set = (SetCommand) command;
-                    partData.put(set.getKey(), set);
-                }
-                //处理rm命令
-                if (command instanceof RmCommand) {
-                    RmCommand rm = (RmCommand) command;
-                    partData.put(rm.getKey(), rm);
+            tableMetaInfo.setDataStart(tableFile.position());
+            while (iterator.hasNext()) {
+                Command command = iterator.next();
+                part.add(command);
+                if (minKey == null) {
+                    minKey = command.getKey();
                 }
+                maxKey = command.getKey();
+                tableMetaInfo.setMaxSequence(Math.max(tableMetaInfo.getMaxSequence(), command.getSequence()));
 
                 //达到分段数量，开始写入数据段，目的是利用段 构建 稀疏索引
-                if (partData.size() >= tableMetaInfo.getPartSize()) {
-                    writeDataPart(partData);
+                //同一个key的多个版本不能拆分到两个数据段，否则按稀疏索引只能找到其中一个数据段
+                boolean sameKeyNext = iterator.hasNext() && Arrays.equals(iterator.peek().getKey(), command.getKey());
+                if (part.size() >= partSize && !sameKeyNext) {
+                    blockWriter.add(part);
+                    part = new ArrayList<>(partSize);
+                    if (blockWriter.estimatedPosition() - tableMetaInfo.getDataStart() >= maxDataLen) {
+                        break;
+                    }
                 }
             }
 
             //遍历完之后如果有剩余的数据（尾部数据不一定达到分段大小条件）也写入文件
-            if (partData.size() > 0) {
-                writeDataPart(partData);
+            if (!part.isEmpty()) {
+                blockWriter.add(part);
             }
+            blockWriter.finish();
             // 总体数据长度
-            long dataLen = tableFile.getFilePointer() - tableMetaInfo.getDataStart();
+            long dataLen = tableFile.position() - tableMetaInfo.getDataStart();
             tableMetaInfo.setDataLen(dataLen);
             //保存稀疏索引
-            byte[] indexBytes = JSONObject.toJSONString(sparseIndex).getBytes(StandardCharsets.UTF_8);
-            tableMetaInfo.setIndexStart(tableFile.getFilePointer());
+            sparseIndex = sparseIndexBuilder.build();
+            sparseIndexBuilder = null;
+            byte[] indexBytes = sparseIndex.toBytes();
+            tableMetaInfo.setIndexStart(tableFile.position());
             // SSTable 写入 稀疏索引
             tableFile.write(indexBytes);
             tableMetaInfo.setIndexLen(indexBytes.length);
-            LoggerUtil.debug(LOGGER, "[SsTable][initFromIndex][sparseIndex]: {}", sparseIndex);
+            LoggerUtil.debug(LOGGER, "[SsTable][initFromIndex]: {} parts", sparseIndex.size());
+
+            // SSTable 写入 布隆过滤器
+            if (bloomBitsPerKey > 0) {
+                bloomFilter = BloomFilter.create(keyHashes, bloomBitsPerKey);
+                byte[] bloomBytes = bloomFilter.toBytes();
+                tableMetaInfo.setBloomStart(tableFile.position());
+                tableFile.write(bloomBytes);
+                tableMetaInfo.setBloomLen(bloomBytes.length);
+            }
 
             //SSTable 写入 文件元数据
-            tableMetaInfo.writeToFile(tableFile);
+            tableMetaInfo.writeToFile(new DataOutputStream(tableFile));
+            // 持久化完成后会删除对应的WAL，表文件必须先落盘
+            tableFile.sync();
             LoggerUtil.info(LOGGER, "[SsTable][initFromIndex]: {},{}", filePath, tableMetaInfo);
 
         } catch (Throwable t) {
@@ -246,24 +568,284 @@ public class SsTable implements Closeable {
     }
 
     /**
-     * 将数据分区写入文件
+     * 按key递增的顺序遍历表中的全部数据，每次只读取一个数据段
+     *
+     * @return
+     */
+    public Iterator<Command> iterator() {
+        return iterator(null);
+    }
+
+    /**
+     * 从 startKey 开始按key递增的顺序遍历表中的数据
+     * 顺序读取时一次预读多个连续的数据段，减少读取次数，内存中最多保留 SCAN_READAHEAD_BYTES 的原始数据
+     *
+     * @param startKey 起始key(包含)，为null时从头开始
+     * @return
+     */
+    public Iterator<Command> iterator(byte[] startKey) {
+        ensureOpened();
+        int firstPart = startKey == null ? 0 : Math.max(0, sparseIndex.floor(startKey));
+        PeekingIterator<Command> iterator = new PeekingIterator<>(new TableIterator(firstPart));
+        // 起始数据段中小于 startKey 的数据需要跳过
+        while (startKey != null && iterator.hasNext() && KeyUtil.compare(iterator.peek().getKey(), startKey) < 0) {
+            iterator.next();
+        }
+        return iterator;
+    }
+
+    /**
+     * 顺序遍历数据段的迭代器
+     */
+    private class TableIterator implements Iterator<Command> {
+
+        private Iterator<Command> current = Collections.emptyIterator();
+
+        private int nextPart;
+
+        /**
+         * 预读的数据及其在文件中的起始位置
+         */
+        private byte[] buffer = new byte[0];
+
+        private long bufferStart;
+
+        /**
+         * 解压使用的缓冲区，每个数据段解码成命令后就不再需要
+         */
+        private final BlockCompressor decompressor = new BlockCompressor(CompressionType.NONE);
+
+        private TableIterator(int firstPart) {
+            this.nextPart = firstPart;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!current.hasNext() && nextPart < sparseIndex.size()) {
+                current = readAhead(nextPart++).iterator();
+            }
+            return current.hasNext();
+        }
+
+        @Override
+        public Command next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return current.next();
+        }
+
+        /**
+         * 读取一个数据段，不在预读数据中时从该数据段开始预读连续的多个数据段
+         *
+         * @param index 数据段序号
+         * @return
+         */
+        private List<Command> readAhead(int index) {
+            long start = sparseIndex.getStart(index);
+            int len = sparseIndex.getLen(index);
+            if (start < bufferStart || start + len > bufferStart + buffer.length) {
+                long end = start + len;
+                for (int i = index + 1; i < sparseIndex.size() && end - start < SCAN_READAHEAD_BYTES
+                        && sparseIndex.getStart(i) == end; i++) {
+                    end += sparseIndex.getLen(i);
+                }
+                buffer = readBytes(start, (int) (end - start));
+                bufferStart = start;
+            }
+            return decodeDataPart(buffer, (int) (start - bufferStart), len, decompressor);
+        }
+    }
+
+    /**
+     * 读取并解码一个数据段中的全部命令
+     *
+     * @param index 数据段序号
+     * @return
+     */
+    private List<Command> readDataPart(int index) {
+        byte[] dataPart = readBytes(sparseIndex.getStart(index), sparseIndex.getLen(index));
+        return decodeDataPart(dataPart, 0, dataPart.length, DECOMPRESSORS.get());
+    }
+
+    /**
+     * 解码一个数据段中的全部命令
+     *
+     * @param data
+     * @param offset 数据段在 data 中的起始位置
+     * @param len          数据段长度
+     * @param decompressor 解压使用的缓冲区，数据段没有压缩时可以为null
+     * @return
+     */
+    private List<Command> decodeDataPart(byte[] data, int offset, int len, BlockCompressor decompressor) {
+        if (isCompressed()) {
+            return decompressor.decompress(data, offset, len, hasSequence()).entries();
+        }
+        if (tableMetaInfo.getVersion() != TableMetaInfo.VERSION_JSON) {
+            return new DataBlock(data, offset, len, hasSequence()).entries();
+        }
+        // 旧格式的数据段按key顺序写入，解析时需要保持字段顺序
+        JSONObject dataPartJson = JSON.parseObject(new String(data, offset, len, StandardCharsets.UTF_8), Feature.OrderedField);
+        List<Command> commands = new ArrayList<>(dataPartJson.size());
+        for (Object value : dataPartJson.values()) {
+            commands.add(ConvertUtil.jsonToCommand((JSONObject) value));
+        }
+        return commands;
+    }
+
+    /**
+     * 读取文件中的一段数据，按位置读取，不需要加锁
+     *
+     * @param start
+     * @param len
+     * @return
+     */
+    private byte[] readBytes(long start, int len) {
+        try {
+            StoreMetrics storeMetrics = metrics;
+            if (storeMetrics != null) {
+                storeMetrics.getBytesRead().add(len);
+            }
+            return IoUtil.readFully(channel, start, len);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 数据块中的记录是否带有序列号
+     *
+     * @return
+     */
+    private boolean hasSequence() {
+        return tableMetaInfo.getVersion() >= TableMetaInfo.VERSION_SEQUENCE;
+    }
+
+    /**
+     * 数据段是否压缩，压缩的数据段带有头部，即使是没有压缩效果的数据段
+     *
+     * @return
+     */
+    private boolean isCompressed() {
+        return compressionType() != CompressionType.NONE;
+    }
+
+    private CompressionType compressionType() {
+        return CompressionType.fromCode((byte) tableMetaInfo.getCompression());
+    }
+
+    /**
+     * 表中最大的序列号
+     *
+     * @return
+     */
+    public long getMaxSequence() {
+        return tableMetaInfo.getMaxSequence();
+    }
+
+    public String getFilePath() {
+        return filePath;
+    }
+
+    public int getLevel() {
+        return (int) tableMetaInfo.getLevel();
+    }
+
+    public byte[] getMinKey() {
+        return minKey;
+    }
+
+    public byte[] getMaxKey() {
+        return maxKey;
+    }
+
+    /**
+     * 文件大小
+     *
+     * @return
+     */
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    /**
+     * 关闭并删除表文件，用于合并完成后清理旧表
      *
-     * @param partData
      * @throws IOException
      */
-    private void writeDataPart(JSONObject partData) throws IOException {
-        byte[] partDataBytes = partData.toJSONString().getBytes(StandardCharsets.UTF_8);
-        long start = tableFile.getFilePointer();
-        tableFile.write(partDataBytes);
+    public void delete() throws IOException {
+        close();
+        if (!new File(filePath).delete()) {
+            throw new IOException("删除文件失败: " + filePath);
+        }
+    }
+
+    /**
+     * 设置共享的数据块缓存，点查询读取的数据块会放入缓存，顺序遍历不经过缓存，避免冲掉热点数据
+     *
+     * @param blockCache 为null时不缓存
+     */
+    public void setBlockCache(BlockCache blockCache) {
+        this.blockCache = blockCache;
+    }
+
+    /**
+     * 设置读取字节数的统计
+     *
+     * @param metrics 为null时不统计
+     */
+    public void setMetrics(StoreMetrics metrics) {
+        this.metrics = metrics;
+    }
 
-        //记录数据段的第一个key到稀疏索引中
-        Optional<String> firstKey = partData.keySet().stream().findFirst();
-        firstKey.ifPresent(s -> sparseIndex.put(s, new Position(s, start, partDataBytes.length)));
-        partData.clear();
+    /**
+     * 增加引用
+     */
+    public void retain() {
+        refs.incrementAndGet();
+    }
+
+    /**
+     * 释放引用，最后一个引用释放时关闭文件，已淘汰的表同时删除文件
+     */
+    public void release() {
+        if (refs.decrementAndGet() != 0) {
+            return;
+        }
+        try {
+            if (obsolete) {
+                delete();
+            } else {
+                close();
+            }
+        } catch (IOException e) {
+            LoggerUtil.error(LOGGER, e, "[SsTable][release]: 释放ssTable失败: {}", filePath);
+        }
+    }
+
+    /**
+     * 标记为已淘汰，不会再加入新的版本
+     */
+    public void markObsolete() {
+        obsolete = true;
+    }
+
+    public long getBloomUsefulCount() {
+        return bloomUsefulCount.get();
+    }
+
+    public long getBloomFalsePositiveCount() {
+        return bloomFalsePositiveCount.get();
     }
 
     @Override
     public void close() throws IOException {
-        tableFile.close();
+        BlockCache cache = blockCache;
+        if (cache != null) {
+            cache.evictTable(cacheId);
+        }
+        if (channel != null) {
+            channel.close();
+        }
     }
 }
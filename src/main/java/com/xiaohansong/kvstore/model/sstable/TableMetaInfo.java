@@ -2,15 +2,52 @@ package com.xiaohansong.kvstore.model.sstable;
 
 import lombok.Data;
 
-import java.io.RandomAccessFile;
+import com.xiaohansong.kvstore.utils.CodingUtil;
+import com.xiaohansong.kvstore.utils.IoUtil;
+
+import java.io.DataOutput;
+import java.nio.channels.FileChannel;
 
 /**
  * ssTable索引信息
  * 这里序列化的是纯字节，没有进行编码序列化，是因为编码序列化的话，就没有固定长度了
+ * <p>
+ * 版本 {@link #VERSION_JSON} 的元信息固定为 6 个 long(含版本号)；
+ * 更高版本在 version 之前额外写入元信息字段个数，新增字段追加在末尾，旧文件中缺少的字段按 0 处理
  */
 @Data
 public class TableMetaInfo {
 
+    /**
+     * 旧格式：数据段为 JSON 字符串
+     */
+    public static final long VERSION_JSON = 0;
+
+    /**
+     * 二进制数据块格式，见 {@link DataBlockBuilder}
+     */
+    public static final long VERSION_BLOCK = 1;
+
+    /**
+     * 二进制数据块 + 二进制稀疏索引格式，见 {@link SparseIndex}
+     */
+    public static final long VERSION_BINARY_INDEX = 2;
+
+    /**
+     * 数据块中的每条记录带有序列号，同一个key可以有多个版本
+     */
+    public static final long VERSION_SEQUENCE = 3;
+
+    /**
+     * 数据段可以压缩，压缩算法见 {@link #compression}
+     */
+    public static final long VERSION_COMPRESSION = 4;
+
+    /**
+     * 当前写入的版本
+     */
+    public static final long CURRENT_VERSION = VERSION_COMPRESSION;
+
     /**
      * 版本号
      */
@@ -41,19 +78,45 @@ public class TableMetaInfo {
      */
     private long partSize;
 
+    /**
+     * 布隆过滤器区开始
+     */
+    private long bloomStart;
+
+    /**
+     * 布隆过滤器区长度，为0表示没有布隆过滤器
+     */
+    private long bloomLen;
+
+    /**
+     * ssTable 所在的层级，旧格式的表都在第0层
+     */
+    private long level;
+
+    /**
+     * 表中最大的序列号，旧格式的表为0
+     */
+    private long maxSequence;
+
+    /**
+     * 数据段的压缩算法，见 {@link CompressionType}，旧格式的表不压缩
+     */
+    private long compression;
+
     /**
      * 把数据写入到文件中
      *
      * @param file
      */
-    public void writeToFile(RandomAccessFile file) {
+    public void writeToFile(DataOutput file) {
         try {
-            // 固定 64 字节 放在尾部，一般都是在首部
-            file.writeLong(partSize);
-            file.writeLong(dataStart);
-            file.writeLong(dataLen);
-            file.writeLong(indexStart);
-            file.writeLong(indexLen);
+            long[] fields = fields();
+            for (long field : fields) {
+                file.writeLong(field);
+            }
+            if (version != VERSION_JSON) {
+                file.writeLong(fields.length);
+            }
             file.writeLong(version);
         } catch (Throwable t) {
             throw new RuntimeException(t);
@@ -63,36 +126,58 @@ public class TableMetaInfo {
     /**
      * 从文件中读取元信息，按照写入的顺序倒着读取出来
      *
-     * @param file
+     * @param channel
      * @return
      */
-    public static TableMetaInfo readFromFile(RandomAccessFile file) {
+    public static TableMetaInfo readFromFile(FileChannel channel) {
         try {
             TableMetaInfo tableMetaInfo = new TableMetaInfo();
-            long fileLen = file.length();
-
-            file.seek(fileLen - 8);
-            tableMetaInfo.setVersion(file.readLong());
-
-            file.seek(fileLen - 8 * 2);
-            tableMetaInfo.setIndexLen(file.readLong());
-
-            file.seek(fileLen - 8 * 3);
-            tableMetaInfo.setIndexStart(file.readLong());
-
-            file.seek(fileLen - 8 * 4);
-            tableMetaInfo.setDataLen(file.readLong());
-
-            file.seek(fileLen - 8 * 5);
-            tableMetaInfo.setDataStart(file.readLong());
-
-            file.seek(fileLen - 8 * 6);
-            tableMetaInfo.setPartSize(file.readLong());
-
+            long fileLen = channel.size();
+
+            byte[] tail = IoUtil.readFully(channel, fileLen - 8 * 2, 8 * 2);
+            tableMetaInfo.setVersion(CodingUtil.readLong(tail, 8));
+
+            long fieldCount;
+            long fieldsStart;
+            if (tableMetaInfo.getVersion() == VERSION_JSON) {
+                fieldCount = 5;
+                fieldsStart = fileLen - 8 * 6;
+            } else {
+                fieldCount = CodingUtil.readLong(tail, 0);
+                fieldsStart = fileLen - 8 * 2 - 8 * fieldCount;
+            }
+            byte[] fieldBytes = IoUtil.readFully(channel, fieldsStart, (int) fieldCount * 8);
+            long[] fields = new long[(int) Math.max(fieldCount, tableMetaInfo.fields().length)];
+            for (int i = 0; i < fieldCount; i++) {
+                fields[i] = CodingUtil.readLong(fieldBytes, i * 8);
+            }
+            tableMetaInfo.setFields(fields);
             return tableMetaInfo;
         } catch (Throwable t) {
             throw new RuntimeException(t);
         }
 
     }
+
+    /**
+     * 按写入顺序排列的元信息字段
+     *
+     * @return
+     */
+    private long[] fields() {
+        return new long[]{partSize, dataStart, dataLen, indexStart, indexLen, bloomStart, bloomLen, level, maxSequence, compression};
+    }
+
+    private void setFields(long[] fields) {
+        partSize = fields[0];
+        dataStart = fields[1];
+        dataLen = fields[2];
+        indexStart = fields[3];
+        indexLen = fields[4];
+        bloomStart = fields[5];
+        bloomLen = fields[6];
+        level = fields[7];
+        maxSequence = fields[8];
+        compression = fields[9];
+    }
 }
@@ -0,0 +1,171 @@
+package com.xiaohansong.kvstore.model.vlog;
+
+import com.xiaohansong.kvstore.metrics.StoreMetrics;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 值日志：大的值在持久化时写入只追加的值日志文件，ssTable中只保存值的位置，合并时不再重复写入这些值
+ * <p>
+ * 每次持久化最多生成一个值日志文件，MANIFEST 记录有效的文件。合并丢弃的旧版本指向的值成为垃圾，
+ * 按文件累计估算的垃圾量，垃圾回收时把文件中仍然有效的值写回数据库，然后删除整个文件
+ * 读请求通过 {@link #acquire()} 持有当前的 {@link ValueLogVersion}，查询期间读取的文件不会被删除
+ */
+public class ValueLog {
+
+    /**
+     * 有效的值日志文件，按编号从旧到新排列
+     */
+    private final ConcurrentSkipListMap<Long, ValueLogFile> files = new ConcurrentSkipListMap<>();
+
+    /**
+     * 各个文件中估算的垃圾字节数，重启后从0开始累计
+     */
+    private final Map<Long, LongAdder> garbageBytes = new ConcurrentHashMap<>();
+
+    private final StoreMetrics metrics;
+
+    /**
+     * 当前版本，在 this 的锁中替换
+     */
+    private volatile ValueLogVersion currentVersion = new ValueLogVersion(Collections.emptyMap());
+
+    /**
+     * @param metrics 读取字节数的统计，为null时不统计
+     */
+    public ValueLog(StoreMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * 加入一个已经持久化的值日志文件，之后才能读取其中的值
+     *
+     * @param file
+     */
+    public synchronized void add(ValueLogFile file) {
+        file.setMetrics(metrics);
+        files.put(file.getFileId(), file);
+        installVersion();
+    }
+
+    /**
+     * 持有当前版本的引用，查询中读取值日志之前调用，查询结束后调用 {@link ValueLogVersion#release()}
+     *
+     * @return
+     */
+    public ValueLogVersion acquire() {
+        while (true) {
+            ValueLogVersion version = currentVersion;
+            if (version.tryRetain()) {
+                return version;
+            }
+        }
+    }
+
+    /**
+     * 用当前的文件集合生成新版本，旧版本持有新版本的引用后释放
+     */
+    private void installVersion() {
+        ValueLogVersion version = new ValueLogVersion(Collections.unmodifiableMap(new HashMap<>(files)));
+        ValueLogVersion old = currentVersion;
+        old.setNext(version);
+        currentVersion = version;
+        old.release();
+    }
+
+    /**
+     * 记录一个不再被引用的值，合并丢弃旧版本时调用
+     *
+     * @param pointer
+     */
+    public void addGarbage(ValuePointer pointer) {
+        if (files.containsKey(pointer.getFileId())) {
+            garbageBytes.computeIfAbsent(pointer.getFileId(), id -> new LongAdder()).add(pointer.getLength());
+        }
+    }
+
+    /**
+     * 估算的垃圾比例达到 ratio 的文件，按编号从旧到新排列
+     *
+     * @param ratio
+     * @return
+     */
+    public List<ValueLogFile> pickGarbageCollection(double ratio) {
+        List<ValueLogFile> candidates = new ArrayList<>();
+        for (ValueLogFile file : files.values()) {
+            LongAdder garbage = garbageBytes.get(file.getFileId());
+            if (garbage != null && garbage.sum() >= file.getFileSize() * ratio) {
+                candidates.add(file);
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * 用垃圾回收时统计的准确值替换估算的垃圾量
+     *
+     * @param fileId
+     * @param bytes
+     */
+    public void setGarbage(long fileId, long bytes) {
+        LongAdder garbage = new LongAdder();
+        garbage.add(bytes);
+        garbageBytes.put(fileId, garbage);
+    }
+
+    /**
+     * 移除垃圾回收完成的文件，正在读取的线程结束后删除文件
+     *
+     * @param fileId
+     */
+    public synchronized void remove(long fileId) {
+        garbageBytes.remove(fileId);
+        ValueLogFile file = files.remove(fileId);
+        if (file != null) {
+            installVersion();
+            file.markObsolete();
+            file.release();
+        }
+    }
+
+    /**
+     * 全部有效的文件，按编号从旧到新排列
+     *
+     * @return
+     */
+    public Collection<ValueLogFile> getFiles() {
+        return files.values();
+    }
+
+    /**
+     * 值日志文件的总大小
+     *
+     * @return
+     */
+    public long getTotalBytes() {
+        long total = 0;
+        for (ValueLogFile file : files.values()) {
+            total += file.getFileSize();
+        }
+        return total;
+    }
+
+    /**
+     * 释放全部文件，正在读取的线程结束后关闭
+     */
+    public synchronized void close() {
+        for (ValueLogFile file : files.values()) {
+            file.release();
+        }
+        files.clear();
+        installVersion();
+    }
+}
@@ -0,0 +1,28 @@
+package com.xiaohansong.kvstore.model.vlog;
+
+import lombok.Getter;
+
+/**
+ * 值日志中的一条记录
+ */
+@Getter
+public class ValueLogEntry {
+
+    private final byte[] key;
+
+    /**
+     * 写入时的序列号，垃圾回收写回时保持不变
+     */
+    private final long sequence;
+
+    /**
+     * 值的位置
+     */
+    private final ValuePointer pointer;
+
+    public ValueLogEntry(byte[] key, long sequence, ValuePointer pointer) {
+        this.key = key;
+        this.sequence = sequence;
+        this.pointer = pointer;
+    }
+}
@@ -0,0 +1,181 @@
+package com.xiaohansong.kvstore.model.vlog;
+
+import com.xiaohansong.kvstore.metrics.StoreMetrics;
+import com.xiaohansong.kvstore.utils.CodingUtil;
+import com.xiaohansong.kvstore.utils.Crc32c;
+import com.xiaohansong.kvstore.utils.IoUtil;
+import com.xiaohansong.kvstore.utils.LoggerUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 只读的值日志文件，格式见 {@link ValueLogWriter}
+ * {@link ValueLog} 和包含文件的 {@link ValueLogVersion} 持有文件的引用，垃圾回收淘汰的文件在最后一个引用释放后删除
+ */
+public class ValueLogFile {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(ValueLogFile.class);
+
+    private final File file;
+
+    private final long fileId;
+
+    /**
+     * 只读的文件句柄，使用按位置读取，多个线程可以同时读取
+     */
+    private final FileChannel channel;
+
+    private final long fileSize;
+
+    /**
+     * 引用计数，创建时的引用属于 {@link ValueLog}
+     */
+    private final AtomicInteger refs = new AtomicInteger(1);
+
+    /**
+     * 是否已被垃圾回收淘汰
+     */
+    private volatile boolean obsolete;
+
+    /**
+     * 读取字节数的统计，为null时不统计
+     */
+    private volatile StoreMetrics metrics;
+
+    public ValueLogFile(File file, long fileId) throws IOException {
+        this.file = file;
+        this.fileId = fileId;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        this.fileSize = channel.size();
+        byte[] header = IoUtil.readFully(channel, 0, ValueLogWriter.FILE_HEADER_SIZE);
+        if (CodingUtil.readInt(header, 0) != ValueLogWriter.MAGIC) {
+            channel.close();
+            throw new IOException("不是值日志文件: " + file);
+        }
+    }
+
+    /**
+     * 读取一个值并校验
+     *
+     * @param pointer
+     * @return
+     * @throws IOException 校验失败时抛出
+     */
+    public byte[] read(ValuePointer pointer) throws IOException {
+        byte[] data = IoUtil.readFully(channel, pointer.getOffset(), pointer.getLength() + 4);
+        StoreMetrics currentMetrics = metrics;
+        if (currentMetrics != null) {
+            currentMetrics.getBytesRead().add(data.length);
+        }
+        if (Crc32c.compute(data, 0, pointer.getLength()) != CodingUtil.readInt(data, pointer.getLength())) {
+            throw new IOException("值日志校验失败: " + file + " " + pointer);
+        }
+        return Arrays.copyOf(data, pointer.getLength());
+    }
+
+    /**
+     * 按写入顺序遍历全部记录，用于垃圾回收，只读取记录头部和 key，值按需用 {@link #read(ValuePointer)} 读取
+     *
+     * @return
+     */
+    public Iterator<ValueLogEntry> iterator() {
+        return new EntryIterator();
+    }
+
+    public long getFileId() {
+        return fileId;
+    }
+
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    public void setMetrics(StoreMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * 尝试增加引用
+     *
+     * @return 文件已经被淘汰并关闭时返回false
+     */
+    public boolean tryRetain() {
+        while (true) {
+            int current = refs.get();
+            if (current == 0) {
+                return false;
+            }
+            if (refs.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 释放引用，最后一个引用释放时关闭文件，已淘汰的文件同时删除
+     */
+    public void release() {
+        if (refs.decrementAndGet() != 0) {
+            return;
+        }
+        try {
+            channel.close();
+            if (obsolete && !file.delete()) {
+                LoggerUtil.error(LOGGER, null, "[ValueLogFile][release]: 删除文件失败: {}", file);
+            }
+        } catch (IOException e) {
+            LoggerUtil.error(LOGGER, e, "[ValueLogFile][release]: 关闭值日志失败: {}", file);
+        }
+    }
+
+    /**
+     * 标记为已淘汰，之后释放最后一个引用时删除文件
+     */
+    public void markObsolete() {
+        obsolete = true;
+    }
+
+    /**
+     * 顺序读取记录的迭代器，每条记录读取两次：先读取头部，再读取 key
+     */
+    private class EntryIterator implements Iterator<ValueLogEntry> {
+
+        private long position = ValueLogWriter.FILE_HEADER_SIZE;
+
+        @Override
+        public boolean hasNext() {
+            return position < fileSize;
+        }
+
+        @Override
+        public ValueLogEntry next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            try {
+                int headerLen = (int) Math.min(ValueLogWriter.MAX_ENTRY_HEADER_SIZE, fileSize - position);
+                byte[] header = IoUtil.readFully(channel, position, headerLen);
+                int[] pos = {0};
+                int keyLen = CodingUtil.readVarInt(header, pos);
+                int valueLen = CodingUtil.readVarInt(header, pos);
+                long sequence = CodingUtil.readVarLong(header, pos);
+                long keyOffset = position + pos[0];
+                byte[] key = IoUtil.readFully(channel, keyOffset, keyLen);
+                ValuePointer pointer = new ValuePointer(fileId, keyOffset + keyLen, valueLen);
+                position = pointer.getOffset() + valueLen + 4;
+                return new ValueLogEntry(key, sequence, pointer);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.xiaohansong.kvstore.model.vlog;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 值日志文件集合的一个不可变版本
+ * {@link ValueLog} 持有当前版本的一个引用，读请求在整个查询期间持有版本的引用，版本持有其中各个文件的引用。
+ * 加入或回收文件时生成新的版本，旧版本持有新版本的引用，因此查询开始后新加入的文件同样可以读取；
+ * 查询开始前仍然有效的文件，在查询结束、引用全部释放后才会被删除
+ */
+public class ValueLogVersion {
+
+    /**
+     * 文件编号 -> 文件，不可修改
+     */
+    private final Map<Long, ValueLogFile> files;
+
+    /**
+     * 引用计数，创建时的引用属于 {@link ValueLog}
+     */
+    private final AtomicInteger refs = new AtomicInteger(1);
+
+    /**
+     * 之后的版本，生成新版本时设置
+     */
+    private volatile ValueLogVersion next;
+
+    /**
+     * @param files 不可修改的文件集合
+     */
+    ValueLogVersion(Map<Long, ValueLogFile> files) {
+        this.files = files;
+        for (ValueLogFile file : files.values()) {
+            file.tryRetain();
+        }
+    }
+
+    /**
+     * 读取一个值，依次在本版本和之后的版本中查找文件
+     *
+     * @param pointer
+     * @return
+     * @throws IOException 文件不存在或校验失败时抛出
+     */
+    public byte[] read(ValuePointer pointer) throws IOException {
+        for (ValueLogVersion version = this; version != null; version = version.next) {
+            ValueLogFile file = version.files.get(pointer.getFileId());
+            if (file != null) {
+                return file.read(pointer);
+            }
+        }
+        throw new IOException("值日志文件不存在: " + pointer);
+    }
+
+    /**
+     * 尝试增加引用
+     *
+     * @return 版本已经被释放时返回false，调用方需要重新读取当前版本
+     */
+    public boolean tryRetain() {
+        while (true) {
+            int current = refs.get();
+            if (current == 0) {
+                return false;
+            }
+            if (refs.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 释放引用，最后一个引用释放时释放其中全部文件和之后版本的引用
+     */
+    public void release() {
+        ValueLogVersion version = this;
+        while (version != null && version.refs.decrementAndGet() == 0) {
+            for (ValueLogFile file : version.files.values()) {
+                file.release();
+            }
+            version = version.next;
+        }
+    }
+
+    /**
+     * 设置之后的版本并持有它的引用，在 {@link ValueLog} 持有 next 的引用时调用
+     *
+     * @param next
+     */
+    void setNext(ValueLogVersion next) {
+        next.refs.incrementAndGet();
+        this.next = next;
+    }
+}
@@ -0,0 +1,117 @@
+package com.xiaohansong.kvstore.model.vlog;
+
+import com.xiaohansong.kvstore.utils.ChannelOutputStream;
+import com.xiaohansong.kvstore.utils.CodingUtil;
+import com.xiaohansong.kvstore.utils.Crc32c;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * 值日志写入器，只追加地写入一个新的值日志文件，不是线程安全的
+ * <p>
+ * 文件格式：魔数(int) | 版本(int) | 记录...
+ * 每条记录：keyLen(varint) | valueLen(varint) | 序列号(varlong) | key | value | crc32c(int)，crc32c 只覆盖 value，
+ * 按 {@link ValuePointer} 读取时可以直接校验；记录中的 key 和序列号用于垃圾回收时判断值是否仍然有效
+ */
+public class ValueLogWriter implements Closeable {
+
+    /**
+     * 文件魔数 "TKVV"
+     */
+    public static final int MAGIC = 0x544B5656;
+
+    public static final int VERSION = 1;
+
+    public static final int FILE_HEADER_SIZE = 8;
+
+    /**
+     * 记录头部的最大长度：两个 varint 和一个 varlong
+     */
+    static final int MAX_ENTRY_HEADER_SIZE = 5 + 5 + 10;
+
+    private static final int WRITE_BUFFER_SIZE = 1024 * 1024;
+
+    private final File file;
+
+    private final long fileId;
+
+    private final ChannelOutputStream out;
+
+    private final ByteArrayOutputStream header = new ByteArrayOutputStream(MAX_ENTRY_HEADER_SIZE);
+
+    /**
+     * 写入的值的总字节数
+     */
+    private long valueBytes;
+
+    /**
+     * @param file   新文件，已有内容会被清空
+     * @param fileId 文件编号
+     * @throws IOException
+     */
+    public ValueLogWriter(File file, long fileId) throws IOException {
+        this.file = file;
+        this.fileId = fileId;
+        this.out = new ChannelOutputStream(file.toPath(), WRITE_BUFFER_SIZE);
+        ByteArrayOutputStream fileHeader = new ByteArrayOutputStream(FILE_HEADER_SIZE);
+        CodingUtil.writeInt(fileHeader, MAGIC);
+        CodingUtil.writeInt(fileHeader, VERSION);
+        fileHeader.writeTo(out);
+    }
+
+    /**
+     * 追加一个值
+     *
+     * @param key
+     * @param sequence 值的序列号
+     * @param value
+     * @return 值的位置
+     * @throws IOException
+     */
+    public ValuePointer append(byte[] key, long sequence, byte[] value) throws IOException {
+        header.reset();
+        CodingUtil.writeVarInt(header, key.length);
+        CodingUtil.writeVarInt(header, value.length);
+        CodingUtil.writeVarLong(header, sequence);
+        header.writeTo(out);
+        out.write(key);
+        long valueOffset = out.position();
+        out.write(value);
+        int crc = Crc32c.compute(value, 0, value.length);
+        out.write(crc >>> 24);
+        out.write(crc >>> 16);
+        out.write(crc >>> 8);
+        out.write(crc);
+        valueBytes += value.length;
+        return new ValuePointer(fileId, valueOffset, value.length);
+    }
+
+    /**
+     * 写入缓冲区中的数据并落盘，持久化在 MANIFEST 记录该文件之前完成
+     *
+     * @throws IOException
+     */
+    public void sync() throws IOException {
+        out.sync();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public long getFileId() {
+        return fileId;
+    }
+
+    public long getValueBytes() {
+        return valueBytes;
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
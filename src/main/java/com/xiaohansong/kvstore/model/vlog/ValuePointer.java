@@ -0,0 +1,57 @@
+package com.xiaohansong.kvstore.model.vlog;
+
+import com.xiaohansong.kvstore.utils.CodingUtil;
+import lombok.Getter;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * 值在值日志中的位置
+ * <p>
+ * 编码格式：文件编号(varlong) | 值的偏移量(varlong) | 值的长度(varint)
+ */
+@Getter
+public class ValuePointer {
+
+    /**
+     * 值日志文件编号，即文件名中的数字
+     */
+    private final long fileId;
+
+    /**
+     * 值在文件中的偏移量
+     */
+    private final long offset;
+
+    /**
+     * 值的字节数
+     */
+    private final int length;
+
+    public ValuePointer(long fileId, long offset, int length) {
+        this.fileId = fileId;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    public byte[] encode() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(24);
+        CodingUtil.writeVarLong(out, fileId);
+        CodingUtil.writeVarLong(out, offset);
+        CodingUtil.writeVarInt(out, length);
+        return out.toByteArray();
+    }
+
+    public static ValuePointer decode(byte[] data, int offset) {
+        int[] pos = {offset};
+        long fileId = CodingUtil.readVarLong(data, pos);
+        long valueOffset = CodingUtil.readVarLong(data, pos);
+        int length = CodingUtil.readVarInt(data, pos);
+        return new ValuePointer(fileId, valueOffset, length);
+    }
+
+    @Override
+    public String toString() {
+        return fileId + ":" + offset + "+" + length;
+    }
+}
@@ -0,0 +1,84 @@
+package com.xiaohansong.kvstore.model.vlog;
+
+import com.xiaohansong.kvstore.model.command.Command;
+import com.xiaohansong.kvstore.model.command.SetCommand;
+import com.xiaohansong.kvstore.model.command.ValuePointerCommand;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+
+/**
+ * 持久化时分离大的值：值的长度达到阈值的保存命令，值写入值日志，替换为只包含值位置的 {@link ValuePointerCommand}
+ * 第一次遇到大的值时才创建值日志文件，没有大的值时不创建文件
+ */
+public class ValueSeparator implements Iterator<Command> {
+
+    private final Iterator<Command> delegate;
+
+    private final int threshold;
+
+    private final Callable<ValueLogWriter> writerFactory;
+
+    private ValueLogWriter writer;
+
+    /**
+     * @param delegate      持久化的命令
+     * @param threshold     值的长度达到该值时写入值日志
+     * @param writerFactory 创建新的值日志文件
+     */
+    public ValueSeparator(Iterator<Command> delegate, int threshold, Callable<ValueLogWriter> writerFactory) {
+        this.delegate = delegate;
+        this.threshold = threshold;
+        this.writerFactory = writerFactory;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return delegate.hasNext();
+    }
+
+    @Override
+    public Command next() {
+        Command command = delegate.next();
+        if (!(command instanceof SetCommand) || ((SetCommand) command).getValue().length < threshold) {
+            return command;
+        }
+        try {
+            if (writer == null) {
+                writer = writerFactory.call();
+            }
+            ValuePointer pointer = writer.append(command.getKey(), command.getSequence(),
+                    ((SetCommand) command).getValue());
+            ValuePointerCommand pointerCommand = new ValuePointerCommand(command.getKey(), pointer);
+            pointerCommand.setSequence(command.getSequence());
+            return pointerCommand;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 写入的值日志，没有大的值时为null
+     *
+     * @return
+     */
+    public ValueLogWriter getWriter() {
+        return writer;
+    }
+
+    /**
+     * 关闭并删除写了一半的值日志文件，用于持久化失败时清理
+     */
+    public void abort() {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.close();
+        } catch (IOException e) {
+            // 文件随后删除
+        }
+        writer.getFile().delete();
+    }
+}
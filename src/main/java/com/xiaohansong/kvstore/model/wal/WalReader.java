@@ -0,0 +1,179 @@
+package com.xiaohansong.kvstore.model.wal;
+
+import com.alibaba.fastjson.JSON;
+import com.xiaohansong.kvstore.model.command.Command;
+import com.xiaohansong.kvstore.utils.ConvertUtil;
+import com.xiaohansong.kvstore.utils.Crc32c;
+import com.xiaohansong.kvstore.utils.LoggerUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+/**
+ * WAL 读取器
+ * 顺序流式读取整个文件，遇到不完整或校验失败的记录时停止，并截断文件尾部的损坏数据
+ */
+public class WalReader {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WalReader.class);
+
+    /**
+     * 读取缓冲区大小，按大块顺序读取文件
+     */
+    private static final int READ_BUFFER_SIZE = 1024 * 1024;
+
+    /**
+     * 单条记录的最大长度，超过时认为长度字段已损坏
+     */
+    private static final int MAX_RECORD_SIZE = 256 * 1024 * 1024;
+
+    private final File file;
+
+    /**
+     * 是否为旧格式(JSON)的日志
+     */
+    private boolean legacy;
+
+    /**
+     * 是否截断了损坏的尾部
+     */
+    private boolean truncated;
+
+    public WalReader(File file) {
+        this.file = file;
+    }
+
+    /**
+     * 按写入顺序回放全部有效记录
+     *
+     * @param consumer
+     * @throws IOException
+     */
+    public void replay(Consumer<WalRecord> consumer) throws IOException {
+        replay(record -> consumer.accept(WalRecord.decode(record)), consumer);
+    }
+
+    /**
+     * 按写入顺序回放全部有效记录的数据部分，不解析记录内容，用于复用日志格式的其他文件
+     *
+     * @param consumer
+     * @throws IOException 不是新格式的日志文件时抛出
+     */
+    public void replayRaw(Consumer<byte[]> consumer) throws IOException {
+        replay(consumer, null);
+    }
+
+    /**
+     * @param consumer       记录数据部分的消费者
+     * @param legacyConsumer 旧格式日志的消费者，为null时不接受旧格式
+     */
+    private void replay(Consumer<byte[]> consumer, Consumer<WalRecord> legacyConsumer) throws IOException {
+        long fileLen = file.length();
+        long validLen = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), READ_BUFFER_SIZE))) {
+            if (fileLen < WalRecord.FILE_HEADER_SIZE) {
+                validLen = fileLen == 0 ? 0 : -1;
+            } else if (in.readInt() != WalRecord.MAGIC) {
+                legacy = true;
+            } else {
+                int version = in.readInt();
+                if (version != WalRecord.VERSION) {
+                    throw new IOException("不支持的WAL版本: " + version);
+                }
+                validLen = WalRecord.FILE_HEADER_SIZE;
+                validLen = replayRecords(in, fileLen, validLen, consumer);
+            }
+        }
+        if (legacy) {
+            if (legacyConsumer == null) {
+                throw new IOException("不是有效的日志文件: " + file);
+            }
+            replayLegacy(legacyConsumer);
+            return;
+        }
+        if (validLen < 0) {
+            // 文件头都没有写完整
+            validLen = 0;
+        }
+        if (validLen < fileLen) {
+            truncated = true;
+            LoggerUtil.info(LOGGER, "[WalReader][replay]: {} 尾部 {} 字节的记录不完整，截断", file, fileLen - validLen);
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(validLen);
+                raf.getFD().sync();
+            }
+        }
+    }
+
+    /**
+     * @return 最后一条有效记录的结束位置
+     */
+    private long replayRecords(DataInputStream in, long fileLen, long validLen, Consumer<byte[]> consumer) throws IOException {
+        byte[] data = new byte[256];
+        while (validLen + WalRecord.RECORD_HEADER_SIZE <= fileLen) {
+            int crc;
+            int len;
+            try {
+                crc = in.readInt();
+                len = in.readInt();
+            } catch (EOFException e) {
+                break;
+            }
+            if (len <= 0 || len > MAX_RECORD_SIZE || validLen + WalRecord.RECORD_HEADER_SIZE + len > fileLen) {
+                break;
+            }
+            if (data.length < len) {
+                data = new byte[Math.max(len, data.length * 2)];
+            }
+            in.readFully(data, 0, len);
+            if (Crc32c.compute(data, 0, len) != crc) {
+                break;
+            }
+            byte[] record = new byte[len];
+            System.arraycopy(data, 0, record, 0, len);
+            consumer.accept(record);
+            validLen += WalRecord.RECORD_HEADER_SIZE + len;
+        }
+        return validLen;
+    }
+
+    /**
+     * 回放旧格式的日志：长度(int) | JSON
+     */
+    private void replayLegacy(Consumer<WalRecord> consumer) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), READ_BUFFER_SIZE))) {
+            long len = file.length();
+            long start = 0;
+            while (start + 4 <= len) {
+                int valueLen = in.readInt();
+                if (valueLen < 0 || start + 4 + valueLen > len) {
+                    break;
+                }
+                byte[] bytes = new byte[valueLen];
+                in.readFully(bytes);
+                Command command = ConvertUtil.jsonToCommand(JSON.parseObject(new String(bytes, StandardCharsets.UTF_8)));
+                if (command != null) {
+                    consumer.accept(new WalRecord(0, command));
+                }
+                start += 4 + valueLen;
+            }
+        }
+    }
+
+    public boolean isLegacy() {
+        return legacy;
+    }
+
+    public boolean isTruncated() {
+        return truncated;
+    }
+}
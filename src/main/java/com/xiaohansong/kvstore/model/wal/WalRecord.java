@@ -0,0 +1,165 @@
+package com.xiaohansong.kvstore.model.wal;
+
+import com.xiaohansong.kvstore.model.command.Command;
+import com.xiaohansong.kvstore.model.command.CommandTypeEnum;
+import com.xiaohansong.kvstore.model.command.RmCommand;
+import com.xiaohansong.kvstore.model.command.SetCommand;
+import com.xiaohansong.kvstore.utils.CodingUtil;
+import lombok.Getter;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * WAL 记录
+ * <p>
+ * 文件格式：魔数(int) | 版本(int) | 记录...
+ * 每条记录：crc32c(int) | 长度(int) | 数据，crc32c 覆盖数据部分
+ * 数据：序列号(long) | 类型(1 byte) | keyLen(varint) | key | value(剩余字节，仅 SET 命令)
+ * 批量写入：起始序列号(long) | BATCH(1 byte) | 命令数量(varint) | 每条命令：类型(1 byte) | keyLen(varint) | key
+ * | valueLen(varint) | value，valueLen 和 value 仅 SET 命令有；第i条命令的序列号为起始序列号加i
+ */
+@Getter
+public class WalRecord {
+
+    /**
+     * 文件魔数 "TKVW"，旧格式的文件开头是第一条 JSON 记录的长度，不会与之冲突
+     */
+    public static final int MAGIC = 0x544B5657;
+
+    public static final int VERSION = 1;
+
+    /**
+     * 文件头长度
+     */
+    public static final int FILE_HEADER_SIZE = 8;
+
+    /**
+     * 每条记录的头部长度：crc32c + 长度
+     */
+    public static final int RECORD_HEADER_SIZE = 8;
+
+    /**
+     * 批量写入记录的类型字节，与命令类型不冲突
+     */
+    public static final byte BATCH = (byte) 0x7F;
+
+    /**
+     * 第一条命令的序列号，按写入顺序递增
+     */
+    private final long sequence;
+
+    /**
+     * 记录中的命令，批量写入的命令在同一条记录中，恢复时整体生效或整体丢弃
+     */
+    private final List<Command> commands;
+
+    public WalRecord(long sequence, Command command) {
+        this(sequence, Collections.singletonList(command));
+    }
+
+    public WalRecord(long sequence, List<Command> commands) {
+        this.sequence = sequence;
+        this.commands = commands;
+    }
+
+    /**
+     * 编码记录的数据部分
+     *
+     * @param sequence
+     * @param command
+     * @return
+     */
+    public static byte[] encode(long sequence, Command command) {
+        byte[] key = command.getKey();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(key.length + 32);
+        CodingUtil.writeLong(out, sequence);
+        if (command instanceof SetCommand) {
+            byte[] value = ((SetCommand) command).getValue();
+            out.write(CommandTypeEnum.SET.getCode());
+            CodingUtil.writeVarInt(out, key.length);
+            out.write(key, 0, key.length);
+            out.write(value, 0, value.length);
+        } else {
+            out.write(CommandTypeEnum.RM.getCode());
+            CodingUtil.writeVarInt(out, key.length);
+            out.write(key, 0, key.length);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * 编码批量写入记录的数据部分
+     *
+     * @param firstSequence 第一条命令的序列号
+     * @param commands
+     * @return
+     */
+    public static byte[] encodeBatch(long firstSequence, List<Command> commands) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 * commands.size() + 16);
+        CodingUtil.writeLong(out, firstSequence);
+        out.write(BATCH);
+        CodingUtil.writeVarInt(out, commands.size());
+        for (Command command : commands) {
+            byte[] key = command.getKey();
+            if (command instanceof SetCommand) {
+                byte[] value = ((SetCommand) command).getValue();
+                out.write(CommandTypeEnum.SET.getCode());
+                CodingUtil.writeVarInt(out, key.length);
+                out.write(key, 0, key.length);
+                CodingUtil.writeVarInt(out, value.length);
+                out.write(value, 0, value.length);
+            } else {
+                out.write(CommandTypeEnum.RM.getCode());
+                CodingUtil.writeVarInt(out, key.length);
+                out.write(key, 0, key.length);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * 解码记录的数据部分
+     *
+     * @param data
+     * @return
+     */
+    public static WalRecord decode(byte[] data) {
+        long sequence = CodingUtil.readLong(data, 0);
+        if (data[8] == BATCH) {
+            return decodeBatch(sequence, data);
+        }
+        CommandTypeEnum type = CommandTypeEnum.fromCode(data[8]);
+        int[] pos = {9};
+        int keyLen = CodingUtil.readVarInt(data, pos);
+        byte[] key = Arrays.copyOfRange(data, pos[0], pos[0] + keyLen);
+        int valueStart = pos[0] + keyLen;
+        if (type == CommandTypeEnum.SET) {
+            return new WalRecord(sequence, new SetCommand(key, Arrays.copyOfRange(data, valueStart, data.length)));
+        }
+        return new WalRecord(sequence, new RmCommand(key));
+    }
+
+    private static WalRecord decodeBatch(long sequence, byte[] data) {
+        int[] pos = {9};
+        int count = CodingUtil.readVarInt(data, pos);
+        List<Command> commands = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            CommandTypeEnum type = CommandTypeEnum.fromCode(data[pos[0]++]);
+            int keyLen = CodingUtil.readVarInt(data, pos);
+            byte[] key = Arrays.copyOfRange(data, pos[0], pos[0] + keyLen);
+            pos[0] += keyLen;
+            if (type == CommandTypeEnum.SET) {
+                int valueLen = CodingUtil.readVarInt(data, pos);
+                commands.add(new SetCommand(key, Arrays.copyOfRange(data, pos[0], pos[0] + valueLen)));
+                pos[0] += valueLen;
+            } else {
+                commands.add(new RmCommand(key));
+            }
+        }
+        return new WalRecord(sequence, commands);
+    }
+}
@@ -0,0 +1,22 @@
+package com.xiaohansong.kvstore.model.wal;
+
+/**
+ * WAL 刷盘策略
+ */
+public enum WalSyncPolicy {
+
+    /**
+     * 每次写入返回前都保证数据已经 fsync，同时到达的写入合并为一次写入和一次 fsync
+     */
+    SYNC,
+
+    /**
+     * 每次写入返回前都保证数据已经 fsync，后台线程每隔一段时间或积累一定字节数后统一写入并 fsync
+     */
+    GROUP_COMMIT,
+
+    /**
+     * 写入只进入内存缓冲区即返回，后台线程定期写入文件但不 fsync，进程崩溃时可能丢失最近一个周期的数据
+     */
+    ASYNC
+}
@@ -0,0 +1,447 @@
+package com.xiaohansong.kvstore.model.wal;
+
+import com.xiaohansong.kvstore.metrics.StoreMetrics;
+import com.xiaohansong.kvstore.utils.Crc32c;
+import com.xiaohansong.kvstore.utils.LoggerUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * WAL 写入器
+ * <p>
+ * 记录先追加到内存缓冲区，由一个线程把缓冲区中积累的多条记录一次性写入文件并 fsync(组提交)，
+ * 写入文件期间其他线程可以继续向另一个缓冲区追加记录。文件和记录格式见 {@link WalRecord}
+ * <p>
+ * 除了阻塞等待的 {@link #sync(long)}，也可以通过 {@link #syncAsync(long)} 获取记录持久化时完成的 future，
+ * 不需要为每个等待的写入占用一个线程
+ */
+public class WalWriter implements Closeable {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(WalWriter.class);
+
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+    private final FileChannel channel;
+
+    private final WalSyncPolicy syncPolicy;
+
+    /**
+     * 组提交的最长等待时间
+     */
+    private final long groupCommitNanos;
+
+    /**
+     * 缓冲区积累到该字节数后立即写入
+     */
+    private final int groupCommitBytes;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * 持久化进度推进时通知等待的写线程
+     */
+    private final Condition persistedCondition = lock.newCondition();
+
+    /**
+     * 缓冲区有新数据时通知后台写入线程
+     */
+    private final Condition pendingCondition = lock.newCondition();
+
+    /**
+     * 正在追加记录的缓冲区
+     */
+    private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+
+    private int bufferSize;
+
+    /**
+     * 写入文件期间使用的备用缓冲区，两个缓冲区交替使用
+     */
+    private byte[] spareBuffer = new byte[INITIAL_BUFFER_SIZE];
+
+    /**
+     * 缓冲区中第一条记录追加的时间
+     */
+    private long firstPendingNanos;
+
+    /**
+     * 已追加的数据总长度
+     */
+    private long appendedOffset;
+
+    /**
+     * 已持久化的数据总长度
+     */
+    private long persistedOffset;
+
+    /**
+     * 是否有线程正在写入文件
+     */
+    private boolean flushing;
+
+    private boolean closed;
+
+    /**
+     * 写入文件失败的异常，之后的写入全部失败
+     */
+    private IOException failure;
+
+    /**
+     * 等待持久化的 future，按持久化标识递增排列
+     */
+    private final PriorityQueue<SyncWaiter> waiters = new PriorityQueue<>();
+
+    /**
+     * 后台写入线程，SYNC 策略下同步等待的写线程自己写入，后台线程只为异步等待的写入写入文件
+     */
+    private final Thread flusher;
+
+    /**
+     * 写入字节数和 fsync 耗时的统计，为null时不统计
+     */
+    private final StoreMetrics metrics;
+
+    /**
+     * @param file             日志文件，已有数据时追加在末尾
+     * @param syncPolicy       刷盘策略
+     * @param groupCommitMicros 组提交的最长等待时间(微秒)
+     * @param groupCommitBytes 缓冲区积累到该字节数后立即写入
+     * @throws IOException
+     */
+    public WalWriter(File file, WalSyncPolicy syncPolicy, long groupCommitMicros, int groupCommitBytes) throws IOException {
+        this(file, syncPolicy, groupCommitMicros, groupCommitBytes, null);
+    }
+
+    /**
+     * @param file             日志文件，已有数据时追加在末尾
+     * @param syncPolicy       刷盘策略
+     * @param groupCommitMicros 组提交的最长等待时间(微秒)
+     * @param groupCommitBytes 缓冲区积累到该字节数后立即写入
+     * @param metrics          写入字节数和 fsync 耗时的统计，为null时不统计
+     * @throws IOException
+     */
+    public WalWriter(File file, WalSyncPolicy syncPolicy, long groupCommitMicros, int groupCommitBytes,
+                     StoreMetrics metrics) throws IOException {
+        this.metrics = metrics;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        if (channel.size() == 0) {
+            ByteBuffer header = ByteBuffer.allocate(WalRecord.FILE_HEADER_SIZE);
+            header.putInt(WalRecord.MAGIC).putInt(WalRecord.VERSION).flip();
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+        }
+        this.channel.position(channel.size());
+        this.syncPolicy = syncPolicy;
+        this.groupCommitNanos = TimeUnit.MICROSECONDS.toNanos(groupCommitMicros);
+        this.groupCommitBytes = groupCommitBytes;
+        this.flusher = new Thread(this::backgroundFlush, "kvstore-wal-" + file.getName());
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    /**
+     * 追加一条记录到缓冲区
+     *
+     * @param record 记录的数据部分，见 {@link WalRecord#encode}
+     * @return 记录的持久化标识，传给 {@link #sync(long)} 等待记录持久化
+     * @throws IOException
+     */
+    public long append(byte[] record) throws IOException {
+        // 校验和在锁外计算
+        int crc = Crc32c.compute(record, 0, record.length);
+        lock.lock();
+        try {
+            if (failure != null) {
+                throw new IOException("WAL 写入失败", failure);
+            }
+            if (closed) {
+                throw new IOException("WAL 已关闭");
+            }
+            int recordSize = WalRecord.RECORD_HEADER_SIZE + record.length;
+            ensureCapacity(bufferSize + recordSize);
+            if (bufferSize == 0) {
+                firstPendingNanos = System.nanoTime();
+                pendingCondition.signal();
+            }
+            writeInt(crc);
+            writeInt(record.length);
+            System.arraycopy(record, 0, buffer, bufferSize, record.length);
+            bufferSize += record.length;
+            appendedOffset += recordSize;
+            if (bufferSize >= groupCommitBytes) {
+                pendingCondition.signal();
+            }
+            return appendedOffset;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 按刷盘策略等待记录持久化，ASYNC 策略下立即返回
+     *
+     * @param ticket {@link #append(byte[])} 的返回值
+     * @throws IOException
+     */
+    public void sync(long ticket) throws IOException {
+        if (syncPolicy == WalSyncPolicy.ASYNC) {
+            return;
+        }
+        lock.lock();
+        try {
+            while (persistedOffset < ticket) {
+                if (failure != null) {
+                    throw new IOException("WAL 写入失败", failure);
+                }
+                if (syncPolicy == WalSyncPolicy.SYNC && !flushing) {
+                    // 没有其他线程在写入，由当前线程把缓冲区中所有记录一起写入
+                    flushLocked(true);
+                    continue;
+                }
+                persistedCondition.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 按刷盘策略异步等待记录持久化，ASYNC 策略下返回已经完成的 future
+     * future 在后台写入线程完成组提交后完成，依赖它的同步回调会在该线程中执行，耗时的回调需要使用 xxxAsync 方法
+     *
+     * @param ticket {@link #append(byte[])} 的返回值
+     * @return 写入失败时异常完成
+     */
+    public CompletableFuture<Void> syncAsync(long ticket) {
+        if (syncPolicy == WalSyncPolicy.ASYNC) {
+            return CompletableFuture.completedFuture(null);
+        }
+        lock.lock();
+        try {
+            if (persistedOffset >= ticket) {
+                return CompletableFuture.completedFuture(null);
+            }
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            if (failure != null) {
+                future.completeExceptionally(new IOException("WAL 写入失败", failure));
+                return future;
+            }
+            waiters.add(new SyncWaiter(ticket, future));
+            // SYNC 策略下后台线程只在有异步等待时写入
+            pendingCondition.signal();
+            return future;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 不论刷盘策略，把已追加的记录全部写入文件并 fsync，用于不能丢失的内部写入，如值日志垃圾回收写回的数据
+     * 已经关闭的WAL在关闭时已经 fsync，直接返回
+     *
+     * @throws IOException
+     */
+    public void forceSync() throws IOException {
+        lock.lock();
+        try {
+            while (flushing) {
+                persistedCondition.awaitUninterruptibly();
+            }
+            if (failure != null) {
+                throw new IOException("WAL 写入失败", failure);
+            }
+            if (!closed) {
+                flushLocked(true);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 把缓冲区写入文件，写入期间释放锁，调用方需持有锁且当前没有其他线程在写入
+     *
+     * @param force 是否 fsync
+     * @throws IOException
+     */
+    private void flushLocked(boolean force) throws IOException {
+        byte[] data = buffer;
+        int size = bufferSize;
+        long end = appendedOffset;
+        buffer = spareBuffer;
+        bufferSize = 0;
+        flushing = true;
+        lock.unlock();
+        IOException error = null;
+        try {
+            ByteBuffer byteBuffer = ByteBuffer.wrap(data, 0, size);
+            while (byteBuffer.hasRemaining()) {
+                channel.write(byteBuffer);
+            }
+            if (force) {
+                long start = System.nanoTime();
+                channel.force(false);
+                if (metrics != null) {
+                    metrics.getWalSyncLatency().recordSince(start);
+                }
+            }
+            if (metrics != null) {
+                metrics.getWalBytesWritten().add(size);
+            }
+        } catch (IOException e) {
+            error = e;
+        } finally {
+            lock.lock();
+        }
+        spareBuffer = data;
+        flushing = false;
+        if (error != null) {
+            failure = error;
+        } else {
+            persistedOffset = end;
+        }
+        persistedCondition.signalAll();
+        completeWaiters();
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * 完成已经持久化的异步等待，写入失败后全部异常完成；回调在锁外执行，调用方需持有锁
+     */
+    private void completeWaiters() {
+        if (waiters.isEmpty()) {
+            return;
+        }
+        List<SyncWaiter> completed = new ArrayList<>();
+        while (!waiters.isEmpty() && (failure != null || waiters.peek().ticket <= persistedOffset)) {
+            completed.add(waiters.poll());
+        }
+        if (completed.isEmpty()) {
+            return;
+        }
+        IOException error = failure != null ? new IOException("WAL 写入失败", failure) : null;
+        lock.unlock();
+        try {
+            for (SyncWaiter waiter : completed) {
+                if (error != null) {
+                    waiter.future.completeExceptionally(error);
+                } else {
+                    waiter.future.complete(null);
+                }
+            }
+        } finally {
+            lock.lock();
+        }
+    }
+
+    /**
+     * 后台写入：缓冲区积累到 groupCommitBytes 或者等待超过 groupCommitNanos 时写入文件
+     */
+    private void backgroundFlush() {
+        lock.lock();
+        try {
+            while (!closed) {
+                if (bufferSize == 0 || flushing || (syncPolicy == WalSyncPolicy.SYNC && waiters.isEmpty())) {
+                    pendingCondition.await();
+                    continue;
+                }
+                long waitNanos = firstPendingNanos + groupCommitNanos - System.nanoTime();
+                if (syncPolicy != WalSyncPolicy.SYNC && bufferSize < groupCommitBytes && waitNanos > 0) {
+                    pendingCondition.awaitNanos(waitNanos);
+                    continue;
+                }
+                flushLocked(syncPolicy != WalSyncPolicy.ASYNC);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            LoggerUtil.error(LOGGER, e, "[WalWriter][backgroundFlush]: 写入WAL失败");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void writeInt(int value) {
+        buffer[bufferSize++] = (byte) (value >>> 24);
+        buffer[bufferSize++] = (byte) (value >>> 16);
+        buffer[bufferSize++] = (byte) (value >>> 8);
+        buffer[bufferSize++] = (byte) value;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(capacity, buffer.length * 2));
+        }
+    }
+
+    /**
+     * 写入并 fsync 缓冲区中剩余的记录后关闭文件
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            pendingCondition.signalAll();
+            while (flushing) {
+                persistedCondition.awaitUninterruptibly();
+            }
+            if (failure == null) {
+                flushLocked(true);
+            } else {
+                completeWaiters();
+            }
+        } finally {
+            lock.unlock();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+    }
+
+    /**
+     * 异步等待持久化的写入
+     */
+    private static class SyncWaiter implements Comparable<SyncWaiter> {
+
+        private final long ticket;
+
+        private final CompletableFuture<Void> future;
+
+        private SyncWaiter(long ticket, CompletableFuture<Void> future) {
+            this.ticket = ticket;
+            this.future = future;
+        }
+
+        @Override
+        public int compareTo(SyncWaiter other) {
+            return Long.compare(ticket, other.ticket);
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package com.xiaohansong.kvstore.service;
+
+import com.xiaohansong.kvstore.model.command.Command;
+import com.xiaohansong.kvstore.model.command.SetCommand;
+import com.xiaohansong.kvstore.utils.ConvertUtil;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * 异步KV数据库接口，所有操作返回 {@link CompletableFuture}，调用线程不等待磁盘读写
+ * <p>
+ * 写入在调用线程中追加到WAL缓冲区和内存表后立即返回，future 在WAL组提交持久化后由WAL的写入线程完成，
+ * 等待持久化的写入不占用线程；需要限速或等待持久化、合并的写入交给I/O线程池执行。
+ * 读取可能读取ssTable文件，在固定大小的I/O线程池中执行，超出线程数的请求在队列中排队。
+ * <p>
+ * 依赖 future 的同步回调在完成 future 的线程(WAL写入线程或I/O线程)中执行，耗时的回调需要使用 xxxAsync 方法
+ * 指定自己的线程池，避免拖慢组提交
+ */
+public class AsyncKvStore implements Closeable {
+
+    private final KvStore store;
+
+    /**
+     * 执行读取和被限流写入的I/O线程池
+     */
+    private final ExecutorService ioExecutor;
+
+    /**
+     * I/O线程池是否由这里创建，创建的线程池在关闭时一起关闭
+     */
+    private final boolean ownsExecutor;
+
+    /**
+     * 初始化
+     *
+     * @param store     被包装的数据库，{@link LsmKvStore} 和 {@link ShardedKvStore} 的写入不占用线程，
+     *                  其他实现的写入也在I/O线程池中执行
+     * @param ioThreads I/O线程数
+     */
+    public AsyncKvStore(KvStore store, int ioThreads) {
+        this(store, newIoExecutor(ioThreads), true);
+    }
+
+    /**
+     * 初始化
+     *
+     * @param store      被包装的数据库
+     * @param ioExecutor 外部的I/O线程池，关闭时不关闭
+     */
+    public AsyncKvStore(KvStore store, ExecutorService ioExecutor) {
+        this(store, ioExecutor, false);
+    }
+
+    private AsyncKvStore(KvStore store, ExecutorService ioExecutor, boolean ownsExecutor) {
+        this.store = store;
+        this.ioExecutor = ioExecutor;
+        this.ownsExecutor = ownsExecutor;
+    }
+
+    private static ExecutorService newIoExecutor(int ioThreads) {
+        AtomicInteger index = new AtomicInteger();
+        return Executors.newFixedThreadPool(ioThreads, r -> {
+            Thread thread = new Thread(r, "kvstore-io-" + index.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 保存数据
+     *
+     * @param key
+     * @param value
+     * @return WAL持久化后完成
+     */
+    public CompletableFuture<Void> set(byte[] key, byte[] value) {
+        if (store instanceof LsmKvStore) {
+            return ((LsmKvStore) store).setAsync(key, value, ioExecutor);
+        }
+        if (store instanceof ShardedKvStore) {
+            return ((ShardedKvStore) store).setAsync(key, value, ioExecutor);
+        }
+        return runAsync(() -> store.set(key, value));
+    }
+
+    public CompletableFuture<Void> set(String key, String value) {
+        return set(ConvertUtil.toBytes(key), ConvertUtil.toBytes(value));
+    }
+
+    /**
+     * 删除数据
+     *
+     * @param key
+     * @return WAL持久化后完成
+     */
+    public CompletableFuture<Void> rm(byte[] key) {
+        if (store instanceof LsmKvStore) {
+            return ((LsmKvStore) store).rmAsync(key, ioExecutor);
+        }
+        if (store instanceof ShardedKvStore) {
+            return ((ShardedKvStore) store).rmAsync(key, ioExecutor);
+        }
+        return runAsync(() -> store.rm(key));
+    }
+
+    public CompletableFuture<Void> rm(String key) {
+        return rm(ConvertUtil.toBytes(key));
+    }
+
+    /**
+     * 批量写入，返回后可以修改或重复提交批次
+     *
+     * @param batch
+     * @return WAL持久化后完成
+     */
+    public CompletableFuture<Void> write(WriteBatch batch) {
+        if (store instanceof LsmKvStore) {
+            return ((LsmKvStore) store).writeAsync(batch, ioExecutor);
+        }
+        if (store instanceof ShardedKvStore) {
+            return ((ShardedKvStore) store).writeAsync(batch, ioExecutor);
+        }
+        WriteBatch copy = new WriteBatch();
+        for (Command command : batch.getCommands()) {
+            if (command instanceof SetCommand) {
+                copy.set(command.getKey(), ((SetCommand) command).getValue());
+            } else {
+                copy.rm(command.getKey());
+            }
+        }
+        return runAsync(() -> store.write(copy));
+    }
+
+    /**
+     * 查询数据，在I/O线程池中执行
+     *
+     * @param key
+     * @return 不存在时结果为null
+     */
+    public CompletableFuture<byte[]> get(byte[] key) {
+        return supplyAsync(() -> store.get(key));
+    }
+
+    public CompletableFuture<String> get(String key) {
+        return get(ConvertUtil.toBytes(key)).thenApply(ConvertUtil::toString);
+    }
+
+    /**
+     * 批量查询，在I/O线程池中执行，见 {@link KvStore#multiGet(List)}
+     *
+     * @param keys
+     * @return 与 keys 一一对应的值，不存在的为null
+     */
+    public CompletableFuture<List<byte[]>> multiGet(List<byte[]> keys) {
+        List<byte[]> copy = new ArrayList<>(keys);
+        return supplyAsync(() -> store.multiGet(copy));
+    }
+
+    /**
+     * 批量查询
+     *
+     * @param keys
+     * @return 存在的key和值，按 keys 的遍历顺序排列
+     */
+    public CompletableFuture<Map<String, String>> multiGet(Collection<String> keys) {
+        List<String> keyList = new ArrayList<>(keys);
+        List<byte[]> byteKeys = new ArrayList<>(keyList.size());
+        for (String key : keyList) {
+            byteKeys.add(ConvertUtil.toBytes(key));
+        }
+        return multiGet(byteKeys).thenApply(values -> {
+            Map<String, String> result = new LinkedHashMap<>();
+            for (int i = 0; i < keyList.size(); i++) {
+                if (values.get(i) != null) {
+                    result.put(keyList.get(i), ConvertUtil.toString(values.get(i)));
+                }
+            }
+            return result;
+        });
+    }
+
+    /**
+     * 被包装的数据库，可以直接调用同步接口
+     *
+     * @return
+     */
+    public KvStore getStore() {
+        return store;
+    }
+
+    private CompletableFuture<Void> runAsync(Runnable task) {
+        return supplyAsync(() -> {
+            task.run();
+            return null;
+        });
+    }
+
+    /**
+     * 提交到I/O线程池，线程池已关闭时返回异常完成的 future
+     */
+    private <T> CompletableFuture<T> supplyAsync(Supplier<T> task) {
+        try {
+            return CompletableFuture.supplyAsync(task, ioExecutor);
+        } catch (Throwable t) {
+            CompletableFuture<T> future = new CompletableFuture<>();
+            future.completeExceptionally(t);
+            return future;
+        }
+    }
+
+    /**
+     * 等待I/O线程池中的请求执行完后关闭数据库，数据库关闭时WAL中剩余的写入持久化，等待中的 future 全部完成
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        if (ownsExecutor) {
+            ioExecutor.shutdown();
+            try {
+                ioExecutor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+        }
+        store.close();
+    }
+}
@@ -1,9 +1,21 @@
 package com.xiaohansong.kvstore.service;
 
+import com.xiaohansong.kvstore.model.iterator.ByteKvIterator;
+import com.xiaohansong.kvstore.model.iterator.KvIterator;
+import com.xiaohansong.kvstore.model.iterator.StringKvIterator;
+import com.xiaohansong.kvstore.utils.ConvertUtil;
+import com.xiaohansong.kvstore.utils.KeyUtil;
+
 import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Kv存储接口定义
+ * key 和 value 都是字节数组，key 按无符号字节序排列；字符串方法按 UTF-8 编码转换后调用字节数组方法
  */
 public interface KvStore extends Closeable {
 
@@ -13,21 +25,113 @@ public interface KvStore extends Closeable {
      * @param key
      * @param value
      */
-    void set(String key, String value);
+    void set(byte[] key, byte[] value);
 
     /**
      * 查询数据
      *
      * @param key
-     * @return
+     * @return 不存在返回null
      */
-    String get(String key);
+    byte[] get(byte[] key);
+
+    /**
+     * 批量查询多个key，比逐个调用 {@link #get(byte[])} 分摊了查找内存表、读取索引和数据段的开销
+     *
+     * @param keys
+     * @return 与 keys 一一对应的值，不存在的为null
+     */
+    default List<byte[]> multiGet(List<byte[]> keys) {
+        List<byte[]> values = new ArrayList<>(keys.size());
+        for (byte[] key : keys) {
+            values.add(get(key));
+        }
+        return values;
+    }
 
     /**
      * 删除数据
      *
      * @param key
      */
-    void rm(String key);
+    void rm(byte[] key);
+
+    /**
+     * 批量写入，批次中的操作原子地提交
+     *
+     * @param batch
+     */
+    void write(WriteBatch batch);
+
+    /**
+     * 范围查询，按key递增的顺序返回 [startKey, endKey) 范围内的数据
+     * 迭代器使用完后需要关闭
+     *
+     * @param startKey 起始key(包含)，为null时从最小的key开始
+     * @param endKey   结束key(不包含)，为null时遍历到最大的key
+     * @return
+     */
+    ByteKvIterator scan(byte[] startKey, byte[] endKey);
+
+    /**
+     * 前缀查询，按key递增的顺序返回以 prefix 开头的数据
+     * 迭代器使用完后需要关闭
+     *
+     * @param prefix
+     * @return
+     */
+    default ByteKvIterator prefixScan(byte[] prefix) {
+        return scan(prefix, KeyUtil.prefixEnd(prefix));
+    }
+
+    /**
+     * 创建快照，快照中只能看到此前已经提交的写入，使用完后需要关闭
+     *
+     * @return
+     */
+    Snapshot snapshot();
+
+    default void set(String key, String value) {
+        set(ConvertUtil.toBytes(key), ConvertUtil.toBytes(value));
+    }
+
+    default String get(String key) {
+        return ConvertUtil.toString(get(ConvertUtil.toBytes(key)));
+    }
+
+    /**
+     * 批量查询多个key
+     *
+     * @param keys
+     * @return 存在的key和值，按 keys 的遍历顺序排列
+     */
+    default Map<String, String> multiGet(Collection<String> keys) {
+        List<byte[]> byteKeys = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            byteKeys.add(ConvertUtil.toBytes(key));
+        }
+        List<byte[]> values = multiGet(byteKeys);
+        Map<String, String> result = new LinkedHashMap<>();
+        int i = 0;
+        for (String key : keys) {
+            byte[] value = values.get(i++);
+            if (value != null) {
+                result.put(key, ConvertUtil.toString(value));
+            }
+        }
+        return result;
+    }
+
+    default void rm(String key) {
+        rm(ConvertUtil.toBytes(key));
+    }
+
+    default KvIterator scan(String startKey, String endKey) {
+        return new StringKvIterator(scan(ConvertUtil.toBytes(startKey), ConvertUtil.toBytes(endKey)));
+    }
+
+    default KvIterator prefixScan(String prefix) {
+        return new StringKvIterator(prefixScan(ConvertUtil.toBytes(prefix)));
+    }
 
 }
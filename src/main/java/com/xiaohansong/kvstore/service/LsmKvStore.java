@@ -1,22 +1,71 @@
 package com.xiaohansong.kvstore.service;
 
-import com.alibaba.fastjson.JSON;
-import com.alibaba.fastjson.JSONObject;
+import com.xiaohansong.kvstore.metrics.Histogram;
+import com.xiaohansong.kvstore.metrics.StoreMetrics;
+import com.xiaohansong.kvstore.metrics.StoreStats;
+import com.xiaohansong.kvstore.metrics.StoreStatsMXBean;
 import com.xiaohansong.kvstore.model.command.Command;
 import com.xiaohansong.kvstore.model.command.RmCommand;
 import com.xiaohansong.kvstore.model.command.SetCommand;
+import com.xiaohansong.kvstore.model.command.ValuePointerCommand;
+import com.xiaohansong.kvstore.model.iterator.ByteKvIterator;
+import com.xiaohansong.kvstore.model.iterator.ConcatIterator;
+import com.xiaohansong.kvstore.model.iterator.MergeIterator;
+import com.xiaohansong.kvstore.model.iterator.PeekingIterator;
+import com.xiaohansong.kvstore.model.iterator.ScanIterator;
+import com.xiaohansong.kvstore.model.iterator.VersionFilterIterator;
+import com.xiaohansong.kvstore.model.memtable.MemTable;
+import com.xiaohansong.kvstore.model.sstable.BlockCache;
 import com.xiaohansong.kvstore.model.sstable.SsTable;
-import com.xiaohansong.kvstore.utils.ConvertUtil;
+import com.xiaohansong.kvstore.model.vlog.ValueLog;
+import com.xiaohansong.kvstore.model.vlog.ValueLogEntry;
+import com.xiaohansong.kvstore.model.vlog.ValueLogFile;
+import com.xiaohansong.kvstore.model.vlog.ValueLogVersion;
+import com.xiaohansong.kvstore.model.vlog.ValueLogWriter;
+import com.xiaohansong.kvstore.model.vlog.ValuePointer;
+import com.xiaohansong.kvstore.model.vlog.ValueSeparator;
+import com.xiaohansong.kvstore.model.wal.WalReader;
+import com.xiaohansong.kvstore.model.wal.WalRecord;
+import com.xiaohansong.kvstore.model.wal.WalSyncPolicy;
+import com.xiaohansong.kvstore.model.wal.WalWriter;
+import com.xiaohansong.kvstore.service.compaction.Compaction;
+import com.xiaohansong.kvstore.service.compaction.CompactionPicker;
+import com.xiaohansong.kvstore.service.compaction.Compactor;
+import com.xiaohansong.kvstore.utils.JmxUtil;
+import com.xiaohansong.kvstore.utils.KeyUtil;
+import com.xiaohansong.kvstore.utils.LoggerUtil;
+import com.xiaohansong.kvstore.utils.RateLimiter;
+import com.xiaohansong.kvstore.utils.SerialExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import javax.management.ObjectName;
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
-import java.util.LinkedList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
 
 /**
  * 基于LsmTree的KV数据库实现
@@ -24,25 +73,43 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 public class LsmKvStore implements KvStore {
 
     public static final String TABLE = ".table";
-    public static final String WAL = "wal";
+    public static final String LOG = ".log";
+    public static final String VLOG = ".vlog";
+    public static final String MANIFEST = "MANIFEST";
     public static final String RW_MODE = "rw";
+    /**
+     * 旧版本固定名称的WAL，只在没有 MANIFEST 时迁移
+     */
+    public static final String WAL = "wal";
     public static final String WAL_TMP = "walTmp";
+    public static final String WAL_REWRITE = "walRewrite";
+
+    /**
+     * 值日志垃圾回收每批写回数据库的值的字节数
+     */
+    private static final int VALUE_LOG_GC_BATCH_BYTES = 1024 * 1024;
+
+    private final Logger LOGGER = LoggerFactory.getLogger(LsmKvStore.class);
 
     /**
-     * 内存表
-     * TreeMap 是红黑树实现
+     * 内存表，支持并发写入和无锁读取，只在写锁中切换
      */
-    private TreeMap<String, Command> memoryTable;
+    private volatile MemTable memoryTable;
 
     /**
-     * 不可变内存表，用于持久化内存表中时暂存数据
+     * 不可变内存表，用于持久化内存表中时暂存数据，按从新到旧排列，只在写锁中整体替换
      */
-    private TreeMap<String, Command> immutableIndex;
+    private volatile List<MemTable> immutableIndexes = Collections.emptyList();
 
     /**
-     * ssTable列表
+     * 当前的ssTable版本，变更时在写锁中整体替换，读请求持有版本的引用后无需加锁
      */
-    private final LinkedList<SsTable> ssTables;
+    private volatile TableVersion currentVersion;
+
+    /**
+     * 最近一次分配的ssTable编号，编号同时作为文件名
+     */
+    private final AtomicLong lastTableId = new AtomicLong();
 
     /**
      * 数据目录
@@ -50,15 +117,66 @@ public class LsmKvStore implements KvStore {
     private final String dataDir;
 
     /**
-     * 读写锁
+     * 读写锁，写入内存表时持有读锁，多个写线程可以并发写入；切换内存表和替换ssTable版本时持有写锁
+     * 读请求不加锁
      */
     private final ReadWriteLock indexLock;
 
     /**
-     * 持久化阈值
+     * 分配序列号和追加WAL的锁，保证序列号的顺序与WAL中记录的顺序一致
+     */
+    private final Object walAppendLock = new Object();
+
+    /**
+     * 后台持久化或合并完成的通知条件，写线程在不可变内存表已满或第0层的表过多时在此等待
+     */
+    private final Condition flushCondition;
+
+    /**
+     * 后台持久化线程，负责把不可变内存表写成ssTable
+     */
+    private final ExecutorService flushExecutor;
+
+    /**
+     * 后台持久化失败时的异常，后续写入直接失败，避免无限等待
+     */
+    private volatile Throwable flushFailure;
+
+    /**
+     * 后台合并线程
+     */
+    private final ExecutorService compactionExecutor;
+
+    /**
+     * 是否已经提交了合并任务，同一时间最多只有一个合并任务
+     */
+    private final AtomicBoolean compactionScheduled = new AtomicBoolean();
+
+    /**
+     * 合并任务选择器
+     */
+    private final CompactionPicker compactionPicker;
+
+    /**
+     * 合并执行器
+     */
+    private final Compactor compactor;
+
+    /**
+     * 是否已经关闭
+     */
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    /**
+     * 持久化阈值，内存表key数量超过该值时持久化，为0时只按数据量判断
      */
     private final int storeThreshold;
 
+    /**
+     * 内存表数据量(字节)达到该值时持久化
+     */
+    private final long memTableBytes;
+
     /**
      * 数据分段大小
      * 每一段用来 构建 稀疏索引
@@ -66,15 +184,105 @@ public class LsmKvStore implements KvStore {
     private final int partSize;
 
     /**
-     * 暂存数据的日志句柄
+     * 布隆过滤器每个key占用的位数
+     */
+    private final int bloomBitsPerKey;
+
+    /**
+     * 全部ssTable共用的数据块缓存，为null时不缓存
+     */
+    private final BlockCache blockCache;
+
+    /**
+     * 多个数据库共用的内存表内存预算，为null时不限制
+     */
+    private final WriteBufferManager writeBufferManager;
+
+    /**
+     * 登记到 writeBufferManager 的内存表占用字节数
+     */
+    private final LongSupplier memTableUsage = this::getMemTableUsage;
+
+    /**
+     * 写入限流
+     */
+    private final WriteController writeController;
+
+    /**
+     * 读写路径和后台任务的指标
+     */
+    private final StoreMetrics metrics = new StoreMetrics();
+
+    /**
+     * 值日志，保存持久化时分离出来的大的值
+     */
+    private final ValueLog valueLog = new ValueLog(metrics);
+
+    /**
+     * 值日志垃圾回收的锁，同一时间只有一个垃圾回收在进行
+     */
+    private final Object valueLogGcLock = new Object();
+
+    /**
+     * 注册的 JMX 对象名，未注册时为null
+     */
+    private ObjectName mbeanName;
+
+    /**
+     * 暂存数据的日志句柄，只在写锁中切换
      */
-    private RandomAccessFile wal;
+    private volatile WalWriter wal;
 
     /**
-     * 暂存数据日志文件
+     * 配置项
+     */
+    private final StoreOptions options;
+
+    /**
+     * 当前内存表的WAL文件
      */
     private File walFile;
 
+    /**
+     * 不可变内存表的WAL文件，按从旧到新排列，持久化完成后删除，只在写锁中修改
+     */
+    private final List<File> immutableWalFiles = new ArrayList<>();
+
+    /**
+     * 记录ssTable列表和当前WAL的变更
+     */
+    private Manifest manifest;
+
+    /**
+     * 最近一次写入的序列号，在 walAppendLock 中递增
+     */
+    private long lastSequence;
+
+    /**
+     * 已经发布的序列号，序列号小于等于该值的写入都已经写入内存表，对读请求可见
+     */
+    private volatile long visibleSequence;
+
+    /**
+     * 发布序列号的锁，等待发布的写线程在此等待
+     */
+    private final Object publishLock = new Object();
+
+    /**
+     * 已经写入内存表、等待序列号更小的写入完成后才能发布的写入，第一个序列号 -> 最后一个序列号，在 publishLock 中访问
+     */
+    private final Map<Long, Long> completedWrites = new HashMap<>();
+
+    /**
+     * 异步等待发布的写入，最后一个序列号 -> future，在 publishLock 中访问
+     */
+    private final TreeMap<Long, List<CompletableFuture<Void>>> publishWaiters = new TreeMap<>();
+
+    /**
+     * 未关闭的快照，序列号 -> 引用次数
+     */
+    private final TreeMap<Long, Integer> snapshots = new TreeMap<>();
+
     /**
      * 初始化
      *
@@ -83,230 +291,1752 @@ public class LsmKvStore implements KvStore {
      * @param partSize       数据分区大小
      */
     public LsmKvStore(String dataDir, int storeThreshold, int partSize) {
+        this(StoreOptions.builder()
+                .dataDir(dataDir)
+                .storeThreshold(storeThreshold)
+                .partSize(partSize)
+                .build());
+    }
+
+    /**
+     * 初始化
+     *
+     * @param options 配置项
+     */
+    public LsmKvStore(StoreOptions options) {
         try {
-            this.dataDir = dataDir;
-            this.storeThreshold = storeThreshold;
-            this.partSize = partSize;
+            this.options = options;
+            this.dataDir = options.getDataDir();
+            this.storeThreshold = options.getStoreThreshold();
+            this.memTableBytes = options.getMemTableBytes();
+            this.partSize = options.getPartSize();
+            this.bloomBitsPerKey = options.getBloomBitsPerKey();
+            if (options.getBlockCache() != null) {
+                this.blockCache = options.getBlockCache();
+            } else {
+                this.blockCache = options.getBlockCacheBytes() > 0 ? new BlockCache(options.getBlockCacheBytes()) : null;
+            }
             this.indexLock = new ReentrantReadWriteLock();
-            File dir = new File(dataDir);
-            File[] files = dir.listFiles();
-            ssTables = new LinkedList<>();
-            memoryTable = new TreeMap<>();
-            // 目录为空无需加载 ssTable
-            if (files == null || files.length == 0) {
-                walFile = new File(dataDir + WAL);
-                wal = new RandomAccessFile(walFile, RW_MODE);
-                return;
+            this.flushCondition = indexLock.writeLock().newCondition();
+            if (options.getFlushExecutor() != null) {
+                this.flushExecutor = new SerialExecutor(options.getFlushExecutor());
+            } else {
+                this.flushExecutor = Executors.newSingleThreadExecutor(r -> {
+                    Thread thread = new Thread(r, "kvstore-flush");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+            if (options.getCompactionExecutor() != null) {
+                this.compactionExecutor = new SerialExecutor(options.getCompactionExecutor());
+            } else {
+                this.compactionExecutor = Executors.newSingleThreadExecutor(r -> {
+                    Thread thread = new Thread(r, "kvstore-compaction");
+                    thread.setDaemon(true);
+                    // 合并的优先级低于前台读写
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                });
+            }
+            this.writeBufferManager = options.getWriteBufferManager();
+            this.compactionPicker = new CompactionPicker(options.getLevel0CompactionTrigger(), options.getMaxLevels(),
+                    options.getLevelBaseBytes(), options.getLevelSizeMultiplier());
+            this.compactor = new Compactor(partSize, bloomBitsPerKey, options.getCompression(), options.getTargetFileSize(),
+                    new RateLimiter(options.getCompactionBytesPerSecond()), options.getTableBuildPool());
+            this.writeController = new WriteController(options.getMaxImmutableMemTables(),
+                    options.getLevel0SlowdownWritesTrigger(), options.getLevel0StopWritesTrigger(),
+                    options.getDelayedWriteBytesPerSecond());
+            currentVersion = new TableVersion(Collections.emptyList());
+            memoryTable = options.getMemTableFactory().get();
+            recover();
+        } catch (Throwable t) {
+            throw new RuntimeException(t);
+        }
+        if (writeBufferManager != null) {
+            writeBufferManager.register(memTableUsage);
+        }
+        if (options.isJmxEnabled()) {
+            mbeanName = JmxUtil.register("LsmKvStore", dataDir, (StoreStatsMXBean) this::getStats,
+                    StoreStatsMXBean.class);
+        }
+        maybeScheduleCompaction();
+    }
+
+    /**
+     * 按层级排列ssTable，第0层保持原有的从新到旧顺序，其他层级按key递增排列
+     *
+     * @param tables
+     * @return 不可修改的列表
+     */
+    private static List<SsTable> sortTables(List<SsTable> tables) {
+        tables.sort((a, b) -> {
+            if (a.getLevel() != b.getLevel()) {
+                return Integer.compare(a.getLevel(), b.getLevel());
             }
+            return a.getLevel() == 0 ? 0 : KeyUtil.compare(a.getMinKey(), b.getMinKey());
+        });
+        return Collections.unmodifiableList(tables);
+    }
 
-            // 从大到小加载 ssTable
-            TreeMap<Long, SsTable> ssTableTreeMap = new TreeMap<>(Comparator.reverseOrder());
-            for (File file : files) {
-                String fileName = file.getName();
-                // 从暂存的 WAL 中恢复数据，一般是持久化ssTable过程中 发生异常 才会留下walTmp
-                if (file.isFile() && fileName.equals(WAL_TMP)) {
-                    restoreFromWal(new RandomAccessFile(file, RW_MODE));
+    /**
+     * 恢复数据库状态
+     * 有 MANIFEST 时按其中记录的ssTable列表延迟打开表，不读取表文件，并按编号顺序回放可能有未持久化数据的WAL；
+     * 没有 MANIFEST 时按旧的方式扫描目录加载全部ssTable和固定名称的WAL，然后生成 MANIFEST。
+     * 恢复出来的内存表写入新的WAL，新的 MANIFEST 生效后删除旧的WAL和不在 MANIFEST 中的文件
+     *
+     * @throws IOException
+     */
+    private void recover() throws IOException {
+        File manifestFile = new File(dataDir + MANIFEST);
+        List<SsTable> ssTables = new ArrayList<>();
+        List<File> oldLogs = new ArrayList<>();
+        if (manifestFile.isFile()) {
+            VersionEdit state = Manifest.recover(manifestFile);
+            lastTableId.accumulateAndGet(state.getLastFileId(), Math::max);
+            for (VersionEdit.TableFile tableFile : state.getAddedTables().values()) {
+                ssTables.add(SsTable.createLazily(dataDir + tableFile.getId() + TABLE, tableFile.getLevel(),
+                        tableFile.getMinKey(), tableFile.getMaxKey(), tableFile.getMaxSequence()));
+            }
+            for (long id : state.getAddedValueLogs()) {
+                valueLog.add(new ValueLogFile(new File(dataDir + id + VLOG), id));
+            }
+            // 编号小于 logNumber 的WAL中的数据都已经持久化，只是还没来得及删除
+            for (long id : listFileIds(LOG)) {
+                File logFile = new File(dataDir + id + LOG);
+                if (id >= state.getLogNumber()) {
+                    restoreFromWal(logFile);
                 }
-                // 加载 ssTable
-                if (file.isFile() && fileName.endsWith(TABLE)) {
-                    int dotIndex = fileName.indexOf(".");
-                    Long time = Long.parseLong(fileName.substring(0, dotIndex));
-                    ssTableTreeMap.put(time, SsTable.createFromFile(file.getAbsolutePath()));
-                } else if (file.isFile() && fileName.equals(WAL)) {
-                    // 加载 WAL
-                    walFile = file;
-                    wal = new RandomAccessFile(file, RW_MODE);
-                    restoreFromWal(wal);
+                lastTableId.accumulateAndGet(id, Math::max);
+                oldLogs.add(logFile);
+            }
+        } else {
+            for (long id : listFileIds(TABLE)) {
+                try {
+                    SsTable ssTable = SsTable.createFromFile(dataDir + id + TABLE);
+                    if (ssTable.getMinKey() == null) {
+                        ssTable.close();
+                        continue;
+                    }
+                    ssTables.add(ssTable);
+                } catch (Throwable t) {
+                    // 一般是写入过程中崩溃留下的不完整的表，其中的数据仍在WAL中
+                    LoggerUtil.error(LOGGER, t, "[LsmKvStore][recover]: 忽略无法加载的ssTable: {}", id);
+                }
+            }
+            // 从暂存的 WAL 中恢复数据，一般是持久化ssTable过程中 发生异常 才会留下walTmp
+            // walTmp 中的数据比 wal 旧，必须先于 wal 回放
+            for (String name : new String[]{WAL_TMP, WAL, WAL_REWRITE}) {
+                File logFile = new File(dataDir + name);
+                if (logFile.isFile()) {
+                    if (!WAL_REWRITE.equals(name)) {
+                        restoreFromWal(logFile);
+                    }
+                    oldLogs.add(logFile);
                 }
             }
-            ssTables.addAll(ssTableTreeMap.values());
-        } catch (Throwable t) {
-            throw new RuntimeException(t);
         }
+        for (SsTable ssTable : ssTables) {
+            ssTable.setBlockCache(blockCache);
+            ssTable.setMetrics(metrics);
+            lastTableId.accumulateAndGet(fileId(ssTable.getFilePath()), Math::max);
+            // WAL 为空时序列号从ssTable中恢复，新写入的序列号必须大于已有的数据
+            lastSequence = Math.max(lastSequence, ssTable.getMaxSequence());
+        }
+
+        walFile = new File(nextFilePath(LOG));
+        rewriteWal();
+        wal = openWal(walFile);
+        VersionEdit state = new VersionEdit();
+        state.setLogNumber(fileId(walFile.getPath()));
+        for (SsTable ssTable : ssTables) {
+            state.addTable(tableFile(ssTable));
+        }
+        for (ValueLogFile file : valueLog.getFiles()) {
+            state.addValueLog(file.getFileId());
+        }
+        state.setLastFileId(lastTableId.get());
+        manifest = new Manifest(manifestFile, state);
 
+        for (File oldLog : oldLogs) {
+            Files.deleteIfExists(oldLog.toPath());
+        }
+        deleteOrphanTables(state);
+        visibleSequence = lastSequence;
+        // 第0层的表按从新到旧排列
+        ssTables.sort(Comparator.comparingLong((SsTable ssTable) -> fileId(ssTable.getFilePath())).reversed());
+        currentVersion = new TableVersion(sortTables(ssTables));
     }
 
     /**
-     * 从暂存日志中恢复数据
+     * 删除不在 MANIFEST 中的ssTable和值日志，一般是持久化或合并过程中崩溃留下的，或者是已经淘汰但还没有删除的文件
      *
-     * @param wal
+     * @param state
      */
-    private void restoreFromWal(RandomAccessFile wal) {
-        try {
-            long len = wal.length();
-            long start = 0;
-            wal.seek(start);
-            while (start < len) {
-                // 先读取数据大小
-                int valueLen = wal.readInt();
-                //根据数据大小读取数据
-                byte[] bytes = new byte[valueLen];
-                wal.read(bytes);
-                // 解析成命令
-                JSONObject value = JSON.parseObject(new String(bytes, StandardCharsets.UTF_8));
-                Command command = ConvertUtil.jsonToCommand(value);
-                // 重新在内存中执行一次命令
-                if (command != null) {
-                    memoryTable.put(command.getKey(), command);
+    private void deleteOrphanTables(VersionEdit state) {
+        for (long id : listFileIds(TABLE)) {
+            if (!state.getAddedTables().containsKey(id)) {
+                LoggerUtil.info(LOGGER, "[LsmKvStore][deleteOrphanTables]: 删除不在MANIFEST中的ssTable: {}", id);
+                if (!new File(dataDir + id + TABLE).delete()) {
+                    LoggerUtil.error(LOGGER, null, "[LsmKvStore][deleteOrphanTables]: 删除文件失败: {}", id);
+                }
+            }
+        }
+        for (long id : listFileIds(VLOG)) {
+            lastTableId.accumulateAndGet(id, Math::max);
+            if (!state.getAddedValueLogs().contains(id)) {
+                LoggerUtil.info(LOGGER, "[LsmKvStore][deleteOrphanTables]: 删除不在MANIFEST中的值日志: {}", id);
+                if (!new File(dataDir + id + VLOG).delete()) {
+                    LoggerUtil.error(LOGGER, null, "[LsmKvStore][deleteOrphanTables]: 删除文件失败: {}", id);
+                }
+            }
+        }
+    }
+
+    /**
+     * 列出数据目录中以 suffix 结尾的文件的编号
+     *
+     * @param suffix
+     * @return 按编号递增排列
+     */
+    private List<Long> listFileIds(String suffix) {
+        List<Long> ids = new ArrayList<>();
+        File[] files = new File(dataDir).listFiles();
+        if (files == null) {
+            return ids;
+        }
+        for (File file : files) {
+            String fileName = file.getName();
+            if (file.isFile() && fileName.endsWith(suffix)) {
+                try {
+                    ids.add(Long.parseLong(fileName.substring(0, fileName.length() - suffix.length())));
+                } catch (NumberFormatException e) {
+                    // 不是数据库创建的文件
                 }
-                start += 4;
-                start += valueLen;
             }
-            wal.seek(wal.length());
+        }
+        Collections.sort(ids);
+        return ids;
+    }
+
+    /**
+     * 文件名中的编号
+     *
+     * @param path
+     * @return
+     */
+    private static long fileId(String path) {
+        String fileName = new File(path).getName();
+        return Long.parseLong(fileName.substring(0, fileName.indexOf('.')));
+    }
+
+    private static VersionEdit.TableFile tableFile(SsTable ssTable) {
+        return new VersionEdit.TableFile(fileId(ssTable.getFilePath()), ssTable.getLevel(), ssTable.getMinKey(),
+                ssTable.getMaxKey(), ssTable.getMaxSequence());
+    }
+
+    /**
+     * 分配新的ssTable文件路径
+     *
+     * @return
+     */
+    private String nextTablePath() {
+        return nextFilePath(TABLE);
+    }
+
+    /**
+     * 分配新的文件路径，ssTable和WAL共用编号，按时间命名，同时保证编号递增
+     *
+     * @param suffix
+     * @return
+     */
+    private String nextFilePath(String suffix) {
+        long id = lastTableId.updateAndGet(last -> Math.max(last + 1, System.currentTimeMillis()));
+        return dataDir + id + suffix;
+    }
+
+    /**
+     * 打开WAL，新记录追加在已有数据之后
+     *
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    private WalWriter openWal(File file) throws IOException {
+        return new WalWriter(file, options.getWalSyncPolicy(), options.getWalGroupCommitMicros(),
+                options.getWalGroupCommitBytes(), metrics);
+    }
+
+    /**
+     * 从暂存日志中恢复数据，日志尾部不完整的记录会被截断
+     *
+     * @param walFile
+     */
+    private void restoreFromWal(File walFile) {
+        try {
+            WalReader reader = new WalReader(walFile);
+            reader.replay(record -> {
+                // 重新在内存中执行一次命令，旧格式的日志没有序列号，按日志顺序分配
+                // 批量写入的命令在同一条记录中，记录完整时才会回放，因此整体生效或整体丢弃
+                long sequence = record.getSequence() > 0 ? record.getSequence() : lastSequence + 1;
+                for (Command command : record.getCommands()) {
+                    command.setSequence(sequence++);
+                    memoryTable.put(command);
+                }
+                lastSequence = Math.max(lastSequence, sequence - 1);
+            });
         } catch (Throwable t) {
             throw new RuntimeException(t);
         }
     }
 
+    /**
+     * 把恢复出来的内存表写入新的 WAL，旧的WAL在新的 MANIFEST 生效后删除
+     *
+     * @throws IOException
+     */
+    private void rewriteWal() throws IOException {
+        try (WalWriter writer = new WalWriter(walFile, WalSyncPolicy.ASYNC, 0, Integer.MAX_VALUE)) {
+            Iterator<Command> iterator = memoryTable.iterator();
+            while (iterator.hasNext()) {
+                Command command = iterator.next();
+                writer.append(WalRecord.encode(command.getSequence(), command));
+            }
+        }
+    }
 
     @Override
-    public void set(String key, String value) {
-        try {
-            SetCommand command = new SetCommand(key, value);
-            byte[] commandBytes = JSONObject.toJSONBytes(command);
-            indexLock.writeLock().lock();
-            //先保存数据到WAL中
-            wal.writeInt(commandBytes.length);
-            wal.write(commandBytes);
-            // 进行覆盖
-            memoryTable.put(key, command);
+    public void set(byte[] key, byte[] value) {
+        writeCommands(Collections.singletonList(new SetCommand(key, value)), metrics.getSetLatency());
+    }
 
-            //内存表大小超过阈值进行持久化
-            if (memoryTable.size() > storeThreshold) {
-                switchIndex();
-                storeToSsTable();
+    @Override
+    public void write(WriteBatch batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        writeCommands(copyCommands(batch), metrics.getWriteBatchLatency());
+    }
+
+    /**
+     * 写入时会给命令分配序列号，复制一份，批次可以重复提交
+     *
+     * @param batch
+     * @return
+     */
+    private static List<Command> copyCommands(WriteBatch batch) {
+        List<Command> commands = new ArrayList<>(batch.size());
+        for (Command command : batch.getCommands()) {
+            if (command instanceof SetCommand) {
+                commands.add(new SetCommand(command.getKey(), ((SetCommand) command).getValue()));
+            } else {
+                commands.add(new RmCommand(command.getKey()));
             }
-        } catch (Throwable t) {
-            throw new RuntimeException(t);
-        } finally {
-            indexLock.writeLock().unlock();
         }
+        return commands;
+    }
 
+    /**
+     * 异步保存数据，见 {@link #writeCommandsAsync}
+     */
+    CompletableFuture<Void> setAsync(byte[] key, byte[] value, Executor stallExecutor) {
+        return writeCommandsAsync(Collections.singletonList(new SetCommand(key, value)), metrics.getSetLatency(),
+                stallExecutor);
     }
 
     /**
-     * 切换内存表，新建一个内存表，老的暂存起来
+     * 异步删除数据，见 {@link #writeCommandsAsync}
      */
-    private void switchIndex() {
+    CompletableFuture<Void> rmAsync(byte[] key, Executor stallExecutor) {
+        return writeCommandsAsync(Collections.singletonList(new RmCommand(key)), metrics.getRmLatency(), stallExecutor);
+    }
+
+    /**
+     * 异步批量写入，见 {@link #writeCommandsAsync}
+     */
+    CompletableFuture<Void> writeAsync(WriteBatch batch, Executor stallExecutor) {
+        if (batch.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return writeCommandsAsync(copyCommands(batch), metrics.getWriteBatchLatency(), stallExecutor);
+    }
+
+    /**
+     * 异步写入命令：写入WAL缓冲区和内存表后立即返回，返回的 future 在WAL按刷盘策略持久化后完成，不占用等待的线程
+     * 写入需要限速或等待持久化、合并时，整个写入提交到 stallExecutor 中按同步方式执行；
+     * 写满内存表时，切换内存表可能需要等待持久化，也提交到 stallExecutor 中执行，调用线程不阻塞
+     *
+     * @param commands
+     * @param latency       记录写入到持久化耗时的直方图
+     * @param stallExecutor 执行被限流的写入的线程池
+     * @return
+     */
+    private CompletableFuture<Void> writeCommandsAsync(List<Command> commands, Histogram latency,
+                                                       Executor stallExecutor) {
+        long start = System.nanoTime();
         try {
-            indexLock.writeLock().lock();
-            //切换内存表
-            immutableIndex = memoryTable;
-            memoryTable = new TreeMap<>();
-            wal.close();
-            //切换内存表后也要切换WAL
-            File tmpWal = new File(dataDir + WAL_TMP);
-            // 不能存在这个文件
-            if (tmpWal.exists()) {
-                if (!tmpWal.delete()) {
-                    throw new RuntimeException("删除文件失败: walTmp");
-                }
+            ensureOpen();
+            if (isWriteStalled()) {
+                return CompletableFuture.runAsync(() -> writeCommands(commands, latency), stallExecutor);
             }
-            // wal -> tmpWal
-            if (!walFile.renameTo(tmpWal)) {
-                throw new RuntimeException("重命名文件失败: walTmp");
+            WalAppend append = appendCommands(commands);
+            CompletableFuture<Void> future = append.wal.syncAsync(append.ticket)
+                    .thenCombine(publishedAsync(append.lastSequence), (synced, published) -> synced);
+            if (append.full) {
+                future = future.thenCombine(CompletableFuture.runAsync(() -> {
+                    try {
+                        switchIfFull();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new RuntimeException(e);
+                    }
+                }, stallExecutor), (synced, switched) -> synced);
             }
-            walFile = new File(dataDir + WAL);
-            wal = new RandomAccessFile(walFile, RW_MODE);
+            return future.whenComplete((result, error) -> latency.recordSince(start));
         } catch (Throwable t) {
-            throw new RuntimeException(t);
-        } finally {
-            indexLock.writeLock().unlock();
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            future.completeExceptionally(t);
+            return future;
         }
     }
 
     /**
-     * 保存数据到ssTable
+     * 写入是否需要限速或等待：不可变内存表或第0层的表过多，或者当前内存表已满而不可变内存表已达上限
+     *
+     * @return
      */
-    private void storeToSsTable() {
+    private boolean isWriteStalled() {
+        List<MemTable> immutables = immutableIndexes;
+        return writeController.check(immutables.size(), currentVersion.getLevel0Count()) != WriteController.Stall.NONE
+                || (immutables.size() >= writeController.getMaxImmutableMemTables() && isFull(memoryTable));
+    }
+
+    /**
+     * 写入命令：在读锁中追加WAL并写入内存表，多个写线程可以并发写入，
+     * 然后在锁外按刷盘策略等待WAL持久化，等待期间其他线程的写入可以加入同一批次，合并为一次写入和一次 fsync
+     * 多条命令作为一条WAL记录写入，占用连续的序列号；写入内存表后按序列号顺序发布，发布后才对读请求可见
+     *
+     * @param commands
+     * @param latency  记录写入耗时的直方图
+     */
+    private void writeCommands(List<Command> commands, Histogram latency) {
+        ensureOpen();
+        long start = System.nanoTime();
         try {
-            // ssTable 按照时间命名，这样可以保证名称递增，每次内存表中的数据达到阈值，就新建SSTable文件
-            SsTable ssTable = SsTable.createFromMemoryTable(dataDir + System.currentTimeMillis() + TABLE, partSize, immutableIndex);
-            ssTables.addFirst(ssTable);
-            //持久化完成删除暂存的内存表和WAL_TMP
-            immutableIndex = null;
-            File tmpWal = new File(dataDir + WAL_TMP);
-            if (tmpWal.exists()) {
-                if (!tmpWal.delete()) {
-                    throw new RuntimeException("删除文件失败: walTmp");
-                }
+            throttle(commands);
+            WalAppend append = appendCommands(commands);
+            //内存表大小超过阈值进行持久化，持久化在后台线程中进行
+            if (append.full) {
+                switchIfFull();
             }
+            awaitPublished(append.lastSequence);
+            append.wal.sync(append.ticket);
         } catch (Throwable t) {
             throw new RuntimeException(t);
+        } finally {
+            latency.recordSince(start);
         }
     }
 
-
-    @Override
-    public String get(String key) {
+    /**
+     * 追加WAL并写入内存表，不等待WAL持久化，也不切换内存表
+     *
+     * @param commands
+     * @return WAL和记录的持久化标识，以及内存表是否已满，已满时调用方需要调用 {@link #switchIfFull()}
+     * @throws IOException
+     */
+    private WalAppend appendCommands(List<Command> commands) throws IOException {
+        WalWriter currentWal;
+        long walTicket;
+        boolean full;
+        indexLock.readLock().lock();
+        long firstSequence = 0;
         try {
-            indexLock.readLock().lock();
-            // 先从内存中取
-            Command command = memoryTable.get(key);
-            //再尝试从不可变索引中取，此时可能处于持久化sstable的过程中
-            if (command == null && immutableIndex != null) {
-                command = immutableIndex.get(key);
-            }
-            if (command == null) {
-                //索引中没有尝试从ssTable中获取，从新的ssTable找到老的
-                for (SsTable ssTable : ssTables) {
-                    command = ssTable.query(key);
-                    if (command != null) {
-                        // 从磁盘中查出来的已经删除了的数据
-                        if (command instanceof RmCommand) {
-                            //todo 这里是否可以 在新的表中重新设置一下 删除后的key
-                            memoryTable.put(key, new RmCommand(key));
-                            return null;
-                        }
-                        break;
-                    }
+            //先保存数据到WAL中
+            synchronized (walAppendLock) {
+                firstSequence = lastSequence + 1;
+                lastSequence += commands.size();
+                long sequence = firstSequence;
+                for (Command command : commands) {
+                    command.setSequence(sequence++);
                 }
+                byte[] record = commands.size() == 1 ? WalRecord.encode(firstSequence, commands.get(0))
+                        : WalRecord.encodeBatch(firstSequence, commands);
+                currentWal = wal;
+                walTicket = currentWal.append(record);
             }
-            if (command instanceof SetCommand) {
-                return ((SetCommand) command).getValue();
-            }
-            if (command instanceof RmCommand) {
-                return null;
+            // 同一个key的每次写入都作为一个新版本
+            for (Command command : commands) {
+                memoryTable.put(command);
             }
-            //找不到说明不存在
-            return null;
-        } catch (Throwable t) {
-            throw new RuntimeException(t);
+            full = isFull(memoryTable);
         } finally {
+            if (firstSequence > 0) {
+                publish(firstSequence, firstSequence + commands.size() - 1);
+            }
             indexLock.readLock().unlock();
         }
-
+        return new WalAppend(currentWal, walTicket, firstSequence + commands.size() - 1, full);
     }
 
-    @Override
-    public void rm(String key) {
-        try {
-            //删除和写入的操作是一样的
-            indexLock.writeLock().lock();
-            RmCommand rmCommand = new RmCommand(key);
-            byte[] commandBytes = JSONObject.toJSONBytes(rmCommand);
-            // 写 WAL 日志
-            wal.writeInt(commandBytes.length);
-            wal.write(commandBytes);
+    /**
+     * 追加到WAL的记录
+     */
+    private static class WalAppend {
 
-            memoryTable.put(key, rmCommand);
+        private final WalWriter wal;
 
-            if (memoryTable.size() > storeThreshold) {
+        /**
+         * 记录的持久化标识
+         */
+        private final long ticket;
+
+        /**
+         * 写入的最后一个序列号
+         */
+        private final long lastSequence;
+
+        /**
+         * 写入后内存表是否已满
+         */
+        private final boolean full;
+
+        private WalAppend(WalWriter wal, long ticket, long lastSequence, boolean full) {
+            this.wal = wal;
+            this.ticket = ticket;
+            this.lastSequence = lastSequence;
+            this.full = full;
+        }
+    }
+
+    /**
+     * 内存表达到持久化阈值时切换内存表，并提交后台持久化任务
+     *
+     * @throws InterruptedException
+     */
+    private void switchIfFull() throws InterruptedException {
+        indexLock.writeLock().lock();
+        try {
+            // 等待期间会释放锁，其他写线程可能已经切换了内存表，需要重新判断
+            if (isFull(memoryTable)) {
+                awaitFlush();
+            }
+            if (isFull(memoryTable)) {
                 switchIndex();
-                storeToSsTable();
+                flushExecutor.execute(this::storeToSsTable);
+            }
+        } finally {
+            indexLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 写入前按不可变内存表和第0层ssTable的数量限流：超过软限制时限速，第0层达到硬限制时等待合并
+     *
+     * @param commands
+     * @throws InterruptedException
+     */
+    private void throttle(List<Command> commands) throws InterruptedException {
+        int level0Count = currentVersion.getLevel0Count();
+        WriteController.Stall stall = writeController.check(immutableIndexes.size(), level0Count);
+        if (stall == WriteController.Stall.NONE) {
+            return;
+        }
+        if (stall == WriteController.Stall.DELAYED) {
+            long bytes = 0;
+            for (Command command : commands) {
+                bytes += command.getKey().length;
+                if (command instanceof SetCommand) {
+                    bytes += ((SetCommand) command).getValue().length;
+                }
+            }
+            writeController.delay(bytes, level0Count);
+            return;
+        }
+        long start = System.nanoTime();
+        indexLock.writeLock().lock();
+        try {
+            while (!closed.get() && writeController.check(immutableIndexes.size(), currentVersion.getLevel0Count())
+                    == WriteController.Stall.STOPPED) {
+                // 合并失败后不会再自动提交合并任务，等待时重新提交
+                maybeScheduleCompaction();
+                flushCondition.await(100, TimeUnit.MILLISECONDS);
             }
+        } finally {
+            indexLock.writeLock().unlock();
+            writeController.recordStop(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * 按序列号顺序发布写入：写入内存表后登记为已完成，不等待；序列号更小的写入都完成时，
+     * 由最后完成的写线程把 visibleSequence 推进到连续完成的最大序列号，
+     * 这样读请求读取到的 visibleSequence 之前的写入都已经在内存表中，批量写入也整体可见；
+     * 在读锁中调用，持有写锁时所有已经分配序列号的写入都已经发布
+     *
+     * @param firstSequence
+     * @param lastSequence
+     */
+    private void publish(long firstSequence, long lastSequence) {
+        List<CompletableFuture<Void>> published = null;
+        synchronized (publishLock) {
+            completedWrites.put(firstSequence, lastSequence);
+            long visible = visibleSequence;
+            Long last;
+            while ((last = completedWrites.remove(visible + 1)) != null) {
+                visible = last;
+            }
+            if (visible == visibleSequence) {
+                return;
+            }
+            visibleSequence = visible;
+            publishLock.notifyAll();
+            if (!publishWaiters.isEmpty()) {
+                published = new ArrayList<>();
+                Map<Long, List<CompletableFuture<Void>>> ready = publishWaiters.headMap(visible, true);
+                ready.values().forEach(published::addAll);
+                ready.clear();
+            }
+        }
+        if (published != null) {
+            published.forEach(future -> future.complete(null));
+        }
+    }
+
+    /**
+     * 等待序列号 sequence 之前的写入全部发布，写线程返回后自己的写入对读请求可见
+     *
+     * @param sequence
+     */
+    private void awaitPublished(long sequence) {
+        if (visibleSequence >= sequence) {
+            return;
+        }
+        boolean interrupted = false;
+        synchronized (publishLock) {
+            while (visibleSequence < sequence) {
+                try {
+                    publishLock.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 序列号 sequence 之前的写入全部发布后完成的 future
+     *
+     * @param sequence
+     * @return
+     */
+    private CompletableFuture<Void> publishedAsync(long sequence) {
+        if (visibleSequence >= sequence) {
+            return CompletableFuture.completedFuture(null);
+        }
+        synchronized (publishLock) {
+            if (visibleSequence >= sequence) {
+                return CompletableFuture.completedFuture(null);
+            }
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            publishWaiters.computeIfAbsent(sequence, k -> new ArrayList<>()).add(future);
+            return future;
+        }
+    }
+
+    /**
+     * 内存表是否达到持久化阈值
+     *
+     * @param memTable
+     * @return
+     */
+    private boolean isFull(MemTable memTable) {
+        long bytes = memTable.getApproximateBytes();
+        return bytes >= memTableBytes
+                || (storeThreshold > 0 && memTable.size() > storeThreshold)
+                || (writeBufferManager != null && bytes > 0 && writeBufferManager.shouldFlush(bytes));
+    }
+
+    /**
+     * 内存表和等待持久化的不可变内存表占用的字节数
+     *
+     * @return
+     */
+    public long getMemTableUsage() {
+        long usage = memoryTable.getApproximateBytes();
+        for (MemTable immutable : immutableIndexes) {
+            usage += immutable.getApproximateBytes();
+        }
+        return usage;
+    }
+
+    /**
+     * 切换内存表，新建一个内存表，老的暂存起来
+     * 调用方需持有写锁，并等待不可变内存表的数量低于上限
+     */
+    private void switchIndex() {
+        try {
+            //切换内存表，持有写锁时没有正在进行的写入
+            List<MemTable> immutables = new ArrayList<>(immutableIndexes.size() + 1);
+            immutables.add(memoryTable);
+            immutables.addAll(immutableIndexes);
+            immutableIndexes = Collections.unmodifiableList(immutables);
+            memoryTable = options.getMemTableFactory().get();
+            wal.close();
+            //切换内存表后也要切换WAL，旧的WAL在不可变内存表持久化之后删除
+            immutableWalFiles.add(walFile);
+            walFile = new File(nextFilePath(LOG));
+            wal = openWal(walFile);
         } catch (Throwable t) {
             throw new RuntimeException(t);
+        }
+    }
+
+    /**
+     * 等待不可变内存表的数量低于上限，调用方需持有写锁
+     *
+     * @throws InterruptedException
+     */
+    private void awaitFlush() throws InterruptedException {
+        if (immutableIndexes.size() < writeController.getMaxImmutableMemTables()) {
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            while (immutableIndexes.size() >= writeController.getMaxImmutableMemTables()) {
+                if (flushFailure != null) {
+                    throw new RuntimeException("持久化ssTable失败", flushFailure);
+                }
+                flushCondition.await();
+            }
+        } finally {
+            writeController.recordStop(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * 保存最旧的不可变内存表到ssTable，在后台持久化线程中执行，每次切换内存表提交一次，按切换顺序依次执行
+     * 构建ssTable期间不持有锁，读请求仍然可以从 immutableIndexes 中读取数据
+     */
+    private void storeToSsTable() {
+        long start = System.nanoTime();
+        List<SsTable> flushedTables = new ArrayList<>();
+        ValueSeparator separator = null;
+        try {
+            List<MemTable> immutables = immutableIndexes;
+            MemTable immutable = immutables.get(immutables.size() - 1);
+            // ssTable 按照时间命名，这样可以保证名称递增，每次内存表中的数据达到阈值，就新建SSTable文件
+            // 丢弃所有快照都看不到的旧版本；设置了 flushTargetFileSize 时切分为多个key范围不重叠的表
+            Iterator<Command> commands = new VersionFilterIterator(immutable.iterator(), smallestSnapshot(), false);
+            if (options.getValueLogThreshold() > 0) {
+                // 大的值写入本次持久化的值日志文件
+                separator = new ValueSeparator(commands, options.getValueLogThreshold(), () -> {
+                    File file = new File(nextFilePath(VLOG));
+                    return new ValueLogWriter(file, fileId(file.getPath()));
+                });
+                commands = separator;
+            }
+            PeekingIterator<Command> iterator = new PeekingIterator<>(commands);
+            long maxDataLen = options.getFlushTargetFileSize() > 0 ? options.getFlushTargetFileSize() : Long.MAX_VALUE;
+            do {
+                SsTable ssTable = SsTable.createFromIterator(nextTablePath(), partSize, bloomBitsPerKey, 0,
+                        options.getCompression(), iterator, maxDataLen, options.getTableBuildPool());
+                ssTable.setBlockCache(blockCache);
+                ssTable.setMetrics(metrics);
+                flushedTables.add(ssTable);
+            } while (iterator.hasNext());
+            // 值日志在 MANIFEST 记录之前落盘，加入之后才能读取其中的值
+            ValueLogFile flushedValueLog = null;
+            ValueLogWriter valueLogWriter = separator == null ? null : separator.getWriter();
+            if (valueLogWriter != null) {
+                valueLogWriter.sync();
+                valueLogWriter.close();
+                flushedValueLog = new ValueLogFile(valueLogWriter.getFile(), valueLogWriter.getFileId());
+            }
+            // 新表和下一个未持久化的WAL的编号写入 MANIFEST 之后，这个不可变内存表的WAL就不再需要了
+            long logNumber;
+            indexLock.readLock().lock();
+            try {
+                logNumber = fileId((immutableWalFiles.size() > 1 ? immutableWalFiles.get(1) : walFile).getPath());
+            } finally {
+                indexLock.readLock().unlock();
+            }
+            VersionEdit edit = new VersionEdit();
+            for (SsTable ssTable : flushedTables) {
+                edit.addTable(tableFile(ssTable));
+            }
+            if (flushedValueLog != null) {
+                edit.addValueLog(flushedValueLog.getFileId());
+            }
+            edit.setLogNumber(logNumber);
+            edit.setLastFileId(lastTableId.get());
+            manifest.append(edit);
+            long flushBytes = 0;
+            for (SsTable ssTable : flushedTables) {
+                flushBytes += ssTable.getFileSize();
+            }
+            if (flushedValueLog != null) {
+                valueLog.add(flushedValueLog);
+                flushBytes += flushedValueLog.getFileSize();
+            }
+            metrics.getFlushBytes().record(flushBytes);
+            metrics.getFlushLatency().recordSince(start);
+        } catch (Throwable t) {
+            LoggerUtil.error(LOGGER, t, "[LsmKvStore][storeToSsTable]: 持久化ssTable失败");
+            if (separator != null) {
+                separator.abort();
+            }
+            indexLock.writeLock().lock();
+            try {
+                flushFailure = t;
+                flushCondition.signalAll();
+            } finally {
+                indexLock.writeLock().unlock();
+            }
+            return;
+        }
+        indexLock.writeLock().lock();
+        try {
+            List<SsTable> ssTables = currentVersion.getSsTables();
+            List<SsTable> newTables = new ArrayList<>(ssTables.size() + flushedTables.size());
+            // 第0层的表按编号从新到旧排列，同一次持久化生成的表之间key范围不重叠
+            for (int i = flushedTables.size() - 1; i >= 0; i--) {
+                newTables.add(flushedTables.get(i));
+            }
+            newTables.addAll(ssTables);
+            // 先发布包含新表的版本，再清除不可变内存表，读请求总能在其中一处找到数据
+            installVersion(Collections.unmodifiableList(newTables));
+            //持久化完成删除暂存的内存表和它的WAL，内存表在没有读请求引用后回收
+            List<MemTable> immutables = new ArrayList<>(immutableIndexes);
+            MemTable flushed = immutables.remove(immutables.size() - 1);
+            immutableIndexes = Collections.unmodifiableList(immutables);
+            flushed.release();
+            File flushedWalFile = immutableWalFiles.remove(0);
+            if (!flushedWalFile.delete()) {
+                LoggerUtil.error(LOGGER, null, "[LsmKvStore][storeToSsTable]: 删除文件失败: {}", flushedWalFile);
+            }
+            flushCondition.signalAll();
+        } finally {
+            indexLock.writeLock().unlock();
+        }
+        maybeScheduleCompaction();
+    }
+
+    /**
+     * 如果还没有合并任务，提交一个合并任务
+     */
+    private void maybeScheduleCompaction() {
+        if (!closed.get() && compactionScheduled.compareAndSet(false, true)) {
+            compactionExecutor.execute(this::backgroundCompaction);
+        }
+    }
+
+    /**
+     * 后台合并，直到没有需要合并的层级
+     * 合并期间不持有锁，只在替换ssTable列表时持有写锁
+     */
+    private void backgroundCompaction() {
+        try {
+            while (!closed.get()) {
+                TableVersion version = acquireVersion();
+                try {
+                    Compaction compaction = compactionPicker.pick(version.getSsTables());
+                    if (compaction == null) {
+                        break;
+                    }
+                    long start = System.nanoTime();
+                    // 丢弃的旧版本指向的值成为值日志中的垃圾
+                    List<SsTable> outputs = compactor.compact(compaction, this::nextTablePath, smallestSnapshot(),
+                            command -> {
+                                if (command instanceof ValuePointerCommand) {
+                                    valueLog.addGarbage(((ValuePointerCommand) command).getPointer());
+                                }
+                            });
+                    installCompaction(compaction, outputs);
+                    for (SsTable output : outputs) {
+                        metrics.getCompactionBytesWritten().add(output.getFileSize());
+                    }
+                    metrics.getCompactionLatency().recordSince(start);
+                } finally {
+                    version.release();
+                }
+            }
+            // 合并完成后回收垃圾较多的值日志
+            if (!closed.get()) {
+                collectValueLogs(valueLog.pickGarbageCollection(options.getValueLogGcRatio()));
+            }
+        } catch (Throwable t) {
+            LoggerUtil.error(LOGGER, t, "[LsmKvStore][backgroundCompaction]: 合并ssTable失败");
+        } finally {
+            compactionScheduled.set(false);
+        }
+    }
+
+    /**
+     * 用合并结果替换参与合并的表，旧表在没有读请求引用后删除
+     *
+     * @param compaction
+     * @param outputs
+     */
+    private void installCompaction(Compaction compaction, List<SsTable> outputs) throws IOException {
+        List<SsTable> inputs = compaction.allInputs();
+        VersionEdit edit = new VersionEdit();
+        for (SsTable input : inputs) {
+            edit.deleteTable(fileId(input.getFilePath()));
+        }
+        for (SsTable output : outputs) {
+            output.setBlockCache(blockCache);
+            output.setMetrics(metrics);
+            edit.addTable(tableFile(output));
+        }
+        edit.setLastFileId(lastTableId.get());
+        manifest.append(edit);
+        indexLock.writeLock().lock();
+        try {
+            List<SsTable> newTables = new ArrayList<>(currentVersion.getSsTables());
+            newTables.removeAll(inputs);
+            newTables.addAll(outputs);
+            for (SsTable input : inputs) {
+                input.markObsolete();
+            }
+            installVersion(sortTables(newTables));
         } finally {
             indexLock.writeLock().unlock();
         }
     }
 
+    /**
+     * 发布新的ssTable版本并释放旧版本，唤醒等待第0层合并的写线程，调用方需持有写锁
+     *
+     * @param ssTables 不可修改的表列表
+     */
+    private void installVersion(List<SsTable> ssTables) {
+        TableVersion old = currentVersion;
+        currentVersion = new TableVersion(ssTables);
+        old.release();
+        flushCondition.signalAll();
+    }
+
+    /**
+     * 获取当前ssTable版本的引用，使用完后需要调用 {@link TableVersion#release()}
+     *
+     * @return
+     */
+    private TableVersion acquireVersion() {
+        while (true) {
+            TableVersion version = currentVersion;
+            if (version.tryRetain()) {
+                return version;
+            }
+            // 关闭时释放了最后一个版本，之后不会再有新的版本
+            if (closed.get()) {
+                throw new IllegalStateException("数据库已关闭");
+            }
+        }
+    }
+
+    /**
+     * 检查数据库没有关闭
+     */
+    private void ensureOpen() {
+        if (closed.get()) {
+            throw new IllegalStateException("数据库已关闭");
+        }
+    }
+
+    /**
+     * 查询不加锁：依次读取内存表、不可变内存表、ssTable版本，
+     * 与切换内存表和持久化完成时的发布顺序相反，因此并发切换时不会漏掉数据
+     */
+    @Override
+    public byte[] get(byte[] key) {
+        ensureOpen();
+        long start = System.nanoTime();
+        // 先持有值日志版本再读取序列号：之后回收的文件在查询结束前不会删除，
+        // 之前回收的文件中的值已经写回，或者已经被这个序列号可见的写入覆盖
+        ValueLogVersion values = valueLog.acquire();
+        // 查询期间登记快照，并发的持久化和合并不会丢弃这个序列号可见的版本
+        long sequence = acquireSnapshot();
+        try {
+            return get(key, sequence, values);
+        } finally {
+            releaseSnapshot(sequence);
+            values.release();
+            metrics.getGetLatency().recordSince(start);
+        }
+    }
+
+    /**
+     * 查询序列号 sequence 时可见的数据
+     *
+     * @param key
+     * @param sequence
+     * @param values   查询开始前持有的值日志版本
+     * @return
+     */
+    private byte[] get(byte[] key, long sequence, ValueLogVersion values) {
+        Command command = findCommand(key, sequence, metrics.getTablesPerGet());
+        if (command instanceof SetCommand) {
+            return ((SetCommand) command).getValue();
+        }
+        if (command instanceof ValuePointerCommand) {
+            return readValueLog(values, ((ValuePointerCommand) command).getPointer());
+        }
+        //找不到或者已经删除
+        return null;
+    }
+
+    @Override
+    public List<byte[]> multiGet(List<byte[]> keys) {
+        ensureOpen();
+        long start = System.nanoTime();
+        ValueLogVersion values = valueLog.acquire();
+        long sequence = acquireSnapshot();
+        try {
+            return multiGet(keys, sequence, values);
+        } finally {
+            releaseSnapshot(sequence);
+            values.release();
+            metrics.getMultiGetLatency().recordSince(start);
+        }
+    }
+
+    /**
+     * 批量查询序列号 sequence 时可见的数据
+     * key 排序去重后，每个内存表只引用一次并依次查询全部key；剩下的key在ssTable版本中逐组查询，
+     * 每个表只查询一次，落在同一个数据段的key共用一次读取
+     *
+     * @param keys
+     * @param sequence
+     * @param valueLogs 查询开始前持有的值日志版本
+     * @return 与 keys 一一对应的值，不存在的为null
+     */
+    private List<byte[]> multiGet(List<byte[]> keys, long sequence, ValueLogVersion valueLogs) {
+        Integer[] order = new Integer[keys.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> KeyUtil.compare(keys.get(a), keys.get(b)));
+        List<byte[]> sortedKeys = new ArrayList<>(keys.size());
+        // 输入中第i个key在 sortedKeys 中的位置
+        int[] positions = new int[keys.size()];
+        for (Integer index : order) {
+            byte[] key = keys.get(index);
+            if (sortedKeys.isEmpty() || KeyUtil.compare(sortedKeys.get(sortedKeys.size() - 1), key) != 0) {
+                sortedKeys.add(key);
+            }
+            positions[index] = sortedKeys.size() - 1;
+        }
+
+        Command[] commands = new Command[sortedKeys.size()];
+        int pending = commands.length;
+        // 与单个查询相同，依次读取内存表、不可变内存表、ssTable版本
+        List<MemTable> memTables = new ArrayList<>(immutableIndexes.size() + 1);
+        memTables.add(memoryTable);
+        memTables.addAll(immutableIndexes);
+        for (MemTable memTableRef : memTables) {
+            MemTable memTable = retain(memTableRef);
+            if (memTable == null) {
+                continue;
+            }
+            try {
+                for (int i = 0; i < commands.length; i++) {
+                    if (commands[i] == null && (commands[i] = memTable.get(sortedKeys.get(i), sequence)) != null) {
+                        pending--;
+                    }
+                }
+            } finally {
+                memTable.release();
+            }
+            if (pending == 0) {
+                break;
+            }
+        }
+        if (pending > 0) {
+            TableVersion version = acquireVersion();
+            try {
+                multiQuery(version.getSsTables(), sortedKeys, commands, sequence);
+            } finally {
+                version.release();
+            }
+        }
+
+        List<byte[]> values = new ArrayList<>(keys.size());
+        byte[][] resolved = new byte[commands.length][];
+        for (int i = 0; i < commands.length; i++) {
+            if (commands[i] instanceof SetCommand) {
+                resolved[i] = ((SetCommand) commands[i]).getValue();
+            } else if (commands[i] instanceof ValuePointerCommand) {
+                resolved[i] = readValueLog(valueLogs, ((ValuePointerCommand) commands[i]).getPointer());
+            }
+        }
+        for (int position : positions) {
+            values.add(resolved[position]);
+        }
+        return values;
+    }
+
+    /**
+     * 在ssTable中批量查询还没有找到的key
+     * 第0层的表之间key范围可能重叠，按从新到旧的顺序逐个查询；其他层级内的表key范围互不重叠，
+     * 每个key最多落在其中一个表中，同一层的多个表在 readPool 中并行查询
+     *
+     * @param ssTables   当前版本的表
+     * @param sortedKeys 按key递增排列且不重复
+     * @param commands   与 sortedKeys 一一对应，已经找到的不为null，查询结果写入其中
+     * @param sequence
+     */
+    private void multiQuery(List<SsTable> ssTables, List<byte[]> sortedKeys, Command[] commands, long sequence) {
+        int i = 0;
+        while (i < ssTables.size()) {
+            int end = i + 1;
+            int level = ssTables.get(i).getLevel();
+            while (level > 0 && end < ssTables.size() && ssTables.get(end).getLevel() == level) {
+                end++;
+            }
+            List<Runnable> tasks = new ArrayList<>();
+            for (SsTable ssTable : ssTables.subList(i, end)) {
+                List<Integer> indexes = new ArrayList<>();
+                for (int k = 0; k < commands.length; k++) {
+                    if (commands[k] == null && overlaps(ssTable, sortedKeys.get(k), null)
+                            && KeyUtil.compare(ssTable.getMinKey(), sortedKeys.get(k)) <= 0) {
+                        indexes.add(k);
+                    }
+                }
+                if (indexes.isEmpty()) {
+                    continue;
+                }
+                tasks.add(() -> {
+                    List<byte[]> tableKeys = new ArrayList<>(indexes.size());
+                    for (int index : indexes) {
+                        tableKeys.add(sortedKeys.get(index));
+                    }
+                    Command[] found = ssTable.query(tableKeys, sequence);
+                    for (int k = 0; k < found.length; k++) {
+                        if (found[k] != null) {
+                            commands[indexes.get(k)] = found[k];
+                        }
+                    }
+                });
+            }
+            runAll(tasks);
+            i = end;
+        }
+    }
+
+    /**
+     * 执行一组互不冲突的查询任务，多个任务时提交到 readPool 并行执行，当前线程执行第一个任务
+     *
+     * @param tasks
+     */
+    private void runAll(List<Runnable> tasks) {
+        ForkJoinPool readPool = options.getReadPool();
+        if (tasks.size() <= 1 || readPool == null) {
+            tasks.forEach(Runnable::run);
+            return;
+        }
+        List<CompletableFuture<Void>> futures = new ArrayList<>(tasks.size() - 1);
+        for (Runnable task : tasks.subList(1, tasks.size())) {
+            futures.add(CompletableFuture.runAsync(task, readPool));
+        }
+        tasks.get(0).run();
+        for (CompletableFuture<Void> future : futures) {
+            future.join();
+        }
+    }
+
+    /**
+     * 读取值日志中的值
+     *
+     * @param values  查询开始前持有的值日志版本
+     * @param pointer
+     * @return
+     */
+    private static byte[] readValueLog(ValueLogVersion values, ValuePointer pointer) {
+        try {
+            return values.read(pointer);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 查询序列号 sequence 时可见的最新命令，值在值日志中时返回 {@link ValuePointerCommand}
+     *
+     * @param key
+     * @param sequence
+     * @param tablesPerGet 记录读取的ssTable数量，为null时不记录
+     * @return 找不到时返回null
+     */
+    private Command findCommand(byte[] key, long sequence, Histogram tablesPerGet) {
+        // 先从内存中取，内存表已经释放说明其中的数据已经在之后读取的ssTable版本中
+        Command command = null;
+        MemTable memTable = retain(memoryTable);
+        if (memTable != null) {
+            try {
+                command = memTable.get(key, sequence);
+            } finally {
+                memTable.release();
+            }
+        }
+        //再尝试从不可变索引中取，此时可能处于持久化sstable的过程中，从新的找到老的
+        if (command == null) {
+            for (MemTable immutableIndex : immutableIndexes) {
+                MemTable immutable = retain(immutableIndex);
+                if (immutable != null) {
+                    try {
+                        command = immutable.get(key, sequence);
+                    } finally {
+                        immutable.release();
+                    }
+                }
+                if (command != null) {
+                    break;
+                }
+            }
+        }
+        if (command == null) {
+            //索引中没有尝试从ssTable中获取，从新的ssTable找到老的
+            TableVersion version = acquireVersion();
+            int probes = 0;
+            try {
+                for (SsTable ssTable : version.getSsTables()) {
+                    probes++;
+                    command = ssTable.query(key, sequence);
+                    if (command != null) {
+                        break;
+                    }
+                }
+            } finally {
+                version.release();
+                if (tablesPerGet != null) {
+                    tablesPerGet.record(probes);
+                }
+            }
+        } else if (tablesPerGet != null) {
+            tablesPerGet.record(0);
+        }
+        return command;
+    }
+
+    /**
+     * 范围查询：归并内存表、不可变内存表和全部ssTable，同一个key取最新的命令并跳过已删除的key
+     * 迭代器持有当前ssTable版本的引用，关闭或遍历结束后释放；每个ssTable每次只预读有限的数据，
+     * 内存占用与查询范围的大小无关
+     * 查询开始时隐式创建一个快照，遍历过程中的并发写入不可见
+     */
+    @Override
+    public ByteKvIterator scan(byte[] startKey, byte[] endKey) {
+        ensureOpen();
+        long sequence = acquireSnapshot();
+        try {
+            return scan(startKey, endKey, sequence, () -> releaseSnapshot(sequence));
+        } catch (Throwable t) {
+            releaseSnapshot(sequence);
+            throw t;
+        }
+    }
+
+    /**
+     * 在序列号 sequence 上范围查询
+     *
+     * @param onClose 迭代器关闭时执行
+     */
+    private ByteKvIterator scan(byte[] startKey, byte[] endKey, long sequence, Runnable onClose) {
+        ValueLogVersion values = valueLog.acquire();
+        MemTable memTable = retain(memoryTable);
+        List<MemTable> immutables = new ArrayList<>();
+        for (MemTable immutableIndex : immutableIndexes) {
+            MemTable immutable = retain(immutableIndex);
+            if (immutable != null) {
+                immutables.add(immutable);
+            }
+        }
+        TableVersion version = acquireVersion();
+        try {
+            // 越靠前的数据越新
+            List<Iterator<Command>> iterators = new ArrayList<>();
+            if (memTable != null) {
+                iterators.add(memTable.iterator(startKey));
+            }
+            for (MemTable immutable : immutables) {
+                iterators.add(immutable.iterator(startKey));
+            }
+            // 第0层的表之间key范围可能重叠，每个表单独参与归并；其他层级内的表互不重叠，按层依次遍历
+            List<Supplier<Iterator<Command>>> levelTables = new ArrayList<>();
+            int level = 0;
+            for (SsTable ssTable : version.getSsTables()) {
+                if (!overlaps(ssTable, startKey, endKey)) {
+                    continue;
+                }
+                if (ssTable.getLevel() == 0) {
+                    iterators.add(ssTable.iterator(startKey));
+                    continue;
+                }
+                if (ssTable.getLevel() != level && !levelTables.isEmpty()) {
+                    iterators.add(new ConcatIterator<>(levelTables));
+                    levelTables = new ArrayList<>();
+                }
+                level = ssTable.getLevel();
+                levelTables.add(() -> ssTable.iterator(startKey));
+            }
+            if (!levelTables.isEmpty()) {
+                iterators.add(new ConcatIterator<>(levelTables));
+            }
+            return new ScanIterator(new MergeIterator(iterators), endKey, sequence, () -> {
+                version.release();
+                values.release();
+                release(memTable);
+                immutables.forEach(MemTable::release);
+                onClose.run();
+            }, command -> readValueLog(values, command.getPointer()));
+        } catch (Throwable t) {
+            version.release();
+            values.release();
+            release(memTable);
+            immutables.forEach(MemTable::release);
+            throw new RuntimeException(t);
+        }
+    }
+
+    /**
+     * 增加内存表的引用
+     *
+     * @param memTable
+     * @return 内存表为null或已经释放时返回null，其中的数据已经在之后读取的ssTable版本中
+     */
+    private static MemTable retain(MemTable memTable) {
+        return memTable != null && memTable.tryRetain() ? memTable : null;
+    }
+
+    private static void release(MemTable memTable) {
+        if (memTable != null) {
+            memTable.release();
+        }
+    }
+
+    @Override
+    public Snapshot snapshot() {
+        ensureOpen();
+        return new LsmSnapshot(acquireSnapshot());
+    }
+
+    /**
+     * 登记一个快照，返回快照的序列号；在快照释放之前，持久化和合并不会丢弃快照可见的版本
+     *
+     * @return
+     */
+    private long acquireSnapshot() {
+        synchronized (snapshots) {
+            long sequence = visibleSequence;
+            snapshots.merge(sequence, 1, Integer::sum);
+            return sequence;
+        }
+    }
+
+    /**
+     * 为已经登记的快照序列号增加一次引用
+     *
+     * @param sequence
+     */
+    private void acquireSnapshotAt(long sequence) {
+        synchronized (snapshots) {
+            snapshots.merge(sequence, 1, Integer::sum);
+        }
+    }
+
+    private void releaseSnapshot(long sequence) {
+        synchronized (snapshots) {
+            snapshots.computeIfPresent(sequence, (k, count) -> count == 1 ? null : count - 1);
+        }
+    }
+
+    /**
+     * 最旧的快照的序列号，没有快照时为当前可见的序列号；
+     * 之后登记的快照序列号不会更小，因此比它更旧且被覆盖的版本可以丢弃
+     *
+     * @return
+     */
+    private long smallestSnapshot() {
+        synchronized (snapshots) {
+            return snapshots.isEmpty() ? visibleSequence : snapshots.firstKey();
+        }
+    }
+
+    /**
+     * ssTable的key范围是否与 [startKey, endKey) 相交
+     */
+    private static boolean overlaps(SsTable ssTable, byte[] startKey, byte[] endKey) {
+        return ssTable.getMinKey() != null
+                && (endKey == null || KeyUtil.compare(ssTable.getMinKey(), endKey) < 0)
+                && (startKey == null || KeyUtil.compare(ssTable.getMaxKey(), startKey) >= 0);
+    }
+
+    @Override
+    public void rm(byte[] key) {
+        //删除和写入的操作是一样的
+        writeCommands(Collections.singletonList(new RmCommand(key)), metrics.getRmLatency());
+    }
+
+    /**
+     * 回收值日志：统计每个值日志文件中仍然有效的值，垃圾比例达到 {@link StoreOptions#getValueLogGcRatio()} 的文件，
+     * 把有效的值以原来的序列号写回数据库，之后的持久化把它们写入新的值日志，然后删除旧文件
+     * 合并完成后会自动回收估算垃圾较多的文件，这里检查全部文件，重启后估算的垃圾量从0开始，可以手动调用
+     *
+     * @return 回收的文件数量
+     */
+    public int garbageCollectValueLog() {
+        return collectValueLogs(new ArrayList<>(valueLog.getFiles()));
+    }
+
+    private int collectValueLogs(List<ValueLogFile> files) {
+        int collected = 0;
+        synchronized (valueLogGcLock) {
+            for (ValueLogFile file : files) {
+                if (closed.get()) {
+                    break;
+                }
+                // 已经回收的文件不再处理
+                if (!file.tryRetain()) {
+                    continue;
+                }
+                try {
+                    if (collectValueLog(file)) {
+                        collected++;
+                    }
+                } catch (Throwable t) {
+                    LoggerUtil.error(LOGGER, t, "[LsmKvStore][collectValueLogs]: 回收值日志失败: {}",
+                            file.getFileId());
+                } finally {
+                    file.release();
+                }
+            }
+        }
+        return collected;
+    }
+
+    /**
+     * 回收一个值日志文件
+     * 第一遍只读取记录的key，统计有效的值；第二遍分批读取有效的值写回数据库，写回前在读锁中再次检查，
+     * 检查和写入内存表之间不会切换内存表，并发写入的同一个key序列号更大，写回的旧值不会覆盖新值
+     *
+     * @param file
+     * @return 是否回收了文件；垃圾比例不够，或者有快照仍然可能读取已经被覆盖的值时不回收
+     */
+    private boolean collectValueLog(ValueLogFile file) throws IOException, InterruptedException {
+        long totalBytes = 0;
+        long liveBytes = 0;
+        Iterator<ValueLogEntry> entries = file.iterator();
+        while (entries.hasNext()) {
+            ValueLogEntry entry = entries.next();
+            totalBytes += entry.getPointer().getLength();
+            Boolean live = isLive(entry, findCommand(entry.getKey(), Long.MAX_VALUE, null));
+            if (live == null) {
+                return false;
+            }
+            if (live) {
+                liveBytes += entry.getPointer().getLength();
+            }
+        }
+        valueLog.setGarbage(file.getFileId(), totalBytes - liveBytes);
+        if (totalBytes - liveBytes < totalBytes * options.getValueLogGcRatio()) {
+            return false;
+        }
+        List<ValueLogEntry> batch = new ArrayList<>();
+        long batchBytes = 0;
+        entries = file.iterator();
+        while (entries.hasNext()) {
+            ValueLogEntry entry = entries.next();
+            if (!Boolean.TRUE.equals(isLive(entry, findCommand(entry.getKey(), Long.MAX_VALUE, null)))) {
+                continue;
+            }
+            batch.add(entry);
+            batchBytes += entry.getPointer().getLength();
+            if (batchBytes >= VALUE_LOG_GC_BATCH_BYTES) {
+                if (!writeBack(file, batch)) {
+                    return false;
+                }
+                batch.clear();
+                batchBytes = 0;
+            }
+        }
+        if (!batch.isEmpty() && !writeBack(file, batch)) {
+            return false;
+        }
+        // 写回的值已经落盘，之后开始的查询读到写回的值，正在进行的查询持有的版本仍然包含旧文件
+        VersionEdit edit = new VersionEdit();
+        edit.deleteValueLog(file.getFileId());
+        manifest.append(edit);
+        valueLog.remove(file.getFileId());
+        LoggerUtil.info(LOGGER, "[LsmKvStore][collectValueLog]: 回收值日志 {}, 写回 {} 字节, 释放 {} 字节",
+                file.getFileId(), liveBytes, file.getFileSize());
+        return true;
+    }
+
+    /**
+     * 值日志中的记录是否仍然有效
+     *
+     * @param entry
+     * @param latest 记录的key当前最新的命令
+     * @return 最新的版本指向该记录时有效；已经被覆盖或删除，且所有快照都看不到该记录时无效；
+     * 否则有快照可能读取该记录，返回null
+     */
+    private Boolean isLive(ValueLogEntry entry, Command latest) {
+        if (latest instanceof ValuePointerCommand) {
+            ValuePointer pointer = ((ValuePointerCommand) latest).getPointer();
+            if (pointer.getFileId() == entry.getPointer().getFileId()
+                    && pointer.getOffset() == entry.getPointer().getOffset()) {
+                return true;
+            }
+        }
+        if (latest == null || latest.getSequence() <= smallestSnapshot()) {
+            return false;
+        }
+        return null;
+    }
+
+    /**
+     * 把一批有效的值以原来的序列号写回数据库，强制WAL落盘后返回
+     *
+     * @param file
+     * @param batch
+     * @return 有快照可能读取已经被覆盖的值时返回false
+     */
+    private boolean writeBack(ValueLogFile file, List<ValueLogEntry> batch) throws IOException, InterruptedException {
+        List<byte[]> values = new ArrayList<>(batch.size());
+        for (ValueLogEntry entry : batch) {
+            values.add(file.read(entry.getPointer()));
+        }
+        WalWriter currentWal;
+        boolean full;
+        indexLock.readLock().lock();
+        try {
+            List<Command> commands = new ArrayList<>(batch.size());
+            for (int i = 0; i < batch.size(); i++) {
+                ValueLogEntry entry = batch.get(i);
+                Boolean live = isLive(entry, findCommand(entry.getKey(), Long.MAX_VALUE, null));
+                if (live == null) {
+                    return false;
+                }
+                if (live) {
+                    SetCommand command = new SetCommand(entry.getKey(), values.get(i));
+                    command.setSequence(entry.getSequence());
+                    commands.add(command);
+                }
+            }
+            // 序列号不变，不影响 visibleSequence，写回后立即可见
+            synchronized (walAppendLock) {
+                currentWal = wal;
+                for (Command command : commands) {
+                    currentWal.append(WalRecord.encode(command.getSequence(), command));
+                }
+            }
+            for (Command command : commands) {
+                memoryTable.put(command);
+            }
+            full = isFull(memoryTable);
+        } finally {
+            indexLock.readLock().unlock();
+        }
+        if (full) {
+            switchIfFull();
+        }
+        currentWal.forceSync();
+        return true;
+    }
+
+    /**
+     * 数据块缓存，命中、未命中和淘汰次数见 {@link BlockCache}
+     *
+     * @return 未启用缓存时返回null
+     */
+    public BlockCache getBlockCache() {
+        return blockCache;
+    }
+
+    /**
+     * 当前的指标快照，同样通过 JMX 暴露
+     *
+     * @return
+     */
+    public StoreStats getStats() {
+        MemTable memTable = memoryTable;
+        List<MemTable> immutables = immutableIndexes;
+        long memTableBytes = memTable.getApproximateBytes();
+        for (MemTable immutable : immutables) {
+            memTableBytes += immutable.getApproximateBytes();
+        }
+        TableVersion version = acquireVersion();
+        try {
+            long cacheHits = blockCache == null ? 0 : blockCache.getHitCount();
+            long cacheMisses = blockCache == null ? 0 : blockCache.getMissCount();
+            return StoreStats.builder()
+                    .getLatency(metrics.getGetLatency().snapshot())
+                    .setLatency(metrics.getSetLatency().snapshot())
+                    .rmLatency(metrics.getRmLatency().snapshot())
+                    .writeBatchLatency(metrics.getWriteBatchLatency().snapshot())
+                    .multiGetLatency(metrics.getMultiGetLatency().snapshot())
+                    .tablesPerGet(metrics.getTablesPerGet().snapshot())
+                    .walSyncLatency(metrics.getWalSyncLatency().snapshot())
+                    .flushLatency(metrics.getFlushLatency().snapshot())
+                    .flushBytes(metrics.getFlushBytes().snapshot())
+                    .compactionLatency(metrics.getCompactionLatency().snapshot())
+                    .bytesRead(metrics.getBytesRead().sum())
+                    .walBytesWritten(metrics.getWalBytesWritten().sum())
+                    .compactionBytesWritten(metrics.getCompactionBytesWritten().sum())
+                    .memTableBytes(memTableBytes)
+                    .immutableMemTableCount(immutables.size())
+                    .level0TableCount(version.getLevel0Count())
+                    .tableCount(version.getSsTables().size())
+                    .valueLogBytes(valueLog.getTotalBytes())
+                    .blockCacheHitCount(cacheHits)
+                    .blockCacheMissCount(cacheMisses)
+                    .blockCacheHitRate(cacheHits + cacheMisses == 0 ? 0 : (double) cacheHits / (cacheHits + cacheMisses))
+                    .blockCacheUsage(blockCache == null ? 0 : blockCache.getUsage())
+                    .bloomUsefulCount(version.getSsTables().stream().mapToLong(SsTable::getBloomUsefulCount).sum())
+                    .bloomFalsePositiveCount(version.getSsTables().stream()
+                            .mapToLong(SsTable::getBloomFalsePositiveCount).sum())
+                    .delayedWriteCount(writeController.getDelayedCount())
+                    .delayedWriteNanos(writeController.getDelayedNanos())
+                    .stoppedWriteCount(writeController.getStoppedCount())
+                    .stoppedWriteNanos(writeController.getStoppedNanos())
+                    .build();
+        } finally {
+            version.release();
+        }
+    }
+
+    /**
+     * 写入限流，限速和停止写入的次数与时长见 {@link WriteController}
+     *
+     * @return
+     */
+    public WriteController getWriteController() {
+        return writeController;
+    }
+
+    /**
+     * 布隆过滤器判定key不存在，从而跳过磁盘读取的次数
+     *
+     * @return
+     */
+    public long getBloomUsefulCount() {
+        TableVersion version = acquireVersion();
+        try {
+            return version.getSsTables().stream().mapToLong(SsTable::getBloomUsefulCount).sum();
+        } finally {
+            version.release();
+        }
+    }
+
+    /**
+     * 布隆过滤器误判的次数
+     *
+     * @return
+     */
+    public long getBloomFalsePositiveCount() {
+        TableVersion version = acquireVersion();
+        try {
+            return version.getSsTables().stream().mapToLong(SsTable::getBloomFalsePositiveCount).sum();
+        } finally {
+            version.release();
+        }
+    }
+
     @Override
     public void close() throws IOException {
+        // 重复关闭时不做任何事，避免重复释放版本和内存表的引用
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        JmxUtil.unregister(mbeanName);
+        if (writeBufferManager != null) {
+            writeBufferManager.unregister(memTableUsage);
+        }
+        indexLock.writeLock().lock();
+        try {
+            // 等待正在进行的持久化完成
+            while (!immutableIndexes.isEmpty() && flushFailure == null) {
+                flushCondition.await();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } finally {
+            indexLock.writeLock().unlock();
+        }
+        flushExecutor.shutdown();
+        compactionExecutor.shutdown();
+        try {
+            flushExecutor.awaitTermination(1, TimeUnit.MINUTES);
+            compactionExecutor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
         wal.close();
-        for (SsTable ssTable : ssTables) {
-            ssTable.close();
+        manifest.close();
+        valueLog.close();
+        // 释放数据库持有的版本和内存表引用，正在进行的读请求结束后关闭表文件、回收内存表
+        currentVersion.release();
+        memoryTable.release();
+    }
+
+    /**
+     * 快照，读取时只能看到序列号小于等于 sequence 的写入
+     */
+    private class LsmSnapshot implements Snapshot {
+
+        private final long sequence;
+
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private LsmSnapshot(long sequence) {
+            this.sequence = sequence;
+        }
+
+        @Override
+        public long getSequence() {
+            return sequence;
+        }
+
+        @Override
+        public byte[] get(byte[] key) {
+            checkOpen();
+            ValueLogVersion values = valueLog.acquire();
+            try {
+                return LsmKvStore.this.get(key, sequence, values);
+            } finally {
+                values.release();
+            }
+        }
+
+        @Override
+        public ByteKvIterator scan(byte[] startKey, byte[] endKey) {
+            checkOpen();
+            // 迭代器单独登记一次快照，快照关闭后未关闭的迭代器仍然可用
+            acquireSnapshotAt(sequence);
+            try {
+                return LsmKvStore.this.scan(startKey, endKey, sequence, () -> releaseSnapshot(sequence));
+            } catch (Throwable t) {
+                releaseSnapshot(sequence);
+                throw t;
+            }
+        }
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                releaseSnapshot(sequence);
+            }
+        }
+
+        private void checkOpen() {
+            if (closed.get()) {
+                throw new IllegalStateException("快照已关闭");
+            }
         }
     }
 }
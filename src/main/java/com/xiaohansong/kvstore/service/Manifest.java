@@ -0,0 +1,102 @@
+package com.xiaohansong.kvstore.service;
+
+import com.xiaohansong.kvstore.model.wal.WalReader;
+import com.xiaohansong.kvstore.model.wal.WalSyncPolicy;
+import com.xiaohansong.kvstore.model.wal.WalWriter;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * MANIFEST 文件，只追加地记录每次 {@link VersionEdit}，回放全部变更得到ssTable列表、各表的层级和当前WAL
+ * <p>
+ * 文件和记录格式与WAL相同，见 {@link com.xiaohansong.kvstore.model.wal.WalRecord}，尾部不完整的记录在回放时截断。
+ * 打开时以及文件超过 {@link #MAX_FILE_BYTES} 时，把当前状态写成一条记录的新文件，再原子地替换旧文件
+ */
+public class Manifest implements Closeable {
+
+    /**
+     * 文件超过该大小后重写
+     */
+    private static final long MAX_FILE_BYTES = 4 * 1024 * 1024;
+
+    private final File file;
+
+    /**
+     * 回放全部变更后的状态
+     */
+    private final VersionEdit state;
+
+    private WalWriter writer;
+
+    /**
+     * 当前文件的大小
+     */
+    private long fileBytes;
+
+    /**
+     * 以给定的状态新建 MANIFEST，替换已有的文件
+     *
+     * @param file
+     * @param state 数据库的完整状态
+     * @throws IOException
+     */
+    public Manifest(File file, VersionEdit state) throws IOException {
+        this.file = file;
+        this.state = state;
+        rewrite();
+    }
+
+    /**
+     * 回放 MANIFEST 中的全部变更
+     *
+     * @param file
+     * @return 数据库的完整状态
+     * @throws IOException
+     */
+    public static VersionEdit recover(File file) throws IOException {
+        VersionEdit state = new VersionEdit();
+        new WalReader(file).replayRaw(record -> state.apply(VersionEdit.decode(record)));
+        return state;
+    }
+
+    /**
+     * 追加一条变更并等待持久化
+     *
+     * @param edit
+     * @throws IOException
+     */
+    public synchronized void append(VersionEdit edit) throws IOException {
+        byte[] record = edit.encode();
+        writer.sync(writer.append(record));
+        state.apply(edit);
+        fileBytes += record.length;
+        if (fileBytes > MAX_FILE_BYTES) {
+            writer.close();
+            rewrite();
+        }
+    }
+
+    /**
+     * 把当前状态写入临时文件，再重命名替换 MANIFEST
+     */
+    private void rewrite() throws IOException {
+        File tmpFile = new File(file.getPath() + ".tmp");
+        Files.deleteIfExists(tmpFile.toPath());
+        byte[] record = state.encode();
+        try (WalWriter tmpWriter = new WalWriter(tmpFile, WalSyncPolicy.SYNC, 0, Integer.MAX_VALUE)) {
+            tmpWriter.sync(tmpWriter.append(record));
+        }
+        Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        writer = new WalWriter(file, WalSyncPolicy.SYNC, 0, Integer.MAX_VALUE);
+        fileBytes = record.length;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        writer.close();
+    }
+}
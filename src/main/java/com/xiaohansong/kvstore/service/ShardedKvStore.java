@@ -0,0 +1,421 @@
+package com.xiaohansong.kvstore.service;
+
+import com.xiaohansong.kvstore.model.command.Command;
+import com.xiaohansong.kvstore.model.command.SetCommand;
+import com.xiaohansong.kvstore.model.iterator.ByteKvIterator;
+import com.xiaohansong.kvstore.model.iterator.KvMergeIterator;
+import com.xiaohansong.kvstore.model.sstable.BlockCache;
+import com.xiaohansong.kvstore.utils.LoggerUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 按key的哈希值分片的KV数据库
+ * 每个分片是一个独立的 {@link LsmKvStore}，有自己的WAL、内存表和持久化流程，数据保存在数据目录的 shard-序号 子目录中，
+ * 不同分片的写入互不阻塞；全部分片共用数据块缓存、内存表内存预算和后台持久化、合并线程池
+ * <p>
+ * 批量写入按分片拆分，每个分片内原子提交，跨分片不保证原子性；快照由每个分片的快照组成，各分片的快照依次创建
+ */
+public class ShardedKvStore implements KvStore {
+
+    /**
+     * 记录分片数量的文件，分片数量不同时key会被分配到其他分片，打开时检查
+     */
+    public static final String SHARDS = "SHARDS";
+
+    public static final String SHARD_DIR = "shard-";
+
+    private final Logger LOGGER = LoggerFactory.getLogger(ShardedKvStore.class);
+
+    private final List<LsmKvStore> shards;
+
+    private final WriteBufferManager writeBufferManager;
+
+    private final ExecutorService flushExecutor;
+
+    private final ExecutorService compactionExecutor;
+
+    /**
+     * 初始化
+     *
+     * @param options 配置项
+     */
+    public ShardedKvStore(ShardedStoreOptions options) {
+        String dataDir = options.getDataDir();
+        int shardCount = options.getShardCount();
+        if (shardCount <= 0) {
+            throw new IllegalArgumentException("分片数量必须大于0: " + shardCount);
+        }
+        try {
+            checkShardCount(dataDir, shardCount);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        StoreOptions storeOptions = options.getStoreOptions();
+        long writeBufferBytes = options.getWriteBufferBytes() > 0 ? options.getWriteBufferBytes()
+                : storeOptions.getMemTableBytes() * shardCount;
+        this.writeBufferManager = new WriteBufferManager(writeBufferBytes);
+        this.flushExecutor = Executors.newFixedThreadPool(options.getFlushThreads(),
+                threadFactory("kvstore-shard-flush-", Thread.NORM_PRIORITY));
+        // 合并的优先级低于前台读写
+        this.compactionExecutor = Executors.newFixedThreadPool(options.getCompactionThreads(),
+                threadFactory("kvstore-shard-compaction-", Thread.MIN_PRIORITY));
+        BlockCache blockCache = options.getBlockCacheBytes() > 0 ? new BlockCache(options.getBlockCacheBytes()) : null;
+        List<LsmKvStore> stores = new ArrayList<>(shardCount);
+        try {
+            for (int i = 0; i < shardCount; i++) {
+                File shardDir = new File(dataDir, SHARD_DIR + i);
+                if (!shardDir.isDirectory() && !shardDir.mkdirs()) {
+                    throw new IOException("创建分片目录失败: " + shardDir);
+                }
+                stores.add(new LsmKvStore(storeOptions.toBuilder()
+                        .dataDir(shardDir.getPath() + File.separator)
+                        .blockCache(blockCache)
+                        .blockCacheBytes(0)
+                        .writeBufferManager(writeBufferManager)
+                        .flushExecutor(flushExecutor)
+                        .compactionExecutor(compactionExecutor)
+                        .build()));
+            }
+        } catch (Throwable t) {
+            closeAll(stores);
+            shutdownExecutors();
+            throw t instanceof RuntimeException ? (RuntimeException) t : new RuntimeException(t);
+        }
+        this.shards = Collections.unmodifiableList(stores);
+    }
+
+    /**
+     * 检查数据目录中记录的分片数量，新目录写入分片数量
+     *
+     * @param dataDir
+     * @param shardCount
+     * @throws IOException
+     */
+    private static void checkShardCount(String dataDir, int shardCount) throws IOException {
+        File dir = new File(dataDir);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("创建数据目录失败: " + dir);
+        }
+        File shardsFile = new File(dir, SHARDS);
+        if (shardsFile.isFile()) {
+            int existing = Integer.parseInt(new String(Files.readAllBytes(shardsFile.toPath()),
+                    StandardCharsets.UTF_8).trim());
+            if (existing != shardCount) {
+                throw new IllegalStateException("分片数量与数据目录中的不一致: " + existing + " != " + shardCount);
+            }
+            return;
+        }
+        Files.write(shardsFile.toPath(), String.valueOf(shardCount).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static ThreadFactory threadFactory(String prefix, int priority) {
+        AtomicInteger index = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, prefix + index.getAndIncrement());
+            thread.setDaemon(true);
+            thread.setPriority(priority);
+            return thread;
+        };
+    }
+
+    /**
+     * key所在的分片
+     * 分片内的布隆过滤器也使用key的哈希值，这里先打散 hashCode，避免同一个分片的key在布隆过滤器中分布不均
+     *
+     * @param key
+     * @return
+     */
+    private int shardOf(byte[] key) {
+        int h = Arrays.hashCode(key);
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return Math.floorMod(h, shards.size());
+    }
+
+    private LsmKvStore shard(byte[] key) {
+        return shards.get(shardOf(key));
+    }
+
+    @Override
+    public void set(byte[] key, byte[] value) {
+        shard(key).set(key, value);
+    }
+
+    @Override
+    public byte[] get(byte[] key) {
+        return shard(key).get(key);
+    }
+
+    /**
+     * 按分片分组后在每个分片中批量查询
+     *
+     * @param keys
+     * @return 与 keys 一一对应的值，不存在的为null
+     */
+    @Override
+    public List<byte[]> multiGet(List<byte[]> keys) {
+        List<List<Integer>> indexes = new ArrayList<>(shards.size());
+        for (int i = 0; i < shards.size(); i++) {
+            indexes.add(new ArrayList<>());
+        }
+        for (int i = 0; i < keys.size(); i++) {
+            indexes.get(shardOf(keys.get(i))).add(i);
+        }
+        byte[][] values = new byte[keys.size()][];
+        for (int shard = 0; shard < shards.size(); shard++) {
+            List<Integer> shardIndexes = indexes.get(shard);
+            if (shardIndexes.isEmpty()) {
+                continue;
+            }
+            List<byte[]> shardKeys = new ArrayList<>(shardIndexes.size());
+            for (int index : shardIndexes) {
+                shardKeys.add(keys.get(index));
+            }
+            List<byte[]> shardValues = shards.get(shard).multiGet(shardKeys);
+            for (int i = 0; i < shardIndexes.size(); i++) {
+                values[shardIndexes.get(i)] = shardValues.get(i);
+            }
+        }
+        return Arrays.asList(values);
+    }
+
+    @Override
+    public void rm(byte[] key) {
+        shard(key).rm(key);
+    }
+
+    /**
+     * 批量写入，按分片拆分后依次提交，每个分片内原子提交，跨分片不保证原子性
+     *
+     * @param batch
+     */
+    @Override
+    public void write(WriteBatch batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        WriteBatch[] shardBatches = split(batch);
+        for (int shard = 0; shard < shardBatches.length; shard++) {
+            if (shardBatches[shard] != null) {
+                shards.get(shard).write(shardBatches[shard]);
+            }
+        }
+    }
+
+    /**
+     * 异步保存数据，见 {@link LsmKvStore#setAsync}
+     */
+    CompletableFuture<Void> setAsync(byte[] key, byte[] value, Executor stallExecutor) {
+        return shard(key).setAsync(key, value, stallExecutor);
+    }
+
+    /**
+     * 异步删除数据，见 {@link LsmKvStore#rmAsync}
+     */
+    CompletableFuture<Void> rmAsync(byte[] key, Executor stallExecutor) {
+        return shard(key).rmAsync(key, stallExecutor);
+    }
+
+    /**
+     * 异步批量写入，按分片拆分后同时提交，全部分片持久化后完成
+     */
+    CompletableFuture<Void> writeAsync(WriteBatch batch, Executor stallExecutor) {
+        if (batch.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        WriteBatch[] shardBatches = split(batch);
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int shard = 0; shard < shardBatches.length; shard++) {
+            if (shardBatches[shard] != null) {
+                futures.add(shards.get(shard).writeAsync(shardBatches[shard], stallExecutor));
+            }
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]));
+    }
+
+    /**
+     * 按分片拆分批次
+     *
+     * @param batch
+     * @return 每个分片的批次，没有写入的分片为null
+     */
+    private WriteBatch[] split(WriteBatch batch) {
+        WriteBatch[] shardBatches = new WriteBatch[shards.size()];
+        for (Command command : batch.getCommands()) {
+            int shard = shardOf(command.getKey());
+            if (shardBatches[shard] == null) {
+                shardBatches[shard] = new WriteBatch();
+            }
+            if (command instanceof SetCommand) {
+                shardBatches[shard].set(command.getKey(), ((SetCommand) command).getValue());
+            } else {
+                shardBatches[shard].rm(command.getKey());
+            }
+        }
+        return shardBatches;
+    }
+
+    /**
+     * 范围查询，归并全部分片的范围查询结果
+     *
+     * @param startKey 起始key(包含)，为null时从最小的key开始
+     * @param endKey   结束key(不包含)，为null时遍历到最大的key
+     * @return
+     */
+    @Override
+    public ByteKvIterator scan(byte[] startKey, byte[] endKey) {
+        List<ByteKvIterator> iterators = new ArrayList<>(shards.size());
+        try {
+            for (LsmKvStore shard : shards) {
+                iterators.add(shard.scan(startKey, endKey));
+            }
+        } catch (Throwable t) {
+            iterators.forEach(ByteKvIterator::close);
+            throw t;
+        }
+        return new KvMergeIterator(iterators);
+    }
+
+    /**
+     * 创建快照，依次创建每个分片的快照，不同分片的快照之间不是同一时刻的一致视图
+     *
+     * @return
+     */
+    @Override
+    public Snapshot snapshot() {
+        List<Snapshot> snapshots = new ArrayList<>(shards.size());
+        try {
+            for (LsmKvStore shard : shards) {
+                snapshots.add(shard.snapshot());
+            }
+        } catch (Throwable t) {
+            snapshots.forEach(Snapshot::close);
+            throw t;
+        }
+        return new ShardedSnapshot(snapshots);
+    }
+
+    /**
+     * 全部分片，用于查看每个分片的指标
+     *
+     * @return
+     */
+    public List<LsmKvStore> getShards() {
+        return shards;
+    }
+
+    public WriteBufferManager getWriteBufferManager() {
+        return writeBufferManager;
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException failure = closeAll(shards);
+        shutdownExecutors();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * 关闭全部分片，关闭失败时继续关闭其他分片
+     *
+     * @param stores
+     * @return 第一个关闭失败的异常
+     */
+    private IOException closeAll(List<LsmKvStore> stores) {
+        IOException failure = null;
+        for (LsmKvStore store : stores) {
+            try {
+                store.close();
+            } catch (Throwable t) {
+                LoggerUtil.error(LOGGER, t, "[ShardedKvStore][close]: 关闭分片失败");
+                if (failure == null) {
+                    failure = t instanceof IOException ? (IOException) t : new IOException(t);
+                }
+            }
+        }
+        return failure;
+    }
+
+    private void shutdownExecutors() {
+        flushExecutor.shutdown();
+        compactionExecutor.shutdown();
+        try {
+            flushExecutor.awaitTermination(1, TimeUnit.MINUTES);
+            compactionExecutor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 由每个分片的快照组成的快照
+     */
+    private class ShardedSnapshot implements Snapshot {
+
+        private final List<Snapshot> snapshots;
+
+        private ShardedSnapshot(List<Snapshot> snapshots) {
+            this.snapshots = snapshots;
+        }
+
+        /**
+         * 各分片的序列号相互独立，返回各分片快照序列号之和，随写入单调递增，只用于比较快照的新旧
+         *
+         * @return
+         */
+        @Override
+        public long getSequence() {
+            long sequence = 0;
+            for (Snapshot snapshot : snapshots) {
+                sequence += snapshot.getSequence();
+            }
+            return sequence;
+        }
+
+        @Override
+        public byte[] get(byte[] key) {
+            return snapshots.get(shardOf(key)).get(key);
+        }
+
+        @Override
+        public ByteKvIterator scan(byte[] startKey, byte[] endKey) {
+            List<ByteKvIterator> iterators = new ArrayList<>(snapshots.size());
+            try {
+                for (Snapshot snapshot : snapshots) {
+                    iterators.add(snapshot.scan(startKey, endKey));
+                }
+            } catch (Throwable t) {
+                iterators.forEach(ByteKvIterator::close);
+                throw t;
+            }
+            return new KvMergeIterator(iterators);
+        }
+
+        @Override
+        public void close() {
+            snapshots.forEach(Snapshot::close);
+        }
+    }
+}
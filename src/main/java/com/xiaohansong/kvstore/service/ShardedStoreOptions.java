@@ -0,0 +1,51 @@
+package com.xiaohansong.kvstore.service;
+
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * ShardedKvStore 配置项
+ */
+@Getter
+@Builder
+public class ShardedStoreOptions {
+
+    /**
+     * 数据目录，每个分片的数据保存在其中的 shard-序号 子目录
+     */
+    private final String dataDir;
+
+    /**
+     * 分片数量，创建后不能修改
+     */
+    @Builder.Default
+    private final int shardCount = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * 每个分片的配置，其中的数据目录、数据块缓存、内存预算和后台线程池由 ShardedKvStore 设置
+     */
+    private final StoreOptions storeOptions;
+
+    /**
+     * 全部分片的内存表共用的内存预算(字节)，小于等于0时为每个分片的 memTableBytes 之和
+     */
+    private final long writeBufferBytes;
+
+    /**
+     * 全部分片共用的数据块缓存容量(字节)，为0时不缓存
+     */
+    @Builder.Default
+    private final long blockCacheBytes = 32L * 1024 * 1024;
+
+    /**
+     * 全部分片共用的持久化线程数
+     */
+    @Builder.Default
+    private final int flushThreads = 2;
+
+    /**
+     * 全部分片共用的合并线程数
+     */
+    @Builder.Default
+    private final int compactionThreads = 2;
+}
@@ -0,0 +1,65 @@
+package com.xiaohansong.kvstore.service;
+
+import com.xiaohansong.kvstore.model.iterator.ByteKvIterator;
+import com.xiaohansong.kvstore.model.iterator.KvIterator;
+import com.xiaohansong.kvstore.model.iterator.StringKvIterator;
+import com.xiaohansong.kvstore.utils.ConvertUtil;
+import com.xiaohansong.kvstore.utils.KeyUtil;
+
+import java.io.Closeable;
+
+/**
+ * 数据快照，只能看到创建快照之前提交的写入
+ * 快照未关闭时，合并和持久化会保留快照可见的旧版本，使用完后需要关闭
+ */
+public interface Snapshot extends Closeable {
+
+    /**
+     * 快照的序列号，序列号小于等于该值的写入可见
+     *
+     * @return
+     */
+    long getSequence();
+
+    /**
+     * 查询快照中的数据
+     *
+     * @param key
+     * @return
+     */
+    byte[] get(byte[] key);
+
+    /**
+     * 在快照上范围查询，见 {@link KvStore#scan(byte[], byte[])}
+     *
+     * @param startKey
+     * @param endKey
+     * @return
+     */
+    ByteKvIterator scan(byte[] startKey, byte[] endKey);
+
+    /**
+     * 在快照上前缀查询
+     *
+     * @param prefix
+     * @return
+     */
+    default ByteKvIterator prefixScan(byte[] prefix) {
+        return scan(prefix, KeyUtil.prefixEnd(prefix));
+    }
+
+    default String get(String key) {
+        return ConvertUtil.toString(get(ConvertUtil.toBytes(key)));
+    }
+
+    default KvIterator scan(String startKey, String endKey) {
+        return new StringKvIterator(scan(ConvertUtil.toBytes(startKey), ConvertUtil.toBytes(endKey)));
+    }
+
+    default KvIterator prefixScan(String prefix) {
+        return new StringKvIterator(prefixScan(ConvertUtil.toBytes(prefix)));
+    }
+
+    @Override
+    void close();
+}
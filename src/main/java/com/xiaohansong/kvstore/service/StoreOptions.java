@@ -0,0 +1,202 @@
+package com.xiaohansong.kvstore.service;
+
+import com.xiaohansong.kvstore.model.memtable.MemTable;
+import com.xiaohansong.kvstore.model.memtable.SkipListMemTable;
+import com.xiaohansong.kvstore.model.sstable.BlockCache;
+import com.xiaohansong.kvstore.model.sstable.BloomFilter;
+import com.xiaohansong.kvstore.model.sstable.CompressionType;
+import com.xiaohansong.kvstore.model.wal.WalSyncPolicy;
+import lombok.Builder;
+import lombok.Getter;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+
+/**
+ * LsmKvStore 配置项
+ */
+@Getter
+@Builder(toBuilder = true)
+public class StoreOptions {
+
+    /**
+     * 数据目录
+     */
+    private final String dataDir;
+
+    /**
+     * 持久化阈值，内存表key数量超过该值时持久化，为0时只按 memTableBytes 判断
+     */
+    private final int storeThreshold;
+
+    /**
+     * 内存表写入的数据量(字节)达到该值时持久化，堆外内存表按占用的内存块字节数计算
+     */
+    @Builder.Default
+    private final long memTableBytes = 4L * 1024 * 1024;
+
+    /**
+     * 内存表实现，写缓冲较大时可以使用堆外的 {@link com.xiaohansong.kvstore.model.memtable.ArenaMemTable}
+     */
+    @Builder.Default
+    private final Supplier<MemTable> memTableFactory = SkipListMemTable::new;
+
+    /**
+     * 多个数据库共用的内存表内存预算，总量达到预算时提前持久化，为null时只按 memTableBytes 和 storeThreshold 判断
+     */
+    private final WriteBufferManager writeBufferManager;
+
+    /**
+     * 最多保留的等待持久化的不可变内存表数量，全部占满时写入限速，需要再切换内存表时写入等待
+     */
+    @Builder.Default
+    private final int maxImmutableMemTables = 2;
+
+    /**
+     * 数据分区大小
+     */
+    private final int partSize;
+
+    /**
+     * 布隆过滤器每个key占用的位数，为0时不构建布隆过滤器
+     */
+    @Builder.Default
+    private final int bloomBitsPerKey = BloomFilter.DEFAULT_BITS_PER_KEY;
+
+    /**
+     * ssTable数据段的压缩算法，只影响之后新写入的表
+     */
+    @Builder.Default
+    private final CompressionType compression = CompressionType.LZ4;
+
+    /**
+     * 持久化和合并时并行编码、压缩数据段的线程池，为null时在持久化或合并线程中编码
+     */
+    @Builder.Default
+    private final ForkJoinPool tableBuildPool = ForkJoinPool.commonPool();
+
+    /**
+     * 批量查询时并行读取同一层级内多个ssTable的线程池，为null时在查询线程中依次读取
+     */
+    @Builder.Default
+    private final ForkJoinPool readPool = ForkJoinPool.commonPool();
+
+    /**
+     * 持久化生成的单个ssTable数据区大小上限(字节)，大的内存表切分为多个key范围不重叠的第0层表，小于等于0表示不切分
+     */
+    private final long flushTargetFileSize;
+
+    /**
+     * 值的长度(字节)达到该值时，持久化时把值写入值日志，ssTable中只保存值的位置，合并时不再重复写入这些值；
+     * 小于等于0表示不分离。适合值较大(如几KB以上)的场景，关闭后已经写入值日志的值仍然可以读取
+     */
+    private final int valueLogThreshold;
+
+    /**
+     * 值日志文件中的垃圾比例达到该值时回收：把仍然有效的值写回数据库，然后删除文件
+     */
+    @Builder.Default
+    private final double valueLogGcRatio = 0.5;
+
+    /**
+     * 数据块缓存容量(字节)，为0时不缓存
+     */
+    @Builder.Default
+    private final long blockCacheBytes = 8L * 1024 * 1024;
+
+    /**
+     * 多个数据库共用的数据块缓存，为null时按 blockCacheBytes 创建数据库独占的缓存
+     */
+    private final BlockCache blockCache;
+
+    /**
+     * 第0层ssTable数量达到该值时触发合并
+     */
+    @Builder.Default
+    private final int level0CompactionTrigger = 4;
+
+    /**
+     * 第0层ssTable数量达到该值时写入限速
+     */
+    @Builder.Default
+    private final int level0SlowdownWritesTrigger = 8;
+
+    /**
+     * 第0层ssTable数量达到该值时停止写入，直到合并减少第0层的表
+     */
+    @Builder.Default
+    private final int level0StopWritesTrigger = 12;
+
+    /**
+     * 刚进入限速状态时每秒允许写入的字节数，第0层的表越多速率越低，小于等于0表示只在达到硬限制时停止写入
+     */
+    @Builder.Default
+    private final long delayedWriteBytesPerSecond = 16L * 1024 * 1024;
+
+    /**
+     * 最大层数
+     */
+    @Builder.Default
+    private final int maxLevels = 7;
+
+    /**
+     * 第1层的数据量上限(字节)，之后每层按 levelSizeMultiplier 倍递增
+     */
+    @Builder.Default
+    private final long levelBaseBytes = 10L * 1024 * 1024;
+
+    /**
+     * 相邻两层数据量上限的倍数
+     */
+    @Builder.Default
+    private final int levelSizeMultiplier = 10;
+
+    /**
+     * 合并生成的单个ssTable数据区大小上限(字节)
+     */
+    @Builder.Default
+    private final long targetFileSize = 2L * 1024 * 1024;
+
+    /**
+     * 多个数据库共用的持久化线程池，每个数据库的持久化任务仍然串行执行，关闭数据库时不关闭线程池；
+     * 为null时数据库使用自己的持久化线程
+     */
+    private final ExecutorService flushExecutor;
+
+    /**
+     * 多个数据库共用的合并线程池，每个数据库同一时间最多一个合并任务，关闭数据库时不关闭线程池；
+     * 为null时数据库使用自己的合并线程
+     */
+    private final ExecutorService compactionExecutor;
+
+    /**
+     * 合并每秒最多读取的数据量(字节)，避免合并占满磁盘带宽影响前台写入，小于等于0表示不限速
+     */
+    @Builder.Default
+    private final long compactionBytesPerSecond = 32L * 1024 * 1024;
+
+    /**
+     * WAL 刷盘策略
+     */
+    @Builder.Default
+    private final WalSyncPolicy walSyncPolicy = WalSyncPolicy.ASYNC;
+
+    /**
+     * WAL 组提交的最长等待时间(微秒)，ASYNC 策略下为后台写入文件的周期
+     */
+    @Builder.Default
+    private final long walGroupCommitMicros = 1000;
+
+    /**
+     * WAL 缓冲区积累到该字节数后立即写入
+     */
+    @Builder.Default
+    private final int walGroupCommitBytes = 64 * 1024;
+
+    /**
+     * 是否把指标注册为 JMX MXBean，对象名为 com.xiaohansong.kvstore:type=LsmKvStore,name="数据目录"，
+     * 同名的对象已经存在时不注册
+     */
+    private final boolean jmxEnabled;
+}
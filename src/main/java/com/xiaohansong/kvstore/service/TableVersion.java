@@ -0,0 +1,80 @@
+package com.xiaohansong.kvstore.service;
+
+import com.xiaohansong.kvstore.model.sstable.SsTable;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ssTable列表的一个不可变版本
+ * 数据库持有当前版本的一个引用，读请求在访问ssTable期间持有版本的引用，
+ * 版本的引用全部释放后才释放其中各个表的引用，因此合并淘汰的表会在没有读请求访问后才被删除
+ */
+public class TableVersion {
+
+    /**
+     * 第0层的表按从新到旧排列，之后按层级递增排列，同一层级(第0层除外)内按key递增排列
+     */
+    private final List<SsTable> ssTables;
+
+    /**
+     * 第0层的表数量
+     */
+    private final int level0Count;
+
+    /**
+     * 引用计数，创建时的引用属于数据库
+     */
+    private final AtomicInteger refs = new AtomicInteger(1);
+
+    /**
+     * @param ssTables 不可修改的表列表
+     */
+    public TableVersion(List<SsTable> ssTables) {
+        this.ssTables = ssTables;
+        int level0Count = 0;
+        for (SsTable ssTable : ssTables) {
+            ssTable.retain();
+            if (ssTable.getLevel() == 0) {
+                level0Count++;
+            }
+        }
+        this.level0Count = level0Count;
+    }
+
+    public List<SsTable> getSsTables() {
+        return ssTables;
+    }
+
+    public int getLevel0Count() {
+        return level0Count;
+    }
+
+    /**
+     * 尝试增加引用
+     *
+     * @return 版本已经被释放时返回false，调用方需要重新读取当前版本
+     */
+    public boolean tryRetain() {
+        while (true) {
+            int current = refs.get();
+            if (current == 0) {
+                return false;
+            }
+            if (refs.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 释放引用，最后一个引用释放时释放其中全部表的引用
+     */
+    public void release() {
+        if (refs.decrementAndGet() == 0) {
+            for (SsTable ssTable : ssTables) {
+                ssTable.release();
+            }
+        }
+    }
+}
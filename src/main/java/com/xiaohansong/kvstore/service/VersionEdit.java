@@ -0,0 +1,220 @@
+package com.xiaohansong.kvstore.service;
+
+import com.xiaohansong.kvstore.utils.CodingUtil;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 版本变更，MANIFEST 中的一条记录
+ * <p>
+ * 记录格式：若干字段，每个字段为 tag(1 byte) | 内容
+ * LOG_NUMBER: 编号(varlong)，编号小于它的WAL中的数据都已经持久化到ssTable
+ * LAST_FILE_ID: 编号(varlong)，已经分配的最大文件编号
+ * ADD_TABLE: 编号(varlong) | 层级(varint) | 最大序列号(varlong) | minKey | maxKey，key为 长度(varint) | 字节
+ * DELETE_TABLE: 编号(varlong)
+ * ADD_VALUE_LOG: 值日志文件编号(varlong)
+ * DELETE_VALUE_LOG: 值日志文件编号(varlong)
+ */
+@Getter
+public class VersionEdit {
+
+    private static final byte TAG_LOG_NUMBER = 1;
+
+    private static final byte TAG_LAST_FILE_ID = 2;
+
+    private static final byte TAG_ADD_TABLE = 3;
+
+    private static final byte TAG_DELETE_TABLE = 4;
+
+    private static final byte TAG_ADD_VALUE_LOG = 5;
+
+    private static final byte TAG_DELETE_VALUE_LOG = 6;
+
+    /**
+     * 当前WAL的编号，为0时表示没有变化
+     */
+    @Setter
+    private long logNumber;
+
+    /**
+     * 已经分配的最大文件编号，为0时表示没有变化
+     */
+    @Setter
+    private long lastFileId;
+
+    /**
+     * 新增的表，按编号排列
+     */
+    private final Map<Long, TableFile> addedTables = new LinkedHashMap<>();
+
+    /**
+     * 删除的表的编号
+     */
+    private final List<Long> deletedTables = new ArrayList<>();
+
+    /**
+     * 新增的值日志文件的编号
+     */
+    private final Set<Long> addedValueLogs = new LinkedHashSet<>();
+
+    /**
+     * 删除的值日志文件的编号
+     */
+    private final List<Long> deletedValueLogs = new ArrayList<>();
+
+    public VersionEdit addTable(TableFile table) {
+        addedTables.put(table.getId(), table);
+        return this;
+    }
+
+    public VersionEdit deleteTable(long id) {
+        deletedTables.add(id);
+        return this;
+    }
+
+    public VersionEdit addValueLog(long id) {
+        addedValueLogs.add(id);
+        return this;
+    }
+
+    public VersionEdit deleteValueLog(long id) {
+        deletedValueLogs.add(id);
+        return this;
+    }
+
+    /**
+     * 把另一个变更合并到当前变更中，用于回放 MANIFEST 得到最终状态
+     *
+     * @param edit 更新的变更
+     */
+    public void apply(VersionEdit edit) {
+        if (edit.logNumber > 0) {
+            logNumber = edit.logNumber;
+        }
+        lastFileId = Math.max(lastFileId, edit.lastFileId);
+        for (Long id : edit.deletedTables) {
+            addedTables.remove(id);
+        }
+        addedTables.putAll(edit.addedTables);
+        addedValueLogs.removeAll(edit.deletedValueLogs);
+        addedValueLogs.addAll(edit.addedValueLogs);
+    }
+
+    public byte[] encode() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 + addedTables.size() * 64);
+        if (logNumber > 0) {
+            out.write(TAG_LOG_NUMBER);
+            CodingUtil.writeVarLong(out, logNumber);
+        }
+        if (lastFileId > 0) {
+            out.write(TAG_LAST_FILE_ID);
+            CodingUtil.writeVarLong(out, lastFileId);
+        }
+        for (TableFile table : addedTables.values()) {
+            out.write(TAG_ADD_TABLE);
+            CodingUtil.writeVarLong(out, table.getId());
+            CodingUtil.writeVarInt(out, table.getLevel());
+            CodingUtil.writeVarLong(out, table.getMaxSequence());
+            writeKey(out, table.getMinKey());
+            writeKey(out, table.getMaxKey());
+        }
+        for (Long id : deletedTables) {
+            out.write(TAG_DELETE_TABLE);
+            CodingUtil.writeVarLong(out, id);
+        }
+        for (Long id : addedValueLogs) {
+            out.write(TAG_ADD_VALUE_LOG);
+            CodingUtil.writeVarLong(out, id);
+        }
+        for (Long id : deletedValueLogs) {
+            out.write(TAG_DELETE_VALUE_LOG);
+            CodingUtil.writeVarLong(out, id);
+        }
+        return out.toByteArray();
+    }
+
+    public static VersionEdit decode(byte[] data) {
+        VersionEdit edit = new VersionEdit();
+        int[] pos = {0};
+        while (pos[0] < data.length) {
+            byte tag = data[pos[0]++];
+            switch (tag) {
+                case TAG_LOG_NUMBER:
+                    edit.logNumber = CodingUtil.readVarLong(data, pos);
+                    break;
+                case TAG_LAST_FILE_ID:
+                    edit.lastFileId = CodingUtil.readVarLong(data, pos);
+                    break;
+                case TAG_ADD_TABLE:
+                    long id = CodingUtil.readVarLong(data, pos);
+                    int level = CodingUtil.readVarInt(data, pos);
+                    long maxSequence = CodingUtil.readVarLong(data, pos);
+                    byte[] minKey = readKey(data, pos);
+                    byte[] maxKey = readKey(data, pos);
+                    edit.addTable(new TableFile(id, level, minKey, maxKey, maxSequence));
+                    break;
+                case TAG_DELETE_TABLE:
+                    edit.deleteTable(CodingUtil.readVarLong(data, pos));
+                    break;
+                case TAG_ADD_VALUE_LOG:
+                    edit.addValueLog(CodingUtil.readVarLong(data, pos));
+                    break;
+                case TAG_DELETE_VALUE_LOG:
+                    edit.deleteValueLog(CodingUtil.readVarLong(data, pos));
+                    break;
+                default:
+                    throw new IllegalArgumentException("未知的版本变更字段: " + tag);
+            }
+        }
+        return edit;
+    }
+
+    private static void writeKey(ByteArrayOutputStream out, byte[] key) {
+        CodingUtil.writeVarInt(out, key.length);
+        out.write(key, 0, key.length);
+    }
+
+    private static byte[] readKey(byte[] data, int[] pos) {
+        int len = CodingUtil.readVarInt(data, pos);
+        byte[] key = Arrays.copyOfRange(data, pos[0], pos[0] + len);
+        pos[0] += len;
+        return key;
+    }
+
+    /**
+     * MANIFEST 中记录的表信息，打开数据库时不需要读取表文件
+     */
+    @Getter
+    public static class TableFile {
+
+        /**
+         * 文件编号，即文件名中的数字
+         */
+        private final long id;
+
+        private final int level;
+
+        private final byte[] minKey;
+
+        private final byte[] maxKey;
+
+        private final long maxSequence;
+
+        public TableFile(long id, int level, byte[] minKey, byte[] maxKey, long maxSequence) {
+            this.id = id;
+            this.level = level;
+            this.minKey = minKey;
+            this.maxKey = maxKey;
+            this.maxSequence = maxSequence;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.xiaohansong.kvstore.service;
+
+import com.xiaohansong.kvstore.model.command.Command;
+import com.xiaohansong.kvstore.model.command.RmCommand;
+import com.xiaohansong.kvstore.model.command.SetCommand;
+import com.xiaohansong.kvstore.utils.ConvertUtil;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 批量写入，收集多个保存和删除操作，通过 {@link KvStore#write(WriteBatch)} 一次提交
+ * 同一个批次中的操作写入同一条WAL记录，崩溃恢复时整体生效或整体丢弃；同一个key以最后一次操作为准
+ * 非线程安全
+ */
+public class WriteBatch {
+
+    private final List<Command> commands = new ArrayList<>();
+
+    /**
+     * 保存数据
+     *
+     * @param key
+     * @param value
+     * @return
+     */
+    public WriteBatch set(byte[] key, byte[] value) {
+        commands.add(new SetCommand(key, value));
+        return this;
+    }
+
+    public WriteBatch set(String key, String value) {
+        return set(ConvertUtil.toBytes(key), ConvertUtil.toBytes(value));
+    }
+
+    /**
+     * 删除数据
+     *
+     * @param key
+     * @return
+     */
+    public WriteBatch rm(byte[] key) {
+        commands.add(new RmCommand(key));
+        return this;
+    }
+
+    public WriteBatch rm(String key) {
+        return rm(ConvertUtil.toBytes(key));
+    }
+
+    public int size() {
+        return commands.size();
+    }
+
+    public boolean isEmpty() {
+        return commands.isEmpty();
+    }
+
+    public void clear() {
+        commands.clear();
+    }
+
+    /**
+     * 按添加顺序排列的命令
+     *
+     * @return
+     */
+    public List<Command> getCommands() {
+        return Collections.unmodifiableList(commands);
+    }
+}
@@ -0,0 +1,74 @@
+package com.xiaohansong.kvstore.service;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.LongSupplier;
+
+/**
+ * 多个数据库共用的内存表内存预算
+ * 每个数据库登记自己的内存表(包括等待持久化的不可变内存表)占用的字节数，
+ * 总量达到预算时，内存表不小于最小持久化大小的数据库在下一次写入后提前切换内存表并持久化
+ */
+public class WriteBufferManager {
+
+    /**
+     * 全部内存表占用的字节数上限
+     */
+    private final long bufferBytes;
+
+    /**
+     * 登记的数据库内存表占用的字节数
+     */
+    private final CopyOnWriteArrayList<LongSupplier> usages = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param bufferBytes 全部内存表占用的字节数上限
+     */
+    public WriteBufferManager(long bufferBytes) {
+        this.bufferBytes = bufferBytes;
+    }
+
+    /**
+     * 登记一个数据库
+     *
+     * @param usage 数据库内存表占用的字节数
+     */
+    public void register(LongSupplier usage) {
+        usages.add(usage);
+    }
+
+    public void unregister(LongSupplier usage) {
+        usages.remove(usage);
+    }
+
+    /**
+     * 当前内存表是否需要提前持久化
+     * 太小的内存表不提前持久化，避免生成大量很小的表，平均每个数据库的预算的1/4以下视为太小
+     *
+     * @param memTableBytes 当前内存表的字节数
+     * @return
+     */
+    public boolean shouldFlush(long memTableBytes) {
+        int count = usages.size();
+        if (count == 0 || memTableBytes < bufferBytes / (4L * count)) {
+            return false;
+        }
+        return getUsage() >= bufferBytes;
+    }
+
+    /**
+     * 全部登记的数据库内存表占用的字节数
+     *
+     * @return
+     */
+    public long getUsage() {
+        long usage = 0;
+        for (LongSupplier supplier : usages) {
+            usage += supplier.getAsLong();
+        }
+        return usage;
+    }
+
+    public long getBufferBytes() {
+        return bufferBytes;
+    }
+}
@@ -0,0 +1,170 @@
+package com.xiaohansong.kvstore.service;
+
+import com.xiaohansong.kvstore.utils.RateLimiter;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 写入限流
+ * <p>
+ * 未持久化的不可变内存表或第0层ssTable过多时，持久化和合并跟不上写入，继续写入会让读请求越来越慢。
+ * 超过软限制时按字节数限速，第0层的表越多速率越低；达到硬限制时写入等待，直到后台持久化或合并完成。
+ * 同时统计限速和等待的次数与时长
+ */
+public class WriteController {
+
+    /**
+     * 写入状态
+     */
+    public enum Stall {
+        /**
+         * 正常写入
+         */
+        NONE,
+        /**
+         * 限速写入
+         */
+        DELAYED,
+        /**
+         * 停止写入
+         */
+        STOPPED
+    }
+
+    /**
+     * 最多保留的不可变内存表数量，全部等待持久化时限速，此时切换内存表需要等待
+     */
+    private final int maxImmutableMemTables;
+
+    /**
+     * 第0层ssTable数量达到该值时限速
+     */
+    private final int level0SlowdownTrigger;
+
+    /**
+     * 第0层ssTable数量达到该值时停止写入
+     */
+    private final int level0StopTrigger;
+
+    /**
+     * 刚进入限速状态时每秒允许写入的字节数
+     */
+    private final long delayedWriteBytesPerSecond;
+
+    /**
+     * 限速写入的速率，每次限速时按第0层的表数量调整
+     */
+    private final RateLimiter rateLimiter;
+
+    private final LongAdder delayedCount = new LongAdder();
+
+    private final LongAdder delayedNanos = new LongAdder();
+
+    private final LongAdder stoppedCount = new LongAdder();
+
+    private final LongAdder stoppedNanos = new LongAdder();
+
+    public WriteController(int maxImmutableMemTables, int level0SlowdownTrigger, int level0StopTrigger,
+                           long delayedWriteBytesPerSecond) {
+        if (maxImmutableMemTables < 1) {
+            throw new IllegalArgumentException("maxImmutableMemTables 至少为1");
+        }
+        if (level0StopTrigger < level0SlowdownTrigger) {
+            throw new IllegalArgumentException("level0StopTrigger 不能小于 level0SlowdownTrigger");
+        }
+        this.maxImmutableMemTables = maxImmutableMemTables;
+        this.level0SlowdownTrigger = level0SlowdownTrigger;
+        this.level0StopTrigger = level0StopTrigger;
+        this.delayedWriteBytesPerSecond = delayedWriteBytesPerSecond;
+        this.rateLimiter = new RateLimiter(delayedWriteBytesPerSecond);
+    }
+
+    public int getMaxImmutableMemTables() {
+        return maxImmutableMemTables;
+    }
+
+    /**
+     * 当前的写入状态
+     *
+     * @param immutableCount 未持久化的不可变内存表数量
+     * @param level0Count    第0层ssTable数量
+     * @return
+     */
+    public Stall check(int immutableCount, int level0Count) {
+        if (level0Count >= level0StopTrigger) {
+            return Stall.STOPPED;
+        }
+        if (level0Count >= level0SlowdownTrigger || immutableCount >= maxImmutableMemTables) {
+            return Stall.DELAYED;
+        }
+        return Stall.NONE;
+    }
+
+    /**
+     * 限速写入，超过速率时阻塞调用线程
+     * 第0层的表数量从软限制增加到硬限制的过程中，速率从 delayedWriteBytesPerSecond 线性降低
+     *
+     * @param bytes       写入的字节数
+     * @param level0Count 第0层ssTable数量
+     * @throws InterruptedException
+     */
+    public void delay(long bytes, int level0Count) throws InterruptedException {
+        if (delayedWriteBytesPerSecond <= 0) {
+            return;
+        }
+        long bytesPerSecond = delayedWriteBytesPerSecond;
+        if (level0Count >= level0SlowdownTrigger) {
+            bytesPerSecond = Math.max(1, bytesPerSecond * (level0StopTrigger - level0Count)
+                    / (level0StopTrigger - level0SlowdownTrigger + 1));
+        }
+        rateLimiter.setBytesPerSecond(bytesPerSecond);
+        delayedCount.increment();
+        delayedNanos.add(rateLimiter.acquire(bytes));
+    }
+
+    /**
+     * 记录一次停止写入的等待
+     *
+     * @param nanos 等待时长
+     */
+    public void recordStop(long nanos) {
+        stoppedCount.increment();
+        stoppedNanos.add(nanos);
+    }
+
+    /**
+     * 限速写入的次数
+     *
+     * @return
+     */
+    public long getDelayedCount() {
+        return delayedCount.sum();
+    }
+
+    /**
+     * 限速写入累计等待的时长(纳秒)
+     *
+     * @return
+     */
+    public long getDelayedNanos() {
+        return delayedNanos.sum();
+    }
+
+    /**
+     * 停止写入的次数，包括等待第0层合并和等待不可变内存表持久化
+     *
+     * @return
+     */
+    public long getStoppedCount() {
+        return stoppedCount.sum();
+    }
+
+    /**
+     * 停止写入累计等待的时长(纳秒)
+     *
+     * @return
+     */
+    public long getStoppedNanos() {
+        return stoppedNanos.sum();
+    }
+}
@@ -0,0 +1,54 @@
+package com.xiaohansong.kvstore.service.compaction;
+
+import com.xiaohansong.kvstore.model.sstable.SsTable;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 一次合并任务
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+public class Compaction {
+
+    /**
+     * 被合并的层级
+     */
+    private final int level;
+
+    /**
+     * 被合并层级中参与合并的表，第0层按从新到旧排列
+     */
+    private final List<SsTable> inputs;
+
+    /**
+     * 下一层中与 inputs 的key范围重叠的表，按key递增排列
+     */
+    private final List<SsTable> nextLevelInputs;
+
+    /**
+     * 输出层级
+     */
+    private final int outputLevel;
+
+    /**
+     * 输出层级之下是否已经没有数据，此时删除标记可以直接丢弃
+     */
+    private final boolean bottommost;
+
+    /**
+     * 参与合并的全部表，按从新到旧排列
+     *
+     * @return
+     */
+    public List<SsTable> allInputs() {
+        List<SsTable> all = new ArrayList<>(inputs);
+        all.addAll(nextLevelInputs);
+        return all;
+    }
+}
@@ -0,0 +1,153 @@
+package com.xiaohansong.kvstore.service.compaction;
+
+import com.xiaohansong.kvstore.model.sstable.SsTable;
+import com.xiaohansong.kvstore.utils.KeyUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 合并任务选择器
+ * <p>
+ * 第0层：表之间key范围可能重叠，数量达到阈值后全部与第1层中重叠的表合并；
+ * 第1层及以上：表之间key范围不重叠，数据量超过上限时轮流选出一张表与下一层中重叠的表合并
+ */
+public class CompactionPicker {
+
+    /**
+     * 第0层ssTable数量达到该值时触发合并
+     */
+    private final int level0CompactionTrigger;
+
+    /**
+     * 最大层数
+     */
+    private final int maxLevels;
+
+    /**
+     * 第1层的数据量上限
+     */
+    private final long levelBaseBytes;
+
+    /**
+     * 相邻两层数据量上限的倍数
+     */
+    private final int levelSizeMultiplier;
+
+    /**
+     * 每层上一次合并的表的最大key，下次从它之后的表开始，保证整层的key范围轮流被合并
+     */
+    private final byte[][] compactPointers;
+
+    public CompactionPicker(int level0CompactionTrigger, int maxLevels, long levelBaseBytes, int levelSizeMultiplier) {
+        this.level0CompactionTrigger = level0CompactionTrigger;
+        this.maxLevels = maxLevels;
+        this.levelBaseBytes = levelBaseBytes;
+        this.levelSizeMultiplier = levelSizeMultiplier;
+        this.compactPointers = new byte[maxLevels][];
+    }
+
+    /**
+     * 选出最需要合并的层级，生成合并任务
+     *
+     * @param ssTables 当前全部表，第0层按从新到旧排列，其他层按key递增排列
+     * @return 不需要合并时返回null
+     */
+    public Compaction pick(List<SsTable> ssTables) {
+        List<List<SsTable>> levels = new ArrayList<>();
+        for (int i = 0; i < maxLevels; i++) {
+            levels.add(new ArrayList<>());
+        }
+        for (SsTable ssTable : ssTables) {
+            levels.get(Math.min(ssTable.getLevel(), maxLevels - 1)).add(ssTable);
+        }
+
+        // 计算每层的合并分数，分数大于等于1才需要合并，最后一层没有上限
+        int bestLevel = -1;
+        double bestScore = 1;
+        for (int level = 0; level < maxLevels - 1; level++) {
+            double score;
+            if (level == 0) {
+                score = (double) levels.get(0).size() / level0CompactionTrigger;
+            } else {
+                score = (double) totalSize(levels.get(level)) / maxBytesForLevel(level);
+            }
+            if (score >= bestScore) {
+                bestScore = score;
+                bestLevel = level;
+            }
+        }
+        if (bestLevel < 0) {
+            return null;
+        }
+
+        List<SsTable> inputs = new ArrayList<>();
+        if (bestLevel == 0) {
+            inputs.addAll(levels.get(0));
+        } else {
+            inputs.add(pickTable(bestLevel, levels.get(bestLevel)));
+        }
+        byte[] minKey = null;
+        byte[] maxKey = null;
+        for (SsTable input : inputs) {
+            if (minKey == null || KeyUtil.compare(input.getMinKey(), minKey) < 0) {
+                minKey = input.getMinKey();
+            }
+            if (maxKey == null || KeyUtil.compare(input.getMaxKey(), maxKey) > 0) {
+                maxKey = input.getMaxKey();
+            }
+        }
+        compactPointers[bestLevel] = maxKey;
+
+        int outputLevel = bestLevel + 1;
+        List<SsTable> nextLevelInputs = new ArrayList<>();
+        for (SsTable ssTable : levels.get(outputLevel)) {
+            if (KeyUtil.compare(ssTable.getMaxKey(), minKey) >= 0 && KeyUtil.compare(ssTable.getMinKey(), maxKey) <= 0) {
+                nextLevelInputs.add(ssTable);
+            }
+        }
+        boolean bottommost = true;
+        for (int level = outputLevel + 1; level < maxLevels; level++) {
+            if (!levels.get(level).isEmpty()) {
+                bottommost = false;
+                break;
+            }
+        }
+        return new Compaction(bestLevel, inputs, nextLevelInputs, outputLevel, bottommost);
+    }
+
+    /**
+     * 从上一次合并的位置之后选出一张表
+     *
+     * @param level
+     * @param tables 按key递增排列
+     * @return
+     */
+    private SsTable pickTable(int level, List<SsTable> tables) {
+        byte[] pointer = compactPointers[level];
+        if (pointer != null) {
+            for (SsTable table : tables) {
+                if (KeyUtil.compare(table.getMinKey(), pointer) > 0) {
+                    return table;
+                }
+            }
+        }
+        return tables.get(0);
+    }
+
+    private long maxBytesForLevel(int level) {
+        long maxBytes = levelBaseBytes;
+        for (int i = 1; i < level; i++) {
+            maxBytes *= levelSizeMultiplier;
+        }
+        return maxBytes;
+    }
+
+    private static long totalSize(List<SsTable> tables) {
+        long size = 0;
+        for (SsTable table : tables) {
+            size += table.getFileSize();
+        }
+        return size;
+    }
+}
@@ -0,0 +1,132 @@
+package com.xiaohansong.kvstore.service.compaction;
+
+import com.xiaohansong.kvstore.model.command.Command;
+import com.xiaohansong.kvstore.model.command.SetCommand;
+import com.xiaohansong.kvstore.model.iterator.MergeIterator;
+import com.xiaohansong.kvstore.model.iterator.PeekingIterator;
+import com.xiaohansong.kvstore.model.iterator.VersionFilterIterator;
+import com.xiaohansong.kvstore.model.sstable.CompressionType;
+import com.xiaohansong.kvstore.model.sstable.SsTable;
+import com.xiaohansong.kvstore.utils.LoggerUtil;
+import com.xiaohansong.kvstore.utils.RateLimiter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * 合并执行器
+ * 多路归并参与合并的表，丢弃所有快照都看不到的旧版本，输出到按大小切分的新表中
+ */
+public class Compactor {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(Compactor.class);
+
+    private final int partSize;
+
+    private final int bloomBitsPerKey;
+
+    private final CompressionType compression;
+
+    private final long targetFileSize;
+
+    private final RateLimiter rateLimiter;
+
+    /**
+     * 编码数据段的线程池，为null时在合并线程中编码
+     */
+    private final ForkJoinPool buildPool;
+
+    public Compactor(int partSize, int bloomBitsPerKey, CompressionType compression, long targetFileSize,
+                     RateLimiter rateLimiter, ForkJoinPool buildPool) {
+        this.partSize = partSize;
+        this.bloomBitsPerKey = bloomBitsPerKey;
+        this.compression = compression;
+        this.targetFileSize = targetFileSize;
+        this.rateLimiter = rateLimiter;
+        this.buildPool = buildPool;
+    }
+
+    /**
+     * 执行合并
+     *
+     * @param compaction
+     * @param tablePathSupplier 生成新表的文件路径
+     * @param smallestSnapshot  最早的快照序列号，没有快照时为最新的序列号
+     * @return 合并生成的新表，按key递增排列
+     */
+    public List<SsTable> compact(Compaction compaction, Supplier<String> tablePathSupplier, long smallestSnapshot) {
+        return compact(compaction, tablePathSupplier, smallestSnapshot, null);
+    }
+
+    /**
+     * 执行合并
+     *
+     * @param compaction
+     * @param tablePathSupplier 生成新表的文件路径
+     * @param smallestSnapshot  最早的快照序列号，没有快照时为最新的序列号
+     * @param dropListener      丢弃旧版本和删除标记时执行，可以为null
+     * @return 合并生成的新表，按key递增排列
+     */
+    public List<SsTable> compact(Compaction compaction, Supplier<String> tablePathSupplier, long smallestSnapshot,
+                                 Consumer<Command> dropListener) {
+        List<Iterator<Command>> iterators = new ArrayList<>();
+        for (SsTable input : compaction.allInputs()) {
+            iterators.add(input.iterator());
+        }
+        PeekingIterator<Command> merged = new PeekingIterator<>(new VersionFilterIterator(
+                new ThrottledIterator(new MergeIterator(iterators)), smallestSnapshot, compaction.isBottommost(),
+                dropListener));
+
+        List<SsTable> outputs = new ArrayList<>();
+        while (merged.hasNext()) {
+            outputs.add(SsTable.createFromIterator(tablePathSupplier.get(), partSize, bloomBitsPerKey,
+                    compaction.getOutputLevel(), compression, merged, targetFileSize, buildPool));
+        }
+        LoggerUtil.info(LOGGER, "[Compactor][compact]: level {} -> {}, {} tables -> {} tables",
+                compaction.getLevel(), compaction.getOutputLevel(), compaction.allInputs().size(), outputs.size());
+        return outputs;
+    }
+
+    /**
+     * 按读取的数据量限速的迭代器
+     */
+    private class ThrottledIterator implements Iterator<Command> {
+
+        private final Iterator<Command> delegate;
+
+        private ThrottledIterator(Iterator<Command> delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return delegate.hasNext();
+        }
+
+        @Override
+        public Command next() {
+            Command command = delegate.next();
+            throttle(command);
+            return command;
+        }
+
+        private void throttle(Command command) {
+            long bytes = command.getKey().length;
+            if (command instanceof SetCommand) {
+                bytes += ((SetCommand) command).getValue().length;
+            }
+            try {
+                rateLimiter.acquire(bytes);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
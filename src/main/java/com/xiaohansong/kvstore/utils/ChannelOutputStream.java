@@ -0,0 +1,102 @@
+package com.xiaohansong.kvstore.utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 带缓冲区的顺序写文件输出流，缓冲区满后一次写入文件，减少小块写入的系统调用
+ * 打开时清空已有的文件内容，不是线程安全的
+ */
+public class ChannelOutputStream extends OutputStream {
+
+    private final FileChannel channel;
+
+    private final ByteBuffer buffer;
+
+    /**
+     * 已经写入文件的字节数
+     */
+    private long flushed;
+
+    /**
+     * @param path
+     * @param bufferSize 缓冲区大小(字节)
+     * @throws IOException
+     */
+    public ChannelOutputStream(Path path, int bufferSize) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        this.buffer = ByteBuffer.allocate(bufferSize);
+    }
+
+    /**
+     * 当前写入位置，包括缓冲区中还没有写入文件的数据
+     *
+     * @return
+     */
+    public long position() {
+        return flushed + buffer.position();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (!buffer.hasRemaining()) {
+            flushBuffer();
+        }
+        buffer.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        // 超过缓冲区大小的数据直接写入文件，避免多一次复制
+        if (len >= buffer.capacity()) {
+            flushBuffer();
+            ByteBuffer src = ByteBuffer.wrap(b, off, len);
+            while (src.hasRemaining()) {
+                channel.write(src);
+            }
+            flushed += len;
+            return;
+        }
+        if (len > buffer.remaining()) {
+            flushBuffer();
+        }
+        buffer.put(b, off, len);
+    }
+
+    private void flushBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            flushed += channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+    }
+
+    /**
+     * 写入缓冲区中的数据并落盘
+     *
+     * @throws IOException
+     */
+    public void sync() throws IOException {
+        flushBuffer();
+        channel.force(true);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flushBuffer();
+        } finally {
+            channel.close();
+        }
+    }
+}
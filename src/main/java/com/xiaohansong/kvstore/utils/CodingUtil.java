@@ -0,0 +1,107 @@
+package com.xiaohansong.kvstore.utils;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * 二进制编码工具
+ * 整数统一使用大端序，变长整数使用 7bit 分组的 varint 编码
+ */
+public class CodingUtil {
+
+    public static void writeVarInt(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /**
+     * 读取 varint
+     *
+     * @param data
+     * @param offset 读取位置，读取完成后 offset[0] 指向下一个字节
+     * @return
+     */
+    public static int readVarInt(byte[] data, int[] offset) {
+        int pos = offset[0];
+        int result = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = data[pos++];
+            result |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                offset[0] = pos;
+                return result;
+            }
+        }
+        throw new IllegalArgumentException("varint 格式错误");
+    }
+
+    public static void writeVarLong(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /**
+     * 读取 64 位 varint
+     *
+     * @param data
+     * @param offset 读取位置，读取完成后 offset[0] 指向下一个字节
+     * @return
+     */
+    public static long readVarLong(byte[] data, int[] offset) {
+        int pos = offset[0];
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = data[pos++];
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                offset[0] = pos;
+                return result;
+            }
+        }
+        throw new IllegalArgumentException("varint 格式错误");
+    }
+
+    public static void writeInt(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    public static int readInt(byte[] data, int offset) {
+        return ((data[offset] & 0xFF) << 24)
+                | ((data[offset + 1] & 0xFF) << 16)
+                | ((data[offset + 2] & 0xFF) << 8)
+                | (data[offset + 3] & 0xFF);
+    }
+
+    public static void writeLong(ByteArrayOutputStream out, long value) {
+        writeInt(out, (int) (value >>> 32));
+        writeInt(out, (int) value);
+    }
+
+    public static long readLong(byte[] data, int offset) {
+        return ((long) readInt(data, offset) << 32) | (readInt(data, offset + 4) & 0xFFFFFFFFL);
+    }
+
+    /**
+     * 按无符号字节序比较两段字节
+     *
+     * @return 小于0表示 a 小于 b
+     */
+    public static int compare(byte[] a, int aOffset, int aLen, byte[] b, int bOffset, int bLen) {
+        int len = Math.min(aLen, bLen);
+        for (int i = 0; i < len; i++) {
+            int diff = (a[aOffset + i] & 0xFF) - (b[bOffset + i] & 0xFF);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return aLen - bLen;
+    }
+}
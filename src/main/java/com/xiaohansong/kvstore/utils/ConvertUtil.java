@@ -6,16 +6,48 @@ import com.xiaohansong.kvstore.model.command.CommandTypeEnum;
 import com.xiaohansong.kvstore.model.command.RmCommand;
 import com.xiaohansong.kvstore.model.command.SetCommand;
 
+import java.nio.charset.StandardCharsets;
+
 public class ConvertUtil {
 
     public static final String TYPE = "type";
 
+    public static final String KEY = "key";
+
+    public static final String VALUE = "value";
+
+    /**
+     * 旧格式(JSON)的命令，key 和 value 为字符串
+     *
+     * @param value
+     * @return
+     */
     public static Command jsonToCommand(JSONObject value) {
         if (value.getString(TYPE).equals(CommandTypeEnum.SET.name())) {
-            return value.toJavaObject(SetCommand.class);
+            return new SetCommand(value.getString(KEY), value.getString(VALUE));
         } else if (value.getString(TYPE).equals(CommandTypeEnum.RM.name())) {
-            return value.toJavaObject(RmCommand.class);
+            return new RmCommand(value.getString(KEY));
         }
         return null;
     }
+
+    /**
+     * 字符串转换为 UTF-8 字节
+     *
+     * @param str
+     * @return str 为null时返回null
+     */
+    public static byte[] toBytes(String str) {
+        return str == null ? null : str.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * UTF-8 字节转换为字符串
+     *
+     * @param bytes
+     * @return bytes 为null时返回null
+     */
+    public static String toString(byte[] bytes) {
+        return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+    }
 }
@@ -0,0 +1,78 @@
+package com.xiaohansong.kvstore.utils;
+
+import java.util.zip.Checksum;
+
+/**
+ * CRC32C(Castagnoli) 校验和，JDK8 中没有内置实现
+ * 使用 slicing-by-8 查表法，每次处理 8 个字节
+ */
+public class Crc32c implements Checksum {
+
+    private static final int POLY = 0x82F63B78;
+
+    private static final int[][] TABLE = new int[8][256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc = i;
+            for (int j = 0; j < 8; j++) {
+                crc = (crc & 1) != 0 ? (crc >>> 1) ^ POLY : crc >>> 1;
+            }
+            TABLE[0][i] = crc;
+        }
+        for (int i = 0; i < 256; i++) {
+            for (int k = 1; k < 8; k++) {
+                int prev = TABLE[k - 1][i];
+                TABLE[k][i] = (prev >>> 8) ^ TABLE[0][prev & 0xFF];
+            }
+        }
+    }
+
+    private int crc = 0xFFFFFFFF;
+
+    /**
+     * 计算一段字节的校验和
+     *
+     * @param data
+     * @param offset
+     * @param len
+     * @return
+     */
+    public static int compute(byte[] data, int offset, int len) {
+        Crc32c crc32c = new Crc32c();
+        crc32c.update(data, offset, len);
+        return (int) crc32c.getValue();
+    }
+
+    @Override
+    public void update(int b) {
+        crc = (crc >>> 8) ^ TABLE[0][(crc ^ b) & 0xFF];
+    }
+
+    @Override
+    public void update(byte[] b, int off, int len) {
+        int c = crc;
+        while (len >= 8) {
+            int one = c ^ ((b[off] & 0xFF) | (b[off + 1] & 0xFF) << 8 | (b[off + 2] & 0xFF) << 16 | (b[off + 3] & 0xFF) << 24);
+            int two = (b[off + 4] & 0xFF) | (b[off + 5] & 0xFF) << 8 | (b[off + 6] & 0xFF) << 16 | (b[off + 7] & 0xFF) << 24;
+            c = TABLE[7][one & 0xFF] ^ TABLE[6][(one >>> 8) & 0xFF] ^ TABLE[5][(one >>> 16) & 0xFF] ^ TABLE[4][one >>> 24]
+                    ^ TABLE[3][two & 0xFF] ^ TABLE[2][(two >>> 8) & 0xFF] ^ TABLE[1][(two >>> 16) & 0xFF] ^ TABLE[0][two >>> 24];
+            off += 8;
+            len -= 8;
+        }
+        while (len-- > 0) {
+            c = (c >>> 8) ^ TABLE[0][(c ^ b[off++]) & 0xFF];
+        }
+        crc = c;
+    }
+
+    @Override
+    public long getValue() {
+        return ~crc & 0xFFFFFFFFL;
+    }
+
+    @Override
+    public void reset() {
+        crc = 0xFFFFFFFF;
+    }
+}
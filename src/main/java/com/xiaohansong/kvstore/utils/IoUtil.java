@@ -0,0 +1,34 @@
+package com.xiaohansong.kvstore.utils;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 文件读写工具
+ */
+public class IoUtil {
+
+    /**
+     * 从指定位置读取 len 个字节，不改变文件指针，多个线程可以同时读取同一个文件
+     * 一次读取可能只返回部分数据，需要循环读满
+     *
+     * @param channel
+     * @param position 文件中的起始位置
+     * @param len
+     * @return
+     * @throws IOException 文件长度不足时抛出 EOFException
+     */
+    public static byte[] readFully(FileChannel channel, long position, int len) throws IOException {
+        byte[] bytes = new byte[len];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new EOFException("读取位置超出文件长度: " + (position + buffer.position()));
+            }
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,63 @@
+package com.xiaohansong.kvstore.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.lang.management.ManagementFactory;
+
+/**
+ * JMX 注册工具，注册失败只记录日志，不影响数据库的使用
+ */
+public class JmxUtil {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JmxUtil.class);
+
+    public static final String DOMAIN = "com.xiaohansong.kvstore";
+
+    /**
+     * 注册 MXBean，同名的对象已经存在时不替换，记录日志后返回null，避免注销仍在使用的其他数据库的对象
+     *
+     * @param type           对象类型，如 LsmKvStore
+     * @param name           对象名称，如数据目录
+     * @param bean           实现了 mxBeanInterface 的对象
+     * @param mxBeanInterface
+     * @return 注册的对象名，注册失败时返回null
+     */
+    public static <T> ObjectName register(String type, String name, T bean, Class<T> mxBeanInterface) {
+        try {
+            ObjectName objectName = new ObjectName(DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(name));
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(objectName)) {
+                LoggerUtil.error(LOGGER, null, "[JmxUtil][register]: JMX对象已存在，不再注册: {}", objectName);
+                return null;
+            }
+            server.registerMBean(new StandardMBean(bean, mxBeanInterface, true), objectName);
+            return objectName;
+        } catch (Throwable t) {
+            LoggerUtil.error(LOGGER, t, "[JmxUtil][register]: 注册JMX失败: {}", name);
+            return null;
+        }
+    }
+
+    /**
+     * 注销 MXBean
+     *
+     * @param objectName 为null时不做任何事
+     */
+    public static void unregister(ObjectName objectName) {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (Throwable t) {
+            LoggerUtil.error(LOGGER, t, "[JmxUtil][unregister]: 注销JMX失败: {}", objectName);
+        }
+    }
+}
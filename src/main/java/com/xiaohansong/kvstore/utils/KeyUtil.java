@@ -0,0 +1,44 @@
+package com.xiaohansong.kvstore.utils;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * key 相关工具
+ * key 和 value 都是字节数组，key 按无符号字节序排列
+ */
+public class KeyUtil {
+
+    /**
+     * 按无符号字节序比较key
+     */
+    public static final Comparator<byte[]> COMPARATOR = KeyUtil::compare;
+
+    /**
+     * 按无符号字节序比较两个key
+     *
+     * @param a
+     * @param b
+     * @return 小于0表示 a 小于 b
+     */
+    public static int compare(byte[] a, byte[] b) {
+        return CodingUtil.compare(a, 0, a.length, b, 0, b.length);
+    }
+
+    /**
+     * 计算前缀查询的结束key：以 prefix 开头的key都小于把 prefix 最后一个可以递增的字节加一后得到的key
+     *
+     * @param prefix
+     * @return 所有字节都无法递增时返回null，表示遍历到最大的key
+     */
+    public static byte[] prefixEnd(byte[] prefix) {
+        for (int last = prefix.length - 1; last >= 0; last--) {
+            if (prefix[last] != (byte) 0xFF) {
+                byte[] endKey = Arrays.copyOf(prefix, last + 1);
+                endKey[last]++;
+                return endKey;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,198 @@
+package com.xiaohansong.kvstore.utils;
+
+import java.util.Arrays;
+
+/**
+ * LZ4 块格式的纯 Java 实现，不依赖本地库
+ * <p>
+ * 压缩结果由若干序列组成，每个序列：token(1 byte，高4位字面量长度，低4位匹配长度-4) | 字面量长度扩展 | 字面量
+ * | 匹配偏移(2 byte，小端) | 匹配长度扩展；长度为15时后面跟扩展字节，每个字节累加，直到遇到小于255的字节。
+ * 最后一个序列只有字面量，最后5个字节总是字面量
+ */
+public class Lz4 {
+
+    private static final int MIN_MATCH = 4;
+
+    private static final int HASH_LOG = 12;
+
+    /**
+     * 压缩使用的哈希表大小
+     */
+    public static final int HASH_TABLE_SIZE = 1 << HASH_LOG;
+
+    private static final int MAX_OFFSET = 65535;
+
+    /**
+     * 最后 LAST_LITERALS 个字节总是字面量
+     */
+    private static final int LAST_LITERALS = 5;
+
+    /**
+     * 距离结尾不足 MF_LIMIT 个字节时不再查找匹配
+     */
+    private static final int MF_LIMIT = 12;
+
+    /**
+     * 压缩结果的最大长度
+     *
+     * @param len 原始长度
+     * @return
+     */
+    public static int maxCompressedLength(int len) {
+        return len + len / 255 + 16;
+    }
+
+    /**
+     * 压缩
+     *
+     * @param src
+     * @param srcOff
+     * @param srcLen
+     * @param dst       容量至少为 {@link #maxCompressedLength(int)}
+     * @param dstOff
+     * @param hashTable 长度为 {@link #HASH_TABLE_SIZE}，可以重复使用
+     * @return 压缩后的长度
+     */
+    public static int compress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff, int[] hashTable) {
+        Arrays.fill(hashTable, -1);
+        int srcEnd = srcOff + srcLen;
+        int matchLimit = srcEnd - LAST_LITERALS;
+        int mfLimit = srcEnd - MF_LIMIT;
+        int anchor = srcOff;
+        int ip = srcOff;
+        int op = dstOff;
+        while (ip < mfLimit) {
+            int sequence = readInt(src, ip);
+            int h = hash(sequence);
+            int ref = hashTable[h] + srcOff;
+            hashTable[h] = ip - srcOff;
+            if (ref < srcOff || ip - ref > MAX_OFFSET || readInt(src, ref) != sequence) {
+                ip++;
+                continue;
+            }
+            // 向前扩展匹配
+            while (ip > anchor && ref > srcOff && src[ip - 1] == src[ref - 1]) {
+                ip--;
+                ref--;
+            }
+            int matchLen = MIN_MATCH;
+            while (ip + matchLen < matchLimit && src[ip + matchLen] == src[ref + matchLen]) {
+                matchLen++;
+            }
+            op = writeSequence(src, anchor, ip - anchor, ip - ref, matchLen, dst, op);
+            ip += matchLen;
+            anchor = ip;
+        }
+        // 剩余的字面量
+        int literalLen = srcEnd - anchor;
+        dst[op++] = (byte) (Math.min(literalLen, 15) << 4);
+        if (literalLen >= 15) {
+            op = writeLength(dst, op, literalLen - 15);
+        }
+        System.arraycopy(src, anchor, dst, op, literalLen);
+        op += literalLen;
+        return op - dstOff;
+    }
+
+    /**
+     * 解压
+     *
+     * @param src
+     * @param srcOff
+     * @param srcLen 压缩数据的长度
+     * @param dst
+     * @param dstOff
+     * @param dstLen 原始数据的长度
+     * @return 解压后的长度
+     */
+    public static int decompress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff, int dstLen) {
+        int ip = srcOff;
+        int srcEnd = srcOff + srcLen;
+        int op = dstOff;
+        int dstEnd = dstOff + dstLen;
+        try {
+            while (ip < srcEnd) {
+                int token = src[ip++] & 0xFF;
+                int literalLen = token >>> 4;
+                if (literalLen == 15) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xFF;
+                        literalLen += b;
+                    } while (b == 255);
+                }
+                if (ip + literalLen > srcEnd || op + literalLen > dstEnd) {
+                    throw new IllegalArgumentException("LZ4 数据损坏");
+                }
+                System.arraycopy(src, ip, dst, op, literalLen);
+                ip += literalLen;
+                op += literalLen;
+                if (ip == srcEnd) {
+                    break;
+                }
+                int offset = (src[ip] & 0xFF) | ((src[ip + 1] & 0xFF) << 8);
+                ip += 2;
+                int matchLen = token & 0x0F;
+                if (matchLen == 15) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xFF;
+                        matchLen += b;
+                    } while (b == 255);
+                }
+                matchLen += MIN_MATCH;
+                int ref = op - offset;
+                if (offset == 0 || ref < dstOff || op + matchLen > dstEnd) {
+                    throw new IllegalArgumentException("LZ4 数据损坏");
+                }
+                if (offset >= matchLen) {
+                    System.arraycopy(dst, ref, dst, op, matchLen);
+                    op += matchLen;
+                } else {
+                    // 匹配与输出重叠，逐字节复制
+                    for (int i = 0; i < matchLen; i++) {
+                        dst[op++] = dst[ref++];
+                    }
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("LZ4 数据损坏", e);
+        }
+        return op - dstOff;
+    }
+
+    private static int writeSequence(byte[] src, int anchor, int literalLen, int offset, int matchLen, byte[] dst, int op) {
+        int tokenPos = op++;
+        int matchCode = matchLen - MIN_MATCH;
+        dst[tokenPos] = (byte) ((Math.min(literalLen, 15) << 4) | Math.min(matchCode, 15));
+        if (literalLen >= 15) {
+            op = writeLength(dst, op, literalLen - 15);
+        }
+        System.arraycopy(src, anchor, dst, op, literalLen);
+        op += literalLen;
+        dst[op++] = (byte) offset;
+        dst[op++] = (byte) (offset >>> 8);
+        if (matchCode >= 15) {
+            op = writeLength(dst, op, matchCode - 15);
+        }
+        return op;
+    }
+
+    private static int writeLength(byte[] dst, int op, int len) {
+        while (len >= 255) {
+            dst[op++] = (byte) 255;
+            len -= 255;
+        }
+        dst[op++] = (byte) len;
+        return op;
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        return (data[offset] & 0xFF) | ((data[offset + 1] & 0xFF) << 8)
+                | ((data[offset + 2] & 0xFF) << 16) | ((data[offset + 3] & 0xFF) << 24);
+    }
+
+    private static int hash(int sequence) {
+        return (sequence * -1640531535) >>> (32 - HASH_LOG);
+    }
+}
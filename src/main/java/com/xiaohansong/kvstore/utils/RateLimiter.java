@@ -0,0 +1,64 @@
+package com.xiaohansong.kvstore.utils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按字节数限速，超过速率时阻塞调用线程，速率可以随时调整
+ */
+public class RateLimiter {
+
+    /**
+     * 每秒允许的字节数，小于等于0表示不限速
+     */
+    private volatile long bytesPerSecond;
+
+    /**
+     * 下一次可以无需等待获取配额的时间
+     */
+    private long nextFreeNanos;
+
+    public RateLimiter(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+        this.nextFreeNanos = System.nanoTime();
+    }
+
+    /**
+     * 获取指定字节数的配额
+     *
+     * @param bytes
+     * @return 等待的时长(纳秒)
+     * @throws InterruptedException
+     */
+    public long acquire(long bytes) throws InterruptedException {
+        long waitNanos;
+        synchronized (this) {
+            long rate = bytesPerSecond;
+            if (rate <= 0) {
+                return 0;
+            }
+            long now = System.nanoTime();
+            if (nextFreeNanos < now) {
+                nextFreeNanos = now;
+            }
+            waitNanos = nextFreeNanos - now;
+            nextFreeNanos += bytes * TimeUnit.SECONDS.toNanos(1) / rate;
+        }
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+        return waitNanos;
+    }
+
+    /**
+     * 调整速率，之后获取的配额按新的速率计算，已经分配的配额不变
+     *
+     * @param bytesPerSecond 小于等于0表示不限速
+     */
+    public void setBytesPerSecond(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+}
@@ -0,0 +1,142 @@
+package com.xiaohansong.kvstore.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 串行执行器，任务按提交顺序逐个在共用的线程池中执行，同一时间最多有一个任务在执行
+ * 多个数据库共用后台线程池时，每个数据库的持久化和合并任务仍然各自串行
+ * 每执行完一个任务重新提交到线程池，线程不会被一个执行器长期占用
+ */
+public class SerialExecutor extends AbstractExecutorService {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(SerialExecutor.class);
+
+    private final Executor delegate;
+
+    private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+
+    /**
+     * 是否已经向线程池提交了执行任务
+     */
+    private boolean running;
+
+    private boolean shutdown;
+
+    /**
+     * @param delegate 共用的线程池
+     */
+    public SerialExecutor(Executor delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        synchronized (tasks) {
+            if (shutdown) {
+                throw new RejectedExecutionException("执行器已关闭");
+            }
+            tasks.add(command);
+            if (running) {
+                return;
+            }
+            running = true;
+        }
+        schedule();
+    }
+
+    private void schedule() {
+        try {
+            delegate.execute(this::runNext);
+        } catch (RejectedExecutionException e) {
+            synchronized (tasks) {
+                running = false;
+                tasks.clear();
+                tasks.notifyAll();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 执行队列中的第一个任务，队列不为空时重新提交
+     */
+    private void runNext() {
+        Runnable task;
+        synchronized (tasks) {
+            task = tasks.poll();
+        }
+        try {
+            if (task != null) {
+                task.run();
+            }
+        } catch (Throwable t) {
+            LoggerUtil.error(LOGGER, t, "[SerialExecutor][runNext]: 任务执行失败");
+        }
+        synchronized (tasks) {
+            if (tasks.isEmpty()) {
+                running = false;
+                tasks.notifyAll();
+                return;
+            }
+        }
+        schedule();
+    }
+
+    /**
+     * 不再接受新任务，已经提交的任务继续执行，不会关闭共用的线程池
+     */
+    @Override
+    public void shutdown() {
+        synchronized (tasks) {
+            shutdown = true;
+        }
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        synchronized (tasks) {
+            shutdown = true;
+            List<Runnable> pending = new ArrayList<>(tasks);
+            tasks.clear();
+            return pending;
+        }
+    }
+
+    @Override
+    public boolean isShutdown() {
+        synchronized (tasks) {
+            return shutdown;
+        }
+    }
+
+    @Override
+    public boolean isTerminated() {
+        synchronized (tasks) {
+            return shutdown && !running;
+        }
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (tasks) {
+            while (!shutdown || running) {
+                long waitNanos = deadline - System.nanoTime();
+                if (waitNanos <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(tasks, waitNanos);
+            }
+            return true;
+        }
+    }
+}
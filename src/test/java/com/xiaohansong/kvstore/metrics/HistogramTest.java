@@ -0,0 +1,36 @@
+package com.xiaohansong.kvstore.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HistogramTest {
+
+    @Test
+    public void bucketBounds() {
+        for (long value : new long[]{0, 1, 31, 32, 33, 63, 64, 1000, 123456789L, Long.MAX_VALUE / 3}) {
+            int index = Histogram.bucketIndex(value);
+            assertTrue(Histogram.bucketLowerBound(index) <= value);
+            assertTrue(Histogram.bucketUpperBound(index) >= value);
+            // 相对误差不超过 1/32
+            assertTrue(Histogram.bucketUpperBound(index) - Histogram.bucketLowerBound(index)
+                    <= Math.max(0, value / Histogram.SUB_BUCKET_COUNT));
+        }
+    }
+
+    @Test
+    public void percentiles() {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 10000; i++) {
+            histogram.record(i);
+        }
+        HistogramSnapshot snapshot = histogram.snapshot();
+        assertEquals(10000, snapshot.getCount());
+        assertEquals(10000, snapshot.getMax());
+        assertEquals(5000.5, snapshot.getMean(), 0.001);
+        assertTrue(Math.abs(snapshot.getP50() - 5000) <= 5000 / Histogram.SUB_BUCKET_COUNT);
+        assertTrue(Math.abs(snapshot.getP99() - 9900) <= 9900 / Histogram.SUB_BUCKET_COUNT);
+        assertTrue(snapshot.getP999() <= snapshot.getMax());
+    }
+}
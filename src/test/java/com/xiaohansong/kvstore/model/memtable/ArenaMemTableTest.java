@@ -0,0 +1,127 @@
+package com.xiaohansong.kvstore.model.memtable;
+
+import com.xiaohansong.kvstore.model.command.Command;
+import com.xiaohansong.kvstore.model.command.RmCommand;
+import com.xiaohansong.kvstore.model.command.SetCommand;
+import com.xiaohansong.kvstore.utils.ConvertUtil;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ArenaMemTableTest {
+
+    @Test
+    public void versionsAndOrder() {
+        ChunkPool pool = new ChunkPool(4096, 64);
+        ArenaMemTable memTable = new ArenaMemTable(pool);
+        long sequence = 0;
+        for (int round = 0; round < 3; round++) {
+            for (int i = 999; i >= 0; i--) {
+                memTable.put(command(new SetCommand(String.format("key%04d", i), round + "_" + i), ++sequence));
+            }
+        }
+        memTable.put(command(new RmCommand("key0005"), ++sequence));
+        // 超过内存块大小的记录单独占用一个内存块
+        memTable.put(command(new SetCommand(ConvertUtil.toBytes("large"), new byte[10000]), ++sequence));
+
+        assertEquals(3002, memTable.size());
+        assertEquals("2_1", value(memTable.get(ConvertUtil.toBytes("key0001"), Long.MAX_VALUE)));
+        assertEquals("0_1", value(memTable.get(ConvertUtil.toBytes("key0001"), 1000)));
+        assertNull(memTable.get(ConvertUtil.toBytes("key0001"), 998));
+        assertTrue(memTable.get(ConvertUtil.toBytes("key0005"), Long.MAX_VALUE) instanceof RmCommand);
+        assertEquals(10000, ((SetCommand) memTable.get(ConvertUtil.toBytes("large"), Long.MAX_VALUE)).getValue().length);
+        assertNull(memTable.get(ConvertUtil.toBytes("key"), Long.MAX_VALUE));
+
+        // 按key递增、同一个key按序列号递减遍历
+        Iterator<Command> iterator = memTable.iterator(ConvertUtil.toBytes("key0998"));
+        assertEquals("2_998", value(iterator.next()));
+        assertEquals("1_998", value(iterator.next()));
+        assertEquals("0_998", value(iterator.next()));
+        assertEquals("2_999", value(iterator.next()));
+        iterator.next();
+        iterator.next();
+        assertEquals("large", ConvertUtil.toString(iterator.next().getKey()));
+        assertFalse(iterator.hasNext());
+        assertTrue(memTable.getApproximateBytes() > 3000 * 32);
+
+        // 释放后全部标准大小的内存块回到池中
+        long chunks = pool.getAllocateCount() - 1;
+        memTable.release();
+        assertFalse(memTable.tryRetain());
+        assertEquals(chunks, pool.getFreeChunks());
+        new ArenaMemTable(pool).put(command(new SetCommand("key", "value"), 1));
+        assertEquals(1, pool.getReuseCount());
+    }
+
+    @Test
+    public void unsignedOrder() {
+        ArenaMemTable memTable = new ArenaMemTable(new ChunkPool());
+        for (int i = 0; i < 256; i++) {
+            memTable.put(command(new SetCommand(new byte[]{(byte) i}, new byte[]{(byte) i}), i + 1));
+        }
+        Iterator<Command> iterator = memTable.iterator();
+        for (int i = 0; i < 256; i++) {
+            assertArrayEquals(new byte[]{(byte) i}, iterator.next().getKey());
+        }
+        memTable.release();
+    }
+
+    @Test
+    public void concurrentReadDuringWrite() throws Exception {
+        ArenaMemTable memTable = new ArenaMemTable(new ChunkPool(64 * 1024, 4));
+        int count = 20000;
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> readers = new ArrayList<>();
+        for (int t = 0; t < 2; t++) {
+            Thread reader = new Thread(() -> {
+                try {
+                    while (memTable.size() < count) {
+                        // 遍历到的记录总是完整且有序的
+                        byte[] last = null;
+                        Iterator<Command> iterator = memTable.iterator();
+                        while (iterator.hasNext()) {
+                            Command command = iterator.next();
+                            assertEquals(ConvertUtil.toString(command.getKey()).replace("key", "value"),
+                                    value(command));
+                            if (last != null) {
+                                assertTrue(ConvertUtil.toString(last).compareTo(ConvertUtil.toString(command.getKey())) < 0);
+                            }
+                            last = command.getKey();
+                        }
+                    }
+                } catch (Throwable e) {
+                    failure.set(e);
+                }
+            });
+            reader.start();
+            readers.add(reader);
+        }
+        for (int i = 0; i < count; i++) {
+            int n = (i * 7919) % count;
+            memTable.put(command(new SetCommand(String.format("key%06d", n), String.format("value%06d", n)), i + 1));
+        }
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertNull(failure.get());
+        memTable.release();
+    }
+
+    private static Command command(Command command, long sequence) {
+        command.setSequence(sequence);
+        return command;
+    }
+
+    private static String value(Command command) {
+        return command == null ? null : ConvertUtil.toString(((SetCommand) command).getValue());
+    }
+}
@@ -0,0 +1,85 @@
+package com.xiaohansong.kvstore.model.sstable;
+
+import com.xiaohansong.kvstore.model.command.Command;
+import com.xiaohansong.kvstore.model.command.SetCommand;
+import com.xiaohansong.kvstore.utils.ConvertUtil;
+import com.xiaohansong.kvstore.utils.KeyUtil;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BlockCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void cacheQueriedBlocks() throws Exception {
+        TreeMap<byte[], Command> memory = new TreeMap<>(KeyUtil.COMPARATOR);
+        for (int i = 0; i < 100; i++) {
+            String key = String.format("key%03d", i);
+            SetCommand command = new SetCommand(key, "value" + i);
+            memory.put(command.getKey(), command);
+        }
+        String path = new File(folder.getRoot(), "cache.table").getAbsolutePath();
+        SsTable.createFromMemoryTable(path, 10, memory).close();
+
+        BlockCache cache = new BlockCache(1024 * 1024);
+        SsTable ssTable = SsTable.createFromFile(path);
+        ssTable.setBlockCache(cache);
+        for (int round = 0; round < 3; round++) {
+            assertEquals("value42", ConvertUtil.toString(((SetCommand) ssTable.query(ConvertUtil.toBytes("key042"))).getValue()));
+        }
+        assertEquals(1, cache.getMissCount());
+        assertEquals(2, cache.getHitCount());
+        assertTrue(cache.getUsage() > 0);
+
+        // 关闭后淘汰该表的全部数据块
+        ssTable.close();
+        assertEquals(0, cache.getUsage());
+    }
+
+    @Test
+    public void evictWhenFull() {
+        long capacity = 16 * 1024;
+        BlockCache cache = new BlockCache(capacity);
+        DataBlockBuilder builder = new DataBlockBuilder();
+        builder.add(new SetCommand("key", new String(new char[200])));
+        byte[] bytes = builder.finish();
+        DataBlock block = new DataBlock(bytes, 0, bytes.length);
+        for (int i = 0; i < 1000; i++) {
+            cache.put(1, i * 4096L, block);
+        }
+        assertTrue(cache.getEvictionCount() > 0);
+        assertTrue(cache.getUsage() <= capacity);
+    }
+
+    @Test
+    public void evictTable() {
+        BlockCache cache = new BlockCache(16 * 1024);
+        DataBlockBuilder builder = new DataBlockBuilder();
+        builder.add(new SetCommand("key", new String(new char[200])));
+        byte[] bytes = builder.finish();
+        DataBlock block = new DataBlock(bytes, 0, bytes.length);
+        // 容量满后按最近最少使用淘汰，只淘汰指定表中仍然缓存的数据块
+        for (int i = 0; i < 100; i++) {
+            cache.put(1, i * 4096L, block);
+            cache.put(2, i * 4096L, block);
+        }
+        long usage = cache.getUsage();
+        cache.evictTable(1);
+        assertTrue(cache.getUsage() > 0);
+        assertTrue(cache.getUsage() < usage);
+        assertNull(cache.get(1, 99 * 4096L));
+        assertTrue(cache.get(2, 99 * 4096L) != null);
+        cache.evictTable(2);
+        assertEquals(0, cache.getUsage());
+    }
+}
@@ -0,0 +1,59 @@
+package com.xiaohansong.kvstore.model.sstable;
+
+import com.xiaohansong.kvstore.model.command.Command;
+import com.xiaohansong.kvstore.model.command.SetCommand;
+import com.xiaohansong.kvstore.utils.Lz4;
+import com.xiaohansong.kvstore.utils.ConvertUtil;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BlockCompressorTest {
+
+    @Test
+    public void lz4RoundTrip() {
+        Random random = new Random(42);
+        int[] hashTable = new int[Lz4.HASH_TABLE_SIZE];
+        for (int len : new int[]{0, 1, 12, 13, 100, 4096, 100_000}) {
+            byte[] src = new byte[len];
+            // 一半随机数据，一半重复数据，覆盖字面量和长匹配
+            for (int i = 0; i < len; i++) {
+                src[i] = i < len / 2 ? (byte) random.nextInt() : (byte) (i % 7);
+            }
+            byte[] compressed = new byte[Lz4.maxCompressedLength(len)];
+            int compressedLen = Lz4.compress(src, 0, len, compressed, 0, hashTable);
+            byte[] restored = new byte[len];
+            assertEquals(len, Lz4.decompress(compressed, 0, compressedLen, restored, 0, len));
+            assertArrayEquals(src, restored);
+        }
+    }
+
+    @Test
+    public void compressBlock() {
+        DataBlockBuilder builder = new DataBlockBuilder();
+        for (int i = 0; i < 200; i++) {
+            builder.add(new SetCommand(String.format("key%05d", i), "value-value-value-" + i));
+        }
+        byte[] raw = builder.finish();
+        BlockCompressor compressor = new BlockCompressor(CompressionType.LZ4);
+        int len = compressor.compress(raw);
+        assertTrue("compressed: " + len, len < raw.length / 2);
+        byte[] stored = Arrays.copyOf(compressor.getBuffer(), len);
+
+        List<Command> entries = BlockCompressor.decompressCopy(stored, 0, len, true).entries();
+        assertEquals(200, entries.size());
+        assertEquals("value-value-value-199", ConvertUtil.toString(((SetCommand) new BlockCompressor(CompressionType.NONE)
+                .decompress(stored, 0, len, true).get(ConvertUtil.toBytes("key00199"))).getValue()));
+
+        // 压缩效果不明显的数据段原样保存
+        byte[] random = new byte[1000];
+        new Random(1).nextBytes(random);
+        assertTrue(compressor.compress(random) < random.length + 8);
+    }
+}
@@ -0,0 +1,32 @@
+package com.xiaohansong.kvstore.model.sstable;
+
+import com.xiaohansong.kvstore.utils.ConvertUtil;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertTrue;
+
+public class BloomFilterTest {
+
+    @Test
+    public void mightContain() {
+        List<Integer> hashes = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            hashes.add(BloomFilter.hash(ConvertUtil.toBytes("key" + i)));
+        }
+        BloomFilter filter = BloomFilter.fromBytes(BloomFilter.create(hashes, 10).toBytes());
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(filter.mightContain(BloomFilter.hash(ConvertUtil.toBytes("key" + i))));
+        }
+        int falsePositive = 0;
+        for (int i = 10000; i < 20000; i++) {
+            if (filter.mightContain(BloomFilter.hash(ConvertUtil.toBytes("key" + i)))) {
+                falsePositive++;
+            }
+        }
+        // 每个key 10 位时误判率约为 1%
+        assertTrue("falsePositive: " + falsePositive, falsePositive < 300);
+    }
+}
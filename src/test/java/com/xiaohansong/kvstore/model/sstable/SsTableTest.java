@@ -3,23 +3,41 @@ package com.xiaohansong.kvstore.model.sstable;
 import com.xiaohansong.kvstore.model.command.Command;
 import com.xiaohansong.kvstore.model.command.RmCommand;
 import com.xiaohansong.kvstore.model.command.SetCommand;
+import com.xiaohansong.kvstore.model.iterator.PeekingIterator;
+import com.xiaohansong.kvstore.utils.ConvertUtil;
+import com.xiaohansong.kvstore.utils.KeyUtil;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 public class SsTableTest {
 
     private static final String TEST_PATH = "test_data/test.txt";
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     @Test
     public void createFromIndex() {
-        TreeMap<String, Command> memory = new TreeMap<>();
+        TreeMap<byte[], Command> memory = new TreeMap<>(KeyUtil.COMPARATOR);
         for (int i = 0; i < 10; i++) {
             SetCommand setCommand = new SetCommand("key" + i, "value" + i);
             memory.put(setCommand.getKey(), setCommand);
         }
-        memory.put("key100", new SetCommand("key100", "value100"));
-        memory.put("key100", new RmCommand("key100"));
+        memory.put(ConvertUtil.toBytes("key100"), new SetCommand("key100", "value100"));
+        memory.put(ConvertUtil.toBytes("key100"), new RmCommand("key100"));
 
         SsTable ssTable = SsTable.createFromMemoryTable(TEST_PATH, 3, memory);
     }
@@ -28,9 +46,130 @@ public class SsTableTest {
     public void query() {
         // 每次打开文件后，构建内存中的稀疏索引表
         SsTable ssTable = SsTable.createFromFile(TEST_PATH);
-        System.out.println(ssTable.query("key0"));
-        System.out.println(ssTable.query("key6"));
-        System.out.println(ssTable.query("key9"));
-        System.out.println(ssTable.query("key100"));
+        System.out.println(ssTable.query(ConvertUtil.toBytes("key0")));
+        System.out.println(ssTable.query(ConvertUtil.toBytes("key6")));
+        System.out.println(ssTable.query(ConvertUtil.toBytes("key9")));
+        System.out.println(ssTable.query(ConvertUtil.toBytes("key100")));
+    }
+
+    @Test
+    public void queryBinaryBlocks() throws Exception {
+        TreeMap<byte[], Command> memory = new TreeMap<>(KeyUtil.COMPARATOR);
+        for (int i = 0; i < 1000; i++) {
+            String key = String.format("key%05d", i);
+            Command command = i % 7 == 0 ? new RmCommand(key) : new SetCommand(key, "value" + i);
+            memory.put(command.getKey(), command);
+        }
+        String path = new File(folder.getRoot(), "binary.table").getAbsolutePath();
+        SsTable built = SsTable.createFromMemoryTable(path, 50, memory);
+        // 文件大小在构建、打开或根据 MANIFEST 创建时记录
+        long fileSize = new File(path).length();
+        assertEquals(fileSize, built.getFileSize());
+        built.close();
+        try (SsTable lazy = SsTable.createLazily(path, 0, null, null, 0)) {
+            assertEquals(fileSize, lazy.getFileSize());
+        }
+
+        try (SsTable ssTable = SsTable.createFromFile(path)) {
+            assertEquals(fileSize, ssTable.getFileSize());
+            for (int i = 0; i < 1000; i++) {
+                String key = String.format("key%05d", i);
+                Command command = ssTable.query(ConvertUtil.toBytes(key));
+                if (i % 7 == 0) {
+                    assertTrue(command instanceof RmCommand);
+                } else {
+                    assertEquals("value" + i, ConvertUtil.toString(((SetCommand) command).getValue()));
+                }
+            }
+            assertNull(ssTable.query(ConvertUtil.toBytes("key")));
+            assertNull(ssTable.query(ConvertUtil.toBytes("key00010a")));
+            assertNull(ssTable.query(ConvertUtil.toBytes("key99999")));
+            // 不存在的key大部分被布隆过滤器拦截
+            assertTrue(ssTable.getBloomUsefulCount() > 0);
+        }
+    }
+
+    @Test
+    public void bloomFalsePositive() throws Exception {
+        TreeMap<byte[], Command> memory = new TreeMap<>(KeyUtil.COMPARATOR);
+        for (int i = 0; i < 1000; i++) {
+            SetCommand command = new SetCommand(String.format("key%05d", i), "value" + i);
+            command.setSequence(100);
+            memory.put(command.getKey(), command);
+        }
+        String path = new File(folder.getRoot(), "bloom.table").getAbsolutePath();
+        SsTable.createFromMemoryTable(path, 50, memory).close();
+
+        try (SsTable ssTable = SsTable.createFromFile(path)) {
+            // key存在但在较早的序列号时不可见，不算布隆过滤器误判
+            List<byte[]> keys = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                byte[] key = ConvertUtil.toBytes(String.format("key%05d", i));
+                keys.add(key);
+                assertNull(ssTable.query(key, 50));
+            }
+            for (Command command : ssTable.query(keys, 50)) {
+                assertNull(command);
+            }
+            assertEquals(0, ssTable.getBloomFalsePositiveCount());
+            assertEquals(0, ssTable.getBloomUsefulCount());
+
+            // 表的key范围内不存在的key，要么被布隆过滤器拦截，要么算作一次误判
+            List<byte[]> absent = new ArrayList<>();
+            for (int i = 0; i < 999; i++) {
+                byte[] key = ConvertUtil.toBytes(String.format("key%05da", i));
+                absent.add(key);
+                assertNull(ssTable.query(key, 200));
+            }
+            for (Command command : ssTable.query(absent, 200)) {
+                assertNull(command);
+            }
+            assertEquals(absent.size() * 2, ssTable.getBloomUsefulCount() + ssTable.getBloomFalsePositiveCount());
+        }
+    }
+
+    @Test
+    public void parallelBuild() throws Exception {
+        TreeMap<byte[], Command> memory = new TreeMap<>(KeyUtil.COMPARATOR);
+        for (int i = 0; i < 5000; i++) {
+            String key = String.format("key%05d", i);
+            memory.put(ConvertUtil.toBytes(key), new SetCommand(key, "value" + i));
+        }
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            // 并行编码的数据段按原顺序写入，文件内容与单线程构建的完全相同
+            File sequential = new File(folder.getRoot(), "sequential.table");
+            File parallel = new File(folder.getRoot(), "parallel.table");
+            SsTable.createFromIterator(sequential.getPath(), 16, BloomFilter.DEFAULT_BITS_PER_KEY, 0, CompressionType.LZ4,
+                    new PeekingIterator<>(memory.values().iterator()), Long.MAX_VALUE).close();
+            SsTable.createFromIterator(parallel.getPath(), 16, BloomFilter.DEFAULT_BITS_PER_KEY, 0, CompressionType.LZ4,
+                    new PeekingIterator<>(memory.values().iterator()), Long.MAX_VALUE, pool).close();
+            assertArrayEquals(Files.readAllBytes(sequential.toPath()), Files.readAllBytes(parallel.toPath()));
+
+            // 按大小切分为多个key范围相邻的表
+            PeekingIterator<Command> iterator = new PeekingIterator<>(memory.values().iterator());
+            List<SsTable> tables = new ArrayList<>();
+            while (iterator.hasNext()) {
+                tables.add(SsTable.createFromIterator(new File(folder.getRoot(), tables.size() + ".table").getPath(),
+                        16, BloomFilter.DEFAULT_BITS_PER_KEY, 0, CompressionType.LZ4, iterator, 8 * 1024, pool));
+            }
+            assertTrue(tables.size() > 1);
+            for (int i = 1; i < tables.size(); i++) {
+                assertTrue(KeyUtil.compare(tables.get(i - 1).getMaxKey(), tables.get(i).getMinKey()) < 0);
+            }
+            for (int i = 0; i < 5000; i++) {
+                byte[] key = ConvertUtil.toBytes(String.format("key%05d", i));
+                Command command = null;
+                for (SsTable table : tables) {
+                    command = command != null ? command : table.query(key);
+                }
+                assertEquals("value" + i, ConvertUtil.toString(((SetCommand) command).getValue()));
+            }
+            for (SsTable table : tables) {
+                table.close();
+            }
+        } finally {
+            pool.shutdown();
+        }
     }
-}
\ No newline at end of file
+}
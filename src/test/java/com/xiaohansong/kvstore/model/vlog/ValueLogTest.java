@@ -0,0 +1,133 @@
+package com.xiaohansong.kvstore.model.vlog;
+
+import com.xiaohansong.kvstore.model.command.Command;
+import com.xiaohansong.kvstore.model.command.RmCommand;
+import com.xiaohansong.kvstore.model.command.SetCommand;
+import com.xiaohansong.kvstore.model.command.ValuePointerCommand;
+import com.xiaohansong.kvstore.model.sstable.DataBlock;
+import com.xiaohansong.kvstore.model.sstable.DataBlockBuilder;
+import com.xiaohansong.kvstore.utils.ConvertUtil;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ValueLogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void writeAndRead() throws IOException {
+        File file = new File(folder.getRoot(), "1.vlog");
+        List<ValuePointer> pointers = new ArrayList<>();
+        try (ValueLogWriter writer = new ValueLogWriter(file, 1)) {
+            for (int i = 0; i < 100; i++) {
+                pointers.add(writer.append(ConvertUtil.toBytes("key" + i), i + 1, value(i)));
+            }
+            writer.sync();
+        }
+
+        ValueLog valueLog = new ValueLog(null);
+        // 加入文件之前开始的查询也可以读取之后加入的文件
+        ValueLogVersion before = valueLog.acquire();
+        valueLog.add(new ValueLogFile(file, 1));
+        ValueLogVersion version = valueLog.acquire();
+        for (int i = 0; i < 100; i++) {
+            assertArrayEquals(value(i), version.read(pointers.get(i)));
+        }
+        assertArrayEquals(value(5), before.read(pointers.get(5)));
+        before.release();
+        // 顺序遍历得到写入的key、序列号和值的位置
+        Iterator<ValueLogEntry> entries = valueLog.getFiles().iterator().next().iterator();
+        for (int i = 0; i < 100; i++) {
+            ValueLogEntry entry = entries.next();
+            assertEquals("key" + i, ConvertUtil.toString(entry.getKey()));
+            assertEquals(i + 1, entry.getSequence());
+            assertEquals(pointers.get(i).getOffset(), entry.getPointer().getOffset());
+        }
+        assertFalse(entries.hasNext());
+
+        // 回收前开始的查询仍然可以读取，文件在最后一个引用释放后删除
+        valueLog.remove(1);
+        assertArrayEquals(value(0), version.read(pointers.get(0)));
+        assertTrue(file.exists());
+        version.release();
+        assertFalse(file.exists());
+        ValueLogVersion after = valueLog.acquire();
+        try {
+            after.read(pointers.get(0));
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("不存在"));
+        }
+        after.release();
+    }
+
+    @Test
+    public void corruption() throws IOException {
+        File file = new File(folder.getRoot(), "2.vlog");
+        ValuePointer pointer;
+        try (ValueLogWriter writer = new ValueLogWriter(file, 2)) {
+            pointer = writer.append(ConvertUtil.toBytes("key"), 1, value(7));
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(pointer.getOffset() + 10);
+            raf.write(0);
+        }
+        ValueLogFile valueLogFile = new ValueLogFile(file, 2);
+        try {
+            valueLogFile.read(pointer);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("校验失败"));
+        }
+        valueLogFile.release();
+    }
+
+    @Test
+    public void pointerInDataBlock() {
+        DataBlockBuilder builder = new DataBlockBuilder();
+        ValuePointerCommand pointerCommand = new ValuePointerCommand(ConvertUtil.toBytes("a"),
+                new ValuePointer(1234567890123L, 4096, 100000));
+        pointerCommand.setSequence(3);
+        SetCommand setCommand = new SetCommand("b", "small");
+        setCommand.setSequence(2);
+        RmCommand rmCommand = new RmCommand("c");
+        rmCommand.setSequence(1);
+        builder.add(pointerCommand);
+        builder.add(setCommand);
+        builder.add(rmCommand);
+        byte[] data = builder.finish();
+
+        DataBlock block = new DataBlock(data, 0, data.length);
+        Command command = block.get(ConvertUtil.toBytes("a"));
+        assertTrue(command instanceof ValuePointerCommand);
+        ValuePointer pointer = ((ValuePointerCommand) command).getPointer();
+        assertEquals(1234567890123L, pointer.getFileId());
+        assertEquals(4096, pointer.getOffset());
+        assertEquals(100000, pointer.getLength());
+        assertEquals(3, command.getSequence());
+        assertTrue(block.get(ConvertUtil.toBytes("b")) instanceof SetCommand);
+        assertTrue(block.entries().get(2) instanceof RmCommand);
+    }
+
+    private static byte[] value(int i) {
+        byte[] value = new byte[1000 + i * 10];
+        Arrays.fill(value, (byte) i);
+        return value;
+    }
+}
@@ -0,0 +1,109 @@
+package com.xiaohansong.kvstore.model.wal;
+
+import com.xiaohansong.kvstore.model.command.Command;
+import com.xiaohansong.kvstore.model.command.RmCommand;
+import com.xiaohansong.kvstore.model.command.SetCommand;
+import com.xiaohansong.kvstore.utils.ConvertUtil;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class WalReaderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void truncateTornTail() throws Exception {
+        File file = new File(folder.getRoot(), "wal");
+        try (WalWriter writer = new WalWriter(file, WalSyncPolicy.SYNC, 0, 0)) {
+            for (int i = 0; i < 100; i++) {
+                writer.sync(writer.append(WalRecord.encode(i + 1, new SetCommand("key" + i, "value" + i))));
+            }
+            writer.sync(writer.append(WalRecord.encode(101, new RmCommand("key0"))));
+        }
+        long validLen = file.length();
+        // 模拟写入最后一条记录时崩溃：只写入了一半
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(validLen);
+            raf.writeInt(0x12345678);
+            raf.writeInt(100);
+            raf.write(new byte[30]);
+        }
+
+        List<WalRecord> records = new ArrayList<>();
+        WalReader reader = new WalReader(file);
+        reader.replay(records::add);
+        assertEquals(101, records.size());
+        assertEquals(101, records.get(100).getSequence());
+        assertTrue(records.get(100).getCommands().get(0) instanceof RmCommand);
+        assertEquals("value99", ConvertUtil.toString(((SetCommand) records.get(99).getCommands().get(0)).getValue()));
+        assertTrue(reader.isTruncated());
+        assertEquals(validLen, file.length());
+
+        // 截断后可以继续追加
+        try (WalWriter writer = new WalWriter(file, WalSyncPolicy.SYNC, 0, 0)) {
+            writer.sync(writer.append(WalRecord.encode(102, new SetCommand("key", "value"))));
+        }
+        records.clear();
+        reader = new WalReader(file);
+        reader.replay(records::add);
+        assertEquals(102, records.size());
+        assertFalse(reader.isTruncated());
+    }
+
+    @Test
+    public void stopAtCorruptedRecord() throws Exception {
+        File file = new File(folder.getRoot(), "wal");
+        try (WalWriter writer = new WalWriter(file, WalSyncPolicy.ASYNC, 0, 0)) {
+            for (int i = 0; i < 10; i++) {
+                writer.append(WalRecord.encode(i + 1, new SetCommand("key" + i, "value" + i)));
+            }
+        }
+        // 破坏第6条记录的最后一个字节，每条记录 8 字节头 + 8 字节序列号 + 1 字节类型 + 1 字节长度 + key4 + value6
+        int recordSize = 8 + 8 + 1 + 1 + 4 + 6;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(WalRecord.FILE_HEADER_SIZE + recordSize * 6L - 1);
+            raf.write('X');
+        }
+        List<WalRecord> records = new ArrayList<>();
+        new WalReader(file).replay(records::add);
+        assertEquals(5, records.size());
+    }
+
+    @Test
+    public void batchAllOrNothing() throws Exception {
+        File file = new File(folder.getRoot(), "wal");
+        List<Command> batch = Arrays.asList(new SetCommand("a", "1"), new RmCommand("b"), new SetCommand("c", ""));
+        try (WalWriter writer = new WalWriter(file, WalSyncPolicy.SYNC, 0, 0)) {
+            writer.sync(writer.append(WalRecord.encodeBatch(1, batch)));
+            writer.sync(writer.append(WalRecord.encodeBatch(4, batch)));
+        }
+        List<WalRecord> records = new ArrayList<>();
+        new WalReader(file).replay(records::add);
+        assertEquals(2, records.size());
+        assertEquals(4, records.get(1).getSequence());
+        assertEquals(3, records.get(1).getCommands().size());
+        assertTrue(records.get(1).getCommands().get(1) instanceof RmCommand);
+        assertEquals("", ConvertUtil.toString(((SetCommand) records.get(1).getCommands().get(2)).getValue()));
+
+        // 第二个批次只写入了一部分，整个批次都不回放
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(file.length() - 3);
+        }
+        records.clear();
+        new WalReader(file).replay(records::add);
+        assertEquals(1, records.size());
+        assertEquals(3, records.get(0).getCommands().size());
+    }
+}
@@ -0,0 +1,169 @@
+package com.xiaohansong.kvstore.service;
+
+import com.xiaohansong.kvstore.model.wal.WalSyncPolicy;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AsyncKvStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private StoreOptions options(WalSyncPolicy syncPolicy) {
+        return StoreOptions.builder()
+                .dataDir(folder.getRoot().getAbsolutePath() + File.separator)
+                .storeThreshold(500)
+                .partSize(8)
+                .walSyncPolicy(syncPolicy)
+                .walGroupCommitMicros(2000)
+                .jmxEnabled(false)
+                .build();
+    }
+
+    @Test
+    public void groupCommit() throws Exception {
+        AsyncKvStore kvStore = new AsyncKvStore(new LsmKvStore(options(WalSyncPolicy.GROUP_COMMIT)), 2);
+        int threads = Thread.activeCount();
+        // 大量同时等待持久化的写入不占用线程
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            futures.add(kvStore.set("key" + i, "value" + i));
+        }
+        assertTrue(Thread.activeCount() < threads + 10);
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        // 写入返回时已经在内存表中，不需要等待持久化就可以读到
+        assertEquals("value1", kvStore.getStore().get("key1"));
+
+        kvStore.rm("key3").join();
+        kvStore.write(new WriteBatch().set("batch", "v").rm("key4")).join();
+        assertEquals("value10", kvStore.get("key10").join());
+        assertNull(kvStore.get("key3").join());
+        assertNull(kvStore.get("key4").join());
+        Map<String, String> values = kvStore.multiGet(Arrays.asList("key5", "key3", "batch")).join();
+        assertEquals(2, values.size());
+        assertEquals("v", values.get("batch"));
+        kvStore.close();
+
+        kvStore = new AsyncKvStore(new LsmKvStore(options(WalSyncPolicy.GROUP_COMMIT)), 2);
+        for (int i = 0; i < 5000; i++) {
+            if (i == 3 || i == 4) {
+                assertNull(kvStore.get("key" + i).join());
+            } else {
+                assertEquals("value" + i, kvStore.get("key" + i).join());
+            }
+        }
+        kvStore.close();
+    }
+
+    @Test
+    public void syncPolicy() throws Exception {
+        // SYNC 策略下没有同步等待的线程，由WAL的后台线程写入并完成 future
+        AsyncKvStore kvStore = new AsyncKvStore(new LsmKvStore(options(WalSyncPolicy.SYNC)), 2);
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            futures.add(kvStore.set("key" + i, "value" + i));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        for (CompletableFuture<Void> future : futures) {
+            assertFalse(future.isCompletedExceptionally());
+        }
+        kvStore.close();
+
+        kvStore = new AsyncKvStore(new LsmKvStore(options(WalSyncPolicy.SYNC)), 2);
+        assertEquals("value999", kvStore.get("key999").join());
+        kvStore.close();
+    }
+
+    @Test(timeout = 30000)
+    public void noBlockingOnFlush() throws Exception {
+        // 持久化线程被阻塞，不可变内存表很快达到上限，之后写满内存表的写入需要等待持久化
+        CountDownLatch flushBlocked = new CountDownLatch(1);
+        ExecutorService flushExecutor = Executors.newSingleThreadExecutor();
+        flushExecutor.execute(() -> {
+            try {
+                flushBlocked.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        StoreOptions options = StoreOptions.builder()
+                .dataDir(folder.getRoot().getAbsolutePath() + File.separator)
+                .storeThreshold(10)
+                .partSize(8)
+                .maxImmutableMemTables(1)
+                .flushExecutor(flushExecutor)
+                .build();
+        AsyncKvStore kvStore = new AsyncKvStore(new LsmKvStore(options), 2);
+        List<CompletableFuture<Void>> futures = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> callers = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            int threadId = t;
+            callers.add(new Thread(() -> {
+                // 每个批次都会写满内存表
+                for (int round = 0; round < 5; round++) {
+                    WriteBatch batch = new WriteBatch();
+                    for (int i = 0; i < 11; i++) {
+                        batch.set(threadId + "_" + i, "value" + round + "_" + i);
+                    }
+                    futures.add(kvStore.write(batch));
+                }
+            }));
+        }
+        callers.forEach(Thread::start);
+        // 等待持久化的切换在I/O线程池中执行，调用线程全部返回
+        for (Thread caller : callers) {
+            caller.join(5000);
+            assertFalse(caller.isAlive());
+        }
+        flushBlocked.countDown();
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        for (int t = 0; t < 8; t++) {
+            assertEquals("value4_10", kvStore.get(t + "_10").join());
+        }
+        kvStore.close();
+        flushExecutor.shutdown();
+    }
+
+    @Test
+    public void sharded() throws Exception {
+        ShardedStoreOptions options = ShardedStoreOptions.builder()
+                .dataDir(folder.getRoot().getAbsolutePath() + File.separator)
+                .shardCount(3)
+                .storeOptions(options(WalSyncPolicy.GROUP_COMMIT))
+                .build();
+        AsyncKvStore kvStore = new AsyncKvStore(new ShardedKvStore(options), 2);
+        WriteBatch batch = new WriteBatch();
+        for (int i = 0; i < 100; i++) {
+            batch.set("key" + i, "value" + i);
+        }
+        CompletableFuture<Void> written = kvStore.write(batch);
+        batch.clear();
+        written.join();
+        List<byte[]> keys = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            keys.add(("key" + i).getBytes());
+        }
+        List<byte[]> values = kvStore.multiGet(keys).join();
+        for (int i = 0; i < 100; i++) {
+            assertEquals("value" + i, new String(values.get(i)));
+        }
+        kvStore.close();
+    }
+}
@@ -1,18 +1,48 @@
 package com.xiaohansong.kvstore.service;
 
 
+import com.xiaohansong.kvstore.metrics.StoreStats;
+import com.xiaohansong.kvstore.metrics.StoreStatsMXBean;
+import com.xiaohansong.kvstore.model.iterator.ByteKvIterator;
+import com.xiaohansong.kvstore.model.iterator.KvIterator;
+import com.xiaohansong.kvstore.model.memtable.ArenaMemTable;
+import com.xiaohansong.kvstore.model.memtable.ChunkPool;
+import com.xiaohansong.kvstore.model.wal.WalSyncPolicy;
+import com.xiaohansong.kvstore.utils.JmxUtil;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import java.io.File;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 
 public class LsmKvStoreTest {
 
     private static final String DATA_PATH = "datas/";
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     @Test
     public void set() throws IOException {
         KvStore kvStore = new LsmKvStore(DATA_PATH, 4, 3);
@@ -36,4 +66,716 @@ public class LsmKvStoreTest {
         kvStore.close();
     }
 
-}
\ No newline at end of file
+    @Test
+    public void compaction() throws IOException {
+        String dataDir = folder.getRoot().getAbsolutePath() + File.separator;
+        StoreOptions options = StoreOptions.builder()
+                .dataDir(dataDir)
+                .storeThreshold(50)
+                .partSize(8)
+                .level0CompactionTrigger(2)
+                .levelBaseBytes(4 * 1024)
+                .targetFileSize(1024)
+                .compactionBytesPerSecond(0)
+                .build();
+        KvStore kvStore = new LsmKvStore(options);
+        for (int round = 0; round < 4; round++) {
+            for (int i = 0; i < 500; i++) {
+                kvStore.set("key" + i, "value" + round + "_" + i);
+            }
+        }
+        for (int i = 0; i < 500; i += 3) {
+            kvStore.rm("key" + i);
+        }
+        kvStore.close();
+
+        // 2000 多次写入共持久化了 40 多次，合并之后表的数量明显减少
+        File[] tables = folder.getRoot().listFiles((dir, name) -> name.endsWith(LsmKvStore.TABLE));
+        assertTrue(tables.length < 40);
+
+        kvStore = new LsmKvStore(options);
+        for (int i = 0; i < 500; i++) {
+            if (i % 3 == 0) {
+                assertNull(kvStore.get("key" + i));
+            } else {
+                assertEquals("value3_" + i, kvStore.get("key" + i));
+            }
+        }
+        kvStore.close();
+    }
+
+    @Test
+    public void groupCommit() throws Exception {
+        String dataDir = folder.getRoot().getAbsolutePath() + File.separator;
+        StoreOptions options = StoreOptions.builder()
+                .dataDir(dataDir)
+                .storeThreshold(100000)
+                .partSize(16)
+                .walSyncPolicy(WalSyncPolicy.SYNC)
+                .build();
+        KvStore kvStore = new LsmKvStore(options);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            int threadId = t;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 200; i++) {
+                    kvStore.set(threadId + "_" + i, "value" + i);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        kvStore.close();
+
+        // 数据全部在WAL中，重新打开后从WAL恢复
+        KvStore reopened = new LsmKvStore(options);
+        for (int t = 0; t < 8; t++) {
+            for (int i = 0; i < 200; i++) {
+                assertEquals("value" + i, reopened.get(t + "_" + i));
+            }
+        }
+        reopened.close();
+    }
+
+    @Test
+    public void concurrentReadWrite() throws Exception {
+        String dataDir = folder.getRoot().getAbsolutePath() + File.separator;
+        StoreOptions options = StoreOptions.builder()
+                .dataDir(dataDir)
+                .memTableBytes(16 * 1024)
+                .partSize(8)
+                .level0CompactionTrigger(2)
+                .levelBaseBytes(8 * 1024)
+                .targetFileSize(2 * 1024)
+                .compactionBytesPerSecond(0)
+                .build();
+        KvStore kvStore = new LsmKvStore(options);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        AtomicBoolean writing = new AtomicBoolean(true);
+        List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int threadId = t;
+            writers.add(new Thread(() -> {
+                try {
+                    for (int round = 0; round < 5; round++) {
+                        for (int i = 0; i < 300; i++) {
+                            kvStore.set(threadId + "_" + i, round + "_" + i);
+                        }
+                    }
+                } catch (Throwable t1) {
+                    failure.compareAndSet(null, t1);
+                }
+            }));
+        }
+        List<Thread> readers = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int threadId = t;
+            readers.add(new Thread(() -> {
+                try {
+                    // 持久化和合并过程中读取，已经写入的key不能读不到
+                    while (writing.get()) {
+                        for (int i = 0; i < 300; i++) {
+                            String value = kvStore.get(threadId + "_" + i);
+                            if (value != null) {
+                                assertTrue(value.endsWith("_" + i));
+                            }
+                        }
+                    }
+                } catch (Throwable t1) {
+                    failure.compareAndSet(null, t1);
+                }
+            }));
+        }
+        readers.forEach(Thread::start);
+        writers.forEach(Thread::start);
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        writing.set(false);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertNull(failure.get());
+        for (int t = 0; t < 4; t++) {
+            for (int i = 0; i < 300; i++) {
+                assertEquals("4_" + i, kvStore.get(t + "_" + i));
+            }
+        }
+        kvStore.close();
+    }
+
+    @Test
+    public void readDuringOverwrite() throws Exception {
+        String dataDir = folder.getRoot().getAbsolutePath() + File.separator;
+        StoreOptions options = StoreOptions.builder()
+                .dataDir(dataDir)
+                .memTableBytes(8 * 1024)
+                .partSize(8)
+                .level0CompactionTrigger(2)
+                .levelBaseBytes(8 * 1024)
+                .targetFileSize(2 * 1024)
+                .compactionBytesPerSecond(0)
+                .build();
+        LsmKvStore kvStore = new LsmKvStore(options);
+        List<byte[]> keys = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            kvStore.set("key" + i, "value0_" + i);
+            keys.add(("key" + i).getBytes());
+        }
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        AtomicBoolean writing = new AtomicBoolean(true);
+        // 不断覆盖同样的key，触发持久化和合并丢弃旧版本
+        Thread writer = new Thread(() -> {
+            try {
+                for (int round = 1; round < 30; round++) {
+                    for (int i = 0; i < 200; i++) {
+                        kvStore.set("key" + i, "value" + round + "_" + i);
+                    }
+                }
+            } catch (Throwable t) {
+                failure.compareAndSet(null, t);
+            }
+        });
+        List<Thread> readers = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            readers.add(new Thread(() -> {
+                try {
+                    // 查询开始后被覆盖的旧版本不能在查询结束前被丢弃，key始终存在
+                    while (writing.get()) {
+                        for (int i = 0; i < 200; i++) {
+                            assertTrue(kvStore.get("key" + i).endsWith("_" + i));
+                        }
+                        for (byte[] value : kvStore.multiGet(keys)) {
+                            assertTrue(value != null);
+                        }
+                    }
+                } catch (Throwable t1) {
+                    failure.compareAndSet(null, t1);
+                }
+            }));
+        }
+        readers.forEach(Thread::start);
+        writer.start();
+        writer.join();
+        writing.set(false);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertNull(failure.get());
+        assertEquals("value29_7", kvStore.get("key7"));
+        kvStore.close();
+    }
+
+    @Test
+    public void scan() throws IOException {
+        String dataDir = folder.getRoot().getAbsolutePath() + File.separator;
+        StoreOptions options = StoreOptions.builder()
+                .dataDir(dataDir)
+                .storeThreshold(40)
+                .partSize(8)
+                .level0CompactionTrigger(2)
+                .levelBaseBytes(2 * 1024)
+                .targetFileSize(512)
+                .compactionBytesPerSecond(0)
+                .build();
+        KvStore kvStore = new LsmKvStore(options);
+        TreeMap<String, String> expected = new TreeMap<>();
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 300; i += round + 1) {
+                String key = String.format("%s%03d", i % 2 == 0 ? "a" : "b", i);
+                kvStore.set(key, round + "_" + i);
+                expected.put(key, round + "_" + i);
+            }
+        }
+        for (int i = 0; i < 300; i += 7) {
+            String key = String.format("%s%03d", i % 2 == 0 ? "a" : "b", i);
+            kvStore.rm(key);
+            expected.remove(key);
+        }
+
+        assertEquals(expected, toMap(kvStore.scan((String) null, null)));
+        assertEquals(expected.subMap("a100", "b050"), toMap(kvStore.scan("a100", "b050")));
+        assertEquals(expected.subMap("b", "c"), toMap(kvStore.prefixScan("b")));
+        assertEquals(expected.subMap("a05", "a06"), toMap(kvStore.prefixScan("a05")));
+        assertTrue(toMap(kvStore.scan("c", null)).isEmpty());
+        kvStore.close();
+    }
+
+    @Test
+    public void writeBatch() throws IOException {
+        String dataDir = folder.getRoot().getAbsolutePath() + File.separator;
+        StoreOptions options = StoreOptions.builder()
+                .dataDir(dataDir)
+                .storeThreshold(100)
+                .partSize(8)
+                .build();
+        KvStore kvStore = new LsmKvStore(options);
+        kvStore.set("key0", "old");
+        WriteBatch batch = new WriteBatch();
+        for (int i = 0; i < 250; i++) {
+            batch.set("key" + i, "value" + i);
+        }
+        batch.rm("key1").set("key2", "new");
+        kvStore.write(batch);
+        kvStore.close();
+
+        kvStore = new LsmKvStore(options);
+        assertEquals("value0", kvStore.get("key0"));
+        assertNull(kvStore.get("key1"));
+        assertEquals("new", kvStore.get("key2"));
+        assertEquals("value249", kvStore.get("key249"));
+        kvStore.close();
+    }
+
+    @Test
+    public void binaryKeys() throws IOException {
+        String dataDir = folder.getRoot().getAbsolutePath() + File.separator;
+        StoreOptions options = StoreOptions.builder()
+                .dataDir(dataDir)
+                .storeThreshold(50)
+                .partSize(8)
+                .build();
+        KvStore kvStore = new LsmKvStore(options);
+        // 高位为1的字节按无符号比较排在后面
+        for (int i = 0; i < 256; i++) {
+            kvStore.set(new byte[]{(byte) i, 0}, new byte[]{0, (byte) i, (byte) 0xFF});
+        }
+        kvStore.rm(new byte[]{(byte) 0x80, 0});
+        kvStore.close();
+
+        kvStore = new LsmKvStore(options);
+        assertArrayEquals(new byte[]{0, (byte) 0xFE, (byte) 0xFF}, kvStore.get(new byte[]{(byte) 0xFE, 0}));
+        assertNull(kvStore.get(new byte[]{(byte) 0x80, 0}));
+        List<Integer> keys = new ArrayList<>();
+        try (ByteKvIterator iterator = kvStore.scan(new byte[]{(byte) 0x7F}, null)) {
+            while (iterator.hasNext()) {
+                keys.add(iterator.next().getKey()[0] & 0xFF);
+            }
+        }
+        assertEquals(128, keys.size());
+        assertEquals(127, (int) keys.get(0));
+        assertEquals(129, (int) keys.get(1));
+        assertEquals(255, (int) keys.get(keys.size() - 1));
+        try (ByteKvIterator iterator = kvStore.prefixScan(new byte[]{(byte) 0xFF})) {
+            assertArrayEquals(new byte[]{(byte) 0xFF, 0}, iterator.next().getKey());
+            assertFalse(iterator.hasNext());
+        }
+        kvStore.close();
+    }
+
+    @Test
+    public void arenaMemTable() throws IOException {
+        String dataDir = folder.getRoot().getAbsolutePath() + File.separator;
+        ChunkPool pool = new ChunkPool(16 * 1024, 8);
+        StoreOptions options = StoreOptions.builder()
+                .dataDir(dataDir)
+                .memTableBytes(32 * 1024)
+                .memTableFactory(() -> new ArenaMemTable(pool))
+                .partSize(8)
+                .build();
+        KvStore kvStore = new LsmKvStore(options);
+        for (int i = 0; i < 2000; i++) {
+            kvStore.set("key" + i, "value" + i);
+        }
+        // 持久化完成的内存表归还了内存块
+        assertTrue(pool.getReuseCount() > 0);
+        assertEquals("value1999", kvStore.get("key1999"));
+        assertEquals(2000, toMap(kvStore.scan((String) null, null)).size());
+        kvStore.close();
+
+        kvStore = new LsmKvStore(options);
+        assertEquals("value0", kvStore.get("key0"));
+        assertEquals("value1999", kvStore.get("key1999"));
+        kvStore.close();
+    }
+
+    @Test
+    public void writeStall() throws IOException {
+        String dataDir = folder.getRoot().getAbsolutePath() + File.separator;
+        StoreOptions options = StoreOptions.builder()
+                .dataDir(dataDir)
+                .storeThreshold(50)
+                .partSize(8)
+                .maxImmutableMemTables(3)
+                .level0CompactionTrigger(2)
+                .level0SlowdownWritesTrigger(2)
+                .level0StopWritesTrigger(4)
+                .delayedWriteBytesPerSecond(1024 * 1024)
+                .compactionBytesPerSecond(0)
+                .build();
+        LsmKvStore kvStore = new LsmKvStore(options);
+        for (int i = 0; i < 2000; i++) {
+            kvStore.set("key" + i, "value" + i);
+        }
+        // 第0层的表达到软限制后写入被限速
+        assertTrue(kvStore.getWriteController().getDelayedCount() > 0);
+        for (int i = 0; i < 2000; i++) {
+            assertEquals("value" + i, kvStore.get("key" + i));
+        }
+        assertEquals(2000, toMap(kvStore.scan((String) null, null)).size());
+        kvStore.close();
+
+        kvStore = new LsmKvStore(options);
+        assertEquals("value0", kvStore.get("key0"));
+        assertEquals("value1999", kvStore.get("key1999"));
+        kvStore.close();
+    }
+
+    @Test
+    public void splitFlush() throws IOException {
+        String dataDir = folder.getRoot().getAbsolutePath() + File.separator;
+        StoreOptions options = StoreOptions.builder()
+                .dataDir(dataDir)
+                .memTableBytes(256 * 1024)
+                .partSize(16)
+                .flushTargetFileSize(16 * 1024)
+                .level0CompactionTrigger(100)
+                .build();
+        KvStore kvStore = new LsmKvStore(options);
+        for (int i = 0; i < 3000; i++) {
+            kvStore.set(String.format("key%05d", i), "value" + i);
+        }
+        kvStore.close();
+
+        // 一次持久化生成了多个表
+        File[] tables = folder.getRoot().listFiles((dir, name) -> name.endsWith(LsmKvStore.TABLE));
+        assertTrue(tables.length > 1);
+        kvStore = new LsmKvStore(options);
+        for (int i = 0; i < 3000; i++) {
+            assertEquals("value" + i, kvStore.get(String.format("key%05d", i)));
+        }
+        kvStore.close();
+    }
+
+    @Test
+    public void valueLog() throws IOException {
+        String dataDir = folder.getRoot().getAbsolutePath() + File.separator;
+        StoreOptions options = StoreOptions.builder()
+                .dataDir(dataDir)
+                .memTableBytes(64 * 1024)
+                .partSize(8)
+                .valueLogThreshold(1024)
+                .valueLogGcRatio(0.5)
+                .level0CompactionTrigger(100)
+                .build();
+        LsmKvStore kvStore = new LsmKvStore(options);
+        for (int i = 0; i < 200; i++) {
+            kvStore.set("key" + i, largeValue(i, 0));
+            kvStore.set("small" + i, "value" + i);
+        }
+        kvStore.close();
+        // 大的值写入了值日志，ssTable中只有值的位置
+        File[] valueLogs = folder.getRoot().listFiles((dir, name) -> name.endsWith(LsmKvStore.VLOG));
+        assertTrue(valueLogs.length > 0);
+
+        kvStore = new LsmKvStore(options);
+        for (int i = 0; i < 200; i++) {
+            assertEquals(largeValue(i, 0), kvStore.get("key" + i));
+            assertEquals("value" + i, kvStore.get("small" + i));
+        }
+        Map<String, String> scanned = toMap(kvStore.scan("key", "key~"));
+        assertEquals(200, scanned.size());
+        assertEquals(largeValue(42, 0), scanned.get("key42"));
+
+        // 覆盖大部分值后回收：有效的值写回数据库，旧文件删除
+        Snapshot snapshot = kvStore.snapshot();
+        for (int i = 0; i < 200; i++) {
+            if (i % 4 != 0) {
+                kvStore.set("key" + i, largeValue(i, 1));
+            }
+        }
+        // 快照仍然可能读取被覆盖的值，不能回收
+        assertEquals(0, kvStore.garbageCollectValueLog());
+        snapshot.close();
+        assertTrue(kvStore.garbageCollectValueLog() > 0);
+        for (File valueLog : valueLogs) {
+            assertFalse(valueLog.exists());
+        }
+        for (int i = 0; i < 200; i++) {
+            assertEquals(largeValue(i, i % 4 != 0 ? 1 : 0), kvStore.get("key" + i));
+        }
+        kvStore.close();
+
+        kvStore = new LsmKvStore(options);
+        for (int i = 0; i < 200; i++) {
+            assertEquals(largeValue(i, i % 4 != 0 ? 1 : 0), kvStore.get("key" + i));
+            assertEquals("value" + i, kvStore.get("small" + i));
+        }
+        kvStore.close();
+    }
+
+    @Test
+    public void multiGet() throws IOException {
+        String dataDir = folder.getRoot().getAbsolutePath() + File.separator;
+        StoreOptions options = StoreOptions.builder()
+                .dataDir(dataDir)
+                .storeThreshold(50)
+                .partSize(8)
+                .level0CompactionTrigger(2)
+                .levelBaseBytes(4 * 1024)
+                .targetFileSize(1024)
+                .compactionBytesPerSecond(0)
+                .valueLogThreshold(1024)
+                .build();
+        LsmKvStore kvStore = new LsmKvStore(options);
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 500; i++) {
+                kvStore.set("key" + i, i % 50 == 0 ? largeValue(i, round) : "value" + round + "_" + i);
+            }
+        }
+        for (int i = 0; i < 500; i += 7) {
+            kvStore.rm("key" + i);
+        }
+        // 一部分数据还在内存表中
+        for (int i = 1; i < 500; i += 5) {
+            kvStore.set("key" + i, "memory" + i);
+        }
+
+        List<String> keys = new ArrayList<>();
+        for (int i = 520; i >= 0; i -= 3) {
+            keys.add("key" + i);
+        }
+        keys.add("key31");
+        keys.add("missing");
+        Map<String, String> values = kvStore.multiGet(keys);
+        for (String key : keys) {
+            assertEquals(kvStore.get(key), values.get(key));
+        }
+        assertEquals("memory31", values.get("key31"));
+        assertEquals(largeValue(100, 2), values.get("key100"));
+        assertFalse(values.containsKey("key28"));
+        assertFalse(values.containsKey("missing"));
+
+        List<byte[]> byteKeys = new ArrayList<>();
+        byteKeys.add("key3".getBytes());
+        byteKeys.add("key1".getBytes());
+        byteKeys.add("key3".getBytes());
+        List<byte[]> byteValues = kvStore.multiGet(byteKeys);
+        assertEquals(3, byteValues.size());
+        assertEquals("value2_3", new String(byteValues.get(0)));
+        assertEquals("memory1", new String(byteValues.get(1)));
+        assertArrayEquals(byteValues.get(0), byteValues.get(2));
+        assertEquals(2, kvStore.getStats().getMultiGetLatency().getCount());
+        kvStore.close();
+    }
+
+    @Test(timeout = 10000)
+    public void useAfterClose() throws IOException {
+        String dataDir = folder.getRoot().getAbsolutePath() + File.separator;
+        StoreOptions options = StoreOptions.builder()
+                .dataDir(dataDir)
+                .storeThreshold(10)
+                .partSize(4)
+                .build();
+        LsmKvStore kvStore = new LsmKvStore(options);
+        for (int i = 0; i < 50; i++) {
+            kvStore.set("key" + i, "value" + i);
+        }
+        Snapshot snapshot = kvStore.snapshot();
+        kvStore.close();
+        // 关闭后的读写立即失败，不会一直等待已经释放的版本
+        assertClosed(() -> kvStore.get("key1"));
+        assertClosed(() -> kvStore.multiGet(Collections.singletonList("key1")));
+        assertClosed(() -> kvStore.scan("key", null));
+        assertClosed(kvStore::snapshot);
+        assertClosed(() -> kvStore.set("key1", "value"));
+        assertClosed(() -> snapshot.get("key1"));
+        snapshot.close();
+    }
+
+    @Test
+    public void closeTwice() throws IOException {
+        String dataDir = folder.getRoot().getAbsolutePath() + File.separator;
+        StoreOptions options = StoreOptions.builder()
+                .dataDir(dataDir)
+                .storeThreshold(1000)
+                .partSize(16)
+                .build();
+        LsmKvStore kvStore = new LsmKvStore(options);
+        // 每个表都超过一次预读的大小，遍历时需要继续读取表文件
+        Random random = new Random(42);
+        String[] values = new String[3000];
+        for (int i = 0; i < values.length; i++) {
+            StringBuilder value = new StringBuilder();
+            while (value.length() < 200) {
+                value.append(Long.toString(random.nextLong(), 36));
+            }
+            values[i] = value.toString();
+            kvStore.set(String.format("key%04d", i), values[i]);
+        }
+        // 关闭前打开的迭代器持有版本的引用，重复关闭不能再次释放数据库持有的引用
+        KvIterator iterator = kvStore.scan((String) null, null);
+        kvStore.close();
+        kvStore.close();
+        Map<String, String> scanned = toMap(iterator);
+        assertEquals(3000, scanned.size());
+        assertEquals(values[2999], scanned.get("key2999"));
+
+        kvStore = new LsmKvStore(options);
+        assertEquals(values[7], kvStore.get("key0007"));
+        kvStore.close();
+    }
+
+    private static void assertClosed(Runnable operation) {
+        try {
+            operation.run();
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("数据库已关闭", e.getMessage());
+        }
+    }
+
+    private static String largeValue(int i, int round) {
+        StringBuilder builder = new StringBuilder();
+        while (builder.length() < 2000) {
+            builder.append(round).append('_').append(i).append(';');
+        }
+        return builder.toString();
+    }
+
+    @Test
+    public void stats() throws Exception {
+        String dataDir = folder.getRoot().getAbsolutePath() + File.separator;
+        StoreOptions options = StoreOptions.builder()
+                .dataDir(dataDir)
+                .storeThreshold(100)
+                .partSize(8)
+                .walSyncPolicy(WalSyncPolicy.SYNC)
+                .jmxEnabled(true)
+                .build();
+        LsmKvStore kvStore = new LsmKvStore(options);
+        for (int i = 0; i < 500; i++) {
+            kvStore.set("key" + i, "value" + i);
+        }
+        kvStore.rm("key0");
+        for (int i = 0; i < 500; i++) {
+            kvStore.get("key" + i);
+        }
+        StoreStats stats = kvStore.getStats();
+        assertEquals(500, stats.getSetLatency().getCount());
+        assertEquals(1, stats.getRmLatency().getCount());
+        assertEquals(500, stats.getGetLatency().getCount());
+        assertEquals(500, stats.getTablesPerGet().getCount());
+        assertTrue(stats.getTablesPerGet().getMax() > 0);
+        assertTrue(stats.getWalSyncLatency().getCount() > 0);
+        assertTrue(stats.getWalBytesWritten() > 0);
+        assertTrue(stats.getFlushLatency().getCount() > 0);
+        assertTrue(stats.getFlushBytes().getSum() > 0);
+        assertTrue(stats.getBytesRead() > 0);
+
+        // 同样的指标通过 JMX 暴露
+        ObjectName name = new ObjectName(JmxUtil.DOMAIN + ":type=LsmKvStore,name=" + ObjectName.quote(dataDir));
+        CompositeData jmxStats = (CompositeData) ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Stats");
+        assertEquals(500L, ((CompositeData) jmxStats.get("setLatency")).get("count"));
+        // 同名的对象不会被替换
+        assertNull(JmxUtil.register("LsmKvStore", dataDir, (StoreStatsMXBean) () -> null, StoreStatsMXBean.class));
+        jmxStats = (CompositeData) ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Stats");
+        assertEquals(500L, ((CompositeData) jmxStats.get("setLatency")).get("count"));
+        kvStore.close();
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+    }
+
+    private static Map<String, String> toMap(KvIterator iterator) {
+        Map<String, String> result = new TreeMap<>();
+        try (KvIterator it = iterator) {
+            while (it.hasNext()) {
+                Map.Entry<String, String> entry = it.next();
+                result.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return result;
+    }
+
+    @Test
+    public void snapshot() throws IOException {
+        String dataDir = folder.getRoot().getAbsolutePath() + File.separator;
+        StoreOptions options = StoreOptions.builder()
+                .dataDir(dataDir)
+                .storeThreshold(50)
+                .partSize(8)
+                .level0CompactionTrigger(2)
+                .levelBaseBytes(4 * 1024)
+                .targetFileSize(1024)
+                .compactionBytesPerSecond(0)
+                .build();
+        KvStore kvStore = new LsmKvStore(options);
+        for (int i = 0; i < 200; i++) {
+            kvStore.set("key" + i, "old" + i);
+        }
+        Snapshot snapshot = kvStore.snapshot();
+        KvIterator iterator = kvStore.scan("key1", "key2");
+        // 覆盖和删除会触发多次持久化和合并，快照仍然能看到旧版本
+        for (int round = 0; round < 4; round++) {
+            for (int i = 0; i < 200; i++) {
+                if (i % 2 == 0) {
+                    kvStore.rm("key" + i);
+                } else {
+                    kvStore.set("key" + i, "new" + round + "_" + i);
+                }
+            }
+        }
+        for (int i = 0; i < 200; i++) {
+            assertEquals("old" + i, snapshot.get("key" + i));
+            assertEquals(i % 2 == 0 ? null : "new3_" + i, kvStore.get("key" + i));
+        }
+
+        // 创建迭代器之后的写入对迭代器不可见
+        int count = 0;
+        while (iterator.hasNext()) {
+            Map.Entry<String, String> entry = iterator.next();
+            assertEquals("old" + entry.getKey().substring(3), entry.getValue());
+            count++;
+        }
+        iterator.close();
+        assertEquals(111, count);
+
+        try (KvIterator prefix = snapshot.prefixScan("key19")) {
+            count = 0;
+            while (prefix.hasNext()) {
+                assertTrue(prefix.next().getValue().startsWith("old19"));
+                count++;
+            }
+            assertEquals(11, count);
+        }
+        snapshot.close();
+        kvStore.close();
+    }
+
+    @Test
+    public void manifest() throws IOException {
+        String dataDir = folder.getRoot().getAbsolutePath() + File.separator;
+        StoreOptions options = StoreOptions.builder()
+                .dataDir(dataDir)
+                .storeThreshold(50)
+                .partSize(8)
+                .level0CompactionTrigger(2)
+                .compactionBytesPerSecond(0)
+                .build();
+        KvStore kvStore = new LsmKvStore(options);
+        for (int i = 0; i < 500; i++) {
+            kvStore.set("key" + i, "value" + i);
+        }
+        kvStore.close();
+        assertTrue(new File(dataDir + LsmKvStore.MANIFEST).isFile());
+
+        // 崩溃时写了一半的表不在 MANIFEST 中，不会被加载，打开时删除
+        File orphan = new File(dataDir + Long.MAX_VALUE + LsmKvStore.TABLE);
+        Files.write(orphan.toPath(), new byte[]{1, 2, 3});
+        kvStore = new LsmKvStore(options);
+        assertFalse(orphan.exists());
+        for (int i = 0; i < 500; i++) {
+            assertEquals("value" + i, kvStore.get("key" + i));
+        }
+        kvStore.set("key0", "new");
+        kvStore.close();
+
+        kvStore = new LsmKvStore(options);
+        assertEquals("new", kvStore.get("key0"));
+        assertEquals("value499", kvStore.get("key499"));
+        kvStore.close();
+    }
+}
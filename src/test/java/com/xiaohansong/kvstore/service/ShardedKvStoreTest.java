@@ -0,0 +1,177 @@
+package com.xiaohansong.kvstore.service;
+
+import com.xiaohansong.kvstore.model.iterator.KvIterator;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ShardedKvStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ShardedStoreOptions options(int shardCount) {
+        return ShardedStoreOptions.builder()
+                .dataDir(folder.getRoot().getAbsolutePath() + File.separator)
+                .shardCount(shardCount)
+                .storeOptions(StoreOptions.builder()
+                        .storeThreshold(100)
+                        .partSize(8)
+                        .level0CompactionTrigger(2)
+                        .levelBaseBytes(4 * 1024)
+                        .targetFileSize(1024)
+                        .compactionBytesPerSecond(0)
+                        .jmxEnabled(false)
+                        .build())
+                .build();
+    }
+
+    @Test
+    public void setAndGet() throws IOException {
+        ShardedKvStore kvStore = new ShardedKvStore(options(4));
+        TreeMap<String, String> expected = new TreeMap<>();
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < 1000; i++) {
+                kvStore.set(String.format("key%04d", i), "value" + round + "_" + i);
+                expected.put(String.format("key%04d", i), "value" + round + "_" + i);
+            }
+        }
+        for (int i = 0; i < 1000; i += 3) {
+            kvStore.rm(String.format("key%04d", i));
+            expected.remove(String.format("key%04d", i));
+        }
+        WriteBatch batch = new WriteBatch().set("batch1", "v1").set("batch2", "v2").rm("key0001");
+        kvStore.write(batch);
+        expected.put("batch1", "v1");
+        expected.put("batch2", "v2");
+        expected.remove("key0001");
+        // 每个分片都有数据
+        for (LsmKvStore shard : kvStore.getShards()) {
+            assertFalse(toMap(shard.scan((String) null, null)).isEmpty());
+        }
+
+        assertEquals(expected, toMap(kvStore.scan((String) null, null)));
+        assertEquals(expected.subMap("key0100", "key0200"), toMap(kvStore.scan("key0100", "key0200")));
+        assertEquals(expected.subMap("batch", "batci"), toMap(kvStore.prefixScan("batch")));
+        List<String> keys = new ArrayList<>();
+        keys.add("key0002");
+        keys.add("key0003");
+        keys.add("batch2");
+        keys.add("missing");
+        Map<String, String> values = kvStore.multiGet(keys);
+        assertEquals(2, values.size());
+        assertEquals("value1_2", values.get("key0002"));
+        assertEquals("v2", values.get("batch2"));
+        kvStore.close();
+
+        kvStore = new ShardedKvStore(options(4));
+        assertEquals(expected, toMap(kvStore.scan((String) null, null)));
+        assertNull(kvStore.get("key0003"));
+        assertEquals("value1_4", kvStore.get("key0004"));
+        kvStore.close();
+
+        // 分片数量不同时key所在的分片不同，不能打开
+        try {
+            new ShardedKvStore(options(2));
+            fail();
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains("分片数量"));
+        }
+    }
+
+    @Test
+    public void dataDirWithoutSeparator() throws IOException {
+        File dataDir = new File(folder.getRoot(), "db");
+        ShardedStoreOptions options = ShardedStoreOptions.builder()
+                .dataDir(dataDir.getAbsolutePath())
+                .shardCount(2)
+                .storeOptions(StoreOptions.builder().partSize(8).build())
+                .build();
+        ShardedKvStore kvStore = new ShardedKvStore(options);
+        kvStore.set("key", "value");
+        kvStore.close();
+        // 分片目录和分片数量都在数据目录中
+        assertTrue(new File(dataDir, ShardedKvStore.SHARDS).isFile());
+        assertTrue(new File(dataDir, ShardedKvStore.SHARD_DIR + "0").isDirectory());
+        assertTrue(new File(dataDir, ShardedKvStore.SHARD_DIR + "1").isDirectory());
+        assertEquals(1, folder.getRoot().list().length);
+
+        kvStore = new ShardedKvStore(options);
+        assertEquals("value", kvStore.get("key"));
+        kvStore.close();
+    }
+
+    @Test
+    public void snapshot() throws IOException {
+        ShardedKvStore kvStore = new ShardedKvStore(options(3));
+        for (int i = 0; i < 100; i++) {
+            kvStore.set("key" + i, "old" + i);
+        }
+        Snapshot snapshot = kvStore.snapshot();
+        for (int i = 0; i < 100; i++) {
+            kvStore.set("key" + i, "new" + i);
+        }
+        try (Snapshot latest = kvStore.snapshot()) {
+            assertTrue(latest.getSequence() > snapshot.getSequence());
+        }
+        assertEquals("old7", snapshot.get("key7"));
+        assertEquals("new7", kvStore.get("key7"));
+        Map<String, String> scanned = toMap(snapshot.scan("key", "key~"));
+        assertEquals(100, scanned.size());
+        assertEquals("old42", scanned.get("key42"));
+        snapshot.close();
+        kvStore.close();
+    }
+
+    @Test
+    public void sharedWriteBuffer() throws IOException {
+        ShardedStoreOptions options = ShardedStoreOptions.builder()
+                .dataDir(folder.getRoot().getAbsolutePath() + File.separator)
+                .shardCount(4)
+                .writeBufferBytes(64 * 1024)
+                .storeOptions(StoreOptions.builder()
+                        .partSize(8)
+                        .memTableBytes(1024 * 1024)
+                        .jmxEnabled(false)
+                        .build())
+                .build();
+        ShardedKvStore kvStore = new ShardedKvStore(options);
+        for (int i = 0; i < 5000; i++) {
+            kvStore.set("key" + i, "value" + i);
+        }
+        for (int i = 0; i < 5000; i++) {
+            assertEquals("value" + i, kvStore.get("key" + i));
+        }
+        kvStore.close();
+        // 单个分片远没有达到 memTableBytes，总量达到预算后提前持久化
+        for (int i = 0; i < 4; i++) {
+            File[] tables = new File(folder.getRoot(), ShardedKvStore.SHARD_DIR + i)
+                    .listFiles((dir, name) -> name.endsWith(LsmKvStore.TABLE));
+            assertTrue(tables.length > 0);
+        }
+    }
+
+    private static Map<String, String> toMap(KvIterator iterator) {
+        Map<String, String> result = new TreeMap<>();
+        try (KvIterator it = iterator) {
+            while (it.hasNext()) {
+                Map.Entry<String, String> entry = it.next();
+                result.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return result;
+    }
+}